@@ -1,48 +1,38 @@
 package com.composum.sling.clientlibs.processor;
 
-import com.composum.sling.clientlibs.service.ClientlibProcessor;
+import com.composum.sling.clientlibs.service.ClientlibStreamProcessor;
 import com.composum.sling.core.util.LinkUtil;
-import org.apache.commons.io.IOUtils;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.io.Writer;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * A simple processor to map URLs embedded in CSS files.
  */
-public class CssUrlMapper implements ClientlibProcessor {
+public class CssUrlMapper implements ClientlibStreamProcessor {
 
     private static final Logger LOG = LoggerFactory.getLogger(CssUrlMapper.class);
 
     public static final Pattern URL_PATTERN = Pattern.compile("(url\\s*\\(\\s*['\"]?)([^'\")]+)([\"']?\\s*\\))");
 
     @Override
-    public InputStream processContent(final InputStream source, final ProcessorContext context)
-            throws IOException {
-        final PipedOutputStream outputStream = new PipedOutputStream();
-        InputStream result = new PipedInputStream(outputStream);
-        context.execute(new Runnable() {
+    public OutputStream processContent(OutputStream target, final ProcessorContext context) {
+        return new TransformingOutputStream(target) {
             @Override
-            public void run() {
-                try (OutputStreamWriter writer = new OutputStreamWriter(outputStream)) {
-                    String css = IOUtils.toString(source, DEFAULT_CHARSET);
-                    map(css, writer, context);
-                    writer.flush();
-                } catch (IOException ex) {
-                    LOG.error(ex.getMessage(), ex);
-                }
+            protected void transform(byte[] content, OutputStream target) throws IOException {
+                Writer writer = new OutputStreamWriter(target, DEFAULT_CHARSET);
+                map(new String(content, DEFAULT_CHARSET), writer, context);
+                writer.flush();
             }
-        });
-        return result;
+        };
     }
 
     public void map(String css, Writer writer, ProcessorContext context) {
@@ -69,7 +59,31 @@ public class CssUrlMapper implements ClientlibProcessor {
         }
     }
 
+    /**
+     * Maps the URLs of the CSS in the visiting thread: the mapping uses the request and its resolver which must
+     * not be used by the threads which process the content concurrently.
+     */
+    @Override
+    public void prepare(byte[] content, ProcessorContext context) {
+        Map<String, String> mappedUrls = context.getMappedUrls();
+        Matcher matcher = URL_PATTERN.matcher(new String(content, DEFAULT_CHARSET));
+        while (matcher.find()) {
+            String url = matcher.group(2);
+            if (!mappedUrls.containsKey(url)) {
+                mappedUrls.put(url, mapUrl(context, url));
+            }
+        }
+    }
+
+    /**
+     * @return the URL mapped during the preparation if present, the URL mapped via the request otherwise
+     */
     public String map(ProcessorContext context, String url) {
+        String mapped = context.getMappedUrls().get(url);
+        return mapped != null ? mapped : mapUrl(context, url);
+    }
+
+    protected String mapUrl(ProcessorContext context, String url) {
         SlingHttpServletRequest request = context.getRequest();
         return context.mapClientlibURLs()
                 ? LinkUtil.getUrl(request, url)
@@ -1,6 +1,7 @@
 package com.composum.sling.clientlibs.processor;
 
 import com.composum.sling.clientlibs.service.ClientlibConfiguration;
+import com.composum.sling.clientlibs.service.ClientlibStreamProcessor;
 import com.composum.sling.core.util.ResourceUtil;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Reference;
@@ -9,6 +10,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * Since there is currently (as of mid-2017) no Java javascript minifier library that works sufficiently well, this does nothing
@@ -19,8 +21,8 @@ import java.io.InputStream;
         description = "Delivers Javascript content bundled.",
         immediate = true
 )
-@Service
-public class DefaultJavascriptProcessor extends AbstractClientlibRenderer implements JavascriptProcessor {
+@Service(JavascriptProcessor.class)
+public class DefaultJavascriptProcessor extends AbstractClientlibRenderer implements JavascriptProcessor, ClientlibStreamProcessor {
 
     private static final Logger LOG = LoggerFactory.getLogger(DefaultJavascriptProcessor.class);
 
@@ -33,8 +35,14 @@ public class DefaultJavascriptProcessor extends AbstractClientlibRenderer implem
     }
 
     @Override
-    public InputStream processContent(final InputStream source, ProcessorContext context) {
+    public OutputStream processContent(OutputStream target, ProcessorContext context) {
         context.hint(ResourceUtil.PROP_MIME_TYPE, "application/javascript");
+        return target;
+    }
+
+    @Override
+    public InputStream processContent(InputStream source, ProcessorContext context) {
+        processContent((OutputStream) null, context); // the content is not changed, only the hints are set
         return source;
     }
 
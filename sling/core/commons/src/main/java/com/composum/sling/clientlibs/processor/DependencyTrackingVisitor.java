@@ -0,0 +1,115 @@
+package com.composum.sling.clientlibs.processor;
+
+import com.composum.sling.clientlibs.handle.ClientlibCategory;
+import com.composum.sling.clientlibs.handle.ClientlibElement;
+import com.composum.sling.clientlibs.handle.ClientlibFile;
+import com.composum.sling.clientlibs.handle.ClientlibLink;
+import com.composum.sling.clientlibs.handle.ClientlibRef;
+import com.composum.sling.clientlibs.handle.ClientlibResourceFolder;
+import com.composum.sling.clientlibs.handle.ClientlibVisitor;
+import com.composum.sling.clientlibs.service.ClientlibService;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.ResourceResolver;
+
+import javax.jcr.RepositoryException;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * An {@link UpdateTimeVisitor} which additionally records all repository paths the hash depends on: the paths of all
+ * visited elements, the candidate paths of all references (also unresolved ones) and the folders of all files (a
+ * minified sibling might appear there), and the categories which have been resolved.
+ */
+public class DependencyTrackingVisitor extends UpdateTimeVisitor {
+
+    protected final Set<String> paths;
+    protected final Set<String> folders;
+    protected final Set<String> categories;
+
+    public DependencyTrackingVisitor(ClientlibElement owner, ClientlibService service, ResourceResolver resolver) {
+        this(owner, service, resolver, null, new HashSet<String>(), new HashSet<String>(), new HashSet<String>());
+    }
+
+    protected DependencyTrackingVisitor(ClientlibElement owner, ClientlibService service, ResourceResolver resolver,
+                                        LinkedHashSet<ClientlibLink> processedElements,
+                                        Set<String> paths, Set<String> folders, Set<String> categories) {
+        super(owner, service, resolver, processedElements);
+        this.paths = paths;
+        this.folders = folders;
+        this.categories = categories;
+    }
+
+    @Override
+    public DependencyTrackingVisitor execute() throws IOException, RepositoryException {
+        super.execute();
+        return this;
+    }
+
+    /** The paths of all elements and references which are relevant for the hash. */
+    public Set<String> getPaths() {
+        return paths;
+    }
+
+    /** The folders of all files - a new child there might be a minified sibling which replaces a file. */
+    public Set<String> getFolders() {
+        return folders;
+    }
+
+    /** The categories resolved during the visit. */
+    public Set<String> getCategories() {
+        return categories;
+    }
+
+    @Override
+    protected ClientlibVisitor createVisitorFor(ClientlibElement element) {
+        return new DependencyTrackingVisitor(element, service, resolver, processedElements,
+                paths, folders, categories);
+    }
+
+    @Override
+    public void visit(ClientlibCategory category, VisitorMode mode, ClientlibResourceFolder parent)
+            throws IOException, RepositoryException {
+        categories.add(category.category);
+        super.visit(category, mode, parent);
+    }
+
+    @Override
+    public void visit(ClientlibFile file, VisitorMode mode, ClientlibResourceFolder parent)
+            throws RepositoryException, IOException {
+        String path = file.handle.getPath();
+        paths.add(path);
+        folders.add(StringUtils.substringBeforeLast(path, "/"));
+        super.visit(file, mode, parent);
+    }
+
+    @Override
+    protected void resolveAndAccept(ClientlibRef ref, VisitorMode mode, ClientlibResourceFolder folder)
+            throws IOException, RepositoryException {
+        if (ref.isCategory()) {
+            categories.add(ref.category);
+        } else if (null != ref.path) {
+            if (ref.path.startsWith("/")) {
+                addReference(ref.path);
+            } else {
+                for (String searchPath : resolver.getSearchPath()) {
+                    addReference(searchPath + ref.path);
+                }
+            }
+        }
+        super.resolveAndAccept(ref, mode, folder);
+    }
+
+    protected void addReference(String path) {
+        paths.add(path);
+        folders.add(StringUtils.substringBeforeLast(path, "/"));
+    }
+
+    @Override
+    protected void updateHash(String path, Calendar updatetime) {
+        paths.add(path);
+        super.updateHash(path, updatetime);
+    }
+}
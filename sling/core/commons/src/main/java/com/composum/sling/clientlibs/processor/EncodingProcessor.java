@@ -0,0 +1,13 @@
+package com.composum.sling.clientlibs.processor;
+
+import com.composum.sling.clientlibs.service.ClientlibStreamProcessor;
+
+/**
+ * An additional content encoding (e.g. 'br') for the cached clientlibs. All registered encodings are generated
+ * together with the identity and the gzip variant from the same rendered content.
+ */
+public interface EncodingProcessor extends ClientlibStreamProcessor {
+
+    /** @return the content coding token as used in the Accept-Encoding and Content-Encoding headers */
+    String getEncoding();
+}
@@ -0,0 +1,62 @@
+package com.composum.sling.clientlibs.processor;
+
+import com.composum.sling.clientlibs.service.ClientlibProcessor;
+import com.composum.sling.clientlibs.service.ClientlibStreamProcessor;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Adapts a pull based {@link ClientlibProcessor} (e.g. a third party processor which uses piped streams) to the
+ * {@link ClientlibStreamProcessor} contract so that it can be part of a synchronously composed
+ * {@link ProcessorPipeline}.
+ */
+public class PipedProcessorAdapter implements ClientlibStreamProcessor {
+
+    protected final ClientlibProcessor processor;
+
+    public PipedProcessorAdapter(ClientlibProcessor processor) {
+        this.processor = processor;
+    }
+
+    /** Returns the processor itself if it is a stream processor already, otherwise an adapter for it. */
+    public static ClientlibStreamProcessor adapt(ClientlibProcessor processor) {
+        if (processor == null) {
+            return null;
+        }
+        return processor instanceof ClientlibStreamProcessor
+                ? (ClientlibStreamProcessor) processor
+                : new PipedProcessorAdapter(processor);
+    }
+
+    @Override
+    public OutputStream processContent(OutputStream target, final ProcessorContext context) {
+        return new TransformingOutputStream(target) {
+            @Override
+            protected void transform(byte[] content, OutputStream target) throws IOException {
+                InputStream result = processor.processContent(new ByteArrayInputStream(content), context);
+                if (result != null) {
+                    try {
+                        IOUtils.copy(result, target);
+                    } finally {
+                        result.close();
+                    }
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream processContent(InputStream sourceStream, ProcessorContext context)
+            throws IOException {
+        return processor.processContent(sourceStream, context);
+    }
+
+    @Override
+    public String toString() {
+        return "PipedProcessorAdapter{" + processor + "}";
+    }
+}
@@ -9,21 +9,34 @@ import com.composum.sling.clientlibs.handle.ClientlibVisitor;
 import com.composum.sling.clientlibs.handle.FileHandle;
 import com.composum.sling.clientlibs.service.ClientlibProcessor;
 import com.composum.sling.clientlibs.service.ClientlibService;
+import com.composum.sling.clientlibs.service.ClientlibStreamProcessor;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.slf4j.Logger;
 
+import javax.jcr.RepositoryException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.LinkedHashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import static com.composum.sling.clientlibs.handle.ClientlibVisitor.VisitorMode.EMBEDDED;
 import static org.slf4j.LoggerFactory.getLogger;
 
 /**
- * Appends all embedded files to an input stream.
+ * Appends all embedded files to an input stream. With a parallelism greater than 1 the embedded files are read
+ * (and the processors are prepared) in the visiting thread but processed concurrently by the executor of the {@link ProcessorContext}; the results are
+ * appended in the original order and at most 'parallelism' processed files are held in memory.
  */
 public class ProcessingVisitor extends AbstractClientlibVisitor {
 
@@ -31,7 +44,13 @@ public class ProcessingVisitor extends AbstractClientlibVisitor {
 
     protected final OutputStream output;
     protected final ClientlibProcessor processor;
+    /** The processor as synchronous stream transformation; null if no processor is given. */
+    protected final ClientlibStreamProcessor streamProcessor;
     protected final ProcessorContext context;
+    /** The maximum number of files processed concurrently; sequential processing if not greater than 1. */
+    protected final int parallelism;
+    /** The results of the files in processing in the order of the embedding. */
+    protected final Deque<Future<byte[]>> pending = new ArrayDeque<>();
 
     /**
      * Instantiates a new Processing visitor.
@@ -43,10 +62,37 @@ public class ProcessingVisitor extends AbstractClientlibVisitor {
      */
     public ProcessingVisitor(ClientlibElement owner, ClientlibService service, OutputStream output,
                              ClientlibProcessor processor, ProcessorContext context) {
+        this(owner, service, output, processor, context, 1);
+    }
+
+    /**
+     * Instantiates a new Processing visitor which processes up to 'parallelism' files concurrently.
+     *
+     * @param parallelism the maximum number of files processed concurrently; the processors have to be thread safe
+     *                    if greater than 1
+     */
+    public ProcessingVisitor(ClientlibElement owner, ClientlibService service, OutputStream output,
+                             ClientlibProcessor processor, ProcessorContext context, int parallelism) {
         super(owner, service, context.getResolver(), null);
         this.output = output;
         this.processor = processor;
+        this.streamProcessor = PipedProcessorAdapter.adapt(processor);
         this.context = context;
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    public ClientlibVisitor execute() throws IOException, RepositoryException {
+        try {
+            super.execute();
+            writePending(0);
+        } finally {
+            for (Future<byte[]> future : pending) {
+                future.cancel(true);
+            }
+            pending.clear();
+        }
+        return this;
     }
 
     @Override
@@ -68,10 +114,31 @@ public class ProcessingVisitor extends AbstractClientlibVisitor {
         InputStream content = file.getStream();
         if (content != null) {
             try {
-                if (processor != null) {
-                    content = processor.processContent(content, context);
+                if (parallelism > 1) {
+                    // the resolver is not thread safe - the content is read and everything which needs the
+                    // request (e.g. the URL mapping) is resolved here, the content is processed by the executor
+                    final byte[] source = IOUtils.toByteArray(content);
+                    if (streamProcessor != null) {
+                        streamProcessor.prepare(source, context);
+                    }
+                    final ClientlibFile processed = clientlibFile;
+                    pending.add(context.submit(new Callable<byte[]>() {
+                        @Override
+                        public byte[] call() throws IOException {
+                            long begin = System.currentTimeMillis();
+                            ByteArrayOutputStream buffer = new ByteArrayOutputStream(source.length + 2);
+                            process(new ByteArrayInputStream(source), buffer);
+                            buffer.write('\n');
+                            buffer.write('\n');
+                            logProcessingTime(processed, begin);
+                            return buffer.toByteArray();
+                        }
+                    }));
+                    writePending(parallelism);
+                    return;
                 }
-                IOUtils.copy(content, output);
+                // the shield keeps the bundle output open when the processing chain of the file is closed
+                process(content, new CloseShieldOutputStream(output));
                 output.write('\n');
                 output.write('\n');
                 output.flush();
@@ -81,6 +148,39 @@ public class ProcessingVisitor extends AbstractClientlibVisitor {
         } else {
             logNotAvailable(resource, "[content]", parent.getOptional());
         }
+        logProcessingTime(clientlibFile, begin);
+    }
+
+    /** Writes the content through the processor (if any) into the target and closes the target. */
+    protected void process(InputStream content, OutputStream target) throws IOException {
+        if (streamProcessor != null) {
+            target = streamProcessor.processContent(target, context);
+        }
+        try {
+            IOUtils.copy(content, target);
+        } finally {
+            target.close();
+        }
+    }
+
+    /** Appends the processed files in their order until not more than 'maxPending' files are in processing. */
+    protected void writePending(int maxPending) throws IOException {
+        while (pending.size() > maxPending) {
+            Future<byte[]> next = pending.removeFirst();
+            try {
+                output.write(next.get());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while processing " + owner);
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+        }
+        output.flush();
+    }
+
+    protected void logProcessingTime(ClientlibFile clientlibFile, long begin) {
         float time = 0.001f * (System.currentTimeMillis() - begin);
         LOG.trace("Processed {} in {} s", clientlibFile, time);
         if (time > 0.1) { LOG.info("Large processing time: {} in {} s", clientlibFile, time); }
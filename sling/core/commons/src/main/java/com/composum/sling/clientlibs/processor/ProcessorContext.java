@@ -7,6 +7,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 
@@ -24,6 +25,8 @@ public class ProcessorContext {
     protected final ResourceResolver resolver;
     protected final ExecutorService executorService;
     protected final Map<String, Object> hints = Collections.synchronizedMap(new HashMap<>());
+    /** the URLs mapped in the visiting thread for the processing in other threads */
+    protected final Map<String, String> mappedUrls = new ConcurrentHashMap<>();
     protected final boolean mapClientlibURLs;
     protected final boolean useMinifiedFiles;
 
@@ -74,4 +77,8 @@ public class ProcessorContext {
         return hints;
     }
 
+    public Map<String, String> getMappedUrls() {
+        return mappedUrls;
+    }
+
 }
@@ -1,15 +1,20 @@
 package com.composum.sling.clientlibs.processor;
 
 import com.composum.sling.clientlibs.service.ClientlibProcessor;
+import com.composum.sling.clientlibs.service.ClientlibStreamProcessor;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
-public class ProcessorPipeline implements ClientlibProcessor {
+/**
+ * Chains processors synchronously: the output of each processor is written directly to the stream of the following
+ * processor, all within the writing thread. Pull based processors are integrated via {@link PipedProcessorAdapter}.
+ */
+public class ProcessorPipeline implements ClientlibStreamProcessor {
 
-    protected List<ClientlibProcessor> processors;
+    protected List<ClientlibStreamProcessor> processors;
 
     public ProcessorPipeline(ClientlibProcessor... processors) {
         this.processors = new ArrayList<>();
@@ -20,7 +25,7 @@ public class ProcessorPipeline implements ClientlibProcessor {
 
     public void addProcessor(ClientlibProcessor processor) {
         if (processor != null) {
-            processors.add(processor);
+            processors.add(PipedProcessorAdapter.adapt(processor));
         }
     }
 
@@ -28,19 +33,35 @@ public class ProcessorPipeline implements ClientlibProcessor {
         if (processor != null) {
             if (index < 0) index = 0;
             if (index > processors.size()) index = processors.size();
-            processors.add(index, processor);
+            processors.add(index, PipedProcessorAdapter.adapt(processor));
         }
     }
 
+    /**
+     * Wraps the target with the processors in reverse order so that the first processor receives the written
+     * content and the last one writes to the target.
+     */
     @Override
-    public InputStream processContent(InputStream stream, ProcessorContext context)
+    public OutputStream processContent(OutputStream target, ProcessorContext context)
             throws IOException {
-        for (ClientlibProcessor processor : processors) {
-            stream = processor.processContent(stream, context);
+        OutputStream stream = target;
+        for (int i = processors.size(); --i >= 0; ) {
+            stream = processors.get(i).processContent(stream, context);
         }
         return stream;
     }
 
+    /**
+     * Prepares each processor with the original content - a processor which depends on the request has to be the
+     * first one to be prepared for the content it receives.
+     */
+    @Override
+    public void prepare(byte[] content, ProcessorContext context) {
+        for (ClientlibStreamProcessor processor : processors) {
+            processor.prepare(content, context);
+        }
+    }
+
     @Override
     public String toString() {
         StringBuffer buf = new StringBuffer();
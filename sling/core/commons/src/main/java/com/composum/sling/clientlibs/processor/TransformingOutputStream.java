@@ -0,0 +1,51 @@
+package com.composum.sling.clientlibs.processor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Collects the content written to it and transforms it as a whole into the target stream on {@link #close()} - for
+ * processors which need the complete content of a file (e.g. a CSS minifier) but should run in the writing thread.
+ */
+public abstract class TransformingOutputStream extends OutputStream {
+
+    protected final OutputStream target;
+    protected final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    protected boolean closed = false;
+
+    protected TransformingOutputStream(OutputStream target) {
+        this.target = target;
+    }
+
+    /**
+     * Transforms the collected content into the target stream.
+     *
+     * @param content the complete content written to this stream
+     * @param target  the stream to write the result to; is closed by the caller
+     */
+    protected abstract void transform(byte[] content, OutputStream target) throws IOException;
+
+    @Override
+    public void write(int b) {
+        buffer.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        buffer.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                transform(buffer.toByteArray(), target);
+                target.flush();
+            } finally {
+                target.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.composum.sling.clientlibs.service;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.composum.sling.clientlibs.handle.Clientlib.PROP_CATEGORY;
+import static com.composum.sling.core.util.ResourceUtil.PROP_RESOURCE_TYPE;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Maps the clientlib categories to the paths of their client libraries; the least recently used categories are
+ * dropped if the maximum size is reached. The lookup of a category is lock free, only the changes of the index (the
+ * storage after a cache miss and the invalidations) are serialized. The mapping is kept current by the repository change events below the
+ * search paths (where the clientlibs of the categories are found): a removed clientlib drops the categories it
+ * belongs to, a moved tree or a changed category (or resource type) property drops all categories since the former
+ * values are not known anymore. Without observation (see {@link #setObserved(boolean)}) the entries expire after
+ * the configured resolver cache time.
+ */
+public class ClientlibCategoryIndex implements EventListener {
+
+    private static final Logger LOG = getLogger(ClientlibCategoryIndex.class);
+
+    public static final int EVENT_TYPES = Event.NODE_REMOVED |
+            Event.NODE_MOVED |
+            Event.PROPERTY_ADDED |
+            Event.PROPERTY_CHANGED |
+            Event.PROPERTY_REMOVED;
+
+    /** Retrieves the paths of the client libraries of a category. */
+    public interface Loader {
+
+        /** @return the paths of all client libraries of the category in their order; not null */
+        List<String> load(String category);
+    }
+
+    protected static class Entry {
+
+        protected final List<String> paths;
+        protected final long created = System.currentTimeMillis();
+        /** the time of the last lookup; updated without lock, used to drop the least recently used entry */
+        protected volatile long used = created;
+
+        protected Entry(List<String> paths) {
+            this.paths = Collections.unmodifiableList(paths);
+        }
+    }
+
+    protected final Loader loader;
+    protected final int maxSize;
+
+    /** category -> entry; read without lock, changed within the lock of the {@link #pathIndex} only */
+    protected final Map<String, Entry> categories = new ConcurrentHashMap<>();
+
+    /**
+     * clientlib path -> categories cached with this clientlib; sorted to find the clientlibs of a removed tree;
+     * all access and all changes of the {@link #categories} are synchronized on this map
+     */
+    protected final TreeMap<String, Set<String>> pathIndex = new TreeMap<>();
+
+    /**
+     * counts the invalidations to prevent the storage of results loaded concurrently to a change; incremented and
+     * checked within the lock of the {@link #pathIndex}
+     */
+    protected final AtomicLong generation = new AtomicLong();
+
+    protected volatile boolean observed = false;
+
+    protected final AtomicLong hits = new AtomicLong();
+    protected final AtomicLong misses = new AtomicLong();
+    protected final AtomicLong loadTime = new AtomicLong();
+
+    /**
+     * @param loader  retrieves the clientlibs of a category on a cache miss
+     * @param maxSize the maximum number of cached categories; limits the memory used for requests of random categories
+     */
+    public ClientlibCategoryIndex(Loader loader, int maxSize) {
+        this.loader = loader;
+        this.maxSize = maxSize;
+    }
+
+    /** Set to 'true' if the index is registered for the change events - then the entries don't expire. */
+    public void setObserved(boolean observed) {
+        this.observed = observed;
+    }
+
+    /**
+     * Returns the clientlib paths of the category, loaded by the {@link Loader} if not cached yet.
+     *
+     * @param cacheTime the time in milliseconds an entry is valid if the index is not {@link #observed}
+     */
+    public List<String> getPaths(String category, long cacheTime) {
+        Entry entry = categories.get(category);
+        long now = System.currentTimeMillis();
+        if (null != entry && (observed || entry.created >= now - cacheTime)) {
+            entry.used = now;
+            hits.incrementAndGet();
+            return entry.paths;
+        }
+        misses.incrementAndGet();
+        long currentGeneration = generation.get();
+        long begin = System.nanoTime();
+        List<String> paths = loader.load(category);
+        loadTime.addAndGet(System.nanoTime() - begin);
+        put(category, paths, currentGeneration);
+        return paths;
+    }
+
+    /** Stores the clientlibs of all categories - e.g. from one query on activation. */
+    public void putAll(Map<String, List<String>> categoryPaths) {
+        long currentGeneration = generation.get();
+        for (Map.Entry<String, List<String>> entry : categoryPaths.entrySet()) {
+            put(entry.getKey(), entry.getValue(), currentGeneration);
+        }
+    }
+
+    /**
+     * Stores the entry if no change has been observed since the load started; the check and the storage are
+     * done in one step. Drops the least recently used entry if the maximum size is reached.
+     */
+    protected void put(String category, List<String> paths, long loadedGeneration) {
+        synchronized (pathIndex) {
+            if (generation.get() == loadedGeneration) {
+                Entry previous = categories.put(category, new Entry(paths));
+                if (previous != null) {
+                    unregister(category, previous);
+                } else if (categories.size() > maxSize) {
+                    dropLeastRecentlyUsed(category);
+                }
+                for (String path : paths) {
+                    Set<String> keys = pathIndex.get(path);
+                    if (keys == null) {
+                        pathIndex.put(path, keys = new HashSet<>());
+                    }
+                    keys.add(category);
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (pathIndex) {
+            generation.incrementAndGet();
+            categories.clear();
+            pathIndex.clear();
+        }
+    }
+
+    /** Drops the entry used least recently except the one just stored; a scan of the entries on a cache miss. */
+    protected void dropLeastRecentlyUsed(String stored) {
+        String eldest = null;
+        long eldestUse = Long.MAX_VALUE;
+        for (Map.Entry<String, Entry> entry : categories.entrySet()) {
+            if (!entry.getKey().equals(stored) && entry.getValue().used < eldestUse) {
+                eldest = entry.getKey();
+                eldestUse = entry.getValue().used;
+            }
+        }
+        if (eldest != null) {
+            drop(eldest);
+        }
+    }
+
+    protected void drop(String category) {
+        Entry entry = categories.remove(category);
+        if (entry != null) {
+            LOG.debug("dropped category: {}", category);
+            unregister(category, entry);
+        }
+    }
+
+    protected void unregister(String category, Entry entry) {
+        for (String path : entry.paths) {
+            Set<String> keys = pathIndex.get(path);
+            if (keys != null) {
+                keys.remove(category);
+                if (keys.isEmpty()) {
+                    pathIndex.remove(path);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onEvent(EventIterator events) {
+        while (events.hasNext()) {
+            Event event = events.nextEvent();
+            try {
+                String path = event.getPath();
+                switch (event.getType()) {
+                    case Event.NODE_REMOVED:
+                        dropClientlibs(path);
+                        break;
+                    case Event.NODE_MOVED:
+                        // the moved tree might contain client libraries which now belong to a search path
+                        clear();
+                        break;
+                    default:
+                        String name = StringUtils.substringAfterLast(path, "/");
+                        if (PROP_CATEGORY.equals(name) || PROP_RESOURCE_TYPE.equals(name)) {
+                            clear();
+                        }
+                        break;
+                }
+            } catch (RepositoryException ex) {
+                LOG.error(ex.getMessage(), ex);
+                clear();
+            }
+        }
+    }
+
+    /** Drops all categories containing the clientlib at the path or a clientlib below this path. */
+    protected void dropClientlibs(String path) {
+        synchronized (pathIndex) {
+            generation.incrementAndGet();
+            Set<String> dropped = new HashSet<>();
+            Set<String> keys = pathIndex.get(path);
+            if (keys != null) {
+                dropped.addAll(keys);
+            }
+            for (Set<String> subtreeKeys : pathIndex.subMap(path + "/", path + "0").values()) {
+                dropped.addAll(subtreeKeys);
+            }
+            for (String category : dropped) {
+                drop(category);
+            }
+        }
+    }
+
+    /** Returns a short summary of the usage of this index. */
+    public String getStatistics() {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        long loadMillis = TimeUnit.NANOSECONDS.toMillis(loadTime.get());
+        int size = categories.size();
+        return "categories: " + size + " (max. " + maxSize + ")"
+                + ", hits: " + hitCount + ", misses: " + missCount
+                + ", load time: " + loadMillis + " ms"
+                + (missCount > 0 ? " (avg. " + (loadMillis / missCount) + " ms)" : "")
+                + (observed ? ", observed" : ", expiring");
+    }
+
+    @Override
+    public String toString() {
+        return "ClientlibCategoryIndex{" + getStatistics() + "}";
+    }
+}
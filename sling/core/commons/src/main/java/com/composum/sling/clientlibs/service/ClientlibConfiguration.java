@@ -28,15 +28,33 @@ public interface ClientlibConfiguration {
 
     boolean getGzipEnabled();
 
+    /** General - GZip level : the compression level (1..9) used for the gzip variants of the cached clientlibs. */
+    int getGzipLevel();
+
+    /** General - One pass encodings : generates all encoded variants of a clientlib from one rendering. */
+    boolean getOnePassEncodings();
+
     String getCacheRoot();
 
+    /** General - File cache directory : local directory for copies of the cache files; blank to disable. */
+    String getFileCacheDirectory();
+
     int getThreadPoolMin();
 
     int getThreadPoolMax();
 
+    /** General - Parallel processing : the number of files of a clientlib processed concurrently; <=1 means sequential processing. */
+    int getProcessingParallelism();
+
     /** General - Resolver cachetime : the time (in seconds) the clientlib resolver caches the locations of all client libraries for a category. <=0 means no caching. */
     int getResolverCachetime();
 
+    /** General - Category cache size : the maximum number of categories cached with the paths of their client libraries. */
+    int getCategoryCacheSize();
+
+    /** General - Recency index : keeps the hashes of the client libraries in memory, invalidated by change events. */
+    boolean getRecencyIndexEnabled();
+
     /** Inserts HTML comments with the client libraries that have been called up into the page */
     boolean getTagDebug();
 
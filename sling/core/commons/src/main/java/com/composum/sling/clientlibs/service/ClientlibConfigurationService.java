@@ -9,6 +9,7 @@ import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.osgi.service.component.ComponentContext;
 
 import java.util.Dictionary;
+import java.util.zip.Deflater;
 
 @Component(
         label = "Composum Core Clientlib Configuration",
@@ -112,6 +113,26 @@ public class ClientlibConfigurationService implements ClientlibConfiguration {
     )
     protected boolean gzipEnabled;
 
+    public static final int DEFAULT_GZIP_LEVEL = Deflater.BEST_COMPRESSION;
+    public static final String GZIP_LEVEL = "gzip.level";
+    @Property(
+            name = GZIP_LEVEL,
+            label = "General - GZip level",
+            description = "the compression level (1..9) of the zipped content; the content is zipped once on caching, so the maximum is the default",
+            intValue = DEFAULT_GZIP_LEVEL
+    )
+    protected int gzipLevel = DEFAULT_GZIP_LEVEL;
+
+    public static final boolean DEFAULT_ONE_PASS_ENCODINGS = true;
+    public static final String ONE_PASS_ENCODINGS = "clientlibs.encodings.onepass";
+    @Property(
+            name = ONE_PASS_ENCODINGS,
+            label = "General - One pass encodings",
+            description = "if 'on' all encoded variants (plain, gzip and additional encoders) of a clientlib are cached from the same rendering with the same hash; default: 'on'",
+            boolValue = DEFAULT_ONE_PASS_ENCODINGS
+    )
+    protected boolean onePassEncodings;
+
     public static final String DEFAULT_CACHE_ROOT = "/var/composum/clientlibs";
     public static final String CACHE_ROOT = "clientlibs.cache.root";
     @Property(
@@ -122,6 +143,15 @@ public class ClientlibConfigurationService implements ClientlibConfiguration {
     )
     protected String cacheRoot;
 
+    public static final String FILE_CACHE_DIRECTORY = "clientlibs.cache.file.directory";
+    @Property(
+            name = FILE_CACHE_DIRECTORY,
+            label = "General - File Cache Directory",
+            description = "a local directory to keep copies of the cached clientlibs for delivery without repository access; the repository cache stays the source of truth; empty: not used",
+            value = ""
+    )
+    protected String fileCacheDirectory;
+
     public static final boolean DEFAULT_USE_MINIFIED_FILES = true;
     public static final String USE_MINIFIED_FILES = "clientlibs.files.minified";
     @Property(
@@ -163,6 +193,16 @@ public class ClientlibConfigurationService implements ClientlibConfiguration {
     )
     protected int threadPoolMax;
 
+    public static final int DEFAULT_PROCESSING_PARALLELISM = 0;
+    public static final String PROCESSING_PARALLELISM = "clientlibs.processing.parallelism";
+    @Property(
+            name = PROCESSING_PARALLELISM,
+            label = "General - Parallel processing",
+            description = "the maximum number of files of a clientlib processed (minified, mapped) concurrently in the thread pool; the files are appended in their original order; <= 1: sequential processing (default)",
+            intValue = DEFAULT_PROCESSING_PARALLELISM
+    )
+    protected int processingParallelism;
+
     public static final int DEFAULT_RESOLVER_CACHETIME = 60;
     public static final String RESOLVER_CACHETIME = "clientlibs.resolver.cachetime";
     @Property(
@@ -173,6 +213,26 @@ public class ClientlibConfigurationService implements ClientlibConfiguration {
     )
     protected int resolverCachetime;
 
+    public static final int DEFAULT_CATEGORY_CACHE_SIZE = 1000;
+    public static final String CATEGORY_CACHE_SIZE = "clientlibs.category.cache.size";
+    @Property(
+            name = CATEGORY_CACHE_SIZE,
+            label = "General - Category cache size",
+            description = "the maximum number of categories cached with the paths of their client libraries; default: " + DEFAULT_CATEGORY_CACHE_SIZE,
+            intValue = DEFAULT_CATEGORY_CACHE_SIZE
+    )
+    protected int categoryCacheSize = DEFAULT_CATEGORY_CACHE_SIZE;
+
+    public static final boolean DEFAULT_RECENCY_INDEX_ENABLED = true;
+    public static final String RECENCY_INDEX_ENABLED = "clientlibs.recency.index";
+    @Property(
+            name = RECENCY_INDEX_ENABLED,
+            label = "General - Recency index",
+            description = "if 'on' the hashes of the client libraries are kept in memory and invalidated by repository change events instead of checking all embedded files on each request; default: 'on'",
+            boolValue = DEFAULT_RECENCY_INDEX_ENABLED
+    )
+    protected boolean recencyIndexEnabled;
+
     // CSS configuration
 
     @Override
@@ -226,11 +286,26 @@ public class ClientlibConfigurationService implements ClientlibConfiguration {
         return gzipEnabled;
     }
 
+    @Override
+    public int getGzipLevel() {
+        return gzipLevel;
+    }
+
+    @Override
+    public boolean getOnePassEncodings() {
+        return onePassEncodings;
+    }
+
     @Override
     public String getCacheRoot() {
         return cacheRoot;
     }
 
+    @Override
+    public String getFileCacheDirectory() {
+        return fileCacheDirectory;
+    }
+
     @Override
     public int getThreadPoolMin() {
         return threadPoolMin;
@@ -241,12 +316,27 @@ public class ClientlibConfigurationService implements ClientlibConfiguration {
         return threadPoolMax;
     }
 
+    @Override
+    public int getProcessingParallelism() {
+        return processingParallelism;
+    }
+
     /** General - Resolver cachetime : the time (in seconds) the clientlib resolver caches the locations of all client libraries for a category. <=0 means no caching. */
     @Override
     public int getResolverCachetime() {
         return resolverCachetime;
     }
 
+    @Override
+    public int getCategoryCacheSize() {
+        return categoryCacheSize;
+    }
+
+    @Override
+    public boolean getRecencyIndexEnabled() {
+        return recencyIndexEnabled;
+    }
+
     /** Inserts HTML comments with the client libraries that have been called up into the page */
     @Override
     public boolean getTagDebug() {
@@ -275,12 +365,20 @@ public class ClientlibConfigurationService implements ClientlibConfiguration {
         mapClientlibURLs = PropertiesUtil.toBoolean(properties.get(MAP_CLIENTLIB_URLS), DEFAULT_MAP_CLIENTLIB_URLS);
         useMinifiedFiles = !debug && PropertiesUtil.toBoolean(properties.get(USE_MINIFIED_FILES), DEFAULT_USE_MINIFIED_FILES);
         gzipEnabled = PropertiesUtil.toBoolean(properties.get(GZIP_ENABLED), DEFAULT_GZIP_ENABLED);
+        gzipLevel = PropertiesUtil.toInteger(properties.get(GZIP_LEVEL), DEFAULT_GZIP_LEVEL);
+        if (gzipLevel < Deflater.BEST_SPEED || gzipLevel > Deflater.BEST_COMPRESSION) gzipLevel = DEFAULT_GZIP_LEVEL;
+        onePassEncodings = PropertiesUtil.toBoolean(properties.get(ONE_PASS_ENCODINGS), DEFAULT_ONE_PASS_ENCODINGS);
         cacheRoot = PropertiesUtil.toString(properties.get(CACHE_ROOT), DEFAULT_CACHE_ROOT);
+        fileCacheDirectory = PropertiesUtil.toString(properties.get(FILE_CACHE_DIRECTORY), "");
         threadPoolMin = PropertiesUtil.toInteger(properties.get(MIN_THREAD_POOL_SIZE), DEFAULT_THREAD_POOL_MIN);
         threadPoolMax = PropertiesUtil.toInteger(properties.get(MAX_THREAD_POOL_SIZE), DEFAULT_THREAD_POOL_MAX);
         if (threadPoolMin < DEFAULT_THREAD_POOL_MIN) threadPoolMin = DEFAULT_THREAD_POOL_MIN;
         if (threadPoolMax < threadPoolMin) threadPoolMax = threadPoolMin;
+        processingParallelism = PropertiesUtil.toInteger(properties.get(PROCESSING_PARALLELISM), DEFAULT_PROCESSING_PARALLELISM);
         resolverCachetime = PropertiesUtil.toInteger(properties.get(RESOLVER_CACHETIME), DEFAULT_RESOLVER_CACHETIME);
+        categoryCacheSize = PropertiesUtil.toInteger(properties.get(CATEGORY_CACHE_SIZE), DEFAULT_CATEGORY_CACHE_SIZE);
+        if (categoryCacheSize < 1) categoryCacheSize = 1;
+        recencyIndexEnabled = PropertiesUtil.toBoolean(properties.get(RECENCY_INDEX_ENABLED), DEFAULT_RECENCY_INDEX_ENABLED);
         rerenderOnNocache = PropertiesUtil.toBoolean(properties.get(RERENDER_ON_NOCACHE), false);
     }
 }
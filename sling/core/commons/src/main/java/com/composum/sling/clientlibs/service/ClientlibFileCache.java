@@ -0,0 +1,115 @@
+package com.composum.sling.clientlibs.service;
+
+import com.composum.sling.clientlibs.processor.AbstractClientlibVisitor;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * An optional local filesystem tier of the clientlib cache. The cache files in the repository stay the cluster wide
+ * source of truth; a local copy is stored per cache path, hash and last modification of the cache file and copied
+ * to the response instead of reading the repository binary for each request. The hash and the last modification
+ * are read from the repository cache file for each request, so a copy of a cache file regenerated on another
+ * cluster node (even with the same hash) is never delivered.
+ */
+public class ClientlibFileCache {
+
+    private static final Logger LOG = getLogger(ClientlibFileCache.class);
+
+    protected final File root;
+
+    public ClientlibFileCache(File root) {
+        this.root = root;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * @param cachePath    the path of the cache file in the repository
+     * @param hash         the hash of the current content of the cache file
+     * @param lastModified the last modification time of the cache file in the repository
+     * @return the local copy of the content; 'null' if not available
+     */
+    public File get(String cachePath, String hash, long lastModified) {
+        File file = getFile(cachePath, hash, lastModified);
+        return file != null && file.isFile() ? file : null;
+    }
+
+    /**
+     * Stores a local copy of the content and removes all other copies of the cache path.
+     *
+     * @return the local copy; 'null' if the path or hash are not usable for a local file
+     */
+    public File store(String cachePath, String hash, long lastModified, InputStream content) throws IOException {
+        File file = getFile(cachePath, hash, lastModified);
+        if (file == null) {
+            return null;
+        }
+        File folder = file.getParentFile();
+        if (!folder.isDirectory() && !folder.mkdirs() && !folder.isDirectory()) {
+            throw new IOException("can't create cache folder '" + folder.getPath() + "'");
+        }
+        File temp = File.createTempFile(hash, ".tmp", folder);
+        try {
+            try (OutputStream output = new FileOutputStream(temp)) {
+                IOUtils.copy(content, output);
+            }
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            if (temp.exists() && !temp.delete()) {
+                LOG.warn("can't remove temporary file '{}'", temp.getPath());
+            }
+        }
+        File[] outdated = folder.listFiles();
+        if (outdated != null) {
+            for (File other : outdated) {
+                if (!other.getName().equals(file.getName()) && !other.getName().endsWith(".tmp")
+                        && !other.delete()) {
+                    LOG.warn("can't remove outdated cache file '{}'", other.getPath());
+                }
+            }
+        }
+        LOG.debug("stored local copy '{}'", file.getPath());
+        return file;
+    }
+
+    /** Copies the content of the local copy to the output. */
+    public void deliver(File file, OutputStream outputStream) throws IOException {
+        Files.copy(file.toPath(), outputStream);
+        outputStream.flush();
+    }
+
+    /** Removes all local copies. */
+    public void clear() {
+        try {
+            if (root.isDirectory()) {
+                FileUtils.cleanDirectory(root);
+            }
+        } catch (IOException ex) {
+            LOG.error("can't clear the local clientlib cache: " + ex.getMessage(), ex);
+        }
+    }
+
+    /** Maps the cache path, the hash and the modification to a local file; 'null' for unusual paths or hashes. */
+    protected File getFile(String cachePath, String hash, long lastModified) {
+        if (hash == null || !AbstractClientlibVisitor.HASH_PATTERN.matcher(hash).matches()
+                || cachePath == null || !cachePath.startsWith("/") || cachePath.contains("/..")
+                || cachePath.contains("\\")) {
+            return null;
+        }
+        return new File(new File(root, cachePath.substring(1)), hash + "-" + lastModified);
+    }
+}
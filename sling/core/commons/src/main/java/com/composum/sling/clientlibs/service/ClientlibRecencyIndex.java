@@ -0,0 +1,266 @@
+package com.composum.sling.clientlibs.service;
+
+import com.composum.sling.clientlibs.handle.ClientlibRef;
+import com.composum.sling.clientlibs.processor.DependencyTrackingVisitor;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.composum.sling.clientlibs.handle.Clientlib.PROP_CATEGORY;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Keeps the hash and the last update time of clientlibs and categories in memory together with the paths these
+ * depend on, so that the recency check of a cached clientlib doesn't need a walk over all embedded elements. The
+ * entries are invalidated by repository change events (also external events of a cluster) which touch one of these
+ * dependencies and recomputed on the next request. Only the changes below the observed roots are received, so an
+ * entry which depends on a path outside of these roots is not stored. The entries are read without a lock; all
+ * changes of the index are synchronized.
+ */
+public class ClientlibRecencyIndex implements EventListener {
+
+    private static final Logger LOG = getLogger(ClientlibRecencyIndex.class);
+
+    public static final int EVENT_TYPES = Event.NODE_ADDED |
+            Event.NODE_REMOVED |
+            Event.NODE_MOVED |
+            Event.PROPERTY_ADDED |
+            Event.PROPERTY_CHANGED |
+            Event.PROPERTY_REMOVED;
+
+    /** The recency information of one clientlib or category. */
+    public static class Entry {
+
+        protected final String hash;
+        protected final Calendar lastUpdateTime;
+        protected final Set<String> paths;
+        protected final Set<String> folders;
+        protected final Set<String> categories;
+
+        public Entry(DependencyTrackingVisitor visitor) {
+            hash = visitor.getHash();
+            lastUpdateTime = visitor.getLastUpdateTime();
+            paths = Collections.unmodifiableSet(visitor.getPaths());
+            folders = Collections.unmodifiableSet(visitor.getFolders());
+            categories = Collections.unmodifiableSet(visitor.getCategories());
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public Calendar getLastUpdateTime() {
+            return lastUpdateTime;
+        }
+    }
+
+    protected final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /** dependency path -> keys of the entries depending on it; sorted to find the entries below a removed node */
+    protected final TreeMap<String, Set<String>> pathIndex = new TreeMap<>();
+
+    /** folder path -> keys of the entries depending on the children of the folder */
+    protected final Map<String, Set<String>> folderIndex = new HashMap<>();
+
+    /** keys of the entries depending on the resolution of any category */
+    protected final Set<String> categoryKeys = new HashSet<>();
+
+    /** counts the invalidations to prevent the storage of results computed concurrently to a change */
+    protected final AtomicLong generation = new AtomicLong();
+
+    /** the observed paths (without a trailing slash) */
+    protected final String[] roots;
+
+    /**
+     * @param roots the paths observed for the changes of the index (without a trailing slash)
+     */
+    public ClientlibRecencyIndex(String... roots) {
+        this.roots = roots;
+    }
+
+    public String[] getRoots() {
+        return roots;
+    }
+
+    public static String getKey(ClientlibRef ref) {
+        return ref.type.name() + ":" + (ref.isCategory() ? ClientlibRef.PREFIX_CATEGORY + ref.category : ref.path);
+    }
+
+    /** Returns the current entry for the reference or null if it has to be (re)computed. */
+    public Entry get(ClientlibRef ref) {
+        return entries.get(getKey(ref));
+    }
+
+    /**
+     * Returns the current generation; has to be retrieved before the computation of an entry to {@link #put}.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Stores a computed entry if no change has been observed since the computation started; the check and the
+     * storage are done in one step. An entry with dependencies outside of the observed roots is not stored.
+     *
+     * @param generation the {@link #getGeneration()} value retrieved before the computation
+     */
+    public void put(ClientlibRef ref, Entry entry, long generation) {
+        String key = getKey(ref);
+        if (!isObserved(entry)) {
+            LOG.debug("not observed: {}", key);
+            return;
+        }
+        synchronized (this) {
+            if (this.generation.get() == generation) {
+                Entry previous = entries.put(key, entry);
+                if (previous != null) {
+                    unregister(key, previous);
+                }
+                for (String path : entry.paths) {
+                    register(pathIndex, path, key);
+                }
+                for (String folder : entry.folders) {
+                    register(folderIndex, folder, key);
+                }
+                if (!entry.categories.isEmpty()) {
+                    categoryKeys.add(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 'true' if all dependencies of the entry are below the observed roots
+     */
+    protected boolean isObserved(Entry entry) {
+        for (String path : entry.paths) {
+            if (!isObserved(path)) {
+                return false;
+            }
+        }
+        for (String folder : entry.folders) {
+            if (!isObserved(folder)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected boolean isObserved(String path) {
+        for (String root : roots) {
+            if ("/".equals(root) || path.equals(root) || path.startsWith(root + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void clear() {
+        generation.incrementAndGet();
+        entries.clear();
+        pathIndex.clear();
+        folderIndex.clear();
+        categoryKeys.clear();
+    }
+
+    @Override
+    public void onEvent(EventIterator events) {
+        while (events.hasNext()) {
+            Event event = events.nextEvent();
+            try {
+                invalidate(event.getPath(), isPropertyEvent(event.getType()));
+            } catch (RepositoryException ex) {
+                LOG.error(ex.getMessage(), ex);
+                clear();
+            }
+        }
+    }
+
+    /**
+     * Drops all entries which depend on the changed path: the path itself, its ancestors (e.g. a changed
+     * jcr:content of a file), its descendants (a moved or removed subtree), its siblings if they are files and
+     * all categories on a category property change.
+     */
+    public synchronized void invalidate(String path, boolean isProperty) {
+        generation.incrementAndGet();
+        if (entries.isEmpty()) {
+            return;
+        }
+        String nodePath = isProperty ? StringUtils.substringBeforeLast(path, "/") : path;
+        Set<String> dropped = new HashSet<>();
+        if (isProperty && PROP_CATEGORY.equals(StringUtils.substringAfterLast(path, "/"))) {
+            dropped.addAll(categoryKeys);
+        }
+        for (String ancestor = nodePath; StringUtils.isNotEmpty(ancestor);
+             ancestor = StringUtils.substringBeforeLast(ancestor, "/")) {
+            collect(dropped, pathIndex.get(ancestor));
+        }
+        collect(dropped, folderIndex.get(StringUtils.substringBeforeLast(nodePath, "/")));
+        for (Set<String> keys : pathIndex.subMap(nodePath + "/", nodePath + "0").values()) {
+            collect(dropped, keys);
+        }
+        for (String key : dropped) {
+            drop(key);
+        }
+    }
+
+    protected static void collect(Set<String> dropped, Set<String> keys) {
+        if (keys != null) {
+            dropped.addAll(keys);
+        }
+    }
+
+    protected void drop(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            LOG.debug("invalidated: {}", key);
+            unregister(key, entry);
+        }
+    }
+
+    protected void unregister(String key, Entry entry) {
+        for (String path : entry.paths) {
+            unregister(pathIndex, path, key);
+        }
+        for (String folder : entry.folders) {
+            unregister(folderIndex, folder, key);
+        }
+        categoryKeys.remove(key);
+    }
+
+    protected static void register(Map<String, Set<String>> index, String path, String key) {
+        Set<String> keys = index.get(path);
+        if (keys == null) {
+            index.put(path, keys = new HashSet<>());
+        }
+        keys.add(key);
+    }
+
+    protected static void unregister(Map<String, Set<String>> index, String path, String key) {
+        Set<String> keys = index.get(path);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                index.remove(path);
+            }
+        }
+    }
+
+    protected static boolean isPropertyEvent(int type) {
+        return (type & (Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED)) != 0;
+    }
+}
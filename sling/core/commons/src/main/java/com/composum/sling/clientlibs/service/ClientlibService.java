@@ -48,6 +48,18 @@ public interface ClientlibService {
     void renderClientlibLinks(ClientlibElement clientlib, Writer writer, SlingHttpServletRequest request,
                               RendererContext context) throws IOException, RepositoryException;
 
+    /**
+     * Selects the encoding of the delivered content from the Accept-Encoding header of a request.
+     * The default implementation selects gzip if the header contains it.
+     *
+     * @param acceptEncoding the value of the Accept-Encoding header
+     * @return one of the available encodings accepted by the client; 'null' for the unencoded content
+     */
+    @Nullable
+    default String selectEncoding(@Nullable String acceptEncoding) {
+        return acceptEncoding != null && acceptEncoding.contains(ENCODING_GZIP) ? ENCODING_GZIP : null;
+    }
+
     /**
      * Writes the content to a cache if it wasn't there, and returns a collection of information to be put into the
      * response headers.
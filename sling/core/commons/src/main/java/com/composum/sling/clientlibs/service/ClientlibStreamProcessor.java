@@ -0,0 +1,57 @@
+package com.composum.sling.clientlibs.service;
+
+import com.composum.sling.clientlibs.processor.ProcessorContext;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A push based {@link ClientlibProcessor} which transforms the content synchronously in the writing thread - the
+ * stages of a {@link com.composum.sling.clientlibs.processor.ProcessorPipeline} are composed as a chain of output
+ * streams instead of a chain of piped streams each fed by its own thread.
+ */
+public interface ClientlibStreamProcessor extends ClientlibProcessor {
+
+    /**
+     * Wraps the target stream with the transformation of this processor: everything written to the returned stream
+     * is transformed and written to the target.
+     *
+     * @param target  the stream which receives the transformed content
+     * @param context the processing context
+     * @return the stream to write the original content to - closing it finishes the transformation and closes the
+     * target; might also be the target itself if the processor does not change the content
+     */
+    OutputStream processContent(OutputStream target, ProcessorContext context)
+            throws IOException;
+
+    /**
+     * Called in the visiting thread before the content is processed concurrently by another thread: resolves
+     * everything which needs the request or the resolver of the context, since neither is thread safe.
+     *
+     * @param content the original content of the file
+     */
+    default void prepare(byte[] content, ProcessorContext context) {
+    }
+
+    /**
+     * The pull based variant for compatibility; transforms the content in the calling thread into a buffer.
+     */
+    @Override
+    default InputStream processContent(InputStream sourceStream, ProcessorContext context)
+            throws IOException {
+        if (sourceStream == null) {
+            return null;
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (OutputStream output = processContent(buffer, context)) {
+            IOUtils.copy(sourceStream, output);
+        } finally {
+            sourceStream.close();
+        }
+        return new ByteArrayInputStream(buffer.toByteArray());
+    }
+}
@@ -11,9 +11,12 @@ import com.composum.sling.clientlibs.handle.ClientlibResourceFolder;
 import com.composum.sling.clientlibs.handle.FileHandle;
 import com.composum.sling.clientlibs.processor.CssProcessor;
 import com.composum.sling.clientlibs.processor.CssUrlMapper;
+import com.composum.sling.clientlibs.processor.DependencyTrackingVisitor;
+import com.composum.sling.clientlibs.processor.EncodingProcessor;
 import com.composum.sling.clientlibs.processor.GzipProcessor;
 import com.composum.sling.clientlibs.processor.JavascriptProcessor;
 import com.composum.sling.clientlibs.processor.LinkRenderer;
+import com.composum.sling.clientlibs.processor.PipedProcessorAdapter;
 import com.composum.sling.clientlibs.processor.ProcessingVisitor;
 import com.composum.sling.clientlibs.processor.ProcessorContext;
 import com.composum.sling.clientlibs.processor.ProcessorPipeline;
@@ -22,13 +25,12 @@ import com.composum.sling.clientlibs.processor.UpdateTimeVisitor;
 import com.composum.sling.core.ResourceHandle;
 import com.composum.sling.core.concurrent.LazyCreationService;
 import com.composum.sling.core.concurrent.SequencerService;
+import com.composum.sling.core.event.RepositoryObservation;
 import com.composum.sling.core.filter.ResourceFilter;
 import com.composum.sling.core.util.ResourceUtil;
 import org.apache.commons.collections.CollectionUtils;
-import org.apache.commons.collections.map.LRUMap;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.tuple.Pair;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Deactivate;
@@ -55,14 +57,18 @@ import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.query.Query;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.io.Writer;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
@@ -76,10 +82,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
@@ -154,31 +159,65 @@ public class DefaultClientlibService implements ClientlibService {
     )
     protected final List<ClientlibPermissionPlugin> permissionPlugins = new CopyOnWriteArrayList<>();
 
+    @Reference(referenceInterface = EncodingProcessor.class,
+            cardinality = ReferenceCardinality.OPTIONAL_MULTIPLE, policy = ReferencePolicy.DYNAMIC,
+            bind = "bindEncodingProcessor", unbind = "unbindEncodingProcessor"
+    )
+    protected final List<EncodingProcessor> encodingProcessors = new CopyOnWriteArrayList<>();
+
     protected ThreadPoolExecutor executorService = null;
 
     protected EnumMap<Clientlib.Type, ClientlibRenderer> rendererMap;
     protected EnumMap<Clientlib.Type, ClientlibProcessor> processorMap;
 
     /**
-     * Cache (String, Pair<Long, List<String>>) that maps categories to a pair of the query time and the resulting list
-     * of paths to client libraries with that path. We set an arbitrary limit of 100 since otherwise we'd be open to a
-     * DOS attack by retrieving random categories.
+     * Maps categories to the paths of their client libraries; the size is limited by
+     * {@link ClientlibConfiguration#getCategoryCacheSize()} since otherwise we'd be open to a DOS attack by retrieving
+     * random categories.
      */
-    protected final LRUMap /*String, Pair<Long, List<String>>*/ categoryToPathCache = new LRUMap(100);
+    protected volatile ClientlibCategoryIndex categoryIndex = null;
+
+    /** The in memory hashes of the clientlibs if enabled by {@link ClientlibConfiguration#getRecencyIndexEnabled()}. */
+    protected volatile ClientlibRecencyIndex recencyIndex = null;
+
+    /** The local filesystem tier of the cache if configured by {@link ClientlibConfiguration#getFileCacheDirectory()}. */
+    protected volatile ClientlibFileCache fileCache = null;
+
+    /** The observation session of the {@link #categoryIndex} and the {@link #recencyIndex}. */
+    protected final RepositoryObservation observation = new RepositoryObservation();
 
     protected synchronized void bindPermissionPlugin(ClientlibPermissionPlugin permissionPlugin) {
         permissionPlugins.add(permissionPlugin);
-        categoryToPathCache.clear();
+        if (categoryIndex != null) categoryIndex.clear();
+        if (recencyIndex != null) recencyIndex.clear();
     }
 
     protected synchronized void unbindPermissionPlugin(ClientlibPermissionPlugin permissionPlugin) {
         permissionPlugins.remove(permissionPlugin);
-        categoryToPathCache.clear();
+        if (categoryIndex != null) categoryIndex.clear();
+        if (recencyIndex != null) recencyIndex.clear();
+    }
+
+    protected void bindEncodingProcessor(EncodingProcessor encodingProcessor) {
+        encodingProcessors.add(encodingProcessor);
+    }
+
+    protected void unbindEncodingProcessor(EncodingProcessor encodingProcessor) {
+        encodingProcessors.remove(encodingProcessor);
     }
 
     @Modified
     @Activate
     protected void activate(ComponentContext context) {
+        stopObservation();
+        categoryIndex = new ClientlibCategoryIndex(categoryLoader(), clientlibConfig.getCategoryCacheSize());
+        startObservation();
+        String fileCacheDirectory = clientlibConfig.getFileCacheDirectory();
+        fileCache = StringUtils.isNotBlank(fileCacheDirectory)
+                ? new ClientlibFileCache(new File(fileCacheDirectory.trim())) : null;
+        if (clientlibConfig.getResolverCachetime() > 0) {
+            buildCategoryIndex();
+        }
         executorService = new ThreadPoolExecutor(clientlibConfig.getThreadPoolMin(), clientlibConfig.getThreadPoolMax
                 (), 200L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
         rendererMap = new EnumMap<>(Clientlib.Type.class);
@@ -186,19 +225,97 @@ public class DefaultClientlibService implements ClientlibService {
         rendererMap.put(Clientlib.Type.css, cssProcessor);
         rendererMap.put(Clientlib.Type.link, linkRenderer);
         processorMap = new EnumMap<>(Clientlib.Type.class);
-        processorMap.put(Clientlib.Type.js, javascriptProcessor);
+        processorMap.put(Clientlib.Type.js, new ProcessorPipeline(javascriptProcessor));
         processorMap.put(Clientlib.Type.css, getClientlibConfig().getMapClientlibURLs() ? new ProcessorPipeline(new
-                CssUrlMapper(), cssProcessor) : cssProcessor);
+                CssUrlMapper(), cssProcessor) : new ProcessorPipeline(cssProcessor));
     }
 
     @Deactivate
     protected void deactivate(ComponentContext context) {
+        stopObservation();
         if (executorService != null) {
             executorService.shutdown();
             executorService = null;
         }
     }
 
+    /**
+     * Registers the {@link #categoryIndex} and the {@link #recencyIndex} (if enabled) for the repository change
+     * events below the search paths. If that fails the recency index is not used and the category index entries
+     * expire after the resolver cache time.
+     */
+    protected synchronized void startObservation() {
+        boolean observed = false;
+        ClientlibRecencyIndex recency = null;
+        if (observation.open(resolverFactory)) {
+            String[] roots = getObservedRoots();
+            recency = clientlibConfig.getRecencyIndexEnabled() ? new ClientlibRecencyIndex(roots) : null;
+            observed = observation.addListener(categoryIndex, ClientlibCategoryIndex.EVENT_TYPES, roots)
+                    && (recency == null
+                    || observation.addListener(recency, ClientlibRecencyIndex.EVENT_TYPES, roots));
+        }
+        categoryIndex.setObserved(observed);
+        recencyIndex = observed ? recency : null;
+    }
+
+    protected synchronized void stopObservation() {
+        observation.close();
+        recencyIndex = null;
+    }
+
+    /**
+     * @return the search paths (without a trailing slash) - the roots of the clientlibs found by category and of
+     * the resources embedded by the clientlibs which are tracked by the recency index
+     */
+    protected String[] getObservedRoots() {
+        String[] searchPath = observation.getSearchPath();
+        String[] roots = new String[searchPath.length];
+        for (int i = 0; i < searchPath.length; i++) {
+            roots[i] = StringUtils.removeEnd(searchPath[i], "/");
+        }
+        return roots;
+    }
+
+    /** Retrieves the client library paths of a category for the {@link #categoryIndex} as administrative user. */
+    protected ClientlibCategoryIndex.Loader categoryLoader() {
+        return new ClientlibCategoryIndex.Loader() {
+            @Override
+            public List<String> load(String category) {
+                List<String> paths = new ArrayList<>();
+                ResourceResolver administrativeResolver = createAdministrativeResolver();
+                try {
+                    for (Resource resource : retrieveResourcesForCategoryUncached(category, administrativeResolver)) {
+                        paths.add(resource.getPath());
+                    }
+                } finally {
+                    administrativeResolver.close();
+                }
+                return paths;
+            }
+        };
+    }
+
+    /** Fills the {@link #categoryIndex} with all categories found by one query per search path element. */
+    protected void buildCategoryIndex() {
+        ResourceResolver administrativeResolver = createAdministrativeResolver();
+        try {
+            long begin = System.currentTimeMillis();
+            Map<String, List<String>> categoryPaths = retrieveAllCategoriesUncached(administrativeResolver);
+            categoryIndex.putAll(categoryPaths);
+            LOG.info("category index built with {} categories in {} ms", categoryPaths.size(),
+                    System.currentTimeMillis() - begin);
+        } catch (RuntimeException ex) {
+            LOG.error("category index not prefilled: " + ex.getMessage(), ex);
+        } finally {
+            administrativeResolver.close();
+        }
+    }
+
+    /** Returns a short summary of the usage of the category cache for monitoring purposes. */
+    public String getCategoryIndexStatistics() {
+        ClientlibCategoryIndex index = categoryIndex;
+        return index != null ? index.getStatistics() : "not active";
+    }
 
     @Override
     public ClientlibElement resolve(ClientlibRef ref, ResourceResolver resolver) {
@@ -317,38 +434,17 @@ public class DefaultClientlibService implements ClientlibService {
     }
 
     /**
-     * Retrieves the Clientlib-resources for a category. Uses the {@link #categoryToPathCache} for caching the paths
+     * Retrieves the Clientlib-resources for a category. Uses the {@link #categoryIndex} for caching the paths
      * to avoid executing a query each time. We retrieve the paths with an {@link #createAdministrativeResolver()}
      * to find everything independent of the users rights, and re-retrieve the resources with the users resolver
      * afterwards, filtering out inaccessible things.
      */
     protected List<Resource> retrieveCategoryResources(String category, ResourceResolver resolver) {
         long cacheTime = TimeUnit.SECONDS.toMillis(clientlibConfig.getResolverCachetime());
-        if (cacheTime <= 0) return retrieveResourcesForCategoryUncached(category, resolver);
-
-        List<String> paths = null;
-        long currentTimeMillis = System.currentTimeMillis();
-        synchronized (categoryToPathCache) {
-            Pair<Long, List<String>> cacheEntry = (Pair<Long, List<String>>) categoryToPathCache.get(category);
-            if (null != cacheEntry && cacheEntry.getLeft() >= (currentTimeMillis - cacheTime))
-                paths = cacheEntry.getRight();
-        }
+        ClientlibCategoryIndex index = categoryIndex;
+        if (cacheTime <= 0 || null == index) return retrieveResourcesForCategoryUncached(category, resolver);
 
-        if (null == paths) {
-            paths = new ArrayList<>();
-            ResourceResolver administrativeResolver = createAdministrativeResolver();
-            try {
-                List<Resource> resourcesForAdmin = retrieveResourcesForCategoryUncached(category,
-                        administrativeResolver);
-                for (Resource resource : resourcesForAdmin) paths.add(resource.getPath());
-            } finally {
-                administrativeResolver.close();
-            }
-
-            synchronized (categoryToPathCache) {
-                categoryToPathCache.put(category, Pair.of(currentTimeMillis, paths));
-            }
-        }
+        List<String> paths = index.getPaths(category, cacheTime);
 
         // retrieve with the users resolver
         List<Resource> resources = new ArrayList<>();
@@ -384,6 +480,49 @@ public class DefaultClientlibService implements ClientlibService {
         return resources;
     }
 
+    /**
+     * Retrieves the paths of the client libraries of all categories like
+     * {@link #retrieveResourcesForCategoryUncached(String, ResourceResolver)} but with one query per search path.
+     */
+    protected Map<String, List<String>> retrieveAllCategoriesUncached(ResourceResolver resolver) {
+        Map<String, List<Resource>> categoryResources = new HashMap<>();
+        Map<String, Set<String>> foundlibs = new HashMap<>();
+        Map<String, List<ResourceFilter>> permissionFilters = new HashMap<>();
+        for (String searchPathElement : resolver.getSearchPath()) {
+            String xpath = "/jcr:root" + searchPathElement.replaceFirst("/+$", "") + "//element(*," +
+                    TYPE_SLING_FOLDER + ")" + "[@" + PROP_RESOURCE_TYPE + "='" + RESOURCE_TYPE + "'" + " and @" +
+                    PROP_CATEGORY + "]";
+            for (Iterator<Resource> iterator = resolver.findResources(xpath, Query.XPATH); iterator.hasNext(); ) {
+                ResourceHandle handle = ResourceHandle.use(iterator.next());
+                String libPath = handle.getPath();
+                String key = libPath.substring(libPath.indexOf(searchPathElement) + searchPathElement.length());
+                for (String category : handle.getProperty(PROP_CATEGORY, new String[0])) {
+                    List<ResourceFilter> filters = permissionFilters.get(category);
+                    if (null == filters) {
+                        filters = getCategoryPermissionFilters(category);
+                        permissionFilters.put(category, filters);
+                        foundlibs.put(category, new HashSet<String>());
+                        categoryResources.put(category, new ArrayList<Resource>());
+                    }
+                    Set<String> found = foundlibs.get(category);
+                    if (!found.contains(key) && isClientlibPermitted(filters, handle)) { // first wins
+                        found.add(key);
+                        categoryResources.get(category).add(handle);
+                    }
+                }
+            }
+        }
+        Map<String, List<String>> result = new HashMap<>();
+        for (Map.Entry<String, List<Resource>> entry : categoryResources.entrySet()) {
+            List<Resource> resources = entry.getValue();
+            Collections.sort(resources, orderResourceComparator);
+            List<String> paths = new ArrayList<>();
+            for (Resource resource : resources) paths.add(resource.getPath());
+            result.put(entry.getKey(), paths);
+        }
+        return result;
+    }
+
     /** Retrieves the {@link ResourceFilter}s for a category from all {@link ClientlibPermissionPlugin}s. */
     @Nonnull
     protected List<ResourceFilter> getCategoryPermissionFilters(String category) {
@@ -422,7 +561,7 @@ public class DefaultClientlibService implements ClientlibService {
     protected ResourceResolver createAdministrativeResolver() {
         // used for maximum backwards compatibility; TODO recheck and decide from time to time
         try {
-            return resolverFactory.getAdministrativeResourceResolver(null);
+            return RepositoryObservation.createAdministrativeResolver(resolverFactory);
         } catch (LoginException e) {
             throw new SlingException("Configuration problem: we cannot get an administrative resolver ", e);
         }
@@ -492,13 +631,21 @@ public class DefaultClientlibService implements ClientlibService {
                 }
                 element = resolve(clientlibRef, adminResolver);
 
-                UpdateTimeVisitor updateTimeVisitor = new UpdateTimeVisitor(element, this, adminResolver);
-                updateTimeVisitor.execute();
-                final String hash = updateTimeVisitor.getHash();
+                final ClientlibRecencyIndex index = recencyIndex;
+                ClientlibRecencyIndex.Entry recency = null != index ? index.get(clientlibRef) : null;
+                if (null == recency) {
+                    long generation = null != index ? index.getGeneration() : 0L;
+                    recency = new ClientlibRecencyIndex.Entry(
+                            new DependencyTrackingVisitor(element, this, adminResolver).execute());
+                    if (null != index) index.put(clientlibRef, recency, generation);
+                }
+                final String hash = recency.getHash();
+                final Calendar lastUpdateTime = recency.getLastUpdateTime();
                 String cacheFileHash = cacheFile.getContent().getProperty(PROP_HASH);
 
                 if (!StringUtils.equals(requestedHash, hash)) {
-                    // safety check to make sure continual up to date checks because of wrong permissions get noticed
+                    // safety check to make sure continual up to date checks because of wrong permissions get noticed;
+                    // done for an indexed hash too - the index is computed by the administrative resolver
                     UpdateTimeVisitor updateTimeVisitorAsUser = new UpdateTimeVisitor(element, this, request.getResourceResolver());
                     updateTimeVisitorAsUser.execute();
                     if (!StringUtils.equals(hash, updateTimeVisitorAsUser.getHash())) {
@@ -510,8 +657,8 @@ public class DefaultClientlibService implements ClientlibService {
 
                 boolean refreshNeeded = refreshForced || !hash.equals(cacheFileHash);
                 // if the clientlib seems newer than the clientlib last modified, we rather regenerate things, too.
-                if (null != cacheFile.getLastModified() && null != updateTimeVisitor.getLastUpdateTime() &&
-                        updateTimeVisitor.getLastUpdateTime().after(cacheFile.getLastModified()))
+                if (null != cacheFile.getLastModified() && null != lastUpdateTime &&
+                        lastUpdateTime.after(cacheFile.getLastModified()))
                     refreshNeeded = true;
 
                 if (refreshNeeded) {
@@ -528,13 +675,26 @@ public class DefaultClientlibService implements ClientlibService {
                             getClientlibConfig().getMapClientlibURLs(), minified && clientlibConfig
                             .getUseMinifiedFiles());
 
-                    LazyCreationService.InitializationStrategy initializer = initializationStrategy(clientlibRef,
-                            encoding, hash, context);
+                    final RenderedContent rendered = new RenderedContent();
+                    boolean scheduled = false;
+                    try {
+                        LazyCreationService.InitializationStrategy initializer = initializationStrategy(clientlibRef,
+                                encoding, hash, context, rendered);
+
+                        Resource resource = lazyCreationService.getOrCreate(request.getResourceResolver(), cachePath,
+                                LazyCreationService.IDENTITY_RETRIEVER, creationStrategy(), initializer,
+                                CRUD_CACHE_FOLDER_PROPS);
+                        cacheFile = new FileHandle(resource);
 
-                    Resource resource = lazyCreationService.getOrCreate(request.getResourceResolver(), cachePath,
-                            LazyCreationService.IDENTITY_RETRIEVER, creationStrategy(), initializer,
-                            CRUD_CACHE_FOLDER_PROPS);
-                    cacheFile = new FileHandle(resource);
+                        if (clientlibConfig.getOnePassEncodings() && null != rendered.file) {
+                            scheduled = scheduleEncodingVariants(clientlibRef, minified, encoding, hash, context,
+                                    rendered);
+                        }
+                    } finally {
+                        if (!scheduled) {
+                            rendered.release();
+                        }
+                    }
                 }
 
                 fileHints = getFileHints(cacheFile, element.makeLink());
@@ -561,8 +721,45 @@ public class DefaultClientlibService implements ClientlibService {
         };
     }
 
+    /**
+     * The identity content of a clientlib rendered once for all encodings; kept in a temporary file and not in
+     * memory, since a bundle can be large.
+     */
+    protected static class RenderedContent {
+
+        protected File file;
+        protected Map<String, Object> hints;
+
+        /** Renders the clientlib into a new temporary file. */
+        protected void render(DefaultClientlibService service, ClientlibRef clientlibRef, ProcessorContext context)
+                throws IOException, RepositoryException {
+            file = File.createTempFile("clientlib", ".tmp");
+            try (OutputStream output = new BufferedOutputStream(new FileOutputStream(file))) {
+                service.processContent(clientlibRef, context, output);
+            } catch (IOException | RepositoryException | RuntimeException ex) {
+                release();
+                throw ex;
+            }
+            hints = new HashMap<>(context.getHints());
+        }
+
+        /** Removes the temporary file. */
+        protected void release() {
+            if (null != file) {
+                if (!file.delete()) {
+                    LOG.warn("can't delete the temporary file '{}'", file);
+                }
+                file = null;
+            }
+        }
+    }
+
+    /**
+     * @param rendered the content to store; rendered by the initialization if not available yet
+     */
     protected LazyCreationService.InitializationStrategy initializationStrategy(
-            final ClientlibRef clientlibRef, final String encoding, final String hash, final ProcessorContext context) {
+            final ClientlibRef clientlibRef, final String encoding, final String hash, final ProcessorContext context,
+            final RenderedContent rendered) {
         return new LazyCreationService.InitializationStrategy() {
             @Override
             public void initialize(ResourceResolver adminResolver, Resource cacheEntry) throws
@@ -574,23 +771,23 @@ public class DefaultClientlibService implements ClientlibService {
                         LOG.debug("create clientlib cache content ''{}''...", cacheFile.getResource()
                                 .getPath());
 
-                        final PipedOutputStream outputStream = new PipedOutputStream();
-                        InputStream inputStream = new PipedInputStream(outputStream);
-                        Future<Void> result = startProcessing(clientlibRef, encoding, context, outputStream);
-                        if (ENCODING_GZIP.equals(encoding)) {
-                            inputStream = gzipProcessor.processContent(inputStream, context);
+                        if (null == rendered.file) {
+                            // the bundle is rendered synchronously through the processor chain into a file
+                            rendered.render(DefaultClientlibService.this, clientlibRef, context);
                         }
-                        cacheFile.storeContent(inputStream);
+                        storeContent(cacheFile, rendered.file, encoding, context);
 
                         ModifiableValueMap contentValues = cacheFile.getContent().adaptTo
                                 (ModifiableValueMap.class);
                         contentValues.put(ResourceUtil.PROP_LAST_MODIFIED,
                                 Calendar.getInstance());
-                        contentValues.putAll(context.getHints());
+                        contentValues.putAll(rendered.hints);
+                        if (null != encoding) {
+                            contentValues.put(ResourceUtil.PROP_ENCODING, encoding);
+                        }
                         contentValues.put(PROP_HASH, hash);
 
                         adminResolver.commit();
-                        result.get(); // transport any exceptions here
 
                         LOG.info("clientlib cache content ''{}'' created", cacheFile.getResource()
                                 .getPath());
@@ -609,33 +806,177 @@ public class DefaultClientlibService implements ClientlibService {
     }
 
     /**
-     * Starts the processing (generation of the embedded content) of the clientlib / -category in the background.
+     * Schedules the storage of the other encoded variants of a just rendered clientlib in the background, so that
+     * the requesting thread encodes and stores only the requested variant. The rendered content is released by
+     * the scheduled task.
+     *
+     * @return 'true' if the task is scheduled
+     */
+    protected boolean scheduleEncodingVariants(final ClientlibRef clientlibRef, final boolean minified,
+                                            final String encoding, final String hash,
+                                            final ProcessorContext context, final RenderedContent rendered) {
+        ThreadPoolExecutor executor = executorService;
+        if (null == executor) return false;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ResourceResolver adminResolver = createAdministrativeResolver();
+                        try {
+                            storeEncodingVariants(adminResolver, clientlibRef, minified, encoding, hash, context,
+                                    rendered);
+                        } finally {
+                            adminResolver.close();
+                        }
+                    } catch (RuntimeException ex) {
+                        LOG.error("can't store the encoded variants of '" + clientlibRef + "': " + ex, ex);
+                    } finally {
+                        rendered.release();
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException ex) {
+            LOG.debug("encoded variants of ''{}'' not stored: {}", clientlibRef, ex.toString()); // deactivated
+            return false;
+        }
+    }
+
+    /**
+     * Stores the other encoded variants of a just rendered clientlib with the same hash, so that the requests for
+     * these don't render the clientlib again. Variants with the current hash or in creation are left untouched.
+     */
+    protected void storeEncodingVariants(ResourceResolver adminResolver,
+                                         ClientlibRef clientlibRef, boolean minified, String encoding, String hash,
+                                         ProcessorContext context, RenderedContent rendered) {
+        for (String variant : getSupportedEncodings()) {
+            if (StringUtils.equals(variant, encoding)) continue;
+            String variantPath = getCachePath(clientlibRef, minified, variant);
+            try {
+                Resource existing = adminResolver.getResource(variantPath);
+                if (null != existing) {
+                    if (!lazyCreationService.isInitialized(existing) ||
+                            hash.equals(new FileHandle(existing).getContent().getProperty(PROP_HASH))) {
+                        continue;
+                    }
+                    adminResolver.delete(existing);
+                    adminResolver.commit();
+                }
+                lazyCreationService.getOrCreate(adminResolver, variantPath,
+                        LazyCreationService.IDENTITY_RETRIEVER, creationStrategy(),
+                        initializationStrategy(clientlibRef, variant, hash, context, rendered),
+                        CRUD_CACHE_FOLDER_PROPS);
+            } catch (RepositoryException | PersistenceException ex) {
+                LOG.warn("can't store the ''{}'' variant of ''{}'': {}", variant, clientlibRef, ex.toString());
+                refreshSession(adminResolver, false);
+            }
+        }
+    }
+
+    /**
+     * Stores the content in the encoding as binary of the cache file; an encoded variant is written into another
+     * temporary file first, so that the content is streamed into the repository and never held in memory.
      */
-    protected Future<Void> startProcessing(final ClientlibRef clientlibRef, String encoding,
-                                           final ProcessorContext context, final OutputStream outputStream)
+    protected void storeContent(FileHandle cacheFile, File content, String encoding, ProcessorContext context)
             throws IOException {
-        final ClientlibProcessor processor = processorMap.get(clientlibRef.type);
+        ClientlibStreamProcessor encoder = getEncoder(encoding);
+        if (null == encoder) {
+            storeContent(cacheFile, content);
+            return;
+        }
+        File encoded = File.createTempFile("clientlib", ".tmp");
+        try {
+            try (OutputStream output = encoder.processContent(
+                    new BufferedOutputStream(new FileOutputStream(encoded)), context)) {
+                Files.copy(content.toPath(), output);
+            }
+            storeContent(cacheFile, encoded);
+        } finally {
+            if (!encoded.delete()) {
+                LOG.warn("can't delete the temporary file '{}'", encoded);
+            }
+        }
+    }
 
-        Future<Void> callable = context.submit(new Callable<Void>() {
-            @Override
-            public Void call() throws Exception {
-                ResourceResolver processingAdminResolver = null;
-                try {
-                    processingAdminResolver = createAdministrativeResolver();
-                    // retrieve clientlibs again since we need another resolver (not threadsafe)
-                    ClientlibElement adminElement = resolve(clientlibRef, processingAdminResolver);
-                    ProcessingVisitor visitor = new ProcessingVisitor(adminElement, DefaultClientlibService.this,
-                            outputStream, processor, context);
-                    visitor.execute();
-                } finally {
-                    IOUtils.closeQuietly(outputStream);
-                    if (null != processingAdminResolver) processingAdminResolver.close();
+    /** The binary is created from the stream when the content is stored, so the stream is closed afterwards. */
+    protected void storeContent(FileHandle cacheFile, File content) throws IOException {
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(content))) {
+            cacheFile.storeContent(stream);
+        }
+    }
+
+    /** @return the processor for the encoding; 'null' for the identity and for unknown encodings */
+    protected ClientlibStreamProcessor getEncoder(String encoding) {
+        if (null != encoding) {
+            if (ENCODING_GZIP.equals(encoding)) {
+                return PipedProcessorAdapter.adapt(gzipProcessor);
+            }
+            for (EncodingProcessor encodingProcessor : encodingProcessors) {
+                if (encoding.equals(encodingProcessor.getEncoding())) {
+                    return encodingProcessor;
                 }
-                return null;
             }
-        });
+        }
+        return null;
+    }
 
-        return callable;
+    /** @return all available encodings including the identity ('null') */
+    protected List<String> getSupportedEncodings() {
+        List<String> encodings = new ArrayList<>();
+        encodings.add(null);
+        if (clientlibConfig.getGzipEnabled() && null != gzipProcessor) {
+            encodings.add(ENCODING_GZIP);
+        }
+        for (EncodingProcessor encodingProcessor : encodingProcessors) {
+            encodings.add(encodingProcessor.getEncoding());
+        }
+        return encodings;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The additional {@link EncodingProcessor}s are preferred to gzip.
+     */
+    @Override
+    @Nullable
+    public String selectEncoding(@Nullable String acceptEncoding) {
+        if (StringUtils.isNotBlank(acceptEncoding)) {
+            Set<String> accepted = new HashSet<>();
+            for (String item : StringUtils.split(acceptEncoding, ',')) {
+                String[] parts = StringUtils.split(item, ';');
+                if (parts.length > 0 && (parts.length < 2 ||
+                        !parts[1].replaceAll("\\s", "").matches("q=0(\\.0*)?"))) {
+                    accepted.add(parts[0].trim().toLowerCase());
+                }
+            }
+            for (EncodingProcessor encodingProcessor : encodingProcessors) {
+                if (accepted.contains(encodingProcessor.getEncoding())) {
+                    return encodingProcessor.getEncoding();
+                }
+            }
+            if (accepted.contains(ENCODING_GZIP) && clientlibConfig.getGzipEnabled()) {
+                return ENCODING_GZIP;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Generates the embedded content of the clientlib / -category in the current thread.
+     */
+    protected void processContent(final ClientlibRef clientlibRef, final ProcessorContext context,
+                                  final OutputStream outputStream)
+            throws IOException, RepositoryException {
+        final ClientlibProcessor processor = processorMap.get(clientlibRef.type);
+        ClientlibElement element = resolve(clientlibRef, context.getResolver());
+        if (null == element) {
+            throw new FileNotFoundException("No client libraries for " + clientlibRef);
+        }
+        ProcessingVisitor visitor = new ProcessingVisitor(element, this, outputStream, processor, context,
+                clientlibConfig.getProcessingParallelism());
+        visitor.execute();
     }
 
     protected ClientlibInfo getFileHints(final FileHandle file, ClientlibLink link) {
@@ -662,6 +1003,9 @@ public class DefaultClientlibService implements ClientlibService {
         Resource resource = lazyCreationService.waitForInitialization(resolver, cachePath);
         FileHandle file = new FileHandle(resource);
         if (file.isValid()) {
+            if (deliverLocalCopy(file, cachePath, outputStream)) {
+                return;
+            }
             InputStream content = file.getStream();
             if (content != null) {
                 try {
@@ -675,6 +1019,41 @@ public class DefaultClientlibService implements ClientlibService {
         }
     }
 
+    /**
+     * Delivers the content of the (readable) cache file from the local {@link #fileCache} if configured; the local
+     * copy is created from the repository binary if not present for the current hash and last modification of the
+     * cache file in the repository.
+     *
+     * @return 'true' if the content is delivered, 'false' if the content has to be read from the repository
+     */
+    protected boolean deliverLocalCopy(FileHandle file, String cachePath, OutputStream outputStream)
+            throws IOException {
+        ClientlibFileCache cache = fileCache;
+        String hash = file.getContent().getProperty(PROP_HASH);
+        Calendar lastModified = file.getLastModified();
+        if (null != cache && null != hash && null != lastModified) {
+            long modified = lastModified.getTimeInMillis();
+            File localCopy = cache.get(cachePath, hash, modified);
+            if (null == localCopy) {
+                InputStream content = file.getStream();
+                if (content != null) {
+                    try {
+                        localCopy = cache.store(cachePath, hash, modified, content);
+                    } catch (IOException ex) {
+                        LOG.error("can't store local copy of '" + cachePath + "': " + ex.getMessage(), ex);
+                    } finally {
+                        IOUtils.closeQuietly(content);
+                    }
+                }
+            }
+            if (null != localCopy) {
+                cache.deliver(localCopy, outputStream);
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Uses the category if given, or the single clientlib otherwise.
      *
@@ -694,7 +1073,8 @@ public class DefaultClientlibService implements ClientlibService {
     }
 
     protected String adjustEncoding(String encoding) {
-        if (ENCODING_GZIP.equals(encoding) && !clientlibConfig.getGzipEnabled()) {
+        if (null != encoding && (ENCODING_GZIP.equals(encoding) ? !clientlibConfig.getGzipEnabled()
+                : null == getEncoder(encoding))) {
             encoding = null;
         }
         return encoding;
@@ -832,6 +1212,11 @@ public class DefaultClientlibService implements ClientlibService {
                 resolver.delete(childResource);
             }
         }
+        ClientlibFileCache cache = fileCache;
+        if (null != cache) {
+            LOG.info("Deleting local copies in {}", cache.getRoot().getPath());
+            cache.clear();
+        }
     }
 
     /** For each path contained here, remove all paths that are children of it, thus removing consequential errors. */
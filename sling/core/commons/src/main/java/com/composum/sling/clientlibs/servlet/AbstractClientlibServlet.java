@@ -52,10 +52,7 @@ public abstract class AbstractClientlibServlet extends SlingSafeMethodsServlet {
             boolean refreshCache = false;
             String header;
 
-            header = request.getHeader(HttpUtil.HEADER_ACCEPT_ENCODING);
-            if (StringUtils.isNotBlank(header) && header.contains("gzip")) {
-                encoding = ClientlibService.ENCODING_GZIP;
-            }
+            encoding = service.selectEncoding(request.getHeader(HttpUtil.HEADER_ACCEPT_ENCODING));
 
             header = request.getHeader(HttpUtil.HEADER_CACHE_CONTROL);
             if (StringUtils.isNotBlank(header) && configuration.getRerenderOnNocache()) {
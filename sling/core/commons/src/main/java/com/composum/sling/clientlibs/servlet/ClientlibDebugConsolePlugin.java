@@ -12,6 +12,7 @@ import com.composum.sling.clientlibs.handle.ClientlibResourceFolder;
 import com.composum.sling.clientlibs.handle.ClientlibVisitor;
 import com.composum.sling.clientlibs.processor.AbstractClientlibVisitor;
 import com.composum.sling.clientlibs.service.ClientlibService;
+import com.composum.sling.clientlibs.service.DefaultClientlibService;
 import com.composum.sling.core.util.XSS;
 import org.apache.commons.collections.IteratorUtils;
 import org.apache.commons.io.IOUtils;
@@ -145,6 +146,7 @@ public class ClientlibDebugConsolePlugin extends HttpServlet {
                 processor.printUsage();
             }
             processor.printForm();
+            processor.printStatistics();
             processor.printVerification();
 
             List<Type> printTypes = processor.requestedType == null ? Arrays.asList(Type.values()) : Collections.singletonList(processor.requestedType);
@@ -272,6 +274,14 @@ public class ClientlibDebugConsolePlugin extends HttpServlet {
             writer.println("</form>\n");
         }
 
+        protected void printStatistics() {
+            if (clientlibService instanceof DefaultClientlibService) {
+                writer.println("<hr/><h3>Category cache</h3><pre>");
+                writer.println(((DefaultClientlibService) clientlibService).getCategoryIndexStatistics());
+                writer.println("</pre>");
+            }
+        }
+
         protected void printVerification() {
             String verificationResults = clientlibService.verifyClientlibPermissions(type, impersonationResolver, false);
             if (StringUtils.isNotBlank(verificationResults)) {
@@ -1,15 +1,30 @@
 package com.composum.sling.core;
 
+import com.composum.sling.core.util.LruMap;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.SlingHttpServletRequest;
 
 import javax.annotation.Nonnull;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.Enumeration;
-import java.util.List;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.MissingResourceException;
+import java.util.Objects;
 import java.util.ResourceBundle;
-
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The stack of the resource bundles of a request (the bundles pushed by the bundle tags around the rendering of
+ * their body). The instance is bound to the request and used by the thread of the request only - no locking is
+ * necessary. The keys of the resolved bundles are cached for all requests per basename and locale; the cache is
+ * bounded (the locale is chosen by the client), dropped on each change of a dictionary (see
+ * {@link com.composum.sling.core.event.DictionaryObserver}) and an entry is resolved again after
+ * {@link #CACHE_TIMEOUT} in any case.
+ */
 public class RequestBundle extends ResourceBundle {
 
     public static final String ATTRIBUTE_KEY = "composum-core-resource-bundles";
@@ -17,7 +32,7 @@ public class RequestBundle extends ResourceBundle {
     /**
      * returns the requests instance
      */
-    public static synchronized RequestBundle get(@Nonnull SlingHttpServletRequest request) {
+    public static RequestBundle get(@Nonnull SlingHttpServletRequest request) {
         RequestBundle instance = (RequestBundle) request.getAttribute(ATTRIBUTE_KEY);
         if (instance == null) {
             instance = new RequestBundle(request);
@@ -26,96 +41,148 @@ public class RequestBundle extends ResourceBundle {
         return instance;
     }
 
-    protected final SlingHttpServletRequest request;
-    protected final List<BundleItem> bundles;
+    /** the time in ms a flattened bundle is used before it is resolved again */
+    public static final long CACHE_TIMEOUT = 60000L;
 
-    protected static class BundleWrapper extends ResourceBundle {
+    /** the maximum number of cached bundles; the least recently used bundles are dropped */
+    public static final int MAX_BUNDLES = 100;
 
-        protected final ResourceBundle bundle;
+    /** The flattened keys of a resolved bundle (including the keys of its parents). */
+    protected static class ResolvedBundle {
 
-        public BundleWrapper(ResourceBundle bundle) {
-            this.bundle = bundle;
+        public final Map<String, Object> values;
+        public final long created;
+
+        public ResolvedBundle(ResourceBundle bundle) {
+            Map<String, Object> values = new HashMap<>();
+            if (bundle != null) {
+                for (String key : bundle.keySet()) {
+                    try {
+                        values.put(key, bundle.getObject(key));
+                    } catch (MissingResourceException ignore) {
+                        // listed but not resolvable - resolved by the bundle itself on request
+                    }
+                }
+            }
+            this.values = Collections.unmodifiableMap(values);
+            this.created = System.currentTimeMillis();
         }
 
-        @Override
-        public void setParent(ResourceBundle bundle) {
-            super.setParent(bundle);
+        public boolean isValid() {
+            return System.currentTimeMillis() - created < CACHE_TIMEOUT;
         }
+    }
+
+    /** (basename, locale) -> the keys of the resolved bundle; synchronized on the map */
+    protected static final Map<String, ResolvedBundle> CACHE = new LruMap<>(MAX_BUNDLES);
 
-        @Override
-        protected Object handleGetObject(@Nonnull String key) {
-            return bundle.getObject(key);
+    /** counts the invalidations to prevent the storage of bundles resolved concurrently to a change */
+    protected static final AtomicLong GENERATION = new AtomicLong();
+
+    /**
+     * Drops all cached bundles; each bundle is flattened again on its next use.
+     */
+    public static void clearBundleCache() {
+        synchronized (CACHE) {
+            GENERATION.incrementAndGet();
+            CACHE.clear();
         }
+    }
 
-        @Nonnull
-        @Override
-        public Enumeration<String> getKeys() {
-            return bundle.getKeys();
+    /**
+     * @return the cached keys of the bundle; the bundle is retrieved from the request on a cache miss only
+     */
+    protected static ResolvedBundle resolve(SlingHttpServletRequest request, String basename, Locale locale) {
+        String key = basename + "|" + locale;
+        synchronized (CACHE) {
+            ResolvedBundle resolved = CACHE.get(key);
+            if (resolved != null) {
+                if (resolved.isValid()) {
+                    return resolved;
+                }
+                CACHE.remove(key);
+            }
+        }
+        long generation = GENERATION.get();
+        ResolvedBundle resolved = new ResolvedBundle(request.getResourceBundle(basename, locale));
+        synchronized (CACHE) {
+            if (GENERATION.get() == generation) {
+                CACHE.put(key, resolved);
+            }
         }
+        return resolved;
     }
 
+    protected final SlingHttpServletRequest request;
+    protected final Deque<BundleItem> bundles;
+
     protected class BundleItem {
 
         public final String basename;
-        public final BundleWrapper bundle;
+        public final ResolvedBundle resolved;
+
+        private ResourceBundle bundle;
 
         public int stackDepth = 0;
 
         public BundleItem(String basename) {
             this.basename = basename;
-            Locale locale = request.getLocale();
-            bundle = new BundleWrapper(request.getResourceBundle(basename, locale));
+            resolved = resolve(request, basename, request.getLocale());
+        }
+
+        /** @return the bundle of the request itself; retrieved on the first key which is not cached */
+        public ResourceBundle getBundle() {
+            if (bundle == null) {
+                bundle = request.getResourceBundle(basename, request.getLocale());
+            }
+            return bundle;
         }
     }
 
     protected RequestBundle(SlingHttpServletRequest request) {
         this.request = request;
-        bundles = new ArrayList<>();
+        bundles = new ArrayDeque<>();
         push(null);
     }
 
-    public synchronized void push(String basename) {
-        if (bundles.size() > 0) {
-            BundleItem last = bundles.get(0);
-            if (StringUtils.equals(basename, last.basename)) {
-                last.stackDepth++;
-            } else {
-                pushBundle(basename);
-            }
+    public void push(String basename) {
+        BundleItem last = bundles.peek();
+        if (last != null && StringUtils.equals(basename, last.basename)) {
+            last.stackDepth++;
         } else {
-            pushBundle(basename);
-        }
-    }
-
-    protected void pushBundle(String basename) {
-        BundleItem item = new BundleItem(basename);
-        if (bundles.size() > 0) {
-            BundleItem last = bundles.get(0);
-            item.bundle.setParent(last.bundle);
+            bundles.push(new BundleItem(basename));
         }
-        bundles.add(0, item);
     }
 
-    public synchronized void pop() {
-        if (bundles.size() > 0) {
-            BundleItem last = bundles.get(0);
+    public void pop() {
+        BundleItem last = bundles.peek();
+        if (last != null) {
             if (last.stackDepth > 0) {
                 last.stackDepth--;
             } else {
-                last.bundle.setParent(null);
-                bundles.remove(0);
+                bundles.pop();
             }
         }
     }
 
+    /**
+     * Looks up the key in the last pushed bundle; falls back to that bundle itself if not cached (the bundle decides
+     * about the value of a missing key).
+     */
     @Override
     protected Object handleGetObject(@Nonnull String key) {
-        return bundles.get(0).bundle.getObject(key);
+        BundleItem last = Objects.requireNonNull(bundles.peek());
+        Object value = last.resolved.values.get(key);
+        if (value != null) {
+            return value;
+        }
+        ResourceBundle bundle = last.getBundle();
+        return bundle != null ? bundle.getObject(key) : null;
     }
 
     @Nonnull
     @Override
     public Enumeration<String> getKeys() {
-        return bundles.get(0).bundle.getKeys();
+        return Collections.enumeration(Objects.requireNonNull(bundles.peek()).resolved.values.keySet());
     }
 }
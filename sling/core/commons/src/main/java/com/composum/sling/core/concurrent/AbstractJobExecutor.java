@@ -3,6 +3,7 @@ package com.composum.sling.core.concurrent;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.ModifiableValueMap;
@@ -41,9 +42,13 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -80,6 +85,12 @@ public abstract class AbstractJobExecutor<Result> implements JobExecutor, EventH
 
     public static final String AUDIT_ROOT_PATH = "/var/audit/jobs/";
 
+    /** the maximum number of jobs of one executor running at the same time */
+    public static final int DEFAULT_WORKER_POOL_SIZE = 10;
+
+    /** the interval (ms) of the job output flush and of the check whether the job has been stopped */
+    public static final long SUPERVISION_INTERVAL = 500L;
+
     public static final Map<String, Object> CRUD_AUDIT_FOLDER_PROPS;
 
     static {
@@ -97,11 +108,50 @@ public abstract class AbstractJobExecutor<Result> implements JobExecutor, EventH
     @Reference
     protected DynamicClassLoaderManager dynamicClassLoaderManager;
 
+    /** the worker threads of the jobs of this executor; created on demand, shut down on deactivation */
+    private ThreadPoolExecutor workerPool;
+
     @Activate
     protected void activate(ComponentContext context) throws Exception {
         Dictionary<String, Object> properties = context.getProperties();
     }
 
+    @Deactivate
+    protected void deactivate(ComponentContext context) {
+        ThreadPoolExecutor pool;
+        synchronized (this) {
+            pool = workerPool;
+            workerPool = null;
+        }
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    /** the maximum number of jobs of this executor running at the same time; further jobs are queued */
+    protected int getWorkerPoolSize() {
+        return DEFAULT_WORKER_POOL_SIZE;
+    }
+
+    protected synchronized ThreadPoolExecutor getWorkerPool() {
+        if (workerPool == null) {
+            final String name = getClass().getSimpleName();
+            final AtomicInteger count = new AtomicInteger();
+            int size = getWorkerPoolSize();
+            workerPool = new ThreadPoolExecutor(size, size, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, name + "-worker-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            workerPool.allowCoreThreadTimeOut(true);
+        }
+        return workerPool;
+    }
+
     protected abstract String getJobTopic();
 
     protected abstract String getAuditBasePath();
@@ -183,22 +233,31 @@ public abstract class AbstractJobExecutor<Result> implements JobExecutor, EventH
         try {
             try (FileOutputStream fileOutputStream = new FileOutputStream(tempFile);
                  PrintWriter out = new PrintWriter(new OutputStreamWriter(fileOutputStream, "UTF-8"))) {
-                final ExecutorService executorService = Executors.newSingleThreadExecutor();
+                final Future<Result> submit = getWorkerPool().submit(
+                        createCallable(job, context, adminResolver, out));
                 try {
-                    final Future<Result> submit = executorService.submit(
-                            createCallable(job, context, adminResolver, out));
-                    while (!submit.isDone()) {
-                        Thread.yield();
-                        out.flush();
-                        if (context.isStopped()) {
-                            LOG.warn("context for job:{} stopped", reference);
-                            executorService.shutdownNow();
-                            // magic string. message must not be changed!
-                            return context.result().message("execution stopped").cancelled();
+                    Result run = null;
+                    boolean done = false;
+                    while (!done) {
+                        try {
+                            run = submit.get(SUPERVISION_INTERVAL, TimeUnit.MILLISECONDS);
+                            done = true;
+                        } catch (TimeoutException ignore) {
+                            out.flush();
+                            if (context.isStopped()) {
+                                LOG.warn("context for job:{} stopped", reference);
+                                submit.cancel(true);
+                                // magic string. message must not be changed!
+                                return context.result().message("execution stopped").cancelled();
+                            }
                         }
                     }
-                    final Object run = submit.get();
                     return context.result().message(String.valueOf(run)).succeeded();
+                } catch (InterruptedException e) {
+                    LOG.warn("supervision of job:{} interrupted", reference);
+                    submit.cancel(true);
+                    Thread.currentThread().interrupt();
+                    return context.result().message("execution interrupted").cancelled();
                 } catch (ExecutionException e) {
                     final Throwable cause = e.getCause();
                     if (cause instanceof JobFailureException) {
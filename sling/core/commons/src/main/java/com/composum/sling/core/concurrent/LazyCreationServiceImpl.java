@@ -25,6 +25,12 @@ import javax.jcr.lock.LockException;
 import javax.jcr.lock.LockManager;
 import java.util.Calendar;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static com.composum.sling.core.util.ResourceUtil.PROP_LAST_MODIFIED;
 import static com.composum.sling.core.util.ResourceUtil.TYPE_CREATED;
@@ -37,6 +43,10 @@ import static org.slf4j.LoggerFactory.getLogger;
  * at least locally avoid conflicts by locking the parent of the created resource. If two nodes of a cluster
  * try to create the same resource, anyway, one of the transactions is rolled back. It will just be logged and
  * ignored.
+ * <p>
+ * Threads waiting for the initialization of a resource in this JVM are woken up immediately by a completion registry
+ * (futures keyed by path), which is signalled when an initialization finishes. The polling of the repository is only
+ * the fallback for initializations running on another cluster node.
  */
 @Component(
         label = "Composum Lazy Creation Service",
@@ -67,6 +77,9 @@ public class LazyCreationServiceImpl implements LazyCreationService {
     @Reference
     protected SequencerService sequencer;
 
+    /** The completions of the initializations waited for, keyed by path. */
+    protected final ConcurrentMap<String, CompletableFuture<Void>> completions = new ConcurrentHashMap<>();
+
     @Override
     public <T> T getOrCreate(ResourceResolver resolver, String path, RetrievalStrategy<T> getter,
                              CreationStrategy creator, final Map<String, Object> parentProperties)
@@ -261,16 +274,19 @@ public class LazyCreationServiceImpl implements LazyCreationService {
         long waitStep = 0;
         long restWait;
         Exception lastFail = null;
+        CompletableFuture<Void> completion = null;
         do {
-            try {
-                Thread.sleep(waitStep);
-            } catch (InterruptedException e) {
-            }
+            awaitCompletion(completion, waitStep);
+            // registered before the check so that a completion after the check is not missed
+            completion = registerCompletion(path);
             // We need sequencer because the JCR locking doesn't seem to distinguish between sessions on one instance, or something. Hard to test.
             SequencerService.Token token = sequencer.acquire(path);
             try {
                 refreshSession(adminResolver, false);
-                if (resourceIsInitialized(adminResolver, path)) return null;
+                if (resourceIsInitialized(adminResolver, path)) {
+                    signalCompletion(path);
+                    return null;
+                }
                 boolean locked = lockManager.holdsLock(path);
                 LOG.debug("Path {} is locked={}", path, locked);
                 if (!locked) try {
@@ -364,6 +380,8 @@ public class LazyCreationServiceImpl implements LazyCreationService {
             }
         } finally {
             sequencer.release(token);
+            // wakes up the local waiters also on failure - they check the state and take over if necessary
+            signalCompletion(path);
         }
     }
 
@@ -397,18 +415,20 @@ public class LazyCreationServiceImpl implements LazyCreationService {
         final long stopPollingTime = System.currentTimeMillis() + maximumLockWaitTimeSec * 1000;
         long waitStep = 0;
         long restWait;
+        CompletableFuture<Void> completion = null;
         do {
-            try {
-                Thread.sleep(waitStep);
-            } catch (InterruptedException e) {
-            }
+            awaitCompletion(completion, waitStep);
+            completion = registerCompletion(path);
             refreshSession(resolver, true);
             resource = resolver.getResource(path);
             if (null == resource) {
                 LOG.warn("Resource unexpectedly vanished during wait: {}", path);
                 return null; // vanished again - how??
             }
-            if (isInitialized(resource)) return resource;
+            if (isInitialized(resource)) {
+                signalCompletion(path);
+                return resource;
+            }
 
             restWait = stopPollingTime - System.currentTimeMillis();
             waitStep = Math.min(waitStep * 2 + 100, restWait); // iterative doubling to not try too often
@@ -416,6 +436,49 @@ public class LazyCreationServiceImpl implements LazyCreationService {
         return null;
     }
 
+    /**
+     * Returns the completion of the initialization of the path. Has to be called before checking the state of the
+     * resource, since only the initializations finished after the registration complete it.
+     */
+    protected CompletableFuture<Void> registerCompletion(String path) {
+        CompletableFuture<Void> completion = completions.get(path);
+        if (null == completion) {
+            CompletableFuture<Void> created = new CompletableFuture<>();
+            completion = completions.putIfAbsent(path, created);
+            if (null == completion) {
+                completion = created;
+            }
+        }
+        return completion;
+    }
+
+    /**
+     * Wakes up all threads waiting for the initialization of the path. Only the signal removes a completion - a
+     * waiter which stops waiting just leaves it, so that the other waiters don't lose their wakeup.
+     */
+    protected void signalCompletion(String path) {
+        CompletableFuture<Void> completion = completions.remove(path);
+        if (null != completion) {
+            completion.complete(null);
+        }
+    }
+
+    /**
+     * Waits until the completion is signalled by a local initialization or the time is up; the time is up in any
+     * case if the initialization runs on another cluster node. Without completion it just waits the time.
+     */
+    protected void awaitCompletion(CompletableFuture<Void> completion, long waitMillis) {
+        if (waitMillis <= 0) return;
+        try {
+            if (null != completion) {
+                completion.get(waitMillis, TimeUnit.MILLISECONDS);
+            } else {
+                Thread.sleep(waitMillis);
+            }
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+        }
+    }
+
     /**
      * Tries to create the parent while catching exceptions that could be triggered by someone having created it in
      * parallel in the meantime. Includes commit and locks path on this node.
@@ -9,33 +9,49 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
-import java.lang.ref.WeakReference;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Objects;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * The {@link SequencerService} implementation based on one semaphore per key. The semaphores are kept in a concurrent
+ * map with a reference count of the threads holding or waiting for the key; an entry is removed as soon as the last
+ * of these threads releases the key, so there is no global monitor and no cleanup by the garbage collector. The
+ * contention (waiting acquisitions and the time waited) is recorded per key for the most contended keys and shown
+ * by the {@link SequencerConsolePlugin}.
+ */
 @Component(immediate = true)
 @Service
 public class SemaphoreSequencer implements SequencerService<SemaphoreSequencer.Token> {
 
     private static final Logger LOG = LoggerFactory.getLogger(SemaphoreSequencer.class);
 
+    /** The maximum number of keys for which the contention is recorded. */
+    public static final int MAX_CONTENTION_KEYS = 1000;
+
     public static final class Token implements SequencerService.Token {
         @Nonnull
         protected final String key;
-        protected final Semaphore semaphore;
+        protected final KeyLock lock;
+        protected final AtomicBoolean released = new AtomicBoolean();
 
-        protected Token(@Nonnull String key, Semaphore semaphore) {
+        protected Token(@Nonnull String key, KeyLock lock) {
             this.key = key;
-            this.semaphore = semaphore;
+            this.lock = lock;
         }
 
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
-            if (o == null) return false;
+            if (o == null || getClass() != o.getClass()) return false;
             Token token = (Token) o;
             return key.equals(token.key);
         }
@@ -46,82 +62,186 @@ public class SemaphoreSequencer implements SequencerService<SemaphoreSequencer.T
         }
     }
 
-    /**
-     * Memorizes the tokens we have passed out, so that a new acquire with the same key goes to exactly the same semaphore.
-     * The weakreference goes to the token itself.
-     * We use here a synchronized {@link WeakHashMap} so that the semaphores can be reclaimed once they are not used anymore.
-     * As long as the semaphore is in the token, it's not thrown away; afterwards GC can remove it at leisure.
-     */
-    volatile WeakHashMap<Token, WeakReference<Token>> activeTokens;
+    /** The semaphore of a key with the number of threads holding or waiting for it. */
+    protected static class KeyLock {
 
-    @Override
-    @Nonnull
-    public Token acquire(String key) {
-
-        Token token;
-        Semaphore semaphore;
-
-        synchronized (this) {
-            WeakReference<Token> ref = activeTokens.get(new Token(key, null));
-            token = ref != null ? ref.get() : null;
-            if (token == null) {
-                semaphore = new Semaphore(1);
-                token = new Token(key, semaphore);
-                activeTokens.put(token, new WeakReference<>(token));
-            } else {
-                semaphore = token.semaphore;
-            }
+        protected final Semaphore semaphore = new Semaphore(1);
+        /** only changed within the atomic map operations for the key */
+        protected int users;
+    }
+
+    /** The contention of a key: the number of acquisitions which had to wait and the time waited. */
+    public static class Contention {
+
+        protected final String key;
+        protected final AtomicLong count = new AtomicLong();
+        protected final AtomicLong waitTime = new AtomicLong();
+
+        protected Contention(String key) {
+            this.key = key;
         }
 
+        public String getKey() {
+            return key;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        /** @return the sum of the waiting times in milliseconds */
+        public long getWaitTime() {
+            return TimeUnit.NANOSECONDS.toMillis(waitTime.get());
+        }
+
+        @Override
+        public String toString() {
+            return key + ": " + getCount() + " waits, " + getWaitTime() + " ms";
+        }
+    }
+
+    protected final ConcurrentMap<String, KeyLock> locks = new ConcurrentHashMap<>();
+
+    protected final ConcurrentMap<String, Contention> contentions = new ConcurrentHashMap<>();
+
+    protected final AtomicLong acquisitions = new AtomicLong();
+    protected final AtomicLong contended = new AtomicLong();
+
+    @Override
+    @Nonnull
+    public Token acquire(@Nonnull String key) {
         if (Thread.currentThread().isInterrupted()) {
             // tryAcquire would fail, and it doesn't make sense to continue here.
             throw new java.lang.IllegalStateException("Can't acquire lock since our thread is interrupted.");
         }
-
+        Token token = null;
         try {
-            LOG.debug("acquiring (" + key + ")");
-            semaphore.tryAcquire(1, TimeUnit.HOURS);
-            LOG.debug("acquired (" + key + ")");
+            token = tryAcquire(key, 1, TimeUnit.HOURS);
         } catch (InterruptedException ex) {
             LOG.error(ex.getMessage(), ex);
-            if (!Thread.currentThread().isInterrupted()) { // must be a timeout
-                LOG.error("Unlocking semaphore for {} since we've been waiting for an hour. There must be something broken.", key);
-                // Hard to tell what to do here. We try having everything waiting for this continue and hopefully crash.
-                semaphore.release();
-                while (semaphore.hasQueuedThreads()) {
-                    Thread.yield();
-                    semaphore.release();
-                }
-            }
-            throw new java.lang.IllegalStateException("Could not acquive lock for a loong time, or we have been interrupted.", ex);
+            throw new java.lang.IllegalStateException("Could not acquire lock since we have been interrupted.", ex);
         }
-
-        // We create a fresh token so that each user gets it's own token, which might make debugging easier at times.
-        synchronized (this) {
-            token = new Token(key, semaphore);
-            activeTokens.put(token, new WeakReference<>(token));
+        if (token == null) {
+            LOG.error("Unlocking semaphore for {} since we've been waiting for an hour. There must be something broken.", key);
+            // Hard to tell what to do here. We try having everything waiting for this continue and hopefully crash.
+            releaseWaiting(locks.get(key));
+            throw new java.lang.IllegalStateException("Could not acquire lock for a loong time.");
         }
         return token;
     }
 
+    @Override
+    public Token tryAcquire(@Nonnull String key, long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        KeyLock lock = locks.compute(key, (k, existing) -> {
+            KeyLock keyLock = existing != null ? existing : new KeyLock();
+            keyLock.users++;
+            return keyLock;
+        });
+        boolean acquired = false;
+        try {
+            acquisitions.incrementAndGet();
+            acquired = lock.semaphore.tryAcquire();
+            if (!acquired) {
+                LOG.debug("acquiring ({})", key);
+                long begin = System.nanoTime();
+                acquired = lock.semaphore.tryAcquire(timeout, unit);
+                recordContention(key, System.nanoTime() - begin);
+            }
+        } finally {
+            if (!acquired) {
+                unregister(key);
+            }
+        }
+        if (!acquired) {
+            LOG.debug("timeout on acquiring ({})", key);
+            return null;
+        }
+        LOG.debug("acquired ({})", key);
+        return new Token(key, lock);
+    }
+
     @Override
     public void release(Token token) {
         if (token != null) {
-            LOG.debug("release (" + token.key + ")");
-            token.semaphore.release();
+            if (token.released.compareAndSet(false, true)) {
+                LOG.debug("release ({})", token.key);
+                token.lock.semaphore.release();
+                unregister(token.key);
+            } else {
+                LOG.warn("release called twice for '{}'", token.key);
+            }
         } else {
             LOG.warn("release called with a null token");
         }
     }
 
+    /** Drops the lock of the key if no other thread holds or waits for the key. */
+    protected void unregister(String key) {
+        locks.computeIfPresent(key, (k, keyLock) -> --keyLock.users > 0 ? keyLock : null);
+    }
+
+    protected void recordContention(String key, long waitNanos) {
+        contended.incrementAndGet();
+        Contention contention = contentions.get(key);
+        if (contention == null) {
+            if (contentions.size() >= MAX_CONTENTION_KEYS) {
+                dropLeastContended();
+            }
+            Contention created = new Contention(key);
+            contention = contentions.putIfAbsent(key, created);
+            if (contention == null) {
+                contention = created;
+            }
+        }
+        contention.count.incrementAndGet();
+        contention.waitTime.addAndGet(waitNanos);
+    }
+
+    protected void dropLeastContended() {
+        Contention least = null;
+        for (Contention contention : contentions.values()) {
+            if (least == null || contention.getCount() < least.getCount()) {
+                least = contention;
+            }
+        }
+        if (least != null) {
+            contentions.remove(least.key, least);
+        }
+    }
+
+    /** @return the number of keys currently held or waited for */
+    public int getActiveKeys() {
+        return locks.size();
+    }
+
+    /** @return the number of all acquisitions since activation */
+    public long getAcquisitions() {
+        return acquisitions.get();
+    }
+
+    /** @return the number of acquisitions which had to wait for another thread */
+    public long getContended() {
+        return contended.get();
+    }
+
+    /** @return the contention of the most contended keys, sorted by the time waited, descending */
+    public List<Contention> getContentions(int maxCount) {
+        List<Contention> result = new ArrayList<>(contentions.values());
+        Collections.sort(result, new Comparator<Contention>() {
+            @Override
+            public int compare(Contention o1, Contention o2) {
+                return Long.compare(o2.waitTime.get(), o1.waitTime.get());
+            }
+        });
+        return result.size() > maxCount ? result.subList(0, maxCount) : result;
+    }
+
     @Activate
     protected void activate(@SuppressWarnings("UnusedParameters") ComponentContext context) {
-        WeakHashMap<Token, WeakReference<Token>> oldTokens;
-        synchronized (this) {
-            oldTokens = activeTokens;
-            activeTokens = new WeakHashMap<>();
-        }
-        cleanOldSemaphores(oldTokens);
+        cleanOldSemaphores();
+        acquisitions.set(0);
+        contended.set(0);
+        contentions.clear();
     }
 
     /**
@@ -130,25 +250,24 @@ public class SemaphoreSequencer implements SequencerService<SemaphoreSequencer.T
      */
     @Deactivate
     protected void deactivate(@SuppressWarnings("UnusedParameters") ComponentContext context) {
-        Map<Token, WeakReference<Token>> semaphoresToClear = null;
-        synchronized (this) {
-            if (activeTokens != null) {
-                semaphoresToClear = activeTokens;
-                activeTokens = null;
-            }
-        }
-        cleanOldSemaphores(semaphoresToClear);
+        cleanOldSemaphores();
     }
 
-    protected void cleanOldSemaphores(Map<Token, WeakReference<Token>> tokensToClear) {
-        if (tokensToClear == null || tokensToClear.isEmpty())
+    protected void cleanOldSemaphores() {
+        if (locks.isEmpty())
             return;
         for (int i = 0; i < 10; ++i) { // if our users try to reacquire the semaphore.
-            for (Token token : tokensToClear.keySet()) {
-                while (token.semaphore.hasQueuedThreads()) {
-                    token.semaphore.release();
-                    Thread.yield();
-                }
+            for (KeyLock lock : locks.values()) {
+                releaseWaiting(lock);
+            }
+        }
+    }
+
+    protected void releaseWaiting(KeyLock lock) {
+        if (lock != null) {
+            while (lock.semaphore.hasQueuedThreads()) {
+                lock.semaphore.release();
+                Thread.yield();
             }
         }
     }
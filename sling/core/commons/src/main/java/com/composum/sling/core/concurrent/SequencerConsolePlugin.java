@@ -0,0 +1,75 @@
+package com.composum.sling.core.concurrent;
+
+import com.composum.sling.core.util.XSS;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.Service;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Displays the lock statistics of the {@link SemaphoreSequencer}: the acquisitions, the keys in use and the most
+ * contended keys. Use as console plugin: http://localhost:9090/system/console/sequencer
+ */
+@Component(label = "Composum Webconsole Sequencer Plugin",
+        description = "Prints the lock statistics of the sequencer service")
+@Service(value = Servlet.class)
+@Properties({
+        @Property(name = "felix.webconsole.label", value = "sequencer"),
+        @Property(name = "felix.webconsole.title", value = "Sequencer"),
+        @Property(name = "felix.webconsole.category", value = "Composum"),
+})
+public class SequencerConsolePlugin extends HttpServlet {
+
+    public static final String PARAM_COUNT = "count";
+
+    public static final int DEFAULT_COUNT = 20;
+
+    @Reference
+    protected SequencerService sequencer;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException,
+            IOException {
+        response.setContentType("text/html; charset=UTF-8");
+        PrintWriter writer = response.getWriter();
+        writer.println("<html><body><h2>Sequencer</h2>");
+        if (sequencer instanceof SemaphoreSequencer) {
+            print(writer, (SemaphoreSequencer) sequencer, getCount(request));
+        } else {
+            writer.println("<p>no statistics available for " + XSS.encodeForHTML(
+                    String.valueOf(sequencer)) + "</p>");
+        }
+        writer.println("</body></html>");
+    }
+
+    protected void print(PrintWriter writer, SemaphoreSequencer sequencer, int count) {
+        writer.println("<p>acquisitions: " + sequencer.getAcquisitions()
+                + ", contended: " + sequencer.getContended()
+                + ", active keys: " + sequencer.getActiveKeys() + "</p>");
+        writer.println("<table><tr><th>key</th><th>waits</th><th>time waited (ms)</th></tr>");
+        for (SemaphoreSequencer.Contention contention : sequencer.getContentions(count)) {
+            writer.println("<tr><td>" + XSS.encodeForHTML(contention.getKey())
+                    + "</td><td>" + contention.getCount()
+                    + "</td><td>" + contention.getWaitTime() + "</td></tr>");
+        }
+        writer.println("</table>");
+    }
+
+    protected int getCount(HttpServletRequest request) {
+        try {
+            String value = request.getParameter(PARAM_COUNT);
+            return value != null ? Math.max(1, Integer.parseInt(value)) : DEFAULT_COUNT;
+        } catch (NumberFormatException ex) {
+            return DEFAULT_COUNT;
+        }
+    }
+}
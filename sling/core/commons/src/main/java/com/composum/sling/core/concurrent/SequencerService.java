@@ -1,6 +1,8 @@
 package com.composum.sling.core.concurrent;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A general service to sequence potentially concurrent modifications using a key (e.g. a resource path)
@@ -19,6 +21,18 @@ public interface SequencerService<T extends SequencerService.Token> {
     @Nonnull
     T acquire(@Nonnull String key);
 
+    /**
+     * Like {@link #acquire(String)} but waits at most the given time for the exclusiveness regarding the 'key'.
+     * The default implementation ignores the timeout and waits like {@link #acquire(String)}.
+     *
+     * @return the token which is necessary to release the binding; null if the time elapsed
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    @Nullable
+    default T tryAcquire(@Nonnull String key, long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        return acquire(key);
+    }
+
     /**
      * Stops the exclusive access to the 'key' encapsulated in the token which
      * was generated by the corresponding 'acquire()'. Must be called after a successful {@link #acquire(String)}, and
@@ -0,0 +1,65 @@
+package com.composum.sling.core.event;
+
+import com.composum.sling.core.RequestBundle;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+/**
+ * Drops the cached bundles of the {@link RequestBundle} on each change of a dictionary in the repository (the
+ * message nodes and the properties of the dictionary nodes). The changes of the content of dictionary files (JSON)
+ * are not observed - these bundles are resolved again after the {@link RequestBundle#CACHE_TIMEOUT}.
+ */
+@Component(
+        label = "Composum Nodes Dictionary Observer",
+        immediate = true
+)
+public class DictionaryObserver implements EventListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DictionaryObserver.class);
+
+    /** the types of the nodes of the dictionaries (the parent nodes of the changes of a dictionary) */
+    public static final String[] DICTIONARY_NODE_TYPES = new String[]{
+            "mix:language", "sling:Message", "sling:MessageEntry"};
+
+    public static final int EVENT_TYPES = Event.NODE_ADDED |
+            Event.NODE_REMOVED |
+            Event.NODE_MOVED |
+            Event.PROPERTY_ADDED |
+            Event.PROPERTY_CHANGED |
+            Event.PROPERTY_REMOVED;
+
+    @Reference
+    private ResourceResolverFactory resolverFactory;
+
+    protected final RepositoryObservation observation = new RepositoryObservation();
+
+    @Activate
+    protected synchronized void activate() {
+        if (!observation.open(resolverFactory)
+                || !observation.addListener(this, EVENT_TYPES, DICTIONARY_NODE_TYPES, "/")) {
+            LOG.error("dictionary changes are not observed");
+        }
+    }
+
+    @Deactivate
+    protected synchronized void deactivate() {
+        observation.close();
+    }
+
+    @Override
+    public void onEvent(EventIterator events) {
+        if (events.hasNext()) {
+            LOG.debug("dictionary changed - dropping the cached bundles");
+            RequestBundle.clearBundleCache();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.composum.sling.core.event;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import javax.jcr.observation.ObservationManager;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The administrative observation session of an in-memory index: keeps the session open while the index is active
+ * and registers the listeners of the index for the observed paths. An index must not be used (or must fall back
+ * to the repository) if the observation is not open - it would not be kept current.
+ */
+public class RepositoryObservation {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RepositoryObservation.class);
+
+    /** Registers a listener for one more path (a listener instance can be registered for one path only). */
+    protected static class PathListener implements EventListener {
+
+        protected final EventListener listener;
+
+        public PathListener(EventListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void onEvent(EventIterator events) {
+            listener.onEvent(events);
+        }
+    }
+
+    private volatile ResourceResolverFactory resolverFactory;
+
+    /** the resolver of the observation session; null if the observation is not open */
+    private volatile ResourceResolver resolver;
+
+    private final List<EventListener> registered = new ArrayList<>();
+
+    @SuppressWarnings("deprecation")
+    public static ResourceResolver createAdministrativeResolver(ResourceResolverFactory resolverFactory)
+            throws LoginException {
+        return resolverFactory.getAdministrativeResourceResolver(null);
+    }
+
+    /**
+     * Opens the observation session.
+     *
+     * @return 'true' if the observation is open
+     */
+    public synchronized boolean open(ResourceResolverFactory resolverFactory) {
+        if (resolver == null) {
+            this.resolverFactory = resolverFactory;
+            try {
+                ResourceResolver created = createAdministrativeResolver(resolverFactory);
+                if (created.adaptTo(Session.class) != null) {
+                    resolver = created;
+                } else {
+                    created.close();
+                }
+            } catch (LoginException ex) {
+                LOG.error("repository observation not available: " + ex.getMessage(), ex);
+            }
+        }
+        return resolver != null;
+    }
+
+    /**
+     * Registers the listener for the change events below each of the paths; closes the observation if that fails.
+     *
+     * @return 'true' if the listener is registered for all paths
+     */
+    public synchronized boolean addListener(EventListener listener, int eventTypes, String... paths) {
+        return addListener(listener, eventTypes, null, paths);
+    }
+
+    /**
+     * Registers the listener for the change events below each of the paths which are associated with a node of
+     * one of the node types (the parent node of a changed property or of an added or removed node).
+     *
+     * @param nodeTypes the node types (primary types or mixins) of the associated nodes; 'null' for all nodes
+     * @return 'true' if the listener is registered for all paths
+     */
+    public synchronized boolean addListener(EventListener listener, int eventTypes, String[] nodeTypes,
+                                            String... paths) {
+        ResourceResolver current = resolver;
+        if (current != null) {
+            try {
+                ObservationManager observationManager = getObservationManager(current);
+                for (String path : paths) {
+                    EventListener pathListener = new PathListener(listener);
+                    observationManager.addEventListener(pathListener, eventTypes, path, true, null, nodeTypes, false);
+                    registered.add(pathListener);
+                }
+                return true;
+            } catch (RepositoryException ex) {
+                LOG.error("repository observation not available: " + ex.getMessage(), ex);
+                close();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes all listeners and closes the observation session.
+     */
+    public synchronized void close() {
+        ResourceResolver current = resolver;
+        resolver = null;
+        if (current != null) {
+            try {
+                ObservationManager observationManager = getObservationManager(current);
+                for (EventListener listener : registered) {
+                    observationManager.removeEventListener(listener);
+                }
+            } catch (RepositoryException ex) {
+                LOG.error(ex.getMessage(), ex);
+            } finally {
+                registered.clear();
+                current.close();
+            }
+        }
+    }
+
+    public boolean isOpen() {
+        return resolver != null;
+    }
+
+    /**
+     * @return the search path of the observation session; empty if the observation is not open
+     */
+    public String[] getSearchPath() {
+        ResourceResolver current = resolver;
+        return current != null ? current.getSearchPath() : new String[0];
+    }
+
+    /**
+     * @return a new administrative resolver to load the content of the index; must be closed by the caller
+     * @throws LoginException if the observation has never been opened
+     */
+    public ResourceResolver createAdministrativeResolver() throws LoginException {
+        ResourceResolverFactory factory = resolverFactory;
+        if (factory == null) {
+            throw new LoginException("repository observation not opened");
+        }
+        return createAdministrativeResolver(factory);
+    }
+
+    protected static ObservationManager getObservationManager(ResourceResolver resolver)
+            throws RepositoryException {
+        return resolver.adaptTo(Session.class).getWorkspace().getObservationManager();
+    }
+}
@@ -0,0 +1,112 @@
+package com.composum.sling.core.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The compiled form of the pattern list of a {@link StringFilter.PatternList}: checks whether one of the patterns
+ * is found in a value (see {@link java.util.regex.Matcher#find()}). Patterns without regular expression syntax are
+ * checked as plain strings (contained, prefix with '^', suffix with '$' or equal with both); all other patterns are
+ * combined into one alternation so that a value is scanned once instead of once per pattern.
+ */
+public class PatternMatcher {
+
+    /** the characters which make a pattern a 'real' regular expression */
+    protected static final String REGEX_CHARS = "\\.[]{}()<>*+-=!?^$|";
+
+    protected final List<Pattern> patterns;
+
+    protected final List<String> contained = new ArrayList<>();
+    protected final List<String> prefixes = new ArrayList<>();
+    protected final List<String> suffixes = new ArrayList<>();
+    protected final List<String> equal = new ArrayList<>();
+    protected final List<Pattern> regex = new ArrayList<>();
+
+    public PatternMatcher(List<Pattern> patterns) {
+        this.patterns = patterns;
+        List<Pattern> combinable = new ArrayList<>();
+        for (Pattern pattern : patterns) {
+            String expression = pattern.pattern();
+            if (pattern.flags() != 0) {
+                regex.add(pattern);
+                continue;
+            }
+            boolean start = expression.startsWith("^");
+            boolean end = expression.endsWith("$") && !expression.endsWith("\\$");
+            String literal = expression.substring(start ? 1 : 0, Math.max(start ? 1 : 0,
+                    expression.length() - (end ? 1 : 0)));
+            if (isLiteral(literal)) {
+                (start ? (end ? equal : prefixes) : (end ? suffixes : contained)).add(literal);
+            } else if (expression.matches(".*\\\\[0-9k].*")) {
+                // back references are numbered or named per pattern - not combinable
+                regex.add(pattern);
+            } else {
+                combinable.add(pattern);
+            }
+        }
+        if (combinable.size() > 1) {
+            StringBuilder alternation = new StringBuilder();
+            for (Pattern pattern : combinable) {
+                if (alternation.length() > 0) {
+                    alternation.append('|');
+                }
+                alternation.append("(?:").append(pattern.pattern()).append(')');
+            }
+            try {
+                regex.add(Pattern.compile(alternation.toString()));
+            } catch (PatternSyntaxException ex) { // e.g. duplicate group names
+                regex.addAll(combinable);
+            }
+        } else {
+            regex.addAll(combinable);
+        }
+    }
+
+    /** the pattern list this matcher is compiled from */
+    public List<Pattern> getPatterns() {
+        return patterns;
+    }
+
+    /**
+     * @return 'true' if one of the patterns is found in the value
+     */
+    public boolean find(String value) {
+        for (String literal : equal) {
+            if (value.equals(literal)) {
+                return true;
+            }
+        }
+        for (String prefix : prefixes) {
+            if (value.startsWith(prefix)) {
+                return true;
+            }
+        }
+        for (String suffix : suffixes) {
+            if (value.endsWith(suffix)) {
+                return true;
+            }
+        }
+        for (String literal : contained) {
+            if (value.contains(literal)) {
+                return true;
+            }
+        }
+        for (Pattern pattern : regex) {
+            if (pattern.matcher(value).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected static boolean isLiteral(String expression) {
+        for (int i = 0; i < expression.length(); i++) {
+            if (REGEX_CHARS.indexOf(expression.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
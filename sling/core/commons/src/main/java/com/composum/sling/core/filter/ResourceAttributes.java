@@ -0,0 +1,135 @@
+package com.composum.sling.core.filter;
+
+import com.composum.sling.core.ResourceHandle;
+import com.composum.sling.core.util.ResourceUtil;
+import org.apache.sling.api.resource.Resource;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.nodetype.NodeType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The attributes of a resource which are checked by the {@link ResourceFilter}s, each one read at most once during
+ * the evaluation of a {@link ResourceFilter.FilterSet} for the resource. The outermost filter set opens a scope for
+ * the resource in the current thread; all filters of the set use the attributes of this scope.
+ */
+class ResourceAttributes {
+
+    private static final ThreadLocal<ResourceAttributes> CURRENT = new ThreadLocal<>();
+
+    protected final Resource resource;
+    protected final ResourceAttributes previous;
+
+    private String name;
+    private String primaryType;
+    private boolean primaryTypeRead;
+    private String resourceType;
+    private boolean resourceTypeRead;
+    private String mimeType;
+    private boolean mimeTypeRead;
+    private List<String> nodeTypeNames;
+    private boolean nodeTypeNamesRead;
+
+    protected ResourceAttributes(Resource resource, ResourceAttributes previous) {
+        this.resource = resource;
+        this.previous = previous;
+    }
+
+    /**
+     * Opens the scope for the resource if not already open.
+     *
+     * @return the new scope which must be closed by {@link #close(ResourceAttributes)}; null if already open
+     */
+    static ResourceAttributes open(Resource resource) {
+        ResourceAttributes current = CURRENT.get();
+        if (resource == null || (current != null && current.resource == resource)) {
+            return null;
+        }
+        ResourceAttributes scope = new ResourceAttributes(resource, current);
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    static void close(ResourceAttributes scope) {
+        if (scope != null) {
+            if (scope.previous != null) {
+                CURRENT.set(scope.previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the attributes of the open scope of the resource or not memoized attributes if no scope is open
+     */
+    static ResourceAttributes of(Resource resource) {
+        ResourceAttributes current = CURRENT.get();
+        return current != null && current.resource == resource ? current : new ResourceAttributes(resource, null);
+    }
+
+    String getName() {
+        if (name == null) {
+            name = resource.getName();
+        }
+        return name;
+    }
+
+    String getPrimaryType() {
+        if (!primaryTypeRead) {
+            primaryType = ResourceUtil.getPrimaryType(resource);
+            primaryTypeRead = true;
+        }
+        return primaryType;
+    }
+
+    String getResourceType() {
+        if (!resourceTypeRead) {
+            resourceType = resource.getResourceType();
+            resourceTypeRead = true;
+        }
+        return resourceType;
+    }
+
+    String getMimeType() {
+        if (!mimeTypeRead) {
+            mimeType = ResourceHandle.use(resource).getProperty(ResourceUtil.PROP_MIME_TYPE);
+            mimeTypeRead = true;
+        }
+        return mimeType;
+    }
+
+    /**
+     * @return the names of the primary type, the mixin types and all their supertypes in the order of the
+     * JCR API; null if the node types are not available (no node or a synthetic resource)
+     */
+    List<String> getNodeTypeNames() {
+        if (!nodeTypeNamesRead) {
+            nodeTypeNamesRead = true;
+            Node node = resource.adaptTo(Node.class);
+            if (node != null) {
+                try {
+                    List<String> names = new ArrayList<>();
+                    NodeType primaryNodeType = node.getPrimaryNodeType();
+                    names.add(primaryNodeType.getName());
+                    for (NodeType primarySuperType : primaryNodeType.getSupertypes()) {
+                        names.add(primarySuperType.getName());
+                    }
+                    for (NodeType mixinType : node.getMixinNodeTypes()) {
+                        names.add(mixinType.getName());
+                        for (NodeType mixinSuperType : mixinType.getSupertypes()) {
+                            names.add(mixinSuperType.getName());
+                        }
+                    }
+                    nodeTypeNames = Collections.unmodifiableList(names);
+                } catch (RepositoryException e) {
+                    // ok, its possible that mixin types are not available (synthetic resource)
+                }
+            }
+        }
+        return nodeTypeNames;
+    }
+}
@@ -1,6 +1,5 @@
 package com.composum.sling.core.filter;
 
-import com.composum.sling.core.ResourceHandle;
 import com.composum.sling.core.mapping.jcr.ResourceFilterMapping;
 import com.composum.sling.core.util.CoreConstants;
 import com.composum.sling.core.util.ResourceUtil;
@@ -14,7 +13,6 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
-import javax.jcr.nodetype.NodeType;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -263,7 +261,7 @@ public interface ResourceFilter {
          */
         @Override
         public boolean accept(Resource resource) {
-            return resource != null && filter.accept(resource.getName());
+            return resource != null && filter.accept(ResourceAttributes.of(resource).getName());
         }
 
         /**
@@ -337,7 +335,7 @@ public interface ResourceFilter {
          */
         @Override
         public boolean accept(Resource resource) {
-            String primaryType = ResourceUtil.getPrimaryType(resource);
+            String primaryType = resource != null ? ResourceAttributes.of(resource).getPrimaryType() : null;
             if (StringUtils.isNotBlank(primaryType)) { return filter.accept(primaryType); }
             return false;
         }
@@ -380,33 +378,15 @@ public interface ResourceFilter {
         @Override
         public boolean accept(Resource resource) {
             if (resource != null) {
-                Node node = resource.adaptTo(Node.class);
-                if (node != null) {
-                    try {
-                        NodeType primaryNodeType = node.getPrimaryNodeType();
-                        if (filter.isRestriction() != filter.accept(primaryNodeType.getName())) {
-                            return !filter.isRestriction();
+                List<String> nodeTypeNames = ResourceAttributes.of(resource).getNodeTypeNames();
+                if (nodeTypeNames != null) {
+                    boolean restriction = filter.isRestriction();
+                    for (String nodeTypeName : nodeTypeNames) {
+                        if (restriction != filter.accept(nodeTypeName)) {
+                            return !restriction;
                         }
-                        for (NodeType primarySuperType : primaryNodeType.getSupertypes()) {
-                            if (filter.isRestriction() != filter.accept(primarySuperType.getName())) {
-                                return !filter.isRestriction();
-                            }
-                        }
-                        NodeType[] mixinTypes = node.getMixinNodeTypes();
-                        for (NodeType mixinType : mixinTypes) {
-                            if (filter.isRestriction() != filter.accept(mixinType.getName())) {
-                                return !filter.isRestriction();
-                            }
-                            for (NodeType mixinSuperType : mixinType.getSupertypes()) {
-                                if (filter.isRestriction() != filter.accept(mixinSuperType.getName())) {
-                                    return !filter.isRestriction();
-                                }
-                            }
-                        }
-                        return filter.isRestriction();
-                    } catch (RepositoryException e) {
-                        // ok, its possible that mixin types are not available (synthetic resource)
                     }
+                    return restriction;
                 }
             }
             return false;
@@ -448,7 +428,7 @@ public interface ResourceFilter {
         @Override
         public boolean accept(Resource resource) {
             if (resource != null) {
-                String type = resource.getResourceType();
+                String type = ResourceAttributes.of(resource).getResourceType();
                 if (StringUtils.isNotBlank(type)) {
                     return accept(type);
                 } else {
@@ -498,12 +478,11 @@ public interface ResourceFilter {
         @Override
         public boolean accept(Resource resource) {
             if (resource != null) {
-                ResourceHandle handle = ResourceHandle.use(resource);
-                String mimeType = handle.getProperty(ResourceUtil.PROP_MIME_TYPE);
+                String mimeType = ResourceAttributes.of(resource).getMimeType();
                 if (StringUtils.isNotBlank(mimeType)) {
                     return filter.accept(mimeType);
                 } else {
-                    Resource content = handle.getChild(ResourceUtil.CONTENT_NODE);
+                    Resource content = resource.getChild(ResourceUtil.CONTENT_NODE);
                     return accept(content);
                 }
             }
@@ -663,13 +642,23 @@ public interface ResourceFilter {
         }
 
         /**
-         * Accepts a value if the combination by the selected rule matches to the resource.
+         * Accepts a value if the combination by the selected rule matches to the resource. The attributes of the
+         * resource are read at most once for all filters of the set (see {@link ResourceAttributes}).
          *
          * @param resource the resource object value to check
          * @return 'true', if the resource matches
          */
         @Override
         public boolean accept(Resource resource) {
+            ResourceAttributes scope = ResourceAttributes.open(resource);
+            try {
+                return evaluate(resource);
+            } finally {
+                ResourceAttributes.close(scope);
+            }
+        }
+
+        protected boolean evaluate(Resource resource) {
             switch (rule) {
                 case tree:
                 case or:
@@ -695,10 +684,11 @@ public interface ResourceFilter {
                     return true;
                 case first:
                     for (ResourceFilter filter : set) {
-                        if (filter.accept(resource) && !filter.isRestriction()) {
+                        boolean accepted = filter.accept(resource);
+                        if (accepted && !filter.isRestriction()) {
                             return true;
                         }
-                        if (!filter.accept(resource) && filter.isRestriction()) {
+                        if (!accepted && filter.isRestriction()) {
                             return false;
                         }
                     }
@@ -706,10 +696,11 @@ public interface ResourceFilter {
                 case last:
                     for (int i = set.size() - 1; i >= 0; --i) {
                         ResourceFilter filter = set.get(i);
-                        if (filter.accept(resource) && !filter.isRestriction()) {
+                        boolean accepted = filter.accept(resource);
+                        if (accepted && !filter.isRestriction()) {
                             return true;
                         }
-                        if (!filter.accept(resource) && filter.isRestriction()) {
+                        if (!accepted && filter.isRestriction()) {
                             return false;
                         }
                     }
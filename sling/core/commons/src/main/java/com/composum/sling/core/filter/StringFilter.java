@@ -98,6 +98,9 @@ public interface StringFilter {
         /** such a filter uses a list of patterns to implement the filter function */
         protected List<Pattern> patterns;
 
+        /** the compiled form of the patterns; rebuilt if the pattern list is replaced */
+        private transient PatternMatcher matcher;
+
         /**
          * The constructor which builds a pattern list by one single string
          * with a ',' separated list of regular expression
@@ -142,6 +145,17 @@ public interface StringFilter {
             return patterns;
         }
 
+        /**
+         * @return 'true' if one of the patterns is found in the value (see {@link Matcher#find()})
+         */
+        protected boolean find(String value) {
+            PatternMatcher compiled = matcher;
+            if (compiled == null || compiled.getPatterns() != patterns) {
+                matcher = compiled = new PatternMatcher(patterns);
+            }
+            return compiled.find(value);
+        }
+
         /**
          * The constructor function to generate the regular expression patterns from string values.
          *
@@ -223,12 +237,7 @@ public interface StringFilter {
          */
         @Override
         public boolean accept(String value) {
-            for (Pattern pattern : patterns) {
-                if (pattern.matcher(value).find()) {
-                    return true;
-                }
-            }
-            return false;
+            return find(value);
         }
 
         /**
@@ -289,12 +298,7 @@ public interface StringFilter {
          */
         @Override
         public boolean accept(String value) {
-            for (Pattern pattern : patterns) {
-                if (pattern.matcher(value).find()) {
-                    return false;
-                }
-            }
-            return true;
+            return !find(value);
         }
 
         /**
@@ -402,10 +406,11 @@ public interface StringFilter {
                     return set.size() > 0;
                 case first:
                     for (StringFilter filter : set) {
-                        if (filter.accept(value) && !filter.isRestriction()) {
+                        boolean accepted = filter.accept(value);
+                        if (accepted && !filter.isRestriction()) {
                             return true;
                         }
-                        if (!filter.accept(value) && filter.isRestriction()) {
+                        if (!accepted && filter.isRestriction()) {
                             return false;
                         }
                     }
@@ -413,10 +418,11 @@ public interface StringFilter {
                 case last:
                     boolean result = false;
                     for (StringFilter filter : set) {
-                        if (filter.accept(value) && !filter.isRestriction()) {
+                        boolean accepted = filter.accept(value);
+                        if (accepted && !filter.isRestriction()) {
                             result = true;
                         }
-                        if (!filter.accept(value) && filter.isRestriction()) {
+                        if (!accepted && filter.isRestriction()) {
                             result = false;
                         }
                     }
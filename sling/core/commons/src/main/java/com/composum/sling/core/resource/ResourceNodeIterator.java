@@ -12,7 +12,12 @@ import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
+/**
+ * Iterates lazily over the resources of the nodes of a node iterator (e.g. of a query result); resources which are
+ * not accepted by the filter or not resolvable are skipped.
+ */
 public class ResourceNodeIterator implements Iterator<Resource> {
 
     private static final Logger LOG = LoggerFactory.getLogger(ResourceNodeIterator.class);
@@ -21,6 +26,8 @@ public class ResourceNodeIterator implements Iterator<Resource> {
     protected final NodeIterator nodeIterator;
     protected final ResourceFilter filter;
 
+    private Resource next;
+
     public ResourceNodeIterator(@Nonnull final ResourceResolver resolver, @Nonnull final NodeIterator nodeIterator) {
         this(resolver, nodeIterator, null);
     }
@@ -34,18 +41,28 @@ public class ResourceNodeIterator implements Iterator<Resource> {
 
     @Override
     public boolean hasNext() {
-        return nodeIterator.hasNext();
+        while (next == null && nodeIterator.hasNext()) {
+            try {
+                Node node = nodeIterator.nextNode();
+                Resource resource = resolver.getResource(node.getPath());
+                if (resource != null && filter.accept(resource)) {
+                    next = resource;
+                }
+            } catch (RepositoryException ex) {
+                LOG.error(ex.getMessage(), ex);
+            }
+        }
+        return next != null;
     }
 
     @Override
     public Resource next() {
-        try {
-            Node node = nodeIterator.nextNode();
-            return resolver.getResource(node.getPath());
-        } catch (RepositoryException ex) {
-            LOG.error(ex.getMessage(), ex);
-            return null;
+        if (!hasNext()) {
+            throw new NoSuchElementException();
         }
+        Resource resource = next;
+        next = null;
+        return resource;
     }
 
     @Override
@@ -4,6 +4,7 @@ import com.composum.sling.core.concurrent.AbstractJobExecutor;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Properties;
 import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
@@ -74,6 +75,9 @@ public class GroovyJobExecutor extends AbstractJobExecutor<Object> {
     )
     protected String groovySetupScript;
 
+    /** the compiled scripts of the jobs; not the shared cache of the runners, which is kept on deactivation */
+    protected final GroovyScriptCache scriptCache = new GroovyScriptCache();
+
     @Reference
     protected DynamicClassLoaderManager dynamicClassLoaderManager;
 
@@ -87,6 +91,14 @@ public class GroovyJobExecutor extends AbstractJobExecutor<Object> {
         }
     }
 
+    @Override
+    @Deactivate
+    protected void deactivate(ComponentContext context) {
+        super.deactivate(context);
+        // release the compiled classes (and the class loader they are referencing)
+        scriptCache.clear();
+    }
+
     @Override
     protected String getJobTopic() {
         return GROOVY_TOPIC;
@@ -157,7 +169,7 @@ public class GroovyJobExecutor extends AbstractJobExecutor<Object> {
         public Object call() throws Exception {
             ClassLoader tccl = Thread.currentThread().getContextClassLoader();
             Thread.currentThread().setContextClassLoader(dynamicClassLoaderManager.getDynamicClassLoader());
-            final GroovyRunner groovyRunner = new GroovyRunner(session, out, groovySetupScript);
+            final GroovyRunner groovyRunner = new GroovyRunner(session, out, groovySetupScript, scriptCache);
             final HashMap<String, Object> variables = new HashMap<>();
             variables.put("jctx", context);
             variables.put("job", job);
@@ -2,16 +2,14 @@ package com.composum.sling.core.script;
 
 import com.composum.sling.core.util.ResourceUtil;
 import groovy.lang.Binding;
-import groovy.lang.GroovyShell;
 import groovy.lang.MissingPropertyException;
 import groovy.lang.Script;
-import groovy.transform.ThreadInterrupt;
+import org.apache.commons.io.IOUtils;
 import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceResolverFactory;
-import org.codehaus.groovy.control.CompilerConfiguration;
-import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
+import org.codehaus.groovy.runtime.InvokerHelper;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.FrameworkUtil;
@@ -56,12 +54,19 @@ public class GroovyRunner {
 
     protected String setupScript;
 
+    protected GroovyScriptCache scriptCache;
+
     public GroovyRunner(Session session, PrintWriter out) {
         this(session, out, DEFAULT_SETUP_SCRIPT);
     }
 
     public GroovyRunner(Session session, PrintWriter out, String setupScript) {
+        this(session, out, setupScript, GroovyScriptCache.SHARED);
+    }
+
+    public GroovyRunner(Session session, PrintWriter out, String setupScript, GroovyScriptCache scriptCache) {
         this.out = out;
+        this.scriptCache = scriptCache;
         this.session = session;
         this.setupScript = setupScript;
         if (session != null) {
@@ -106,21 +111,22 @@ public class GroovyRunner {
         return result;
     }
 
+    /**
+     * Creates a new instance of the compiled script class; the class is compiled once for each script name and
+     * source and taken from the {@link #scriptCache} for each further run of the same source.
+     */
     protected Script getScript(Reader scriptReader, Map<String, Object> variables, String name) {
         if (variables == null) {
             variables = new HashMap<>();
         }
-        CompilerConfiguration compilerConfig = new CompilerConfiguration();
-        compilerConfig.addCompilationCustomizers(
-                new ASTTransformationCustomizer(ThreadInterrupt.class));
-
-        Binding binding = new Binding(variables);
-        GroovyShell shell = new GroovyShell(binding,compilerConfig);
-        if (name == null) {
-            return shell.parse(scriptReader);
-        } else {
-            return shell.parse(scriptReader, name);
+        String source;
+        try {
+            source = IOUtils.toString(scriptReader);
+        } catch (IOException ioex) {
+            throw new IllegalArgumentException("can't read script '" + name + "'", ioex);
         }
+        Class<?> scriptClass = scriptCache.getScriptClass(source, name);
+        return InvokerHelper.createScript(scriptClass, new Binding(variables));
     }
 
     protected void extendBinding(Script script, Object variables) {
@@ -144,27 +150,42 @@ public class GroovyRunner {
 
     protected Object setup(Script script) {
         Object result = null;
-        Reader reader = getScriptResource(setupScript);
-        if (reader != null) {
-            try {
-                try {
-                    Map<String, Object> variables = new HashMap<>();
-                    variables.put("script", script);
-                    variables.put("log", LOG);
-                    variables.put("out", out);
-                    Script setupScript = getScript(reader, variables, this.setupScript.substring(this.setupScript.lastIndexOf('/') + 1));
-                    extendBinding(setupScript, generalBindings);
-                    result = setupScript.run();
-                } finally {
-                    reader.close();
-                }
-            } catch (IOException ioex) {
-                LOG.error(ioex.getMessage(), ioex);
-            }
+        Class<?> setupClass = getSetupClass();
+        if (setupClass != null) {
+            Map<String, Object> variables = new HashMap<>();
+            variables.put("script", script);
+            variables.put("log", LOG);
+            variables.put("out", out);
+            Script setupScript = InvokerHelper.createScript(setupClass, new Binding(variables));
+            extendBinding(setupScript, generalBindings);
+            result = setupScript.run();
         }
         return result;
     }
 
+    /**
+     * Returns the compiled setup script; the script is read and compiled again only if the modification time
+     * of its resource has been changed.
+     */
+    protected Class<?> getSetupClass() {
+        long modified = -1L;
+        if (resourceResolver != null) {
+            Resource resource = resourceResolver.getResource(setupScript);
+            if (resource != null) {
+                modified = resource.getResourceMetadata().getModificationTime();
+            }
+        }
+        return scriptCache.getScriptClass(setupScript + "@" + modified,
+                setupScript.substring(setupScript.lastIndexOf('/') + 1), () -> {
+                    try (Reader reader = getScriptResource(setupScript)) {
+                        return reader != null ? IOUtils.toString(reader) : null;
+                    } catch (IOException ioex) {
+                        LOG.error(ioex.getMessage(), ioex);
+                        return null;
+                    }
+                });
+    }
+
     protected Reader getScriptResource(String path) {
         Reader reader = null;
         if (resourceResolver != null) {
@@ -0,0 +1,159 @@
+package com.composum.sling.core.script;
+
+import groovy.lang.GroovyClassLoader;
+import groovy.transform.ThreadInterrupt;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The cache of the compiled script classes of the {@link GroovyRunner}. The classes are compiled by one shared
+ * {@link GroovyClassLoader} (the 'generation') and cached by the script name and the hash of their source, so a
+ * script is compiled once and each run only creates a new instance of the class. A changed script resource has
+ * another hash and is compiled again; the generation is dropped with all its classes (the outdated ones too) if the parent class
+ * loader (the dynamic class loader of the platform) changes or if the number of its classes reaches a limit.
+ * <p>
+ * The script instances are not shared, but the classes are - static fields of a script keep their values
+ * between the runs of the same source.
+ * </p>
+ */
+public class GroovyScriptCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GroovyScriptCache.class);
+
+    /** the number of compiled classes after which a new generation is started to release their memory */
+    public static final int MAX_CLASSES = 500;
+
+    /** the cache used by all runners which are not using their own cache */
+    public static final GroovyScriptCache SHARED = new GroovyScriptCache();
+
+    protected class Generation {
+
+        public final ClassLoader parent;
+        public final GroovyClassLoader classLoader;
+
+        /** script key (name and source hash) -> compiled script class */
+        public final Map<String, Class<?>> classes = new ConcurrentHashMap<>();
+
+        public Generation(ClassLoader parent) {
+            this.parent = parent;
+            CompilerConfiguration compilerConfig = new CompilerConfiguration();
+            compilerConfig.addCompilationCustomizers(
+                    new ASTTransformationCustomizer(ThreadInterrupt.class));
+            classLoader = new GroovyClassLoader(parent, compilerConfig);
+        }
+    }
+
+    protected volatile Generation generation;
+
+    /**
+     * Returns the compiled class of the script source; compiles the script if not cached yet.
+     *
+     * @param source the script code
+     * @param name   the file name of the script (e.g. 'test.groovy'); generated from the hash if 'null'
+     */
+    public Class<?> getScriptClass(String source, String name) {
+        String hash = DigestUtils.sha256Hex(source);
+        String fileName = name != null ? name : "Script_" + hash.substring(0, 16) + ".groovy";
+        return getScriptClass(fileName + "#" + hash, fileName, () -> source);
+    }
+
+    /**
+     * Returns the compiled class cached for the key; the source is read and compiled only if not cached yet.
+     *
+     * @param key      the cache key which must change if the source is changing
+     * @param fileName the file name of the script used in the traces
+     * @param source   the supplier of the script code; no class is cached if the supplier returns 'null'
+     * @return the compiled class or 'null' if no source is available
+     */
+    public Class<?> getScriptClass(String key, String fileName, Supplier<String> source) {
+        Generation current = getGeneration(Thread.currentThread().getContextClassLoader());
+        Class<?> scriptClass = current.classes.get(key);
+        if (scriptClass == null) {
+            synchronized (current) {
+                scriptClass = current.classes.get(key);
+                if (scriptClass == null) {
+                    String code = source.get();
+                    if (code == null) {
+                        return null;
+                    }
+                    LOG.debug("compiling '{}' ({})", fileName, key);
+                    scriptClass = current.classLoader.parseClass(code, fileName);
+                    current.classes.put(key, scriptClass);
+                }
+            }
+            if (current.classes.size() >= MAX_CLASSES) {
+                invalidate(current);
+            }
+        }
+        return scriptClass;
+    }
+
+    /**
+     * Drops all compiled classes; the scripts are compiled again by a new generation on their next use.
+     */
+    public void clear() {
+        Generation current = generation;
+        if (current != null) {
+            invalidate(current);
+        }
+    }
+
+    /**
+     * @return the number of cached script classes
+     */
+    public int size() {
+        Generation current = generation;
+        return current != null ? current.classes.size() : 0;
+    }
+
+    protected Generation getGeneration(ClassLoader parent) {
+        if (parent == null) {
+            parent = GroovyScriptCache.class.getClassLoader();
+        }
+        Generation current = generation;
+        if (current == null || current.parent != parent) {
+            synchronized (this) {
+                current = generation;
+                if (current == null || current.parent != parent) {
+                    if (current != null) {
+                        LOG.info("class loader changed - dropping {} compiled scripts", current.classes.size());
+                        close(current);
+                    }
+                    current = new Generation(parent);
+                    generation = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    protected synchronized void invalidate(Generation outdated) {
+        if (generation == outdated) {
+            generation = null;
+            close(outdated);
+        }
+    }
+
+    /**
+     * Releases the class loader of a dropped generation; the classes already loaded by it stay usable for the
+     * scripts running currently. Waits for a compilation in progress in the generation.
+     */
+    protected void close(Generation outdated) {
+        synchronized (outdated) {
+            outdated.classLoader.clearCache();
+            try {
+                outdated.classLoader.close();
+            } catch (IOException ex) {
+                LOG.warn("closing the script class loader failed: {}", ex.toString());
+            }
+        }
+    }
+}
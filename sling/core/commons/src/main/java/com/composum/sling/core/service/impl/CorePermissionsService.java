@@ -1,7 +1,14 @@
 package com.composum.sling.core.service.impl;
 
+import com.composum.sling.core.event.RepositoryObservation;
 import com.composum.sling.core.service.PermissionsService;
+import com.composum.sling.core.util.LruMap;
+import com.composum.sling.core.util.PrincipalKey;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
 import org.apache.jackrabbit.api.JackrabbitSession;
 import org.apache.jackrabbit.api.security.user.Authorizable;
@@ -9,22 +16,92 @@ import org.apache.jackrabbit.api.security.user.Group;
 import org.apache.jackrabbit.api.security.user.User;
 import org.apache.jackrabbit.api.security.user.UserManager;
 import org.apache.jackrabbit.commons.jackrabbit.authorization.AccessControlUtils;
+import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
 import javax.jcr.security.AccessControlManager;
 import javax.jcr.security.Privilege;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 
+/**
+ * The permissions service: the decisions are cached per principal set (the user and its groups) and path until a
+ * membership or an access control list is changed - the changes are observed by an administrative session for the
+ * authorizables, the access controlled nodes and the removed or moved nodes. Without observation each check is
+ * evaluated by the session. The privileges of a path are evaluated in one step for all checked privileges.
+ */
 @Component(
         label = "Composum Nodes Permissions Service"
 )
 @Service
-public class CorePermissionsService implements PermissionsService {
+public class CorePermissionsService implements PermissionsService, EventListener {
 
     private static final Logger LOG = LoggerFactory.getLogger(CorePermissionsService.class);
 
+    /** the number of cached decisions (of each kind); the least recently used decisions are dropped */
+    public static final int MAX_DECISIONS = 1000;
+
+    public static final String AUTHORIZABLES_ROOT = "/home";
+
+    public static final String PROP_MEMBERS = "rep:members";
+    public static final String NODE_MEMBERS_LIST = "rep:membersList";
+
+    public static final String[] POLICY_NODE_NAMES = new String[]{
+            "rep:policy", "rep:repoPolicy", "rep:cugPolicy", "rep:principalPolicy"};
+
+    /** the types of the nodes with access control policies (the parent nodes of the changes of a policy) */
+    public static final String[] POLICY_NODE_TYPES = new String[]{
+            "rep:AccessControllable", "rep:RepoAccessControllable", "rep:CugMixin", "rep:PrincipalBasedMixin",
+            "rep:ACL", "rep:ACE", "rep:Restrictions", "rep:CugPolicy", "rep:PrincipalPolicy"};
+
+    /** the changes of the repository structure which change the inherited access control */
+    public static final int STRUCTURE_EVENT_TYPES = Event.NODE_REMOVED | Event.NODE_MOVED;
+
+    public static final int EVENT_TYPES = Event.NODE_ADDED |
+            Event.NODE_REMOVED |
+            Event.NODE_MOVED |
+            Event.PROPERTY_ADDED |
+            Event.PROPERTY_CHANGED |
+            Event.PROPERTY_REMOVED;
+
+    /** the cached value of a 'null' decision */
+    protected static final Object NONE = new Object();
+
+    @Reference
+    private ResourceResolverFactory resolverFactory;
+
+    /** principal key + checked groups -> decision; synchronized on the map */
+    protected final Map<String, Object> memberships = new LruMap<>(MAX_DECISIONS);
+    /** path + principal key + checked privileges -> decision; synchronized on the map */
+    protected final Map<String, Object> privileges = new LruMap<>(MAX_DECISIONS);
+
+    /** the observation session of the changes of the memberships and the access control lists */
+    protected final RepositoryObservation observation = new RepositoryObservation();
+
+    @Activate
+    protected synchronized void activate() {
+        if (!observation.open(resolverFactory)
+                || !observation.addListener(this, EVENT_TYPES, AUTHORIZABLES_ROOT)
+                || !observation.addListener(this, EVENT_TYPES, POLICY_NODE_TYPES, "/")
+                || !observation.addListener(this, STRUCTURE_EVENT_TYPES, "/")) {
+            LOG.error("permission decisions are not cached");
+        }
+    }
+
+    @Deactivate
+    protected synchronized void deactivate() {
+        observation.close();
+        clear();
+    }
+
     /**
      * @param session         the current session
      * @param authorizableIds a list of group ids to check
@@ -32,22 +109,30 @@ public class CorePermissionsService implements PermissionsService {
      */
     @Override
     public String isMemberOfOne(Session session, String... authorizableIds) {
+        String key = decisionKey(session, "one", authorizableIds);
+        Object decision = get(memberships, key);
+        if (decision != null) {
+            return decision != NONE ? (String) decision : null;
+        }
+        String result = null;
         try {
             UserManager userManager = ((JackrabbitSession) session).getUserManager();
             Authorizable user = userManager.getAuthorizable(session.getUserID());
             for (String authorizableId : authorizableIds) {
                 Authorizable authorizable = userManager.getAuthorizable(authorizableId);
                 if (authorizable instanceof Group && ((Group) authorizable).isMember(user)) {
-                    return authorizableId;
+                    result = authorizableId;
+                    break;
                 }
             }
-            if (user instanceof User && ((User) user).isAdmin()) {
-                return ""; // always 'include' 'admin' user but no specific group returned
+            if (result == null && user instanceof User && ((User) user).isAdmin()) {
+                result = ""; // always 'include' 'admin' user but no specific group returned
             }
+            cache(memberships, key, result);
         } catch (RepositoryException ex) {
             LOG.error(ex.getMessage(), ex);
         }
-        return null;
+        return result;
     }
 
     /**
@@ -57,19 +142,26 @@ public class CorePermissionsService implements PermissionsService {
      */
     @Override
     public boolean isMemberOfAll(Session session, String... authorizableIds) {
+        String key = decisionKey(session, "all", authorizableIds);
+        Object decision = get(memberships, key);
+        if (decision != null) {
+            return (Boolean) decision;
+        }
         try {
+            boolean result = true;
             UserManager userManager = ((JackrabbitSession) session).getUserManager();
             Authorizable user = userManager.getAuthorizable(session.getUserID());
-            if (user instanceof User && ((User) user).isAdmin()) {
-                return true; // always include 'admin' user
-            }
-            for (String authorizableId : authorizableIds) {
-                Authorizable authorizable = userManager.getAuthorizable(authorizableId);
-                if (!(authorizable instanceof Group) || !((Group) authorizable).isMember(user)) {
-                    return false;
+            if (!(user instanceof User && ((User) user).isAdmin())) { // always include 'admin' user
+                for (String authorizableId : authorizableIds) {
+                    Authorizable authorizable = userManager.getAuthorizable(authorizableId);
+                    if (!(authorizable instanceof Group) || !((Group) authorizable).isMember(user)) {
+                        result = false;
+                        break;
+                    }
                 }
             }
-            return true;
+            cache(memberships, key, result);
+            return result;
         } catch (RepositoryException ex) {
             LOG.error(ex.getMessage(), ex);
         }
@@ -83,18 +175,28 @@ public class CorePermissionsService implements PermissionsService {
      */
     @Override
     public String hasOneOfPrivileges(Session session, String path, String... privilegeKeys) {
+        String key = decisionKey(session, path + "\none", privilegeKeys);
+        Object decision = get(privileges, key);
+        if (decision != null) {
+            return decision != NONE ? (String) decision : null;
+        }
+        String result = null;
         try {
             final AccessControlManager acManager = session.getAccessControlManager();
             final Privilege[] privileges = AccessControlUtils.privilegesFromNames(acManager, privilegeKeys);
+            // all privileges of the path are evaluated once instead of one evaluation per checked privilege
+            Set<String> granted = getLeafNames(acManager.getPrivileges(path));
             for (Privilege privilege : privileges) {
-                if (acManager.hasPrivileges(path, new Privilege[]{privilege})) {
-                    return privilege.getName();
+                if (granted.containsAll(getLeafNames(privilege))) {
+                    result = privilege.getName();
+                    break;
                 }
             }
+            cache(this.privileges, key, result);
         } catch (RepositoryException ex) {
             LOG.error(ex.getMessage(), ex);
         }
-        return null;
+        return result;
     }
 
     /**
@@ -104,13 +206,142 @@ public class CorePermissionsService implements PermissionsService {
      */
     @Override
     public boolean hasAllPrivileges(Session session, String path, String... privilegeKeys) {
+        String key = decisionKey(session, path + "\nall", privilegeKeys);
+        Object decision = get(privileges, key);
+        if (decision != null) {
+            return (Boolean) decision;
+        }
         try {
             final AccessControlManager acManager = session.getAccessControlManager();
             final Privilege[] privileges = AccessControlUtils.privilegesFromNames(acManager, privilegeKeys);
-            return acManager.hasPrivileges(path, privileges);
+            boolean result = acManager.hasPrivileges(path, privileges);
+            cache(this.privileges, key, result);
+            return result;
         } catch (RepositoryException ex) {
             LOG.error(ex.getMessage(), ex);
         }
         return false;
     }
+
+    /**
+     * @return the names of the non aggregate privileges contained in the privileges
+     */
+    protected static Set<String> getLeafNames(Privilege... privileges) {
+        Set<String> names = new HashSet<>();
+        for (Privilege privilege : privileges) {
+            if (privilege.isAggregate()) {
+                for (Privilege aggregated : privilege.getAggregatePrivileges()) {
+                    if (!aggregated.isAggregate()) {
+                        names.add(aggregated.getName());
+                    }
+                }
+            } else {
+                names.add(privilege.getName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return the key of a decision; null if decisions are not cached (no observation or no principals)
+     */
+    protected String decisionKey(Session session, String check, String... names) {
+        if (!observation.isOpen()) {
+            return null;
+        }
+        String principals = PrincipalKey.getKey(session);
+        if (principals == null) {
+            return null;
+        }
+        return check + "\n" + principals + "\n" + StringUtils.join(names, '\n');
+    }
+
+    protected Object get(Map<String, Object> decisions, String key) {
+        if (key == null) {
+            return null;
+        }
+        synchronized (decisions) {
+            return decisions.get(key);
+        }
+    }
+
+    protected void cache(Map<String, Object> decisions, String key, Object decision) {
+        if (key != null) {
+            synchronized (decisions) {
+                decisions.put(key, decision != null ? decision : NONE);
+            }
+        }
+    }
+
+    /**
+     * Drops all cached decisions.
+     */
+    public void clear() {
+        synchronized (memberships) {
+            memberships.clear();
+        }
+        clearPrivileges();
+    }
+
+    protected void clearPrivileges() {
+        synchronized (privileges) {
+            privileges.clear();
+        }
+    }
+
+    @Override
+    public void onEvent(EventIterator events) {
+        while (events.hasNext()) {
+            Event event = events.nextEvent();
+            try {
+                String path = event.getPath();
+                int type = event.getType();
+                if (path.startsWith(AUTHORIZABLES_ROOT + "/")
+                        && (path.endsWith("/" + PROP_MEMBERS) || path.contains("/" + NODE_MEMBERS_LIST)
+                        || type == Event.NODE_REMOVED || type == Event.NODE_MOVED)) {
+                    clear(); // the principals of the members (and so their privileges) have changed
+                } else if (isPolicyPath(path)) {
+                    clearPrivileges();
+                } else if (type == Event.NODE_REMOVED) {
+                    removePrivileges(path);
+                } else if (type == Event.NODE_MOVED) {
+                    // the inherited access control of the moved tree has changed
+                    removePrivileges(path);
+                    Map<?, ?> info = event.getInfo();
+                    Object source = info != null ? info.get("srcAbsPath") : null;
+                    if (source != null) {
+                        removePrivileges(source.toString());
+                    } else {
+                        clearPrivileges();
+                    }
+                }
+            } catch (RepositoryException ex) {
+                LOG.error(ex.getMessage(), ex);
+                clear();
+            }
+        }
+    }
+
+    protected static boolean isPolicyPath(String path) {
+        for (String name : POLICY_NODE_NAMES) {
+            if (path.contains("/" + name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops the privilege decisions of a removed node and its subtree.
+     */
+    protected void removePrivileges(String path) {
+        synchronized (privileges) {
+            for (Iterator<String> iterator = privileges.keySet().iterator(); iterator.hasNext(); ) {
+                String key = iterator.next();
+                if (key.startsWith(path + "\n") || key.startsWith(path + "/")) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
 }
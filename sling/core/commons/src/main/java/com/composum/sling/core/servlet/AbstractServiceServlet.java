@@ -47,8 +47,10 @@ public abstract class AbstractServiceServlet extends SlingAllMethodsServlet {
     public static final String PARAM_INDEX = "index";
     public static final String PARAM_JCR_CONTENT = "jcrContent";
     public static final String PARAM_LABEL = "label";
+    public static final String PARAM_LIMIT = "limit";
     public static final String PARAM_MIME_TYPE = "mimeType";
     public static final String PARAM_NAME = "name";
+    public static final String PARAM_OFFSET = "offset";
     public static final String PARAM_PATH = "path";
     public static final String PARAM_BEFORE = "before";
     public static final String PARAM_QUERY = "query";
@@ -32,9 +32,14 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 
 @Component(componentAbstract = true)
 public abstract class NodeTreeServlet extends AbstractServiceServlet {
@@ -113,10 +118,13 @@ public abstract class NodeTreeServlet extends AbstractServiceServlet {
      * suffix: the path to the node
      * selectors / parameters:
      * - 'label': 'name' or 'title' - selects the value to use for the nodes 'text' attribute
+     * - 'offset', 'limit': the page of the children list to return (all children if no limit is given);
+     * a paged response contains a 'hasMore' flag if further children are available
      * URL examples:
      * - http://host/bin/cpm/nodes/node.tree.json/path/to/the/node
      * - http://host/bin/cpm/nodes/node.tree.title.json/path/to/the/node
      * - http://host/bin/cpm/nodes/node.tree.json/path/to/the/node?label=title
+     * - http://host/bin/cpm/nodes/node.tree.json/path/to/the/node?offset=200&limit=100
      */
     public class TreeOperation implements ServletOperation {
 
@@ -141,12 +149,16 @@ public abstract class NodeTreeServlet extends AbstractServiceServlet {
             TreeNodeStrategy strategy = getNodeStrategy(request);
             LabelType labelType = RequestUtil.getParameter(request, PARAM_LABEL,
                     RequestUtil.getSelector(request, LabelType.name));
+            int offset = Math.max(RequestUtil.getParameter(request, PARAM_OFFSET, 0), 0);
+            int limit = RequestUtil.getParameter(request, PARAM_LIMIT, 0);
 
             JsonWriter jsonWriter = ResponseUtil.getJsonWriter(response);
 
             response.setStatus(HttpServletResponse.SC_OK);
 
-            writeJsonNode(jsonWriter, strategy, resource, labelType, false);
+            jsonWriter.beginObject();
+            writeJsonNodeData(jsonWriter, strategy, resource, labelType, false, offset, limit);
+            jsonWriter.endObject();
         }
     }
 
@@ -157,6 +169,15 @@ public abstract class NodeTreeServlet extends AbstractServiceServlet {
         return items;
     }
 
+    /**
+     * extension hook for the sorting of a page of the children
+     *
+     * @return the order of the children of the resource; 'null' for the repository order
+     */
+    protected Comparator<Resource> getTreeItemsOrder(ResourceHandle resource) {
+        return null;
+    }
+
     //
     // JSON helpers
     //
@@ -172,18 +193,58 @@ public abstract class NodeTreeServlet extends AbstractServiceServlet {
     public void writeJsonNodeData(JsonWriter writer, TreeNodeStrategy nodeStrategy,
                                   ResourceHandle resource, LabelType labelType, boolean isVirtual)
             throws IOException {
+        writeJsonNodeData(writer, nodeStrategy, resource, labelType, isVirtual, 0, 0);
+    }
+
+    /**
+     * Writes the node data with one page of its children. With a limit the children are written while iterating
+     * without collecting the complete list - only the first 'offset + limit' children are kept if the children
+     * have to be sorted (see {@link #getTreeItemsOrder(ResourceHandle)}).
+     *
+     * @param offset the number of (filtered) children to skip
+     * @param limit  the maximum number of children to write; all children if <= 0
+     */
+    public void writeJsonNodeData(JsonWriter writer, TreeNodeStrategy nodeStrategy,
+                                  ResourceHandle resource, LabelType labelType, boolean isVirtual,
+                                  int offset, int limit)
+            throws IOException {
         ResourceFilter filter = nodeStrategy.getFilter();
         writeNodeIdentifiers(writer, nodeStrategy, resource, labelType, isVirtual);
         writeNodeTreeType(writer, filter, resource, isVirtual);
         writeNodeJcrState(writer, resource);
-        List<Resource> children = new ArrayList<>();
+        Comparator<Resource> order = limit > 0 ? getTreeItemsOrder(resource) : null;
+        List<Resource> children = limit > 0 ? null : new ArrayList<Resource>();
+        PriorityQueue<Resource> page = null != order
+                ? new PriorityQueue<>(offset + limit + 1, Collections.reverseOrder(order)) : null;
+        Set<String> paths = new HashSet<>();
         boolean hasChildren = false;
+        boolean hasMore = false;
+        int count = 0;
         for (Resource child : nodeStrategy.getChildren(resource)) {
-            hasChildren = true;
+            if (!hasChildren) {
+                hasChildren = true;
+                if (null == children && null == page) {
+                    writer.name("children").beginArray();
+                }
+            }
             if (filter.accept(child) &&
                     // filter out additional synthetic folders in addition to the 1st level '//...' nodes (AEM 6.1 !?)
-                    !(ResourceUtil.containsPath(children, child) && ResourceUtil.isSyntheticResource(child))) {
-                children.add(ResourceHandle.use(child));
+                    (paths.add(child.getPath()) || !ResourceUtil.isSyntheticResource(child))) {
+                if (null != children) {
+                    children.add(ResourceHandle.use(child));
+                } else if (null != page) {
+                    count++;
+                    page.add(child);
+                    if (page.size() > offset + limit) {
+                        page.poll();
+                    }
+                } else if (count++ >= offset) {
+                    if (count > offset + limit) {
+                        hasMore = true;
+                        break;
+                    }
+                    writeJsonChild(writer, nodeStrategy, filter, child, labelType, isVirtual);
+                }
             }
         }
         if (!hasChildren) {
@@ -191,23 +252,41 @@ public abstract class NodeTreeServlet extends AbstractServiceServlet {
                 addVirtualContent(writer, nodeStrategy, resource, labelType);
             }
         } else {
-            children = prepareTreeItems(resource, children);
-            writer.name("children").beginArray();
-            for (Resource child : children) {
-                ResourceHandle handle = ResourceHandle.use(child);
-                writer.beginObject();
-                writeNodeIdentifiers(writer, nodeStrategy, ResourceHandle.use(child), labelType, isVirtual);
-                writeNodeTreeType(writer, filter, handle, isVirtual);
-                writeNodeJcrState(writer, handle);
-                writer.name("state").beginObject(); // that's the 'jstree' state object
-                writer.name("loaded").value(false);
-                writer.endObject();
-                writer.endObject();
+            if (null != children) {
+                children = prepareTreeItems(resource, children);
+            } else if (null != page) {
+                hasMore = count > offset + limit;
+                children = new ArrayList<>(page);
+                Collections.sort(children, order);
+                children = children.subList(Math.min(offset, children.size()), children.size());
+            }
+            if (null != children) {
+                writer.name("children").beginArray();
+                for (Resource child : children) {
+                    writeJsonChild(writer, nodeStrategy, filter, child, labelType, isVirtual);
+                }
             }
             writer.endArray();
+            if (limit > 0) {
+                writer.name("hasMore").value(hasMore);
+            }
         }
     }
 
+    protected void writeJsonChild(JsonWriter writer, TreeNodeStrategy nodeStrategy, ResourceFilter filter,
+                                  Resource child, LabelType labelType, boolean isVirtual)
+            throws IOException {
+        ResourceHandle handle = ResourceHandle.use(child);
+        writer.beginObject();
+        writeNodeIdentifiers(writer, nodeStrategy, handle, labelType, isVirtual);
+        writeNodeTreeType(writer, filter, handle, isVirtual);
+        writeNodeJcrState(writer, handle);
+        writer.name("state").beginObject(); // that's the 'jstree' state object
+        writer.name("loaded").value(false);
+        writer.endObject();
+        writer.endObject();
+    }
+
     public void writeNodeTreeType(JsonWriter writer, ResourceFilter filter,
                                   ResourceHandle resource, boolean isVirtual)
             throws IOException {
@@ -0,0 +1,184 @@
+package com.composum.sling.core.util;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jackrabbit.api.ReferenceBinary;
+import org.apache.sling.api.servlets.HttpConstants;
+
+import javax.annotation.Nullable;
+import javax.jcr.Binary;
+import javax.jcr.RepositoryException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Sends the content of a JCR binary as the answer of a GET request: with its 64-bit size and the validators
+ * (ETag, Last-Modified) of the content; conditional requests are answered with 304, byte range requests with
+ * 206 (a single range or 'multipart/byteranges'). The ranges are read by position from the binary, so a seek
+ * in a video or a resumed download transfers only the requested part of the content.
+ */
+public class BinaryDelivery {
+
+    /** the size of the transfer buffer */
+    public static final int BUFFER_SIZE = 256 * 1024;
+
+    /** the maximum number of ranges of a multipart answer; the whole content is sent for more ranges */
+    public static final int MAX_RANGES = 16;
+
+    public static final String MULTIPART_BYTERANGES = "multipart/byteranges; boundary=";
+    public static final String BOUNDARY = "composum_byteranges_boundary";
+
+    public static final String CRLF = "\r\n";
+
+    /**
+     * Sends the binary; the content type (and a disposition) must be set by the caller.
+     *
+     * @param lastModified the time of the last modification of the content; optional
+     */
+    public static void deliver(HttpServletRequest request, HttpServletResponse response,
+                               Binary binary, @Nullable Calendar lastModified)
+            throws IOException, RepositoryException {
+
+        long length = binary.getSize();
+        long lastModifiedTime = lastModified != null ? lastModified.getTimeInMillis() / 1000L * 1000L : -1L;
+        String etag = getETag(binary, length, lastModifiedTime);
+
+        if (etag != null) {
+            response.setHeader(HttpUtil.HEADER_ETAG, etag);
+        }
+        if (lastModifiedTime >= 0) {
+            response.setDateHeader(HttpConstants.HEADER_LAST_MODIFIED, lastModifiedTime);
+        }
+        response.setHeader(HttpUtil.HEADER_ACCEPT_RANGES, HttpUtil.VALUE_BYTES);
+
+        String ifNoneMatch = request.getHeader(HttpUtil.HEADER_IF_NONE_MATCH);
+        if (ifNoneMatch != null
+                ? HttpUtil.matchesETag(ifNoneMatch, etag)
+                : HttpUtil.notModifiedSince(getDateHeader(request, HttpConstants.HEADER_IF_MODIFIED_SINCE),
+                lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        List<HttpUtil.ByteRange> ranges = HttpUtil.isRangeValid(
+                request.getHeader(HttpUtil.HEADER_IF_RANGE), etag, lastModifiedTime)
+                ? HttpUtil.parseRanges(request.getHeader(HttpUtil.HEADER_RANGE), length) : null;
+        if (ranges != null && ranges.isEmpty()) {
+            response.setHeader(HttpUtil.HEADER_CONTENT_RANGE, HttpUtil.VALUE_BYTES + " */" + length);
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+
+        if (ranges != null && ranges.size() == 1) {
+            HttpUtil.ByteRange range = ranges.get(0);
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(HttpUtil.HEADER_CONTENT_RANGE, range.getContentRange(length));
+            response.setHeader(HttpUtil.HEADER_CONTENT_LENGTH, Long.toString(range.getLength()));
+            copy(binary, response.getOutputStream(), range.start, range.getLength());
+
+        } else if (ranges != null && ranges.size() <= MAX_RANGES) {
+            String contentType = response.getContentType();
+            List<byte[]> partHeaders = new ArrayList<>();
+            long contentLength = 0L;
+            for (HttpUtil.ByteRange range : ranges) {
+                byte[] partHeader = (CRLF + "--" + BOUNDARY + CRLF
+                        + (StringUtils.isNotBlank(contentType) ? "Content-Type: " + contentType + CRLF : "")
+                        + HttpUtil.HEADER_CONTENT_RANGE + ": " + range.getContentRange(length) + CRLF + CRLF)
+                        .getBytes(StandardCharsets.ISO_8859_1);
+                partHeaders.add(partHeader);
+                contentLength += partHeader.length + range.getLength();
+            }
+            byte[] closing = (CRLF + "--" + BOUNDARY + "--" + CRLF).getBytes(StandardCharsets.ISO_8859_1);
+            contentLength += closing.length;
+
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setContentType(MULTIPART_BYTERANGES + BOUNDARY);
+            response.setHeader(HttpUtil.HEADER_CONTENT_LENGTH, Long.toString(contentLength));
+            OutputStream output = response.getOutputStream();
+            for (int i = 0; i < ranges.size(); i++) {
+                HttpUtil.ByteRange range = ranges.get(i);
+                output.write(partHeaders.get(i));
+                copy(binary, output, range.start, range.getLength());
+            }
+            output.write(closing);
+
+        } else {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setHeader(HttpUtil.HEADER_CONTENT_LENGTH, Long.toString(length));
+            try (InputStream input = binary.getStream()) {
+                copy(input, response.getOutputStream(), length);
+            }
+        }
+    }
+
+    /**
+     * Builds the entity tag of a binary from its metadata without reading the content: from the content reference
+     * of the repository (the content identity of the data store) if available, from the time of the last
+     * modification and the size otherwise.
+     *
+     * @param lastModified the time of the last modification of the content; -1 if not known
+     * @return the strong entity tag; 'null' if the identity of the content can not be determined
+     */
+    @Nullable
+    public static String getETag(Binary binary, long length, long lastModified) throws RepositoryException {
+        if (binary instanceof ReferenceBinary) {
+            String reference = ((ReferenceBinary) binary).getReference();
+            if (StringUtils.isNotBlank(reference)) {
+                return "\"" + DigestUtils.sha1Hex(reference) + "\"";
+            }
+        }
+        return lastModified >= 0 ? HttpUtil.buildETag(lastModified, length) : null;
+    }
+
+    /**
+     * Copies a range of the binary (read by position) to the output stream.
+     *
+     * @throws EOFException if the content ends before the end of the range
+     */
+    public static void copy(Binary binary, OutputStream output, long position, long length)
+            throws IOException, RepositoryException {
+        byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(length, 1L))];
+        while (length > 0) {
+            int read = binary.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("content ends within the range");
+            }
+            read = (int) Math.min(read, length);
+            output.write(buffer, 0, read);
+            position += read;
+            length -= read;
+        }
+    }
+
+    /**
+     * Copies the whole content of the input stream to the output stream.
+     *
+     * @param length the expected length of the content (to size the transfer buffer)
+     */
+    public static void copy(InputStream input, OutputStream output, long length) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(length, 1L))];
+        int read;
+        while ((read = input.read(buffer)) >= 0) {
+            output.write(buffer, 0, read);
+        }
+    }
+
+    /**
+     * @return the value of a date header; -1 if the header is not present or not a valid date
+     */
+    public static long getDateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException ex) {
+            return -1L; // not a valid date - ignored
+        }
+    }
+}
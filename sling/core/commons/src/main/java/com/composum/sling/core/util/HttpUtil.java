@@ -1,8 +1,18 @@
 package com.composum.sling.core.util;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.servlets.HttpConstants;
 
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * A basic class for all '/bin/{service}/path/to/resource' servlets.
@@ -22,6 +32,139 @@ public class HttpUtil extends HttpConstants {
 
     public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
 
+    public static final String HEADER_ETAG = "ETag";
+
+    public static final String HEADER_RANGE = "Range";
+    public static final String HEADER_IF_RANGE = "If-Range";
+    public static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+    public static final String HEADER_CONTENT_RANGE = "Content-Range";
+    public static final String VALUE_BYTES = "bytes";
+
+    public static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    public static final Pattern BYTE_RANGE = Pattern.compile("^\\s*(\\d*)\\s*-\\s*(\\d*)\\s*$");
+
+    /** A range of bytes of a content, both positions inclusive. */
+    public static class ByteRange {
+
+        public final long start;
+        public final long end;
+
+        public ByteRange(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public long getLength() {
+            return end - start + 1;
+        }
+
+        /** @return the value of the {@link #HEADER_CONTENT_RANGE} header for this range */
+        public String getContentRange(long contentLength) {
+            return VALUE_BYTES + " " + start + "-" + end + "/" + contentLength;
+        }
+
+        @Override
+        public String toString() {
+            return start + "-" + end;
+        }
+    }
+
+    /**
+     * Builds a strong entity tag from the time of the last modification and the size of a content.
+     */
+    public static String buildETag(long lastModified, long contentLength) {
+        return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(contentLength) + "\"";
+    }
+
+    /**
+     * Checks an {@link #HEADER_IF_NONE_MATCH} header (weak comparison, '*' matches each entity tag).
+     *
+     * @return 'true' if one of the entity tags of the header value matches the entity tag of the content
+     */
+    public static boolean matchesETag(String ifNoneMatch, String etag) {
+        if (StringUtils.isNotBlank(ifNoneMatch) && etag != null) {
+            String opaque = StringUtils.removeStart(etag, "W/");
+            for (String candidate : StringUtils.split(ifNoneMatch, ',')) {
+                candidate = candidate.trim();
+                if ("*".equals(candidate) || opaque.equals(StringUtils.removeStart(candidate, "W/"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks an {@link #HEADER_IF_RANGE} header: a range request is only served partially if the content is
+     * unchanged (strong comparison of the entity tag or the exact time of the last modification).
+     *
+     * @param ifRange      the value of the 'If-Range' header; the range is valid if not present
+     * @param lastModified the time of the last modification of the content; -1 if not known
+     */
+    public static boolean isRangeValid(String ifRange, String etag, long lastModified) {
+        if (StringUtils.isBlank(ifRange)) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return etag != null && !etag.startsWith("W/") && ifRange.equals(etag);
+        }
+        long date = parseDate(ifRange);
+        return lastModified >= 0 && date >= 0 && date == lastModified / 1000L * 1000L;
+    }
+
+    /**
+     * Parses a {@link #HEADER_RANGE} header for a content of the given length.
+     *
+     * @return the satisfiable ranges in the requested order; an empty list if no range is satisfiable;
+     * null if no range is requested or the header is not a valid byte range request (the whole content is sent)
+     */
+    public static List<ByteRange> parseRanges(String rangeHeader, long contentLength) {
+        if (StringUtils.isBlank(rangeHeader) || !rangeHeader.trim().startsWith(VALUE_BYTES + "=")) {
+            return null;
+        }
+        List<ByteRange> ranges = new ArrayList<>();
+        for (String spec : StringUtils.split(rangeHeader.trim().substring(VALUE_BYTES.length() + 1), ',')) {
+            Matcher matcher = BYTE_RANGE.matcher(spec);
+            if (!matcher.matches() || (matcher.group(1).isEmpty() && matcher.group(2).isEmpty())
+                    || matcher.group(1).length() > 18 || matcher.group(2).length() > 18) {
+                return null;
+            }
+            if (matcher.group(1).isEmpty()) { // suffix range: the last n bytes
+                long suffix = Long.parseLong(matcher.group(2));
+                if (suffix > 0 && contentLength > 0) {
+                    ranges.add(new ByteRange(Math.max(0, contentLength - suffix), contentLength - 1));
+                }
+            } else {
+                long start = Long.parseLong(matcher.group(1));
+                long end = matcher.group(2).isEmpty() ? Long.MAX_VALUE : Long.parseLong(matcher.group(2));
+                if (end < start) {
+                    return null;
+                }
+                if (start < contentLength) {
+                    ranges.add(new ByteRange(start, Math.min(end, contentLength - 1)));
+                }
+            }
+        }
+        return ranges.isEmpty() ? Collections.<ByteRange>emptyList() : ranges;
+    }
+
+    /**
+     * Parses an HTTP date (RFC 1123 format as used by all current clients).
+     *
+     * @return the time in milliseconds; -1 if the value is not a valid date
+     */
+    public static long parseDate(String value) {
+        SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(value.trim()).getTime();
+        } catch (ParseException ex) {
+            return -1;
+        }
+    }
+
     /**
      * Checks whether we can skip transmission of a resource because of a recent enough {@link #HEADER_IF_MODIFIED_SINCE}
      * header.
@@ -0,0 +1,171 @@
+package com.composum.sling.core.util;
+
+import com.composum.sling.core.mapping.MappingRules;
+import com.google.gson.stream.JsonWriter;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.RepositoryException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The export of resource trees as JSON objects (the engine of {@link JsonUtil#exportJson}). The tree is traversed
+ * depth first and written directly to the writer; the children are iterated lazily. The properties of a node are
+ * collected in a sort buffer which is reused for all nodes of the export (the properties are written before the
+ * children, so one buffer is enough); the sorting can be switched off for a faster export. The writer is flushed
+ * after each 'flushInterval' nodes to stream large exports to the client instead of buffering them.
+ */
+public class JsonExporter {
+
+    /** the number of exported nodes after which the writer is flushed by a streaming export */
+    public static final int DEFAULT_FLUSH_INTERVAL = 1000;
+
+    protected final JsonWriter writer;
+    protected final MappingRules mapping;
+    protected final boolean sorted;
+    protected final int flushInterval;
+
+    // the reusable property buffer: names and values (a JCR property or a value of a synthetic resource)
+    private String[] names = new String[32];
+    private Object[] values = new Object[32];
+    private int size;
+
+    private long nodeCount;
+
+    /**
+     * an export with sorted properties and without intermediate flushes
+     */
+    public JsonExporter(JsonWriter writer, MappingRules mapping) {
+        this(writer, mapping, true, 0);
+    }
+
+    /**
+     * @param sorted        'true' if the properties should be written sorted by their names
+     * @param flushInterval the number of nodes after which the writer is flushed; 0: no intermediate flush
+     */
+    public JsonExporter(JsonWriter writer, MappingRules mapping, boolean sorted, int flushInterval) {
+        this.writer = writer;
+        this.mapping = mapping;
+        this.sorted = sorted;
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * @return the number of nodes exported by this exporter so far
+     */
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    public void export(Resource resource) throws RepositoryException, IOException {
+        export(resource, 1);
+    }
+
+    public void export(Resource resource, int depth) throws RepositoryException, IOException {
+
+        if (resource != null) {
+
+            writer.beginObject();
+
+            exportProperties(resource);
+
+            nodeCount++;
+            if (flushInterval > 0 && nodeCount % flushInterval == 0) {
+                writer.flush();
+            }
+
+            // export children after the properties(!) if depth is not reached or not restricted
+            if (mapping.maxDepth == 0 || depth < mapping.maxDepth) {
+                depth++;
+                for (Iterator<Resource> children = resource.listChildren(); children.hasNext(); ) {
+                    Resource child = children.next();
+                    if (mapping.resourceFilter.accept(child)) {
+                        writer.name(child.getName());
+                        export(child, depth);
+                    }
+                }
+            }
+
+            writer.endObject();
+        }
+    }
+
+    public void exportProperties(Resource resource) throws RepositoryException, IOException {
+
+        Node node = resource.adaptTo(Node.class);
+
+        size = 0;
+        try {
+            if (node != null) {
+                // retrieve properties from the resources repository node
+                PropertyIterator iterator = node.getProperties();
+                while (iterator.hasNext()) {
+                    Property property = iterator.nextProperty();
+                    add(property.getName(), property);
+                }
+            } else {
+                // for synthetic resources use the synthetic values from the resources value map
+                ValueMap properties = ResourceUtil.getValueMap(resource);
+                for (Map.Entry<String, Object> entry : properties.entrySet()) {
+                    add(entry.getKey(), entry.getValue());
+                }
+            }
+
+            // write properties first to ensure that types are read first on import
+            if (mapping.propertyFormat.scope != MappingRules.PropertyFormat.Scope.value) {
+                writer.name(MappingRules.PROPERTIES_NAME);
+                writer.beginArray();
+            }
+            for (int i = 0; i < size; i++) {
+                String name = names[i];
+                if (mapping.exportPropertyFilter.accept(name)) {
+                    Object value = values[i];
+                    if (value instanceof Property) {
+                        JsonUtil.writeJsonProperty(writer, node, (Property) value, mapping);
+                    } else {
+                        // if no node exists (synthetic resource) the properties are simple values
+                        JsonUtil.writeJsonProperty(writer, name, value, mapping);
+                    }
+                }
+            }
+            if (mapping.propertyFormat.scope != MappingRules.PropertyFormat.Scope.value) {
+                writer.endArray();
+            }
+        } finally {
+            Arrays.fill(values, 0, size, null); // don't keep the properties of the last node
+            size = 0;
+        }
+    }
+
+    /**
+     * Adds a property to the buffer - at its sorted position if sorted; a duplicate name replaces the value.
+     */
+    protected void add(String name, Object value) {
+        int pos = size;
+        if (sorted) {
+            int index = Arrays.binarySearch(names, 0, size, name);
+            if (index >= 0) {
+                values[index] = value;
+                return;
+            }
+            pos = -index - 1;
+        }
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        if (pos < size) {
+            System.arraycopy(names, pos, names, pos + 1, size - pos);
+            System.arraycopy(values, pos, values, pos + 1, size - pos);
+        }
+        names[pos] = name;
+        values[pos] = value;
+        size++;
+    }
+}
@@ -0,0 +1,323 @@
+package com.composum.sling.core.util;
+
+import com.composum.sling.core.mapping.MappingRules;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.ValueFormatException;
+import javax.jcr.nodetype.ConstraintViolationException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The import of JSON mapped resource structures (the engine of {@link JsonUtil#importJson}). The JSON stream is
+ * parsed and imported node by node; only the properties of the nodes on the current path are kept in memory.
+ * <p>
+ * With a save threshold the session is saved (at a node boundary) each time the number of changes reaches the
+ * threshold, so a large import never accumulates the whole structure in the transient space. After each save the
+ * path of the last imported node is the 'checkpoint' of the import: all nodes up to the checkpoint (in the order
+ * of the JSON stream) are stored. An import of the same JSON data which is started with this checkpoint skips the
+ * property changes of these nodes and continues after the checkpoint.
+ * </p>
+ */
+public class JsonImporter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JsonImporter.class);
+
+    /** Observes the progress of an import with a save threshold. */
+    public interface Progress {
+
+        /** called after each intermediate save of the import */
+        void saved(JsonImporter importer);
+    }
+
+    protected final ResourceResolver resolver;
+    protected final MappingRules mapping;
+    protected final int saveThreshold;
+    protected final Progress progress;
+    protected final String resumeAfter;
+
+    protected Session session;
+    protected ValueFactory factory;
+
+    /** 'true' as long as the nodes up to the checkpoint of a resumed import are parsed */
+    protected boolean skipping;
+
+    protected long nodeCount;
+    protected long changeCount;
+    protected long savedCount;
+    protected String lastPath;
+    protected String checkpoint;
+
+    /**
+     * an import without intermediate saves; the changes must be saved by the caller
+     */
+    public JsonImporter(ResourceResolver resolver, MappingRules mapping) {
+        this(resolver, mapping, 0, null, null);
+    }
+
+    /**
+     * @param saveThreshold the number of changes after which the session is saved; 0: no intermediate saves
+     * @param checkpoint    the checkpoint of a previous import of the same data to resume; null: a new import
+     * @param progress      an optional observer of the intermediate saves
+     */
+    public JsonImporter(ResourceResolver resolver, MappingRules mapping,
+                        int saveThreshold, String checkpoint, Progress progress) {
+        this.resolver = resolver;
+        this.mapping = mapping;
+        this.saveThreshold = saveThreshold;
+        this.resumeAfter = checkpoint;
+        this.progress = progress;
+    }
+
+    /** @return the number of nodes parsed so far */
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    /** @return the number of changes (created nodes and imported properties) so far */
+    public long getChangeCount() {
+        return changeCount;
+    }
+
+    /** @return the number of changes stored by intermediate saves */
+    public long getSavedCount() {
+        return savedCount;
+    }
+
+    /**
+     * @return the path of the last node stored by an intermediate save; the checkpoint of the resumed import
+     * if not saved yet; null if nothing is stored
+     */
+    public String getCheckpoint() {
+        return checkpoint != null ? checkpoint : resumeAfter;
+    }
+
+    public Resource importJson(JsonReader reader, String path)
+            throws RepositoryException, IOException {
+        session = resolver.adaptTo(Session.class);
+        factory = session.getValueFactory();
+        skipping = resumeAfter != null;
+        return importNode(reader, path);
+    }
+
+    protected Resource importNode(JsonReader reader, String path)
+            throws RepositoryException, IOException {
+
+        nodeCount++;
+        Resource resource = resolver.getResource(path);
+        // the node is stored already if it exists up to the checkpoint
+        boolean skip = skipping && resource != null;
+        boolean propertiesDone = false;
+
+        Set<String> childrenSet = new HashSet<>();
+        // the properties of a new node are kept until the node is created; only the names are kept afterwards
+        Map<String, JsonUtil.JsonProperty> propertiesSet = new HashMap<>();
+        Set<String> propertyNames = new HashSet<>();
+
+        reader.beginObject();
+
+        JsonToken token;
+        while (reader.hasNext()) {
+
+            String name = reader.nextName();
+
+            if (MappingRules.PROPERTIES_NAME.equals(name)) {
+                reader.beginArray();
+                while ((token = reader.peek()) != JsonToken.END_ARRAY) {
+                    switch (token) {
+                        case BEGIN_OBJECT:
+                            JsonUtil.JsonProperty property = JsonUtil.GSON.fromJson(reader, JsonUtil.JsonProperty.class);
+                            importProperty(resource, property, propertiesSet, propertyNames);
+                            break;
+                    }
+                }
+                reader.endArray();
+
+            } else {
+
+                JsonUtil.JsonProperty property = null;
+
+                token = reader.peek();
+                switch (token) {
+                    case BEGIN_OBJECT:
+                        // child resource
+                        if (!propertiesDone) {
+                            propertiesDone = true;
+                            if (resource == null) {
+                                // to avoid expensive memory consumption the resource is created before
+                                // the first child is imported; that can be a problem if the types are
+                                // not available (primary type, mixin types) at this time
+                                resource = createResource(path, propertiesSet, propertyNames);
+                            }
+                            propertiesImported(path, skip);
+                        }
+                        try {
+                            importNode(reader, path + "/" + name);
+                        } catch (ConstraintViolationException cvex) {
+                            LOG.error(cvex.getMessage() + " (" + path + "/" + name + ")", cvex);
+                        }
+                        childrenSet.add(name);
+                        break;
+                    case BEGIN_ARRAY:
+                        // multi value property (short format)
+                        reader.beginArray();
+                        if (reader.peek() != JsonToken.END_ARRAY) {
+                            // ignore the additional child order array
+                            // FIXME: child reorder implementation needed
+                            if (!MappingRules.CHILD_ORDER_NAME.equals(name)) {
+                                property = JsonUtil.parseJsonProperty(reader, name);
+                                ArrayList<Object> values = new ArrayList<>();
+                                values.add(property.value);
+                                while ((token = reader.peek()) != JsonToken.END_ARRAY) {
+                                    switch (token) {
+                                        case BOOLEAN:
+                                            values.add(reader.nextBoolean());
+                                            break;
+                                        case NUMBER:
+                                            values.add(reader.nextLong());
+                                            break;
+                                        case STRING:
+                                            values.add(JsonUtil.parseJsonString(reader, property));
+                                            break;
+                                        case NULL:
+                                            reader.nextNull();
+                                            break;
+                                    }
+                                }
+                                property.value = values.toArray();
+                                property.multi = true;
+                            } else {
+                                while ((token = reader.peek()) != JsonToken.END_ARRAY) {
+                                    reader.nextString();
+                                }
+                            }
+                        }
+                        reader.endArray();
+                        break;
+                    default:
+                        // single value property (short format)
+                        property = JsonUtil.parseJsonProperty(reader, name);
+                        break;
+                }
+                if (property != null) {
+                    importProperty(resource, property, propertiesSet, propertyNames);
+                }
+            }
+        }
+
+        reader.endObject();
+
+        if (resource == null) {
+            resource = createResource(path, propertiesSet, propertyNames);
+        }
+        if (!propertiesDone) {
+            propertiesImported(path, skip);
+        }
+
+        if (mapping.changeRule == MappingRules.ChangeRule.update) {
+            Node node = resource.adaptTo(Node.class);
+            if (node != null && !node.isNew()) {
+                // remove all properties not included in JSON object if 'update' rule is specified
+                PropertyIterator iterator = node.getProperties();
+                while (iterator.hasNext()) {
+                    Property property = iterator.nextProperty();
+                    String propertyName = property.getName();
+                    if (!propertyNames.contains(propertyName)
+                            && mapping.importPropertyFilter.accept(propertyName)) {
+                        try {
+                            node.setProperty(propertyName, (Value) null);
+                        } catch (ValueFormatException vfex) {
+                            node.setProperty(propertyName, (Value[]) null);
+                        }
+                        changeCount++;
+                    }
+                }
+                // remove all children not included in JSON object if the 'update' rule is specified
+                for (Resource child : resource.getChildren()) {
+                    String childName = child.getName();
+                    if (!childrenSet.contains(childName) && mapping.resourceFilter.accept(child)) {
+                        Node childNode = child.adaptTo(Node.class);
+                        if (childNode != null) {
+                            childNode.remove();
+                            changeCount++;
+                        }
+                    }
+                }
+            }
+        }
+        checkSave();
+        return resource;
+    }
+
+    /**
+     * Imports the property unless it is parsed before the checkpoint of a resumed import - the properties of an
+     * ancestor which follow the children of the ancestor after the checkpoint are not stored yet.
+     */
+    protected void importProperty(Resource resource, JsonUtil.JsonProperty property,
+                                  Map<String, JsonUtil.JsonProperty> propertiesSet, Set<String> propertyNames)
+            throws RepositoryException {
+        if (resource == null) {
+            // remember all properties found in JSON object for later store
+            propertiesSet.put(property.name, property);
+        } else if (skipping) {
+            // stored already by the import which has been resumed
+            propertyNames.add(property.name);
+        } else if (JsonUtil.importJsonProperty(factory, resource, property, mapping)) {
+            // remember all properties found in JSON object for finalizing
+            propertyNames.add(property.name);
+            changeCount++;
+        }
+    }
+
+    protected Resource createResource(String path, Map<String, JsonUtil.JsonProperty> propertiesSet,
+                                      Set<String> propertyNames)
+            throws RepositoryException {
+        Resource resource = JsonUtil.createResource(resolver, path, propertiesSet, factory, mapping);
+        for (Map.Entry<String, JsonUtil.JsonProperty> entry : propertiesSet.entrySet()) {
+            if (entry.getValue() != null) {
+                propertyNames.add(entry.getKey());
+            }
+        }
+        changeCount += propertiesSet.size() + 1;
+        propertiesSet.clear();
+        return resource;
+    }
+
+    /**
+     * Marks the node as imported up to its children; leaves the skipped part of a resumed import at its checkpoint.
+     */
+    protected void propertiesImported(String path, boolean skip) throws RepositoryException {
+        if (skipping && (!skip || path.equals(resumeAfter))) {
+            skipping = false;
+        }
+        lastPath = path;
+        checkSave();
+    }
+
+    protected void checkSave() throws RepositoryException {
+        if (saveThreshold > 0 && changeCount - savedCount >= saveThreshold && !skipping) {
+            session.save();
+            savedCount = changeCount;
+            checkpoint = lastPath;
+            if (progress != null) {
+                progress.saved(this);
+            }
+        }
+    }
+}
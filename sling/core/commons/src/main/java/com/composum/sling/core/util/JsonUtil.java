@@ -222,26 +222,7 @@ public class JsonUtil {
      */
     public static void exportJson(JsonWriter writer, Resource resource, MappingRules mapping, int depth)
             throws RepositoryException, IOException {
-
-        if (resource != null) {
-
-            writer.beginObject();
-
-            exportProperties(writer, resource, mapping);
-
-            // export children after the properties(!) if depth is not reached or not restricted
-            if (mapping.maxDepth == 0 || depth < mapping.maxDepth) {
-                depth++;
-                for (Resource child : resource.getChildren()) {
-                    if (mapping.resourceFilter.accept(child)) {
-                        writer.name(child.getName());
-                        exportJson(writer, child, mapping, depth);
-                    }
-                }
-            }
-
-            writer.endObject();
-        }
+        new JsonExporter(writer, mapping).export(resource, depth);
     }
 
     /**
@@ -250,50 +231,11 @@ public class JsonUtil {
      * @param mapping
      * @throws RepositoryException
      * @throws IOException
+     * @see JsonExporter#exportProperties(Resource)
      */
     public static void exportProperties(JsonWriter writer, Resource resource, MappingRules mapping)
             throws RepositoryException, IOException {
-
-        Node node = resource.adaptTo(Node.class);
-
-        // property collection for a sorted output
-        TreeMap<String, Object> propertiesSet = new TreeMap<>();
-        if (node != null) {
-            // retrieve properties from the resources repository node
-            PropertyIterator iterator = node.getProperties();
-            while (iterator.hasNext()) {
-                Property property = iterator.nextProperty();
-                propertiesSet.put(property.getName(), property);
-            }
-        } else {
-            // for synthetic resources use the synthetic values from the resources value map
-            ValueMap properties = ResourceUtil.getValueMap(resource);
-            for (Map.Entry<String, Object> entry : properties.entrySet()) {
-                propertiesSet.put(entry.getKey(), entry.getValue());
-            }
-        }
-
-        // write properties first to ensure that types are read first on import
-        if (mapping.propertyFormat.scope != MappingRules.PropertyFormat.Scope.value) {
-            writer.name(MappingRules.PROPERTIES_NAME);
-            writer.beginArray();
-        }
-        for (Map.Entry<String, Object> entry : propertiesSet.entrySet()) {
-            String name = entry.getKey();
-            if (mapping.exportPropertyFilter.accept(name)) {
-                Object value = entry.getValue();
-                if (value instanceof Property) {
-                    Property property = (Property) value;
-                    writeJsonProperty(writer, node, property, mapping);
-                } else {
-                    // if no node exists (synthetic resource) the properties are simple values
-                    writeJsonProperty(writer, name, value, mapping);
-                }
-            }
-        }
-        if (mapping.propertyFormat.scope != MappingRules.PropertyFormat.Scope.value) {
-            writer.endArray();
-        }
+        new JsonExporter(writer, mapping).exportProperties(resource);
     }
 
     /**
@@ -355,156 +297,7 @@ public class JsonUtil {
     public static Resource importJson(JsonReader reader, ResourceResolver resolver,
                                       String path, MappingRules mapping)
             throws RepositoryException, IOException {
-
-        Session session = resolver.adaptTo(Session.class);
-        ValueFactory factory = session.getValueFactory();
-
-        Resource resource = resolver.getResource(path);
-
-        ArrayList<String> childrenSet = new ArrayList<>();
-        HashMap<String, JsonProperty> propertiesSet = new HashMap<>();
-
-        reader.beginObject();
-
-        JsonToken token;
-        while (reader.hasNext()) {
-
-            String name = reader.nextName();
-
-            if (MappingRules.PROPERTIES_NAME.equals(name)) {
-                reader.beginArray();
-                while ((token = reader.peek()) != JsonToken.END_ARRAY) {
-                    switch (token) {
-                        case BEGIN_OBJECT:
-                            JsonProperty property = GSON.fromJson(reader, JsonProperty.class);
-                            if (resource != null) {
-                                if (importJsonProperty(factory, resource, property, mapping)) {
-                                    // remember all properties found in JSON object for finalizing
-                                    propertiesSet.put(property.name, property);
-                                }
-                            } else {
-                                // remember all properties found in JSON object for later store
-                                propertiesSet.put(property.name, property);
-                            }
-                            break;
-                    }
-                }
-                reader.endArray();
-
-            } else {
-
-                JsonProperty property = null;
-
-                token = reader.peek();
-                switch (token) {
-                    case BEGIN_OBJECT:
-                        // child resource
-                        try {
-                            if (resource == null) {
-                                // to avoid expensive memory consumption the resource is created before
-                                // the first child is imported; that can be a problem if the types are
-                                // not available (primary type, mixin types) at this time
-                                resource = createResource(resolver, path, propertiesSet, factory, mapping);
-                            }
-                            importJson(reader, resolver, path + "/" + name, mapping);
-                        } catch (ConstraintViolationException cvex) {
-                            LOG.error(cvex.getMessage() + " (" + path + "/" + name + ")", cvex);
-                        }
-                        childrenSet.add(name);
-                        break;
-                    case BEGIN_ARRAY:
-                        // multi value property (short format)
-                        reader.beginArray();
-                        if (reader.peek() != JsonToken.END_ARRAY) {
-                            // ignore the additional child order array
-                            // FIXME: child reorder implementation needed
-                            if (!MappingRules.CHILD_ORDER_NAME.equals(name)) {
-                                property = parseJsonProperty(reader, name);
-                                ArrayList<Object> values = new ArrayList<>();
-                                values.add(property.value);
-                                while ((token = reader.peek()) != JsonToken.END_ARRAY) {
-                                    switch (token) {
-                                        case BOOLEAN:
-                                            values.add(reader.nextBoolean());
-                                            break;
-                                        case NUMBER:
-                                            values.add(reader.nextLong());
-                                            break;
-                                        case STRING:
-                                            values.add(parseJsonString(reader, property));
-                                            break;
-                                        case NULL:
-                                            reader.nextNull();
-                                            break;
-                                    }
-                                }
-                                property.value = values.toArray();
-                                property.multi = true;
-                            } else {
-                                while ((token = reader.peek()) != JsonToken.END_ARRAY) {
-                                    reader.nextString();
-                                }
-                            }
-                        }
-                        reader.endArray();
-                        break;
-                    default:
-                        // single value property (short format)
-                        property = parseJsonProperty(reader, name);
-                        break;
-                }
-                if (property != null) {
-                    if (resource != null) {
-                        if (importJsonProperty(factory, resource, property, mapping)) {
-                            // remember all properties found in JSON object for finalizing
-                            propertiesSet.put(property.name, property);
-                        }
-                    } else {
-                        // remember all properties found in JSON object for later store
-                        propertiesSet.put(property.name, property);
-                    }
-                }
-            }
-        }
-
-        reader.endObject();
-
-        if (resource == null) {
-            resource = createResource(resolver, path, propertiesSet, factory, mapping);
-        }
-
-        if (mapping.changeRule == MappingRules.ChangeRule.update) {
-            Node node = resource.adaptTo(Node.class);
-            if (node != null && !node.isNew()) {
-                // remove all properties not included in JSON object if 'update' rule is specified
-                if (node != null) {
-                    PropertyIterator iterator = node.getProperties();
-                    while (iterator.hasNext()) {
-                        Property property = iterator.nextProperty();
-                        String propertyName = property.getName();
-                        if (propertiesSet.get(propertyName) == null
-                                && mapping.importPropertyFilter.accept(propertyName)) {
-                            try {
-                                node.setProperty(propertyName, (Value) null);
-                            } catch (ValueFormatException vfex) {
-                                node.setProperty(propertyName, (Value[]) null);
-                            }
-                        }
-                    }
-                }
-                // remove all children not included in JSON object if the 'update' rule is specified
-                for (Resource child : resource.getChildren()) {
-                    String childName = child.getName();
-                    if (!childrenSet.contains(childName) && mapping.resourceFilter.accept(child)) {
-                        Node childNode = child.adaptTo(Node.class);
-                        if (childNode != null) {
-                            childNode.remove();
-                        }
-                    }
-                }
-            }
-        }
-        return resource;
+        return new JsonImporter(resolver, mapping).importJson(reader, path);
     }
 
     /**
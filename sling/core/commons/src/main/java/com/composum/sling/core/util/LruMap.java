@@ -0,0 +1,29 @@
+package com.composum.sling.core.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A map with a maximum size which drops the least recently used entry if the size is exceeded; not synchronized -
+ * a map shared by several threads must be accessed within a block synchronized on the map.
+ */
+public class LruMap<K, V> extends LinkedHashMap<K, V> {
+
+    private static final long serialVersionUID = 1L;
+
+    protected final int maxSize;
+
+    public LruMap(int maxSize) {
+        super(16, 0.75f, true);
+        this.maxSize = maxSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > maxSize;
+    }
+}
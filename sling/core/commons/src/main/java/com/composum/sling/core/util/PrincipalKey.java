@@ -0,0 +1,70 @@
+package com.composum.sling.core.util;
+
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.Group;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+
+/**
+ * The key of the principals of a session (the user and all groups the user is a member of) for decisions which
+ * are cached for the users of a session - two users with different principals must not share such a decision.
+ */
+public class PrincipalKey {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PrincipalKey.class);
+
+    /** the keys of the open sessions (a session is used by one request, the key is built once) */
+    private static final Map<Session, String> KEYS = new WeakHashMap<>();
+
+    /**
+     * @return the user ID and the IDs of all groups of the user; 'null' if the principals can not be determined
+     */
+    @Nullable
+    public static String getKey(Session session) {
+        synchronized (KEYS) {
+            String key = KEYS.get(session);
+            if (key != null) {
+                return key;
+            }
+        }
+        String key = buildKey(session);
+        if (key != null) {
+            synchronized (KEYS) {
+                KEYS.put(session, key);
+            }
+        }
+        return key;
+    }
+
+    @Nullable
+    protected static String buildKey(Session session) {
+        String userId = session.getUserID();
+        if (userId == null || !(session instanceof JackrabbitSession)) {
+            return null;
+        }
+        try {
+            Authorizable user = ((JackrabbitSession) session).getUserManager().getAuthorizable(userId);
+            if (user == null) {
+                return null;
+            }
+            Set<String> groups = new TreeSet<>();
+            for (Iterator<Group> iterator = user.memberOf(); iterator.hasNext(); ) {
+                groups.add(iterator.next().getID());
+            }
+            return userId + groups;
+        } catch (RepositoryException ex) {
+            LOG.error(ex.getMessage(), ex);
+            return null;
+        }
+    }
+}
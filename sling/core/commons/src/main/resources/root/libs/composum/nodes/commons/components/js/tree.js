@@ -83,7 +83,8 @@
             'assetcontent': {'icon': 'fa fa-picture-o text-muted'},
             'file-binary': {'icon': 'fa fa-file-o text-info'},
             'resource-binary': {'icon': 'fa fa-file-o text-muted'},
-            'resource-syntheticresourceproviderresource': {'icon': 'fa fa-code text-muted'}
+            'resource-syntheticresourceproviderresource': {'icon': 'fa fa-code text-muted'},
+            'more': {'icon': 'fa fa-ellipsis-h text-info'}
         };
 
         /**
@@ -106,6 +107,12 @@
          */
         components.Tree = Backbone.View.extend({
 
+            /**
+             * the number of children loaded at once; the further children of a node are loaded by selecting
+             * the 'more' node at the end of the children list (only if the children are paged by the servlet)
+             */
+            pageSize: 500,
+
             /**
              * returns the model data of the selected node; 'undefined' if no node is selected
              * @deprecated use getSelectedPath() or getSelectedTreeNode() instead of current()
@@ -580,7 +587,7 @@
              */
             nodeData: function (node, callback) {
                 // use the URL build by the 'dataUrlForNode' function in the Ajax call
-                var url = this.dataUrlForNode(node);
+                var url = this.pagedUrl(this.dataUrlForNode(node), 0);
                 var tree = this; // for later use via closure
                 core.getJson(url, _.bind(function (result) {
                         // transform all ids (node path) into the tree (jQuery) compatible format
@@ -590,6 +597,9 @@
                                 // transform the ids for each child in the children list also
                                 result.children[i].id = tree.nodeId(result.children[i].path);
                             }
+                            if (result.hasMore) {
+                                result.children.push(tree.moreNode(result, result.children.length));
+                            }
                         }
                         if (this.log.getLevel() <= log.levels.TRACE) {
                             this.log.trace(tree.nodeIdPrefix + 'tree.nodeData(' + url + '): ' + JSON.stringify(result));
@@ -603,6 +613,61 @@
                 );
             },
 
+            /**
+             * adds the paging parameters to the URL to load the data of a node
+             * @param url the URL built by 'dataUrlForNode'
+             * @param offset the number of children already loaded
+             */
+            pagedUrl: function (url, offset) {
+                if (this.pageSize > 0) {
+                    url += (url.indexOf('?') < 0 ? '?' : '&') + 'offset=' + offset + '&limit=' + this.pageSize;
+                }
+                return url;
+            },
+
+            /**
+             * @returns the node data of the 'more' node which loads the next page of the children of a node
+             */
+            moreNode: function (parent, offset) {
+                return {
+                    id: parent.id + '_more',
+                    text: '...',
+                    type: 'more',
+                    more: {
+                        path: parent.path,
+                        offset: offset
+                    },
+                    state: {
+                        loaded: true
+                    },
+                    children: false
+                };
+            },
+
+            /**
+             * loads the next page of the children of a node and inserts them in front of the 'more' node
+             * @param node the 'jstree' node of the 'more' node
+             */
+            loadMore: function (node) {
+                var more = node.original.more;
+                var parent = this.jstree.get_node(this.jstree.get_parent(node));
+                var url = this.pagedUrl(this.dataUrlForNode(parent), more.offset);
+                core.getJson(url, _.bind(function (result) {
+                    var children = result.children || [];
+                    var index = this.getNodeIndex(node);
+                    for (var i = 0; i < children.length; i++) {
+                        children[i].id = this.nodeId(children[i].path);
+                        this.jstree.create_node(parent, children[i], index + i);
+                    }
+                    if (result.hasMore && children.length > 0) {
+                        more.offset += children.length;
+                        this.jstree.deselect_node(node, true);
+                    } else {
+                        this.jstree.delete_node(node);
+                    }
+                }, this));
+            },
+
             /**
              * builds the URL to load the data of one node
              */
@@ -734,6 +799,10 @@
              * calls the 'onNodeSelected' function if declared
              */
             nodeSelected: function (event, data) {
+                if (data.node.original.more) {
+                    this.loadMore(data.node);
+                    return;
+                }
                 var id = data.node.id;
                 var path = data.node.original.path;
                 var $node = this.$('#' + (id ? id : this.nodeId(path)));
@@ -0,0 +1,88 @@
+package com.composum.sling.core;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ListResourceBundle;
+import java.util.Locale;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the bundle stack and the bundle cache of {@link RequestBundle}.
+ */
+public class RequestBundleTest {
+
+    protected static ResourceBundle bundle(final String... keyValues) {
+        return new ListResourceBundle() {
+            @Override
+            protected Object[][] getContents() {
+                Object[][] contents = new Object[keyValues.length / 2][];
+                for (int i = 0; i < contents.length; i++) {
+                    contents[i] = new Object[]{keyValues[2 * i], keyValues[2 * i + 1]};
+                }
+                return contents;
+            }
+        };
+    }
+
+    private SlingHttpServletRequest request;
+
+    @Before
+    public void setUp() {
+        RequestBundle.clearBundleCache();
+        request = mock(SlingHttpServletRequest.class);
+        when(request.getLocale()).thenReturn(Locale.GERMAN);
+        when(request.getResourceBundle(null, Locale.GERMAN)).thenReturn(bundle("Save", "Speichern", "Close", "Schliessen"));
+        when(request.getResourceBundle("special", Locale.GERMAN)).thenReturn(bundle("Save", "Sichern"));
+    }
+
+    @Test
+    public void testStack() {
+        RequestBundle bundle = new RequestBundle(request);
+        assertEquals("Speichern", bundle.getString("Save"));
+        bundle.push("special");
+        bundle.push("special");
+        assertEquals("Sichern", bundle.getString("Save"));
+        try {
+            bundle.getString("Close"); // the last pushed bundle decides - no fallback to the bundles below
+            fail("missing key resolved");
+        } catch (MissingResourceException ignore) {
+        }
+        bundle.pop();
+        assertEquals("Sichern", bundle.getString("Save"));
+        bundle.pop();
+        assertEquals("Speichern", bundle.getString("Save"));
+    }
+
+    @Test
+    public void testCache() {
+        RequestBundle.ResolvedBundle first = RequestBundle.resolve(request, "special", Locale.GERMAN);
+        // the cached keys are used without retrieving the bundle again
+        assertSame(first, RequestBundle.resolve(request, "special", Locale.GERMAN));
+        verify(request, times(1)).getResourceBundle("special", Locale.GERMAN);
+        when(request.getResourceBundle("special", Locale.GERMAN)).thenReturn(bundle("Save", "Ablegen"));
+        RequestBundle.clearBundleCache();
+        RequestBundle.ResolvedBundle reloaded = RequestBundle.resolve(request, "special", Locale.GERMAN);
+        assertNotSame(first, reloaded);
+        assertEquals("Ablegen", reloaded.values.get("Save"));
+    }
+
+    @Test
+    public void testBoundedCache() {
+        for (int i = 0; i < RequestBundle.MAX_BUNDLES + 10; i++) {
+            RequestBundle.resolve(request, "special", new Locale("x" + i));
+        }
+        assertEquals(RequestBundle.MAX_BUNDLES, RequestBundle.CACHE.size());
+    }
+}
@@ -0,0 +1,97 @@
+package com.composum.sling.core.concurrent;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Tests for the per-key locks and the contention statistics of the {@link SemaphoreSequencer}.
+ */
+public class SemaphoreSequencerTest {
+
+    @Rule
+    public final ErrorCollector ec = new ErrorCollector();
+
+    protected SemaphoreSequencer sequencer;
+
+    @Before
+    public void setup() {
+        sequencer = new SemaphoreSequencer();
+        sequencer.activate(null);
+    }
+
+    @Test
+    public void keysAreIndependent() throws InterruptedException {
+        SemaphoreSequencer.Token a = sequencer.acquire("/a");
+        SemaphoreSequencer.Token b = sequencer.tryAcquire("/b", 10, TimeUnit.MILLISECONDS);
+        ec.checkThat(b, notNullValue());
+        ec.checkThat(sequencer.getActiveKeys(), is(2));
+        sequencer.release(b);
+        sequencer.release(a);
+        ec.checkThat(sequencer.getActiveKeys(), is(0));
+        ec.checkThat(sequencer.getAcquisitions(), is(2L));
+        ec.checkThat(sequencer.getContended(), is(0L));
+    }
+
+    @Test
+    public void timeoutOnHeldKey() throws InterruptedException {
+        SemaphoreSequencer.Token token = sequencer.acquire("/a");
+        ec.checkThat(sequencer.tryAcquire("/a", 10, TimeUnit.MILLISECONDS), nullValue());
+        ec.checkThat(sequencer.getActiveKeys(), is(1));
+        sequencer.release(token);
+        ec.checkThat(sequencer.getActiveKeys(), is(0));
+        ec.checkThat(sequencer.getContended(), is(1L));
+        List<SemaphoreSequencer.Contention> contentions = sequencer.getContentions(10);
+        ec.checkThat(contentions.size(), is(1));
+        ec.checkThat(contentions.get(0).getKey(), is("/a"));
+        ec.checkThat(contentions.get(0).getCount(), is(1L));
+    }
+
+    @Test
+    public void waiterGetsReleasedKey() throws Exception {
+        SemaphoreSequencer.Token token = sequencer.acquire("/a");
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicReference<SemaphoreSequencer.Token> acquired = new AtomicReference<>();
+        Thread waiter = new Thread(() -> {
+            started.countDown();
+            try {
+                acquired.set(sequencer.tryAcquire("/a", 10, TimeUnit.SECONDS));
+            } catch (InterruptedException ex) {
+                // the check below fails
+            }
+        });
+        waiter.start();
+        started.await();
+        while (!token.lock.semaphore.hasQueuedThreads()) {
+            Thread.sleep(1);
+        }
+        ec.checkThat(sequencer.getActiveKeys(), is(1));
+        sequencer.release(token);
+        waiter.join(10000);
+        ec.checkThat(acquired.get(), notNullValue());
+        sequencer.release(acquired.get());
+        ec.checkThat(sequencer.getActiveKeys(), is(0));
+        ec.checkThat(sequencer.getContended(), is(1L));
+    }
+
+    @Test
+    public void releaseTwiceIsIgnored() {
+        SemaphoreSequencer.Token token = sequencer.acquire("/a");
+        sequencer.release(token);
+        sequencer.release(token);
+        ec.checkThat(sequencer.getActiveKeys(), is(0));
+        SemaphoreSequencer.Token again = sequencer.acquire("/a");
+        ec.checkThat(again, notNullValue());
+        sequencer.release(again);
+    }
+}
@@ -82,6 +82,25 @@ public class StringFilterTest {
         assertThat(filter.accept("nt:unstructured"), is(false));
     }
 
+    @Test
+    public void testPatternMatcher() {
+        StringFilter filter = new StringFilter.WhiteList(
+                "^jcr:content$,^rep:,Folder$,:Page,^(nt|sling):.*[Ff]older$,[0-9]{4}");
+        assertThat(filter.accept("jcr:content"), is(true));
+        assertThat(filter.accept("jcr:contents"), is(false));
+        assertThat(filter.accept("rep:policy"), is(true));
+        assertThat(filter.accept("my:rep:policy"), is(false));
+        assertThat(filter.accept("sling:OrderedFolder"), is(true));
+        assertThat(filter.accept("cq:PageContent"), is(true));
+        assertThat(filter.accept("nt:folder"), is(true));
+        assertThat(filter.accept("audit-2020"), is(true));
+        assertThat(filter.accept("nt:unstructured"), is(false));
+        StringFilter blacklist = new StringFilter.BlackList("^$,\\.json$");
+        assertThat(blacklist.accept(""), is(false));
+        assertThat(blacklist.accept("node.json"), is(false));
+        assertThat(blacklist.accept("nodeXjson"), is(true));
+    }
+
     @Test
     public void testJsonMapping() {
         JsonTest.testWriteReadWriteEquals(FIRST_RULE_SET, StringFilterTypeAdapter.GSON);
@@ -0,0 +1,89 @@
+package com.composum.sling.core.script;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ * Tests for the compiled classes and the generations of the {@link GroovyScriptCache}.
+ */
+public class GroovyScriptCacheTest {
+
+    @Rule
+    public final ErrorCollector ec = new ErrorCollector();
+
+    protected GroovyScriptCache cache;
+
+    @Before
+    public void setup() {
+        cache = new GroovyScriptCache();
+    }
+
+    @Test
+    public void compiledOncePerSource() {
+        Class<?> compiled = cache.getScriptClass("value + 1", null);
+        ec.checkThat(cache.getScriptClass("value + 1", null), sameInstance((Object) compiled));
+        ec.checkThat(cache.size(), is(1));
+        ec.checkThat(cache.getScriptClass("value + 2", null), not(sameInstance((Object) compiled)));
+        ec.checkThat(cache.size(), is(2));
+    }
+
+    @Test
+    public void compiledOncePerName() {
+        Class<?> compiled = cache.getScriptClass("value + 1", "test.groovy");
+        Class<?> other = cache.getScriptClass("value + 1", "other.groovy");
+        ec.checkThat(other, not(sameInstance((Object) compiled)));
+        ec.checkThat(cache.getScriptClass("value + 1", "other.groovy"), sameInstance((Object) other));
+        ec.checkThat(cache.size(), is(2));
+    }
+
+    @Test
+    public void sourceReadOncePerKey() {
+        AtomicInteger reads = new AtomicInteger();
+        Supplier<String> source = () -> {
+            reads.incrementAndGet();
+            return "value + 1";
+        };
+        Class<?> compiled = cache.getScriptClass("setup.groovy@1", "setup.groovy", source);
+        ec.checkThat(cache.getScriptClass("setup.groovy@1", "setup.groovy", source), sameInstance((Object) compiled));
+        ec.checkThat(reads.get(), is(1));
+        ec.checkThat(cache.getScriptClass("setup.groovy@2", "setup.groovy", source), not(sameInstance((Object) compiled)));
+        ec.checkThat(reads.get(), is(2));
+        ec.checkThat(cache.getScriptClass("missing.groovy@1", "missing.groovy", () -> null), nullValue());
+        ec.checkThat(cache.size(), is(2));
+    }
+
+    @Test
+    public void compiledAgainAfterClear() {
+        Class<?> compiled = cache.getScriptClass("value + 1", "test.groovy");
+        cache.clear();
+        ec.checkThat(cache.size(), is(0));
+        ec.checkThat(cache.getScriptClass("value + 1", "test.groovy"), not(sameInstance((Object) compiled)));
+        ec.checkThat(cache.size(), is(1));
+    }
+
+    @Test
+    public void newGenerationForAnotherClassLoader() {
+        Class<?> compiled = cache.getScriptClass("value + 1", null);
+        Thread thread = Thread.currentThread();
+        ClassLoader contextClassLoader = thread.getContextClassLoader();
+        try {
+            thread.setContextClassLoader(new URLClassLoader(new URL[0], contextClassLoader));
+            ec.checkThat(cache.getScriptClass("value + 1", null), not(sameInstance((Object) compiled)));
+            ec.checkThat(cache.size(), is(1));
+        } finally {
+            thread.setContextClassLoader(contextClassLoader);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.composum.sling.core.util;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import javax.jcr.Binary;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the conditional and range requests of {@link BinaryDelivery}.
+ */
+public class BinaryDeliveryTest {
+
+    protected static final byte[] CONTENT = "0123456789abcdefghij".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public final ErrorCollector ec = new ErrorCollector();
+
+    protected HttpServletRequest request;
+    protected HttpServletResponse response;
+    protected ByteArrayOutputStream output;
+    protected Calendar lastModified;
+
+    /** A binary of a byte array. */
+    protected static class ArrayBinary implements Binary {
+
+        protected final byte[] data;
+
+        public ArrayBinary(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public InputStream getStream() {
+            return new ByteArrayInputStream(data);
+        }
+
+        @Override
+        public int read(byte[] b, long position) {
+            if (position >= data.length) {
+                return -1;
+            }
+            int length = (int) Math.min(b.length, data.length - position);
+            System.arraycopy(data, (int) position, b, 0, length);
+            return length;
+        }
+
+        @Override
+        public long getSize() {
+            return data.length;
+        }
+
+        @Override
+        public void dispose() {
+        }
+    }
+
+    @Before
+    public void setup() throws IOException {
+        lastModified = new GregorianCalendar(2020, Calendar.JANUARY, 1);
+        request = mock(HttpServletRequest.class);
+        when(request.getDateHeader(anyString())).thenReturn(-1L);
+        response = mock(HttpServletResponse.class);
+        output = new ByteArrayOutputStream();
+        ServletOutputStream stream = new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                output.write(b);
+            }
+        };
+        doReturn(stream).when(response).getOutputStream();
+        doReturn("text/plain").when(response).getContentType();
+    }
+
+    protected String deliver() throws Exception {
+        BinaryDelivery.deliver(request, response, new ArrayBinary(CONTENT), lastModified);
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void wholeContent() throws Exception {
+        ec.checkThat(deliver(), is("0123456789abcdefghij"));
+        verify(response).setStatus(HttpServletResponse.SC_OK);
+        verify(response).setHeader(HttpUtil.HEADER_CONTENT_LENGTH, "20");
+        verify(response).setHeader(HttpUtil.HEADER_ETAG, HttpUtil.buildETag(lastModified.getTimeInMillis(), 20));
+    }
+
+    @Test
+    public void etagWithoutLastModified() throws Exception {
+        lastModified = null;
+        ec.checkThat(deliver(), is("0123456789abcdefghij"));
+        verify(response, never()).setHeader(eq(HttpUtil.HEADER_ETAG), anyString());
+    }
+
+    @Test
+    public void notModified() throws Exception {
+        String etag = HttpUtil.buildETag(lastModified.getTimeInMillis(), 20);
+        when(request.getHeader(HttpUtil.HEADER_IF_NONE_MATCH)).thenReturn(etag);
+        ec.checkThat(deliver(), is(""));
+        verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    }
+
+    @Test
+    public void singleRange() throws Exception {
+        when(request.getHeader(HttpUtil.HEADER_RANGE)).thenReturn("bytes=5-9");
+        ec.checkThat(deliver(), is("56789"));
+        verify(response).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        verify(response).setHeader(HttpUtil.HEADER_CONTENT_RANGE, "bytes 5-9/20");
+        verify(response).setHeader(HttpUtil.HEADER_CONTENT_LENGTH, "5");
+    }
+
+    @Test
+    public void multipleRanges() throws Exception {
+        when(request.getHeader(HttpUtil.HEADER_RANGE)).thenReturn("bytes=0-1,-3");
+        String body = deliver();
+        ec.checkThat(body, containsString("Content-Type: text/plain\r\nContent-Range: bytes 0-1/20\r\n\r\n01\r\n"));
+        ec.checkThat(body, containsString("Content-Range: bytes 17-19/20\r\n\r\nhij\r\n--"
+                + BinaryDelivery.BOUNDARY + "--\r\n"));
+        verify(response).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        verify(response).setContentType(BinaryDelivery.MULTIPART_BYTERANGES + BinaryDelivery.BOUNDARY);
+        verify(response).setHeader(HttpUtil.HEADER_CONTENT_LENGTH, Integer.toString(body.length()));
+    }
+
+    @Test
+    public void unsatisfiableRange() throws Exception {
+        when(request.getHeader(HttpUtil.HEADER_RANGE)).thenReturn("bytes=30-");
+        ec.checkThat(deliver(), is(""));
+        verify(response).setHeader(HttpUtil.HEADER_CONTENT_RANGE, "bytes */20");
+        verify(response).sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+    }
+
+    @Test
+    public void outdatedRange() throws Exception {
+        when(request.getHeader(HttpUtil.HEADER_RANGE)).thenReturn("bytes=5-9");
+        when(request.getHeader(HttpUtil.HEADER_IF_RANGE)).thenReturn("\"outdated\"");
+        ec.checkThat(deliver(), is("0123456789abcdefghij"));
+        verify(response).setStatus(HttpServletResponse.SC_OK);
+    }
+}
@@ -0,0 +1,55 @@
+package com.composum.sling.core.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Tests for the conditional and range request support of {@link HttpUtil}.
+ */
+public class HttpUtilTest {
+
+    @Rule
+    public final ErrorCollector ec = new ErrorCollector();
+
+    @Test
+    public void parseRanges() {
+        ec.checkThat(HttpUtil.parseRanges(null, 100), nullValue());
+        ec.checkThat(HttpUtil.parseRanges("items=0-10", 100), nullValue());
+        ec.checkThat(HttpUtil.parseRanges("bytes=10-5", 100), nullValue());
+        ec.checkThat(HttpUtil.parseRanges("bytes=-", 100), nullValue());
+
+        List<HttpUtil.ByteRange> ranges = HttpUtil.parseRanges("bytes=0-9, 50-, -10", 100);
+        ec.checkThat(ranges.size(), is(3));
+        ec.checkThat(ranges.get(0).toString(), is("0-9"));
+        ec.checkThat(ranges.get(1).toString(), is("50-99"));
+        ec.checkThat(ranges.get(2).toString(), is("90-99"));
+        ec.checkThat(ranges.get(1).getContentRange(100), is("bytes 50-99/100"));
+
+        ec.checkThat(HttpUtil.parseRanges("bytes=90-200", 100).get(0).getLength(), is(10L));
+        ec.checkThat(HttpUtil.parseRanges("bytes=-500", 100).get(0).toString(), is("0-99"));
+        ec.checkThat(HttpUtil.parseRanges("bytes=100-", 100).isEmpty(), is(true));
+        ec.checkThat(HttpUtil.parseRanges("bytes=5000000000-", 6000000000L).get(0).toString(),
+                is("5000000000-5999999999"));
+    }
+
+    @Test
+    public void conditions() {
+        String etag = HttpUtil.buildETag(1577836800000L, 1234L);
+        ec.checkThat(HttpUtil.matchesETag(etag, etag), is(true));
+        ec.checkThat(HttpUtil.matchesETag("\"x\", W/" + etag, etag), is(true));
+        ec.checkThat(HttpUtil.matchesETag("*", etag), is(true));
+        ec.checkThat(HttpUtil.matchesETag("\"x\"", etag), is(false));
+
+        ec.checkThat(HttpUtil.isRangeValid(null, etag, 1577836800000L), is(true));
+        ec.checkThat(HttpUtil.isRangeValid(etag, etag, 1577836800000L), is(true));
+        ec.checkThat(HttpUtil.isRangeValid("W/" + etag, etag, 1577836800000L), is(false));
+        ec.checkThat(HttpUtil.isRangeValid("Wed, 01 Jan 2020 00:00:00 GMT", etag, 1577836800000L), is(true));
+        ec.checkThat(HttpUtil.isRangeValid("Wed, 01 Jan 2020 00:00:01 GMT", etag, 1577836800000L), is(false));
+    }
+}
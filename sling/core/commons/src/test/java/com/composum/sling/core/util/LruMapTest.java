@@ -0,0 +1,32 @@
+package com.composum.sling.core.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Tests for the eviction order of the {@link LruMap}.
+ */
+public class LruMapTest {
+
+    @Rule
+    public final ErrorCollector ec = new ErrorCollector();
+
+    @Test
+    public void dropsLeastRecentlyUsed() {
+        Map<String, Integer> map = new LruMap<>(3);
+        map.put("a", 1);
+        map.put("b", 2);
+        map.put("c", 3);
+        map.get("a");
+        map.put("d", 4);
+        ec.checkThat(map.size(), is(3));
+        ec.checkThat(map.containsKey("b"), is(false));
+        ec.checkThat(Arrays.asList(map.keySet().toArray()), is(Arrays.<Object>asList("c", "a", "d")));
+    }
+}
@@ -0,0 +1,35 @@
+package com.composum.sling.nodes.console;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * The registry of the console configuration resources (console pages, query templates, export configurations)
+ * below the resolver search paths. The resources are discovered once per resource type and kept current by the
+ * observation of the search paths, so the rendering of the console needs no repository query.
+ */
+public interface ConsoleRegistry {
+
+    /**
+     * Returns the paths of all resources of the resource type below the search paths (in search path order).
+     * The resources are discovered with an administrative session - the paths must be resolved with the
+     * resolver of the request to respect the access rights.
+     *
+     * @param resourceType the 'sling:resourceType' of the resources
+     * @return the paths of the resources; 'null' if the registry is not available
+     */
+    @Nullable
+    List<String> getResourcePaths(@Nonnull String resourceType);
+
+    /**
+     * Checks the availability of a class for the precondition of a console module; the result is cached
+     * until the dynamic class loader is replaced (after a bundle change).
+     */
+    boolean isClassAvailable(@Nonnull String className);
+
+    /**
+     * Drops all discovered resource paths; the resources are discovered again on the next request.
+     */
+    void invalidate();
+}
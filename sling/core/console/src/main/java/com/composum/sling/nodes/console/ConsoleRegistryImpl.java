@@ -0,0 +1,226 @@
+package com.composum.sling.nodes.console;
+
+import com.composum.sling.core.event.RepositoryObservation;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.commons.classloader.DynamicClassLoaderManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import javax.jcr.query.Query;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The console registry: the resources of each requested resource type are discovered by one query per search
+ * path and kept until a 'sling:resourceType' property below the search paths is changed or a registered resource
+ * is removed or moved. The results of the class availability checks are kept per dynamic class loader.
+ */
+@Component(immediate = true)
+@Service
+public class ConsoleRegistryImpl implements ConsoleRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConsoleRegistryImpl.class);
+
+    public static final String PROP_RESOURCE_TYPE = "sling:resourceType";
+
+    public static final int EVENT_TYPES = Event.NODE_REMOVED |
+            Event.NODE_MOVED |
+            Event.PROPERTY_ADDED |
+            Event.PROPERTY_CHANGED |
+            Event.PROPERTY_REMOVED;
+
+    @Reference
+    private ResourceResolverFactory resolverFactory;
+
+    @Reference
+    private DynamicClassLoaderManager dynamicClassLoaderManager;
+
+    /** resource type -> the paths of the discovered resources */
+    protected final Map<String, List<String>> resources = new ConcurrentHashMap<>();
+    /** incremented by each invalidation to drop the results of a discovery which was running meanwhile */
+    protected final AtomicLong generation = new AtomicLong();
+
+    /** class name -> availability in the dynamic class loader */
+    protected final Map<String, Boolean> classes = new ConcurrentHashMap<>();
+    protected volatile ClassLoader classLoader;
+
+    /** the observation session of the search paths */
+    protected final RepositoryObservation observation = new RepositoryObservation();
+
+    @Activate
+    protected synchronized void activate() {
+        if (observation.open(resolverFactory)) {
+            String[] searchPath = observation.getSearchPath();
+            String[] paths = new String[searchPath.length];
+            for (int i = 0; i < searchPath.length; i++) {
+                paths[i] = StringUtils.removeEnd(searchPath[i], "/");
+            }
+            observation.addListener(new EventListener() {
+                @Override
+                public void onEvent(EventIterator events) {
+                    ConsoleRegistryImpl.this.onEvent(events);
+                }
+            }, EVENT_TYPES, paths);
+        }
+    }
+
+    @Deactivate
+    protected synchronized void deactivate() {
+        observation.close();
+        invalidate();
+        classes.clear();
+        classLoader = null;
+    }
+
+    protected ResourceResolver createAdministrativeResolver() throws LoginException {
+        return RepositoryObservation.createAdministrativeResolver(resolverFactory);
+    }
+
+    @Override
+    @Nullable
+    public List<String> getResourcePaths(@Nonnull String resourceType) {
+        if (!observation.isOpen()) {
+            return null; // not kept current without observation
+        }
+        List<String> paths = resources.get(resourceType);
+        if (paths == null) {
+            long discovery = generation.get();
+            paths = discover(resourceType);
+            if (paths != null && generation.get() == discovery) {
+                resources.put(resourceType, paths);
+            }
+        }
+        return paths;
+    }
+
+    @Override
+    public boolean isClassAvailable(@Nonnull String className) {
+        ClassLoader loader = dynamicClassLoaderManager.getDynamicClassLoader();
+        if (loader != classLoader) {
+            synchronized (classes) {
+                if (loader != classLoader) {
+                    classes.clear();
+                    classLoader = loader;
+                }
+            }
+        }
+        Boolean available = classes.get(className);
+        if (available == null) {
+            try {
+                loader.loadClass(className);
+                available = true;
+            } catch (ClassNotFoundException | LinkageError ex) {
+                LOG.warn("precondition check failed: " + ex.getMessage());
+                available = false;
+            }
+            classes.put(className, available);
+        }
+        return available;
+    }
+
+    @Override
+    public void invalidate() {
+        generation.incrementAndGet();
+        resources.clear();
+    }
+
+    /**
+     * @return the paths of the resources of the type below all search paths; null if the discovery fails
+     */
+    @Nullable
+    protected List<String> discover(@Nonnull String resourceType) {
+        long begin = System.currentTimeMillis();
+        try {
+            ResourceResolver resolver = createAdministrativeResolver();
+            try {
+                Set<String> paths = new LinkedHashSet<>();
+                for (String path : resolver.getSearchPath()) {
+                    String query = "/jcr:root" + path + "/*[@" + PROP_RESOURCE_TYPE + "='"
+                            + resourceType.replace("'", "''") + "']";
+                    @SuppressWarnings("deprecation")
+                    Iterator<Resource> found = resolver.findResources(query, Query.XPATH);
+                    if (found != null) {
+                        while (found.hasNext()) {
+                            paths.add(found.next().getPath());
+                        }
+                    }
+                }
+                LOG.debug("discovered {} resources of type '{}' in {} ms", paths.size(), resourceType,
+                        System.currentTimeMillis() - begin);
+                return Collections.unmodifiableList(new ArrayList<>(paths));
+            } finally {
+                resolver.close();
+            }
+        } catch (LoginException ex) {
+            LOG.error(ex.getMessage(), ex);
+            return null;
+        }
+    }
+
+    protected void onEvent(EventIterator events) {
+        try {
+            while (events.hasNext()) {
+                Event event = events.nextEvent();
+                String path = event.getPath();
+                switch (event.getType()) {
+                    case Event.PROPERTY_ADDED:
+                    case Event.PROPERTY_CHANGED:
+                    case Event.PROPERTY_REMOVED:
+                        if (path.endsWith("/" + PROP_RESOURCE_TYPE)) {
+                            invalidate();
+                            return;
+                        }
+                        break;
+                    case Event.NODE_REMOVED:
+                        if (isRegistered(path)) {
+                            invalidate();
+                            return;
+                        }
+                        break;
+                    case Event.NODE_MOVED:
+                        invalidate();
+                        return;
+                }
+            }
+        } catch (RepositoryException ex) {
+            LOG.error(ex.getMessage(), ex);
+            invalidate();
+        }
+    }
+
+    /**
+     * @return 'true' if a registered resource is the resource of the path or a resource of its subtree
+     */
+    protected boolean isRegistered(@Nonnull String path) {
+        for (List<String> paths : resources.values()) {
+            for (String registered : paths) {
+                if (registered.equals(path) || registered.startsWith(path + "/")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -48,8 +48,12 @@ public class Consoles extends ConsolePage {
         PRECONDITION_FILTERS.put(PRECONDITION_CLASS_AVAILABILITY, new ClassAvailabilityFilter());
     }
 
+    public static final String CONSOLE_PAGE_RESOURCE_TYPE = "composum/nodes/console/page";
+    public static final String CONSOLE_CONTENT_NAME = "content";
+
     public static final String CONTENT_QUERY_BASE = "/jcr:root";
-    public static final String CONTENT_QUERY_RULE = "/content[@sling:resourceType='composum/nodes/console/page']";
+    public static final String CONTENT_QUERY_RULE = "/" + CONSOLE_CONTENT_NAME
+            + "[@sling:resourceType='" + CONSOLE_PAGE_RESOURCE_TYPE + "']";
 
     public class ConsoleFilter extends ResourceFilter.AbstractResourceFilter {
 
@@ -177,8 +181,22 @@ public class Consoles extends ConsolePage {
         if (consoles == null) {
             consoles = new ArrayList<>();
             ResourceResolver resolver = getResolver();
-            for (String path : resolver.getSearchPath()) {
-                findConsoles(consoles, CONTENT_QUERY_BASE + path + CONTENT_QUERY_RULE);
+            ConsoleRegistry registry = context.getService(ConsoleRegistry.class);
+            List<String> contentPaths = registry != null
+                    ? registry.getResourcePaths(CONSOLE_PAGE_RESOURCE_TYPE) : null;
+            if (contentPaths != null) {
+                ResourceFilter consoleFilter = getConsoleFilter();
+                for (String path : contentPaths) {
+                    // resolved with the users resolver to respect the access rights
+                    Resource consoleContent = resolver.getResource(path);
+                    if (consoleContent != null && CONSOLE_CONTENT_NAME.equals(consoleContent.getName())) {
+                        addConsoles(consoles, consoleContent, consoleFilter);
+                    }
+                }
+            } else {
+                for (String path : resolver.getSearchPath()) {
+                    findConsoles(consoles, CONTENT_QUERY_BASE + path + CONTENT_QUERY_RULE);
+                }
             }
             Collections.sort(consoles);
         }
@@ -192,22 +210,28 @@ public class Consoles extends ConsolePage {
         Iterator<Resource> consoleContentResources = resolver.findResources(query, Query.XPATH);
         if (consoleContentResources != null) {
 
-            NodesConfiguration configuration = getSling().getService(NodesConfiguration.class);
-            String[] categories = configuration.getConsoleCategories();
-            ResourceFilter consoleFilter = new ConsoleFilter(categories);
+            ResourceFilter consoleFilter = getConsoleFilter();
 
             while (consoleContentResources.hasNext()) {
+                addConsoles(consoles, consoleContentResources.next(), consoleFilter);
+            }
+        }
+    }
 
-                Resource consoleContent = consoleContentResources.next();
-                for (Resource console : consoleContent.getChildren()) {
-                    if (consoleFilter.accept(console)) {
-                        consoles.add(new Console(ResourceHandle.use(console)));
-                    }
-                }
+    protected void addConsoles(List<Console> consoles, Resource consoleContent, ResourceFilter consoleFilter) {
+        for (Resource console : consoleContent.getChildren()) {
+            if (consoleFilter.accept(console)) {
+                consoles.add(new Console(ResourceHandle.use(console)));
             }
         }
     }
 
+    protected ResourceFilter getConsoleFilter() {
+        NodesConfiguration configuration = getSling().getService(NodesConfiguration.class);
+        String[] categories = configuration.getConsoleCategories();
+        return new ConsoleFilter(categories);
+    }
+
     //
     // console module preconditions
     //
@@ -230,6 +254,10 @@ public class Consoles extends ConsolePage {
 
         @Override
         public boolean accept(BeanContext context, Resource resource, String className) {
+            ConsoleRegistry registry = context.getService(ConsoleRegistry.class);
+            if (registry != null) {
+                return registry.isClassAvailable(className);
+            }
             boolean classAvailable = false;
             try {
                 context.getType(className);
@@ -3,6 +3,7 @@ package com.composum.sling.nodes.query;
 import com.composum.sling.core.BeanContext;
 import com.composum.sling.core.ResourceHandle;
 import com.composum.sling.core.filter.ResourceFilter;
+import com.composum.sling.nodes.console.ConsoleRegistry;
 import com.composum.sling.nodes.console.ConsoleSlingBean;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
@@ -53,8 +54,21 @@ public abstract class ConfigSet<Item extends ConfigItem> extends ConsoleSlingBea
         if (items == null) {
             items = new TreeMap<>();
             ResourceResolver resolver = getResolver();
-            for (String path : resolver.getSearchPath()) {
-                findItems(items, "/jcr:root" + path + "/*[@sling:resourceType='" + getSetResourceType() + "']");
+            ConsoleRegistry registry = context.getService(ConsoleRegistry.class);
+            List<String> setPaths = registry != null ? registry.getResourcePaths(getSetResourceType()) : null;
+            if (setPaths != null) {
+                ResourceFilter filter = getItemFilter();
+                for (String path : setPaths) {
+                    // resolved with the users resolver to respect the access rights
+                    Resource setContent = resolver.getResource(path);
+                    if (setContent != null) {
+                        addItems(items, setContent, filter);
+                    }
+                }
+            } else {
+                for (String path : resolver.getSearchPath()) {
+                    findItems(items, "/jcr:root" + path + "/*[@sling:resourceType='" + getSetResourceType() + "']");
+                }
             }
             for (List<Item> group : items.values()) {
                 Collections.sort(group);
@@ -72,20 +86,22 @@ public abstract class ConfigSet<Item extends ConfigItem> extends ConsoleSlingBea
         if (templateResources != null) {
 
             while (templateResources.hasNext()) {
+                addItems(consoles, templateResources.next(), filter);
+            }
+        }
+    }
 
-                Resource templateContent = templateResources.next();
-                for (Resource item : templateContent.getChildren()) {
-                    if (filter.accept(item)) {
-                        ResourceHandle handle = ResourceHandle.use(item);
-                        String groupName = handle.getProperty(PROP_GROUP, DEFAULT_GROUP);
-                        List<Item> group = items.get(groupName);
-                        if (group == null) {
-                            group = new ArrayList<>();
-                            items.put(groupName, group);
-                        }
-                        group.add(createItem(handle));
-                    }
+    protected void addItems(Map<String, List<Item>> items, Resource templateContent, ResourceFilter filter) {
+        for (Resource item : templateContent.getChildren()) {
+            if (filter.accept(item)) {
+                ResourceHandle handle = ResourceHandle.use(item);
+                String groupName = handle.getProperty(PROP_GROUP, DEFAULT_GROUP);
+                List<Item> group = items.get(groupName);
+                if (group == null) {
+                    group = new ArrayList<>();
+                    items.put(groupName, group);
                 }
+                group.add(createItem(handle));
             }
         }
     }
@@ -0,0 +1,263 @@
+package com.composum.sling.nodes.query;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The execution statistics of the recently executed queries of the query console: the time of the query execution,
+ * the time to the first row and the whole time of the retrieval, the number of rows read and accepted by the filter
+ * and the query plan (if explained). The statistics are aggregated per query; the least recently executed queries
+ * are dropped if the maximum number of queries is reached.
+ */
+public class QueryStatistics {
+
+    public static final int DEFAULT_SIZE = 200;
+
+    /** the time of a query (in milliseconds) from which the query plan is recorded */
+    public static final long SLOW_QUERY_TIME = 1000L;
+
+    protected static final Pattern TEMPLATE_PARAMETER = Pattern.compile("\\$\\{[^}]*}");
+
+    /** The measurement of one query execution. */
+    public static class Execution {
+
+        protected final String query;
+        protected final String language;
+        protected final String filter;
+        protected final long started;
+        protected final long executeTime;
+        protected final long firstRowTime;
+        protected final long totalTime;
+        protected final long scanned;
+        protected final long accepted;
+        protected String plan;
+
+        /**
+         * @param executeTime  the time of the query execution in nanoseconds
+         * @param firstRowTime the time up to the first row in nanoseconds; -1 if no row has been read
+         * @param totalTime    the time of the execution and the retrieval of the rows in nanoseconds
+         * @param scanned      the number of rows read from the query result; -1 if not counted
+         * @param accepted     the number of rows accepted by the filter; -1 if not counted
+         */
+        public Execution(String query, String language, String filter,
+                         long executeTime, long firstRowTime, long totalTime,
+                         long scanned, long accepted, String plan) {
+            this.query = query;
+            this.language = language;
+            this.filter = filter;
+            this.started = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(totalTime);
+            this.executeTime = executeTime;
+            this.firstRowTime = firstRowTime;
+            this.totalTime = totalTime;
+            this.scanned = scanned;
+            this.accepted = accepted;
+            this.plan = plan;
+        }
+
+        public String getQuery() {
+            return query;
+        }
+
+        public String getLanguage() {
+            return language;
+        }
+
+        public String getFilter() {
+            return filter;
+        }
+
+        public long getStarted() {
+            return started;
+        }
+
+        public long getExecuteTime() {
+            return TimeUnit.NANOSECONDS.toMillis(executeTime);
+        }
+
+        public long getFirstRowTime() {
+            return firstRowTime >= 0 ? TimeUnit.NANOSECONDS.toMillis(firstRowTime) : -1;
+        }
+
+        public long getTotalTime() {
+            return TimeUnit.NANOSECONDS.toMillis(totalTime);
+        }
+
+        public long getScanned() {
+            return scanned;
+        }
+
+        public long getAccepted() {
+            return accepted;
+        }
+
+        public String getPlan() {
+            return plan;
+        }
+
+        public void setPlan(String plan) {
+            this.plan = plan;
+        }
+
+        public boolean isSlow() {
+            return getTotalTime() >= SLOW_QUERY_TIME;
+        }
+    }
+
+    /** The aggregated executions of one query. */
+    public static class Entry {
+
+        protected final String query;
+        protected final String language;
+        protected long count;
+        protected long totalTime;
+        protected long lastExecuted;
+        protected Execution slowest;
+        protected String plan;
+
+        protected Entry(String query, String language) {
+            this.query = query;
+            this.language = language;
+        }
+
+        protected synchronized void add(Execution execution) {
+            count++;
+            totalTime += execution.totalTime;
+            lastExecuted = execution.started;
+            if (slowest == null || execution.totalTime > slowest.totalTime) {
+                slowest = execution;
+            }
+            if (execution.plan != null) {
+                plan = execution.plan;
+            }
+        }
+
+        public String getQuery() {
+            return query;
+        }
+
+        public String getLanguage() {
+            return language;
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        /** @return the average time of the executions in milliseconds */
+        public synchronized long getAverageTime() {
+            return count > 0 ? TimeUnit.NANOSECONDS.toMillis(totalTime / count) : 0;
+        }
+
+        /** @return the time of the slowest execution in milliseconds */
+        public synchronized long getMaxTime() {
+            return slowest != null ? slowest.getTotalTime() : 0;
+        }
+
+        public synchronized long getLastExecuted() {
+            return lastExecuted;
+        }
+
+        public synchronized Execution getSlowest() {
+            return slowest;
+        }
+
+        /** @return the last recorded query plan; null if the query was never explained */
+        public synchronized String getPlan() {
+            return plan;
+        }
+    }
+
+    protected final int maxSize;
+
+    protected final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public QueryStatistics(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return 'true' if the plan of the query should be recorded for the execution (not yet recorded for a slow query)
+     */
+    public boolean needsPlan(Execution execution) {
+        if (execution.plan == null && execution.isSlow()) {
+            Entry entry = entries.get(execution.language + ":" + execution.query);
+            return entry == null || entry.getPlan() == null;
+        }
+        return false;
+    }
+
+    public void record(Execution execution) {
+        String key = execution.language + ":" + execution.query;
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            if (entries.size() >= maxSize) {
+                dropLeastRecent();
+            }
+            entry = entries.computeIfAbsent(key, k -> new Entry(execution.query, execution.language));
+        }
+        entry.add(execution);
+    }
+
+    protected void dropLeastRecent() {
+        String leastKey = null;
+        long leastTime = Long.MAX_VALUE;
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            long lastExecuted = entry.getValue().getLastExecuted();
+            if (lastExecuted < leastTime) {
+                leastTime = lastExecuted;
+                leastKey = entry.getKey();
+            }
+        }
+        if (leastKey != null) {
+            entries.remove(leastKey);
+        }
+    }
+
+    /**
+     * @return the queries sorted by the time of their slowest execution, descending
+     */
+    public List<Entry> getSlowest(int maxCount) {
+        List<Entry> result = new ArrayList<>(entries.values());
+        Collections.sort(result, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry o1, Entry o2) {
+                return Long.compare(o2.getMaxTime(), o1.getMaxTime());
+            }
+        });
+        return result.size() > maxCount ? result.subList(0, maxCount) : result;
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Builds a pattern to recognize the queries of a query template; each template parameter ('${name}')
+     * matches an arbitrary value.
+     *
+     * @return the pattern; null if the template is empty
+     */
+    public static Pattern getTemplatePattern(String template) {
+        if (StringUtils.isBlank(template)) {
+            return null;
+        }
+        StringBuilder regex = new StringBuilder("^");
+        Matcher matcher = TEMPLATE_PARAMETER.matcher(template);
+        int pos = 0;
+        while (matcher.find()) {
+            regex.append(Pattern.quote(template.substring(pos, matcher.start()))).append(".*");
+            pos = matcher.end();
+        }
+        regex.append(Pattern.quote(template.substring(pos))).append("$");
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+}
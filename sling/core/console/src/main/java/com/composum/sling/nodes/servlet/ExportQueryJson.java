@@ -1,7 +1,7 @@
 package com.composum.sling.nodes.servlet;
 
 import com.composum.sling.core.mapping.MappingRules;
-import com.composum.sling.core.util.JsonUtil;
+import com.composum.sling.core.util.JsonExporter;
 import com.composum.sling.core.util.XSS;
 import com.google.gson.stream.JsonWriter;
 import org.apache.commons.lang3.StringUtils;
@@ -21,6 +21,7 @@ import java.io.IOException;
 
 import static com.composum.sling.nodes.servlet.NodeServlet.getJsonSelectorIndent;
 import static com.composum.sling.nodes.servlet.NodeServlet.getJsonSelectorRules;
+import static com.composum.sling.nodes.servlet.NodeServlet.isJsonSelectorSorted;
 
 /**
  * a servlet to export the results of a query execution as a JSON object with emebedded object for each
@@ -67,12 +68,14 @@ public class ExportQueryJson extends SlingAllMethodsServlet {
             ValueMap values = resource.adaptTo(ValueMap.class);
             // reuse the 'selector parameters' of the JSON view; see 'selectors' in the export configuration
             MappingRules rules = getJsonSelectorRules(request);
+            // one exporter for all items to reuse its buffer; flushed periodically to stream the result
+            JsonExporter exporter = new JsonExporter(writer, rules, isJsonSelectorSorted(request),
+                    JsonExporter.DEFAULT_FLUSH_INTERVAL);
             writer.beginObject();
             writer.name("query").value(values.get("query", ""));
             for (Resource item : resource.getChildren()) {
-                ValueMap valueMap = item.adaptTo(ValueMap.class);
                 writer.name(item.getPath());
-                JsonUtil.exportJson(writer, item, rules);
+                exporter.export(item);
             }
             writer.endObject();
 
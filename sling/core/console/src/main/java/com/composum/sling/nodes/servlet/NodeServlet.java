@@ -1,5 +1,6 @@
 package com.composum.sling.nodes.servlet;
 
+import com.composum.sling.core.BeanContext;
 import com.composum.sling.core.ResourceHandle;
 import com.composum.sling.core.config.FilterConfiguration;
 import com.composum.sling.core.exception.ParameterValidationException;
@@ -7,12 +8,15 @@ import com.composum.sling.core.filter.ResourceFilter;
 import com.composum.sling.core.filter.StringFilter;
 import com.composum.sling.core.mapping.MappingRules;
 import com.composum.sling.core.resource.SyntheticQueryResult;
+import com.composum.sling.core.service.PermissionsService;
 import com.composum.sling.core.servlet.AbstractServiceServlet;
 import com.composum.sling.core.servlet.NodeTreeServlet;
 import com.composum.sling.core.servlet.ServletOperation;
 import com.composum.sling.core.servlet.ServletOperationSet;
+import com.composum.sling.core.util.BinaryDelivery;
 import com.composum.sling.core.util.I18N;
-import com.composum.sling.core.util.JsonUtil;
+import com.composum.sling.core.util.JsonExporter;
+import com.composum.sling.core.util.JsonImporter;
 import com.composum.sling.core.util.MimeTypeUtil;
 import com.composum.sling.core.util.RequestUtil;
 import com.composum.sling.core.util.ResourceUtil;
@@ -20,9 +24,11 @@ import com.composum.sling.core.util.ResponseUtil;
 import com.composum.sling.core.util.XSS;
 import com.composum.sling.cpnl.CpnlElFunctions;
 import com.composum.sling.nodes.NodesConfiguration;
+import com.composum.sling.nodes.query.QueryStatistics;
+import com.composum.sling.nodes.query.Template;
+import com.composum.sling.nodes.query.TemplateSet;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
@@ -38,7 +44,6 @@ import org.apache.sling.api.request.RequestPathInfo;
 import org.apache.sling.api.resource.ModifiableValueMap;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
-import org.apache.sling.api.servlets.HttpConstants;
 import org.apache.tika.mime.MimeType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,6 +58,7 @@ import javax.jcr.Property;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.UnsupportedRepositoryOperationException;
+import javax.jcr.Value;
 import javax.jcr.Workspace;
 import javax.jcr.lock.Lock;
 import javax.jcr.lock.LockManager;
@@ -60,10 +66,10 @@ import javax.jcr.nodetype.NodeType;
 import javax.jcr.query.Query;
 import javax.jcr.query.QueryManager;
 import javax.jcr.query.QueryResult;
+import javax.jcr.query.RowIterator;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
@@ -114,9 +120,18 @@ public class NodeServlet extends NodeTreeServlet {
     public static final Pattern NODE_NAME_PATTERN = Pattern.compile("^[^/" + ILLEGAL_NAME_CHARS + "]+$");
     public static final Pattern NODE_PATH_PATTERN = Pattern.compile("^(/[^/" + ILLEGAL_NAME_CHARS + "]+)+$");
 
+    /** the group of the users which are allowed to read the query statistics (the 'admin' is always allowed) */
+    public static final String STATISTICS_GROUP = "administrators";
+
     @Reference
     protected NodesConfiguration nodesConfig;
 
+    @Reference
+    protected PermissionsService permissionsService;
+
+    /** the execution statistics of the queries of the query console */
+    protected final QueryStatistics queryStatistics = new QueryStatistics(QueryStatistics.DEFAULT_SIZE);
+
     protected Map<String, ResourceFilter> nodeFilters = new LinkedHashMap<>();
 
     /**
@@ -214,7 +229,7 @@ public class NodeServlet extends NodeTreeServlet {
     public enum Operation {
         create, copy, move, reorder, delete, toggle,
         tree, reference, mixins, resolve, typeahead,
-        query, filters, map, load, download, fileUpdate
+        query, queryStatistics, filters, map, load, download, fileUpdate
     }
 
     protected ServletOperationSet<Extension, Operation> operations = new ServletOperationSet<>(Extension.json);
@@ -263,6 +278,10 @@ public class NodeServlet extends NodeTreeServlet {
                 Operation.query, new JsonQueryOperation());
         operations.setOperation(ServletOperationSet.Method.GET, Extension.html,
                 Operation.query, new HtmlQueryOperation());
+        operations.setOperation(ServletOperationSet.Method.GET, Extension.json,
+                Operation.queryStatistics, new JsonQueryStatisticsOperation());
+        operations.setOperation(ServletOperationSet.Method.GET, Extension.html,
+                Operation.queryStatistics, new HtmlQueryStatisticsOperation());
         operations.setOperation(ServletOperationSet.Method.GET, Extension.bin,
                 Operation.load, new LoadBinaryOperation());
         operations.setOperation(ServletOperationSet.Method.GET, Extension.bin,
@@ -355,6 +374,128 @@ public class NodeServlet extends NodeTreeServlet {
      */
     public static final Pattern WORD_QUERY = Pattern.compile("^ *([^ /]+) *$");
 
+    /**
+     * the parameter with the continuation token of a paged query result
+     */
+    public static final String PARAM_CURSOR = "cursor";
+
+    /**
+     * the parameter to request the query plan with the query result
+     */
+    public static final String PARAM_EXPLAIN = "explain";
+
+    /**
+     * A page of a query result: a window of at most 'limit' rows of the raw query result starting at 'offset'.
+     * The rows are filtered after retrieval, so a page can contain less rows than the limit. The continuation
+     * token ('cursor') of the next page is bound to the query and the filter; the order of the query result must
+     * be stable (e.g. 'order by @path') to walk through a result set reliably.
+     * The page measures the retrieval of its rows for the query statistics.
+     */
+    public static class QueryPage {
+
+        protected final String queryKey;
+        protected final long offset;
+        protected final long limit;
+        protected long consumed;
+        protected boolean hasMore;
+
+        protected final long begin = System.nanoTime();
+        protected long executed = -1;
+        protected long firstRow = -1;
+        protected long accepted;
+
+        /**
+         * @param limit the maximum number of rows of the page; no limit if <= 0
+         */
+        public QueryPage(String queryKey, long offset, long limit) {
+            this.queryKey = queryKey;
+            this.offset = offset;
+            this.limit = limit;
+        }
+
+        /**
+         * Parses a continuation token of a page of the same query.
+         *
+         * @return the offset of the page; -1 if the token doesn't belong to the query
+         */
+        public static long parseCursor(String queryKey, String cursor) {
+            String[] parts = StringUtils.split(cursor, '.');
+            if (parts.length == 2 && parts[1].equals(hash(queryKey)) && parts[0].matches("[0-9]{1,18}")) {
+                return Long.parseLong(parts[0]);
+            }
+            return -1;
+        }
+
+        protected static String hash(String queryKey) {
+            return Integer.toHexString(queryKey.hashCode());
+        }
+
+        public void apply(Query query) {
+            if (offset > 0) {
+                query.setOffset(offset);
+            }
+            if (limit > 0) {
+                query.setLimit(limit + 1); // one more to detect further rows
+            }
+        }
+
+        /**
+         * @return the next row of the page; null at the end of the page
+         */
+        public Node nextNode(NodeIterator iterator) {
+            if (iterator.hasNext()) {
+                if (limit <= 0 || consumed < limit) {
+                    consumed++;
+                    Node node = iterator.nextNode();
+                    if (firstRow < 0) {
+                        firstRow = System.nanoTime() - begin;
+                    }
+                    return node;
+                }
+                hasMore = true;
+            }
+            return null;
+        }
+
+        /** marks the end of the query execution */
+        public void executed() {
+            executed = System.nanoTime() - begin;
+        }
+
+        /** counts a row accepted by the filter */
+        public void accepted() {
+            accepted++;
+        }
+
+        /**
+         * @param counted 'false' if the rows are not retrieved via this page (scanned and accepted rows unknown)
+         * @return the measurement of the page retrieval up to now
+         */
+        public QueryStatistics.Execution getExecution(String query, String language, String filter,
+                                                      boolean counted, String plan) {
+            return new QueryStatistics.Execution(query, language, filter,
+                    executed, firstRow, System.nanoTime() - begin,
+                    counted ? consumed : -1, counted ? accepted : -1, plan);
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLimit() {
+            return limit;
+        }
+
+        public boolean hasMore() {
+            return hasMore;
+        }
+
+        /** @return the continuation token of the next page; null if there are no more rows */
+        public String getNextCursor() {
+            return hasMore ? (offset + consumed) + "." + hash(queryKey) : null;
+        }
+    }
+
     protected abstract class AbstractQueryOperation implements ServletOperation {
 
         @Override
@@ -398,12 +539,33 @@ public class NodeServlet extends NodeTreeServlet {
                     Workspace workspace = session.getWorkspace();
                     QueryManager queryManager = workspace.getQueryManager();
 
+                    ResourceFilter filter = getNodeFilter(request);
+                    QueryPage page = getQueryPage(request, queryString, filter);
+                    if (page == null) {
+                        writeError(response, queryString, new IllegalArgumentException("invalid cursor"));
+                        return;
+                    }
+
                     Query query = queryManager.createQuery(queryString, queryLang);
-                    query.setLimit(nodesConfig.getQueryResultLimit() + 1);
+                    page.apply(query);
                     QueryResult result = query.execute();
+                    page.executed();
 
-                    ResourceFilter filter = getNodeFilter(request);
-                    writeQueryResult(request, response, queryString, result, filter, resolver);
+                    String plan = RequestUtil.getParameter(request, PARAM_EXPLAIN, Boolean.FALSE)
+                            ? explain(queryManager, queryString, queryLang) : null;
+
+                    writeQueryResult(request, response, queryString, result, filter, resolver, page, plan);
+
+                    QueryStatistics.Execution execution = page.getExecution(queryString, queryLang,
+                            String.valueOf(filter), isCountingRows(), plan);
+                    if (queryStatistics.needsPlan(execution)) {
+                        execution.setPlan(explain(queryManager, queryString, queryLang));
+                    }
+                    queryStatistics.record(execution);
+                    if (execution.isSlow()) {
+                        LOG.info("slow query ({} ms, {} rows read): {}",
+                                execution.getTotalTime(), execution.getScanned(), queryString);
+                    }
 
                 } catch (RepositoryException rex) {
                     LOG.error(rex.getMessage(), rex);
@@ -412,6 +574,51 @@ public class NodeServlet extends NodeTreeServlet {
             }
         }
 
+        /**
+         * Determines the page of the query result from the 'cursor' (continuation token) or the 'offset' parameter
+         * and the 'limit' parameter (limited by the configured query result limit).
+         *
+         * @return the page; null if the cursor doesn't belong to the query
+         */
+        protected QueryPage getQueryPage(SlingHttpServletRequest request, String queryString, ResourceFilter filter) {
+            String queryKey = queryString + "|" + filter;
+            long offset = Math.max(RequestUtil.getParameter(request, PARAM_OFFSET, 0), 0);
+            String cursor = request.getParameter(PARAM_CURSOR);
+            if (StringUtils.isNotBlank(cursor)) {
+                offset = QueryPage.parseCursor(queryKey, cursor);
+                if (offset < 0) {
+                    return null;
+                }
+            }
+            long maxLimit = nodesConfig.getQueryResultLimit();
+            long limit = RequestUtil.getParameter(request, PARAM_LIMIT, 0);
+            return new QueryPage(queryKey, offset, limit > 0 && limit < maxLimit ? limit : maxLimit);
+        }
+
+        /**
+         * @return 'true' if the rows of the result are retrieved via the page (rows read and accepted are counted)
+         */
+        protected boolean isCountingRows() {
+            return true;
+        }
+
+        /**
+         * @return the query plan of the query ('explain' query of Oak); null if not available
+         */
+        protected String explain(QueryManager queryManager, String queryString, String queryLang) {
+            try {
+                Query query = queryManager.createQuery("explain " + queryString, queryLang);
+                RowIterator rows = query.execute().getRows();
+                if (rows.hasNext()) {
+                    Value plan = rows.nextRow().getValue("plan");
+                    return plan != null ? plan.getString() : null;
+                }
+            } catch (RepositoryException ex) {
+                LOG.debug("query plan not available: {}", ex.toString());
+            }
+            return null;
+        }
+
         public String getSimpleQuery(String path, String text) {
             String queryString = "/jcr:root";
             if (StringUtils.isNotBlank(path)) {
@@ -435,9 +642,13 @@ public class NodeServlet extends NodeTreeServlet {
             }
         }
 
+        /**
+         * @param plan the query plan if requested by the 'explain' parameter
+         */
         protected abstract void writeQueryResult(SlingHttpServletRequest request, SlingHttpServletResponse response,
                                                  String queryString, QueryResult result,
-                                                 ResourceFilter filter, ResourceResolver resolver)
+                                                 ResourceFilter filter, ResourceResolver resolver,
+                                                 QueryPage page, String plan)
                 throws RepositoryException, ServletException, IOException;
 
         protected void writeError(SlingHttpServletResponse response, String queryString, Exception ex)
@@ -452,7 +663,8 @@ public class NodeServlet extends NodeTreeServlet {
         @Override
         protected void writeQueryResult(SlingHttpServletRequest request, SlingHttpServletResponse response,
                                         String queryString, QueryResult result,
-                                        ResourceFilter filter, ResourceResolver resolver)
+                                        ResourceFilter filter, ResourceResolver resolver,
+                                        QueryPage page, String plan)
                 throws RepositoryException, IOException {
 
             JsonWriter writer = ResponseUtil.getJsonWriter(response);
@@ -461,18 +673,19 @@ public class NodeServlet extends NodeTreeServlet {
             TreeNodeStrategy nodeStrategy = new DefaultTreeNodeStrategy(getNodeFilter(request));
             NodeIterator iterator = result.getNodes();
 
-            writer.beginArray();
+            writer.beginObject();
 
             writer.name("result").beginArray();
             int count = 0;
-            while (iterator.hasNext()) {
-                Node node = iterator.nextNode();
+            Node node;
+            while ((node = page.nextNode(iterator)) != null) {
                 ResourceHandle resource = ResourceHandle.use(resolver.getResource(node.getPath()));
                 if (resource.isValid() && accept(filter, resource)) {
                     writer.beginObject();
                     String type = writeNodeIdentifiers(writer, nodeStrategy, resource, LabelType.name, false);
                     writeNodeJcrState(writer, resource);
                     writer.endObject();
+                    page.accepted();
                     count++;
                 }
             }
@@ -481,7 +694,23 @@ public class NodeServlet extends NodeTreeServlet {
             writer.name("summary").beginObject();
             writer.name("query").value(CpnlElFunctions.script(queryString)); // XSS? - checked (2019-05-04)
             writer.name("count").value(count);
-            writer.name("limit").value(nodesConfig.getQueryResultLimit());
+            writer.name("offset").value(page.getOffset());
+            writer.name("limit").value(page.getLimit());
+            writer.name("hasMore").value(page.hasMore());
+            if (page.hasMore()) {
+                writer.name(PARAM_CURSOR).value(page.getNextCursor());
+            }
+            QueryStatistics.Execution execution = page.getExecution(queryString, null, null, true, plan);
+            writer.name("statistics").beginObject();
+            writer.name("executeTime").value(execution.getExecuteTime());
+            writer.name("firstRowTime").value(execution.getFirstRowTime());
+            writer.name("totalTime").value(execution.getTotalTime());
+            writer.name("scanned").value(execution.getScanned());
+            writer.name("accepted").value(execution.getAccepted());
+            if (plan != null) {
+                writer.name("plan").value(plan);
+            }
+            writer.endObject();
             writer.endObject();
 
             writer.endObject();
@@ -493,7 +722,8 @@ public class NodeServlet extends NodeTreeServlet {
         @Override
         protected void writeQueryResult(SlingHttpServletRequest request, SlingHttpServletResponse response,
                                         String queryString, QueryResult result,
-                                        ResourceFilter filter, ResourceResolver resolver)
+                                        ResourceFilter filter, ResourceResolver resolver,
+                                        QueryPage page, String plan)
                 throws RepositoryException, IOException {
 
             response.setStatus(HttpServletResponse.SC_OK);
@@ -504,10 +734,9 @@ public class NodeServlet extends NodeTreeServlet {
             NodeIterator iterator = result.getNodes();
 
             writer.append("<tbody>");
-            long limit = nodesConfig.getQueryResultLimit();
             int count = 0;
-            while (count < limit && iterator.hasNext()) {
-                Node node = iterator.nextNode();
+            Node node;
+            while ((node = page.nextNode(iterator)) != null) {
                 ResourceHandle resource = ResourceHandle.use(resolver.getResource(node.getPath()));
                 if (resource.isValid() && accept(filter, resource)) {
                     StringBuilder classes = new StringBuilder();
@@ -547,23 +776,44 @@ public class NodeServlet extends NodeTreeServlet {
                             .append(CpnlElFunctions.text(path)).append("</a></td>");
                     writer.append("<td class=\"type\">").append(resource.getPrimaryType()).append("</td>");
                     writer.append("</tr>");
+                    page.accepted();
                     count++;
                 }
             }
             StringBuilder message = new StringBuilder();
             message.append(count).append(" items found");
-            if (count >= limit) {
-                message.append(" (current limit: ").append(limit).append(", ")
-                        .append(iterator.hasNext() ? "more items present" : "no more items").append(")");
+            if (page.getOffset() > 0) {
+                message.append(" after row ").append(page.getOffset());
+            }
+            if (page.hasMore()) {
+                message.append(" (current limit: ").append(page.getLimit()).append(", more items present)");
             }
-            message.append(".");
-            writeSummary(queryString, message.toString(), writer, "summary info");
+            QueryStatistics.Execution execution = page.getExecution(queryString, null, null, true, plan);
+            message.append(" in ").append(execution.getTotalTime()).append(" ms (execution: ")
+                    .append(execution.getExecuteTime()).append(" ms, ")
+                    .append(execution.getScanned()).append(" rows read).");
+            if (plan != null) {
+                message.append(" Plan: ").append(plan);
+            }
+            writeSummary(queryString, message.toString(), writer, "summary info", page.getNextCursor());
             writer.append("</tbody>");
         }
 
         protected void writeSummary(String queryString, String message,
                                     PrintWriter writer, String cssClasses) {
-            writer.append("<tr class=\"").append(cssClasses).append("\">");
+            writeSummary(queryString, message, writer, cssClasses, null);
+        }
+
+        /**
+         * @param cursor the continuation token of the next page (rendered as 'data-cursor' attribute, only digits, a dot and hex digits) if present
+         */
+        protected void writeSummary(String queryString, String message,
+                                    PrintWriter writer, String cssClasses, String cursor) {
+            writer.append("<tr class=\"").append(cssClasses).append("\"");
+            if (cursor != null) {
+                writer.append(" data-cursor=\"").append(cursor).append("\"");
+            }
+            writer.append(">");
             writer.append("<td class=\"icon\" data-type=\"summary\" rowspan=\"2\"><span></span></td>");
             writer.append("<td class=\"message\" colspan=\"5\">").append(CpnlElFunctions.text(message))
                     .append("<br/>query: '").append(CpnlElFunctions.text(queryString)).append("'</td>"); // XSS! (2019-05-04)
@@ -585,7 +835,8 @@ public class NodeServlet extends NodeTreeServlet {
         @Override
         protected void writeQueryResult(SlingHttpServletRequest request, SlingHttpServletResponse response,
                                         String queryString, QueryResult result,
-                                        ResourceFilter filter, ResourceResolver resolver)
+                                        ResourceFilter filter, ResourceResolver resolver,
+                                        QueryPage page, String plan)
                 throws ServletException, IOException {
 
             String rendererType = XSS.filter(request.getParameter("export"));
@@ -600,6 +851,173 @@ public class NodeServlet extends NodeTreeServlet {
             RequestDispatcher dispatcher = request.getRequestDispatcher(resultResource, options);
             dispatcher.forward(request, response);
         }
+
+        @Override
+        protected boolean isCountingRows() {
+            return false;
+        }
+
+        /**
+         * The export is not limited by the query result limit: the rows are rendered by the export renderer while
+         * iterating over the query result (see {@link SyntheticQueryResult#listChildren()}) without collecting them.
+         */
+        @Override
+        protected QueryPage getQueryPage(SlingHttpServletRequest request, String queryString,
+                                         ResourceFilter filter) {
+            QueryPage page = super.getQueryPage(request, queryString, filter);
+            return page != null
+                    ? new QueryPage(page.queryKey, page.getOffset(), RequestUtil.getParameter(request, PARAM_LIMIT, 0))
+                    : null;
+        }
+    }
+
+    //
+    // query statistics
+    //
+
+    /**
+     * the statistics view: the slowest recently executed queries ('limit' parameter, default: 20) with the titles
+     * of the query templates the queries are created from
+     */
+    protected abstract class AbstractQueryStatisticsOperation implements ServletOperation {
+
+        public static final int DEFAULT_LIMIT = 20;
+
+        @Override
+        public void doIt(SlingHttpServletRequest request, SlingHttpServletResponse response,
+                         ResourceHandle resource)
+                throws ServletException, IOException {
+            // the statistics contain the queries of all users
+            Session session = request.getResourceResolver().adaptTo(Session.class);
+            if (session == null || permissionsService.isMemberOfOne(session, STATISTICS_GROUP) == null) {
+                response.sendError(HttpServletResponse.SC_FORBIDDEN);
+                return;
+            }
+            int limit = RequestUtil.getParameter(request, PARAM_LIMIT, DEFAULT_LIMIT);
+            List<QueryStatistics.Entry> entries = queryStatistics.getSlowest(limit > 0 ? limit : DEFAULT_LIMIT);
+            Map<String, Pattern> templates = getTemplatePatterns(request, response);
+            Map<QueryStatistics.Entry, String> templateTitles = new LinkedHashMap<>();
+            for (QueryStatistics.Entry entry : entries) {
+                templateTitles.put(entry, getTemplateTitle(templates, entry.getQuery()));
+            }
+            response.setStatus(HttpServletResponse.SC_OK);
+            writeStatistics(response, templateTitles);
+        }
+
+        protected abstract void writeStatistics(SlingHttpServletResponse response,
+                                                Map<QueryStatistics.Entry, String> entries)
+                throws IOException;
+
+        /**
+         * @return the patterns of the queries of the available query templates by the template titles
+         */
+        protected Map<String, Pattern> getTemplatePatterns(SlingHttpServletRequest request,
+                                                           SlingHttpServletResponse response) {
+            Map<String, Pattern> result = new LinkedHashMap<>();
+            TemplateSet templateSet = new TemplateSet(new BeanContext.Service(request, response));
+            for (List<Template> group : templateSet.getItems().values()) {
+                for (Template template : group) {
+                    for (String query : new String[]{template.getXpath(), template.getSql2()}) {
+                        Pattern pattern = QueryStatistics.getTemplatePattern(query);
+                        if (pattern != null) {
+                            result.put(template.getTitle() + (query.equals(template.getSql2()) ? " (SQL2)" : ""),
+                                    pattern);
+                        }
+                    }
+                }
+            }
+            return result;
+        }
+
+        protected String getTemplateTitle(Map<String, Pattern> templates, String query) {
+            for (Map.Entry<String, Pattern> template : templates.entrySet()) {
+                if (template.getValue().matcher(query).matches()) {
+                    return template.getKey();
+                }
+            }
+            return null;
+        }
+    }
+
+    protected class JsonQueryStatisticsOperation extends AbstractQueryStatisticsOperation {
+
+        @Override
+        protected void writeStatistics(SlingHttpServletResponse response,
+                                       Map<QueryStatistics.Entry, String> entries)
+                throws IOException {
+            JsonWriter writer = ResponseUtil.getJsonWriter(response);
+            writer.beginArray();
+            for (Map.Entry<QueryStatistics.Entry, String> item : entries.entrySet()) {
+                QueryStatistics.Entry entry = item.getKey();
+                QueryStatistics.Execution slowest = entry.getSlowest();
+                writer.beginObject();
+                writer.name("query").value(entry.getQuery());
+                writer.name("language").value(entry.getLanguage());
+                if (item.getValue() != null) {
+                    writer.name("template").value(item.getValue());
+                }
+                writer.name("count").value(entry.getCount());
+                writer.name("averageTime").value(entry.getAverageTime());
+                writer.name("maxTime").value(entry.getMaxTime());
+                writer.name("lastExecuted").value(entry.getLastExecuted());
+                if (slowest != null) {
+                    writer.name("slowest").beginObject();
+                    writer.name("started").value(slowest.getStarted());
+                    writer.name("filter").value(slowest.getFilter());
+                    writer.name("executeTime").value(slowest.getExecuteTime());
+                    writer.name("firstRowTime").value(slowest.getFirstRowTime());
+                    writer.name("totalTime").value(slowest.getTotalTime());
+                    writer.name("scanned").value(slowest.getScanned());
+                    writer.name("accepted").value(slowest.getAccepted());
+                    writer.endObject();
+                }
+                if (entry.getPlan() != null) {
+                    writer.name("plan").value(entry.getPlan());
+                }
+                writer.endObject();
+            }
+            writer.endArray();
+        }
+    }
+
+    protected class HtmlQueryStatisticsOperation extends AbstractQueryStatisticsOperation {
+
+        @Override
+        protected void writeStatistics(SlingHttpServletResponse response,
+                                       Map<QueryStatistics.Entry, String> entries)
+                throws IOException {
+            response.setContentType("text/html;charset=" + CHARSET); // XSS? - checked (2019-05-04)
+            PrintWriter writer = response.getWriter();
+            writer.append("<table class=\"query-statistics table\"><thead><tr>")
+                    .append("<th>query</th><th>template</th><th>count</th><th>avg (ms)</th><th>max (ms)</th>")
+                    .append("<th>execution (ms)</th><th>first row (ms)</th><th>read</th><th>accepted</th>")
+                    .append("<th>plan</th></tr></thead><tbody>");
+            for (Map.Entry<QueryStatistics.Entry, String> item : entries.entrySet()) {
+                QueryStatistics.Entry entry = item.getKey();
+                QueryStatistics.Execution slowest = entry.getSlowest();
+                writer.append("<tr>");
+                writer.append("<td class=\"query\">").append(CpnlElFunctions.text(entry.getQuery())).append("</td>");
+                writer.append("<td class=\"template\">")
+                        .append(item.getValue() != null ? CpnlElFunctions.text(item.getValue()) : "").append("</td>");
+                writer.append("<td class=\"count\">").append(Long.toString(entry.getCount())).append("</td>");
+                writer.append("<td class=\"time\">").append(Long.toString(entry.getAverageTime())).append("</td>");
+                writer.append("<td class=\"time\">").append(Long.toString(entry.getMaxTime())).append("</td>");
+                writer.append("<td class=\"time\">")
+                        .append(slowest != null ? Long.toString(slowest.getExecuteTime()) : "").append("</td>");
+                writer.append("<td class=\"time\">")
+                        .append(slowest != null ? Long.toString(slowest.getFirstRowTime()) : "").append("</td>");
+                writer.append("<td class=\"rows\">")
+                        .append(slowest != null && slowest.getScanned() >= 0 ? Long.toString(slowest.getScanned()) : "")
+                        .append("</td>");
+                writer.append("<td class=\"rows\">")
+                        .append(slowest != null && slowest.getAccepted() >= 0 ? Long.toString(slowest.getAccepted()) : "")
+                        .append("</td>");
+                writer.append("<td class=\"plan\">")
+                        .append(entry.getPlan() != null ? CpnlElFunctions.text(entry.getPlan()) : "").append("</td>");
+                writer.append("</tr>");
+            }
+            writer.append("</tbody></table>");
+        }
     }
 
     //
@@ -611,15 +1029,27 @@ public class NodeServlet extends NodeTreeServlet {
      */
     @Override
     protected List<Resource> prepareTreeItems(ResourceHandle resource, List<Resource> items) {
+        Comparator<Resource> order = getTreeItemsOrder(resource);
+        if (order != null) {
+            Collections.sort(items, order);
+        }
+        return items;
+    }
+
+    /**
+     * children of not orderable nodes are sorted by their names
+     */
+    @Override
+    protected Comparator<Resource> getTreeItemsOrder(ResourceHandle resource) {
         if (!nodesConfig.getOrderableNodesFilter().accept(resource)) {
-            Collections.sort(items, new Comparator<Resource>() {
+            return new Comparator<Resource>() {
                 @Override
                 public int compare(Resource r1, Resource r2) {
                     return getSortName(r1).compareTo(getSortName(r2));
                 }
-            });
+            };
         }
-        return items;
+        return null;
     }
 
     /**
@@ -826,13 +1256,8 @@ public class NodeServlet extends NodeTreeServlet {
             try {
                 prepareResponse(response, resource);
 
-                response.setContentLength((int) binary.getSize());
-                response.setStatus(HttpServletResponse.SC_OK);
-
-                try (InputStream input = binary.getStream();
-                     BufferedInputStream buffered = new BufferedInputStream(input)) {
-                    IOUtils.copy(buffered, response.getOutputStream());
-                }
+                BinaryDelivery.deliver(request, response, binary,
+                        resource.getProperty(ResourceUtil.PROP_LAST_MODIFIED, Calendar.class));
 
             } catch (RepositoryException ex) {
                 LOG.error(ex.getMessage(), ex);
@@ -861,11 +1286,6 @@ public class NodeServlet extends NodeTreeServlet {
             if (StringUtils.isNotBlank(filename)) {
                 response.setHeader("Content-Disposition", "inline; filename=" + filename);
             }
-
-            Calendar lastModified = resource.getProperty(com.composum.sling.core.util.ResourceUtil.PROP_LAST_MODIFIED, Calendar.class);
-            if (lastModified != null) {
-                response.setDateHeader(HttpConstants.HEADER_LAST_MODIFIED, lastModified.getTimeInMillis());
-            }
         }
     }
 
@@ -1323,6 +1743,13 @@ public class NodeServlet extends NodeTreeServlet {
                 null);
     }
 
+    /**
+     * @return 'false' if the properties should be exported in their repository order (selector 'unsorted')
+     */
+    public static boolean isJsonSelectorSorted(SlingHttpServletRequest request) {
+        return !RequestUtil.checkSelector(request, "unsorted");
+    }
+
     public static int getJsonSelectorIndent(SlingHttpServletRequest request) {
         return RequestUtil.getParameter(request, "indent",
                 RequestUtil.getIntSelector(request, MAP_INDENT_SELECTOR, 0));
@@ -1364,7 +1791,8 @@ public class NodeServlet extends NodeTreeServlet {
                 if (indent > 0) {
                     jsonWriter.setIndent(StringUtils.repeat(' ', indent));
                 }
-                JsonUtil.exportJson(jsonWriter, resource, rules);
+                new JsonExporter(jsonWriter, rules, isJsonSelectorSorted(request),
+                        JsonExporter.DEFAULT_FLUSH_INTERVAL).export(resource);
 
             } catch (RepositoryException ex) {
                 LOG.error(ex.getMessage(), ex);
@@ -1403,6 +1831,12 @@ public class NodeServlet extends NodeTreeServlet {
         }
     }
 
+    public static final String PARAM_SAVE_THRESHOLD = "saveThreshold";
+    public static final String PARAM_CHECKPOINT = "checkpoint";
+
+    /** the response header with the checkpoint of a failed import with intermediate saves */
+    public static final String HEADER_IMPORT_CHECKPOINT = "X-Import-Checkpoint";
+
     protected class MapPutOperation implements ServletOperation {
 
         @Override
@@ -1414,13 +1848,15 @@ public class NodeServlet extends NodeTreeServlet {
             Reader reader = getReader(request);
 
             if (reader != null) {
+                JsonImporter importer = null;
                 try {
                     String path = getPath(request);
                     LOG.info(path + ": update PUT with JSON data...");
 
                     ResourceResolver resolver = request.getResourceResolver();
                     JsonReader jsonReader = new JsonReader(reader);
-                    Resource newResource = JsonUtil.importJson(jsonReader, resolver, path);
+                    importer = getImporter(request, path);
+                    Resource newResource = importer.importJson(jsonReader, path);
 
                     Session session = resolver.adaptTo(Session.class);
                     session.save();
@@ -1428,8 +1864,13 @@ public class NodeServlet extends NodeTreeServlet {
                     response.setStatus(HttpServletResponse.SC_OK);
                     response.setContentLength(0);
 
-                } catch (RepositoryException ex) {
+                } catch (RepositoryException | IOException | RuntimeException ex) {
+                    // e.g. a parse error of the JSON data after some intermediate saves
                     LOG.error(ex.getMessage(), ex);
+                    if (importer != null && importer.getCheckpoint() != null) {
+                        // the import can be resumed after the nodes stored by the intermediate saves
+                        response.setHeader(HEADER_IMPORT_CHECKPOINT, importer.getCheckpoint());
+                    }
                     response.sendError(HttpServletResponse.SC_BAD_REQUEST, ex.getMessage());
                 }
             } else {
@@ -1441,6 +1882,24 @@ public class NodeServlet extends NodeTreeServlet {
             return AbstractServiceServlet.getPath(request);
         }
 
+        /**
+         * @return the importer configured by the 'saveThreshold' (intermediate saves for large imports) and the
+         * 'checkpoint' (to resume an import of the same data) parameters
+         */
+        protected JsonImporter getImporter(SlingHttpServletRequest request, final String path) {
+            int saveThreshold = RequestUtil.getParameter(request, PARAM_SAVE_THRESHOLD, 0);
+            String checkpoint = RequestUtil.getParameter(request, PARAM_CHECKPOINT, (String) null);
+            return new JsonImporter(request.getResourceResolver(), MappingRules.getDefaultMappingRules(),
+                    saveThreshold, checkpoint,
+                    new JsonImporter.Progress() {
+                        @Override
+                        public void saved(JsonImporter importer) {
+                            LOG.info("{}: JSON import saved - {} nodes, {} changes, checkpoint '{}'", path,
+                                    importer.getNodeCount(), importer.getSavedCount(), importer.getCheckpoint());
+                        }
+                    });
+        }
+
         protected Reader getReader(SlingHttpServletRequest request) throws IOException {
             return request.getReader();
         }
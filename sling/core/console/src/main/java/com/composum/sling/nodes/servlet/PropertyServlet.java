@@ -7,6 +7,7 @@ import com.composum.sling.core.servlet.AbstractServiceServlet;
 import com.composum.sling.core.servlet.ServletOperation;
 import com.composum.sling.core.servlet.ServletOperationSet;
 import com.composum.sling.core.servlet.Status;
+import com.composum.sling.core.util.BinaryDelivery;
 import com.composum.sling.core.util.JsonUtil;
 import com.composum.sling.core.util.MimeTypeUtil;
 import com.composum.sling.core.util.PropertyUtil;
@@ -15,7 +16,6 @@ import com.composum.sling.core.util.ResponseUtil;
 import com.composum.sling.core.util.XSS;
 import com.composum.sling.nodes.NodesConfiguration;
 import com.google.gson.stream.JsonWriter;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.sling.SlingServlet;
@@ -26,7 +26,6 @@ import org.apache.sling.api.request.RequestParameter;
 import org.apache.sling.api.request.RequestParameterMap;
 import org.apache.sling.api.resource.ResourceUtil;
 import org.apache.sling.api.resource.ValueMap;
-import org.apache.sling.api.servlets.HttpConstants;
 import org.apache.tika.mime.MimeType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,7 +42,6 @@ import javax.jcr.Session;
 import javax.jcr.Value;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Calendar;
@@ -445,22 +443,8 @@ public class PropertyServlet extends AbstractServiceServlet {
                                 response.setHeader("Content-Disposition", "inline; filename=" + filename);
                             }
 
-                            Calendar lastModified = resource.getProperty(com.composum.sling.core.util.ResourceUtil.PROP_LAST_MODIFIED, Calendar.class);
-                            if (lastModified != null) {
-                                response.setDateHeader(HttpConstants.HEADER_LAST_MODIFIED, lastModified.getTimeInMillis());
-                            }
-
-                            response.setContentLength((int) binary.getSize());
-                            response.setStatus(SC_OK);
-
-                            InputStream input = binary.getStream();
-                            BufferedInputStream buffered = new BufferedInputStream(input);
-                            try {
-                                IOUtils.copy(buffered, response.getOutputStream());
-                            } finally {
-                                buffered.close();
-                                input.close();
-                            }
+                            BinaryDelivery.deliver(request, response, binary, resource.getProperty(
+                                    com.composum.sling.core.util.ResourceUtil.PROP_LAST_MODIFIED, Calendar.class));
                         } finally {
                             binary.dispose();
                         }
@@ -0,0 +1,382 @@
+package com.composum.sling.nodes.update;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jackrabbit.util.ISO9075;
+import org.apache.jackrabbit.vault.util.DocViewProperty;
+import org.apache.jackrabbit.vault.util.PlatformNameFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.jcr.Binary;
+import javax.jcr.NamespaceException;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.ValueFactory;
+import javax.jcr.nodetype.NoSuchNodeTypeException;
+import javax.jcr.nodetype.NodeTypeManager;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLConnection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static com.composum.sling.core.util.ResourceUtil.CONTENT_NODE;
+import static com.composum.sling.core.util.ResourceUtil.PROP_DATA;
+import static com.composum.sling.core.util.ResourceUtil.PROP_MIME_TYPE;
+import static com.composum.sling.core.util.ResourceUtil.PROP_PRIMARY_TYPE;
+
+/**
+ * Reads a ZIP in the Vault format (the content below 'jcr_root') entry by entry into a {@link SourceNode} model.
+ * The docview XML files ('.content.xml', '{name}.dir/.content.xml' and '{name}.xml') are parsed directly into the
+ * model; the binary entries (files and '{property}.binary' entries) are streamed into repository binaries, so
+ * neither the archive nor the binary content is kept in memory. Only the entries of the subtree of the root path
+ * (and the XML files of its parents) are read.
+ */
+public class SourceArchive {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SourceArchive.class);
+
+    public static final String ROOT_FOLDER = "jcr_root";
+    public static final String CONTENT_XML = ".content.xml";
+    public static final String DIR_SUFFIX = ".dir";
+    public static final String XML_SUFFIX = ".xml";
+    public static final String BINARY_SUFFIX = ".binary";
+    public static final String DOCVIEW_ROOT = "jcr:root";
+
+    public static final String NT_FILE = "nt:file";
+    public static final String NT_RESOURCE = "nt:resource";
+    public static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+
+    /** thrown by the docview parser if an XML file is not a docview file */
+    protected static class NoDocViewException extends SAXException {
+
+        public NoDocViewException(String message) {
+            super(message);
+        }
+    }
+
+    protected final Session session;
+    protected final ValueFactory valueFactory;
+    protected final String rootPath;
+    protected final SourceNode root = new SourceNode(null, "");
+
+    /** the repository path of each binary entry -> the binary of the entry, assigned after reading */
+    protected final Map<String, Binary> binaryEntries = new LinkedHashMap<>();
+    /** all binaries created for the archive; disposed by {@link #dispose()} */
+    protected final List<Binary> binaries = new ArrayList<>();
+
+    protected final SAXParserFactory parserFactory;
+
+    /**
+     * @param session  the session to create the binaries and to resolve the namespaces
+     * @param rootPath the path of the subtree which is read from the archive
+     */
+    public SourceArchive(@Nonnull Session session, @Nonnull String rootPath) throws RepositoryException {
+        this.session = session;
+        this.valueFactory = session.getValueFactory();
+        this.rootPath = rootPath;
+        parserFactory = SAXParserFactory.newInstance();
+        parserFactory.setNamespaceAware(true);
+        try {
+            parserFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            parserFactory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        } catch (ParserConfigurationException | SAXException ex) {
+            LOG.warn("can't configure XML parser: {}", ex.toString());
+        }
+    }
+
+    /**
+     * @return the model node of the path; 'null' if the archive doesn't contain this node
+     */
+    @Nullable
+    public SourceNode getNode(@Nonnull String path) {
+        return root.get(path);
+    }
+
+    /**
+     * Reads all entries of the ZIP stream (the stream is not closed).
+     */
+    public void read(@Nonnull InputStream zipInputStream) throws IOException, RepositoryException {
+        ZipInputStream zip = new ZipInputStream(zipInputStream);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (entry.getName().startsWith(ROOT_FOLDER + "/")) { // the package metadata is ignored
+                readEntry(zip, entry.getName().substring(ROOT_FOLDER.length()), entry.isDirectory());
+            }
+            zip.closeEntry();
+        }
+        assignBinaries();
+    }
+
+    /**
+     * Disposes all binaries created for the entries of the archive.
+     */
+    public void dispose() {
+        for (Binary binary : binaries) {
+            binary.dispose();
+        }
+        binaries.clear();
+    }
+
+    protected void readEntry(@Nonnull InputStream entryStream, @Nonnull String platformPath, boolean isDirectory)
+            throws IOException, RepositoryException {
+        platformPath = StringUtils.removeEnd(platformPath, "/");
+        if (isDirectory) {
+            if (!platformPath.endsWith(DIR_SUFFIX)) {
+                String path = getRepositoryPath(platformPath);
+                if (isRelevant(path)) {
+                    markDirectories(root.getOrCreate(path));
+                }
+            }
+            return;
+        }
+        String dirPath = StringUtils.substringBeforeLast(platformPath, "/");
+        String fileName = StringUtils.substringAfterLast(platformPath, "/");
+        String parentPath = getRepositoryPath(dirPath);
+        boolean extendedFile = dirPath.endsWith(DIR_SUFFIX);
+        if (CONTENT_XML.equals(fileName)) {
+            // the node of the folder or the file of a '.dir' folder
+            if (isRelevant(parentPath)) {
+                SourceNode node = root.getOrCreate(parentPath);
+                markDirectories(extendedFile ? node.getParent() : node);
+                if (!parseDocView(entryStream, parentPath, platformPath)) {
+                    throw new IllegalArgumentException("Not a docview file: " + platformPath);
+                }
+            }
+        } else {
+            String path = getChildPath(parentPath, PlatformNameFormat.getRepositoryName(fileName));
+            if (isRelevant(path)) {
+                markDirectories(root.getOrCreate(parentPath));
+                if (fileName.endsWith(XML_SUFFIX)) {
+                    // a '{name}.xml' is a docview file of the node {name} or a file with XML content
+                    byte[] content = IOUtils.toByteArray(entryStream);
+                    if (parseDocView(new ByteArrayInputStream(content),
+                            StringUtils.removeEnd(path, XML_SUFFIX), platformPath)) {
+                        return;
+                    }
+                    entryStream = new ByteArrayInputStream(content);
+                }
+                Binary binary = valueFactory.createBinary(new CloseShieldInputStream(entryStream));
+                binaries.add(binary);
+                binaryEntries.put(path, binary);
+            }
+        }
+    }
+
+    /**
+     * Assigns the binary entries to the declared binary properties ('{property}.binary') or to the files.
+     */
+    protected void assignBinaries() throws RepositoryException {
+        NodeTypeManager nodeTypeManager = session.getWorkspace().getNodeTypeManager();
+        for (Map.Entry<String, Binary> entry : binaryEntries.entrySet()) {
+            String path = entry.getKey();
+            Binary binary = entry.getValue();
+            if (path.endsWith(BINARY_SUFFIX)) {
+                SourceNode node = root.get(StringUtils.substringBeforeLast(path, "/"));
+                SourceNode.SourceProperty property = node != null ? node.getProperty(
+                        StringUtils.removeEnd(StringUtils.substringAfterLast(path, "/"), BINARY_SUFFIX)) : null;
+                if (property != null && property.type == PropertyType.BINARY && !property.multi) {
+                    property.binary = binary;
+                    continue;
+                }
+            }
+            SourceNode file = root.getOrCreate(path);
+            file.fileData = binary;
+            if (isNodeType(nodeTypeManager, file.getPrimaryType(), NT_FILE)) {
+                SourceNode content = file.getOrCreateChild(CONTENT_NODE);
+                if (content.properties == null) {
+                    // the standard file content: no other properties are declared and nothing else is changed
+                    content.merge = true;
+                    content.setProperty(new SourceNode.SourceProperty(PROP_PRIMARY_TYPE, PropertyType.NAME,
+                            false, new String[]{NT_RESOURCE}));
+                    String mimeType = URLConnection.guessContentTypeFromName(file.getName());
+                    SourceNode.SourceProperty mimeTypeProperty = new SourceNode.SourceProperty(PROP_MIME_TYPE,
+                            PropertyType.STRING, false, new String[]{mimeType != null ? mimeType : DEFAULT_MIME_TYPE});
+                    mimeTypeProperty.initial = true;
+                    content.setProperty(mimeTypeProperty);
+                }
+                content.setProperty(new SourceNode.SourceProperty(PROP_DATA, binary));
+            } else {
+                // e.g. a nt:resource without a file node
+                file.setProperty(new SourceNode.SourceProperty(PROP_DATA, binary));
+            }
+        }
+        binaryEntries.clear();
+    }
+
+    protected boolean isNodeType(NodeTypeManager nodeTypeManager, String type, String superType)
+            throws RepositoryException {
+        try {
+            return type != null && nodeTypeManager.getNodeType(type).isNodeType(superType);
+        } catch (NoSuchNodeTypeException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Parses a docview XML file into the model.
+     *
+     * @param path the repository path of the root element of the docview
+     * @return 'false' if the XML is not a docview file (the root element is not a {@value #DOCVIEW_ROOT})
+     */
+    protected boolean parseDocView(@Nonnull InputStream xml, @Nonnull String path, @Nonnull String entryPath)
+            throws IOException, RepositoryException {
+        DocViewHandler handler = new DocViewHandler(path);
+        try {
+            SAXParser parser = parserFactory.newSAXParser();
+            parser.parse(new CloseShieldInputStream(xml), handler);
+            return true;
+        } catch (NoDocViewException ex) {
+            return false;
+        } catch (SAXException ex) {
+            if (!handler.rootFound) {
+                LOG.debug("not a docview file: {} ({})", entryPath, ex.toString());
+                return false;
+            }
+            if (ex.getException() instanceof RepositoryException) {
+                throw (RepositoryException) ex.getException();
+            }
+            throw new IllegalArgumentException("Can't parse " + entryPath + " : " + ex.getMessage(), ex);
+        } catch (ParserConfigurationException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /** Parses the elements of a docview XML into the nodes of the model. */
+    protected class DocViewHandler extends DefaultHandler {
+
+        protected final String path;
+        protected final Deque<SourceNode> nodes = new ArrayDeque<>();
+        protected final Deque<List<String>> childNames = new ArrayDeque<>();
+
+        protected boolean rootFound;
+
+        public DocViewHandler(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri) throws SAXException {
+            if (StringUtils.isNotEmpty(prefix)) {
+                try {
+                    try {
+                        session.getNamespacePrefix(uri);
+                    } catch (NamespaceException ex) {
+                        session.getWorkspace().getNamespaceRegistry().registerNamespace(prefix, uri);
+                    }
+                } catch (RepositoryException ex) {
+                    throw new SAXException(ex);
+                }
+            }
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes)
+                throws SAXException {
+            String name = getJcrName(uri, localName, qName);
+            SourceNode node;
+            if (nodes.isEmpty()) {
+                if (!DOCVIEW_ROOT.equals(name)) {
+                    throw new NoDocViewException(name);
+                }
+                rootFound = true;
+                node = root.getOrCreate(path);
+            } else {
+                SourceNode parent = nodes.peek();
+                List<String> siblings = childNames.peek();
+                if (siblings.contains(name)) {
+                    throw new IllegalArgumentException("Equally named children not supported yet: "
+                            + parent.getPath() + " has two " + name);
+                }
+                siblings.add(name);
+                node = parent.getOrCreateChild(name);
+            }
+            if (attributes.getLength() > 0) {
+                Map<String, SourceNode.SourceProperty> properties = new LinkedHashMap<>();
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    String propertyName = getJcrName(attributes.getURI(i), attributes.getLocalName(i),
+                            attributes.getQName(i));
+                    DocViewProperty property = DocViewProperty.parse(propertyName, attributes.getValue(i));
+                    properties.put(propertyName, new SourceNode.SourceProperty(propertyName,
+                            property.type, property.isMulti, property.values));
+                }
+                node.define(properties);
+            }
+            nodes.push(node);
+            childNames.push(new ArrayList<String>());
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            SourceNode node = nodes.pop();
+            List<String> names = childNames.pop();
+            if (!names.isEmpty()) {
+                node.setDeclaredOrder(names);
+            }
+        }
+
+        protected String getJcrName(String uri, String localName, String qName) throws SAXException {
+            if (StringUtils.isNotEmpty(uri)) {
+                try {
+                    return session.getNamespacePrefix(uri) + ":" + ISO9075.decode(localName);
+                } catch (RepositoryException ex) {
+                    throw new SAXException(ex);
+                }
+            }
+            return ISO9075.decode(StringUtils.isNotEmpty(localName) ? localName : qName);
+        }
+    }
+
+    /**
+     * Marks the node and its parents as represented by a directory of the archive.
+     */
+    protected void markDirectories(@Nullable SourceNode node) {
+        while (node != null && !node.directory) {
+            node.directory = true;
+            node = node.getParent();
+        }
+    }
+
+    /**
+     * @return 'true' if the path is an ancestor of the root path or part of its subtree
+     */
+    protected boolean isRelevant(@Nonnull String path) {
+        return path.equals(rootPath) || path.startsWith(rootPath + "/")
+                || "/".equals(path) || rootPath.startsWith(path + "/");
+    }
+
+    /**
+     * Transforms the path of a directory of the archive into a repository path ('.dir' directories represent
+     * the node of the file with the same name).
+     */
+    protected static String getRepositoryPath(@Nonnull String platformPath) {
+        StringBuilder path = new StringBuilder();
+        for (String segment : StringUtils.split(platformPath, '/')) {
+            path.append('/').append(PlatformNameFormat.getRepositoryName(StringUtils.removeEnd(segment, DIR_SUFFIX)));
+        }
+        return path.length() > 0 ? path.toString() : "/";
+    }
+
+    protected static String getChildPath(@Nonnull String parentPath, @Nonnull String name) {
+        return "/".equals(parentPath) ? "/" + name : parentPath + "/" + name;
+    }
+}
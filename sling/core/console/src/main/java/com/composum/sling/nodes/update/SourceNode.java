@@ -0,0 +1,217 @@
+package com.composum.sling.nodes.update;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.jcr.Binary;
+import javax.jcr.PropertyType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.composum.sling.core.util.ResourceUtil.PROP_MIXINTYPES;
+import static com.composum.sling.core.util.ResourceUtil.PROP_PRIMARY_TYPE;
+
+/**
+ * The in-memory model of a node of a source archive as parsed by {@link SourceArchive}. A node is 'defined' if
+ * the archive contains its properties (an element with attributes in a docview XML), its content (a file) or a
+ * directory for it; an element without attributes is a 'stub' which declares the position of the node only.
+ */
+public class SourceNode {
+
+    /** A property of a node parsed from a docview attribute (or a binary entry of the archive). */
+    public static class SourceProperty {
+
+        public final String name;
+        public final int type;
+        public final boolean multi;
+        public final String[] values;
+
+        /** the value of a binary property; 'null' if the archive contains the declaration only */
+        public Binary binary;
+
+        /** 'true' if the value is a default which doesn't change an existing property */
+        public boolean initial;
+
+        public SourceProperty(String name, int type, boolean multi, String[] values) {
+            this.name = name;
+            this.type = type == PropertyType.UNDEFINED ? PropertyType.STRING : type;
+            this.multi = multi;
+            this.values = values;
+        }
+
+        public SourceProperty(String name, Binary binary) {
+            this(name, PropertyType.BINARY, false, new String[0]);
+            this.binary = binary;
+        }
+    }
+
+    protected final SourceNode parent;
+    protected final String name;
+    protected final String path;
+
+    protected final Map<String, SourceNode> children = new LinkedHashMap<>();
+    /** the properties; 'null' if not defined by a docview element */
+    protected Map<String, SourceProperty> properties;
+    /** the order of the children declared by a docview element */
+    protected List<String> declaredOrder;
+
+    /** the content of a file entry of the archive */
+    protected Binary fileData;
+    /** 'true' if a directory of the archive represents the node */
+    protected boolean directory;
+    /** 'true' if properties of the repository node which are not declared here have to be kept */
+    protected boolean merge;
+
+    public SourceNode(@Nullable SourceNode parent, @Nonnull String name) {
+        this.parent = parent;
+        this.name = name;
+        this.path = parent == null ? "/" : ("/".equals(parent.path) ? "" : parent.path) + "/" + name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    @Nullable
+    public SourceNode getParent() {
+        return parent;
+    }
+
+    public boolean isDefined() {
+        return properties != null || fileData != null || directory;
+    }
+
+    public boolean isFile() {
+        return fileData != null;
+    }
+
+    /**
+     * @return the declared primary type; the type of the default file or folder node if not declared
+     */
+    @Nullable
+    public String getPrimaryType() {
+        SourceProperty type = properties != null ? properties.get(PROP_PRIMARY_TYPE) : null;
+        if (type != null && type.values.length > 0) {
+            return type.values[0];
+        }
+        return fileData != null ? "nt:file" : directory ? "nt:folder" : null;
+    }
+
+    @Nonnull
+    public Set<String> getMixinTypes() {
+        SourceProperty mixins = properties != null ? properties.get(PROP_MIXINTYPES) : null;
+        Set<String> result = new LinkedHashSet<>();
+        if (mixins != null) {
+            for (String mixin : mixins.values) {
+                if (!mixin.isEmpty()) {
+                    result.add(mixin);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Nonnull
+    public Collection<SourceProperty> getProperties() {
+        return properties != null ? properties.values() : new ArrayList<SourceProperty>();
+    }
+
+    @Nullable
+    public SourceProperty getProperty(String name) {
+        return properties != null ? properties.get(name) : null;
+    }
+
+    public boolean hasProperty(String name) {
+        return properties != null && properties.containsKey(name);
+    }
+
+    public void setProperty(@Nonnull SourceProperty property) {
+        if (properties == null) {
+            properties = new LinkedHashMap<>();
+        }
+        properties.put(property.name, property);
+    }
+
+    /**
+     * Defines the properties of the node; replaces the properties of a previous definition.
+     */
+    public void define(@Nonnull Map<String, SourceProperty> properties) {
+        this.properties = properties;
+    }
+
+    @Nullable
+    public SourceNode getChild(String name) {
+        return children.get(name);
+    }
+
+    @Nonnull
+    public SourceNode getOrCreateChild(String name) {
+        SourceNode child = children.get(name);
+        if (child == null) {
+            child = new SourceNode(this, name);
+            children.put(name, child);
+        }
+        return child;
+    }
+
+    /**
+     * @param path an absolute path
+     * @return the node of the path (with all its parents), created if not present
+     */
+    @Nonnull
+    public SourceNode getOrCreate(String path) {
+        SourceNode node = this;
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) {
+                node = node.getOrCreateChild(segment);
+            }
+        }
+        return node;
+    }
+
+    @Nullable
+    public SourceNode get(String path) {
+        SourceNode node = this;
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty() && node != null) {
+                node = node.getChild(segment);
+            }
+        }
+        return node;
+    }
+
+    @Nonnull
+    public Collection<SourceNode> getChildren() {
+        return children.values();
+    }
+
+    public void setDeclaredOrder(@Nonnull List<String> order) {
+        this.declaredOrder = order;
+    }
+
+    /**
+     * @return the names of the children in their source order: the declared order first, the others as found
+     */
+    @Nonnull
+    public List<String> getChildOrder() {
+        Set<String> order = new LinkedHashSet<>();
+        if (declaredOrder != null) {
+            order.addAll(declaredOrder);
+        }
+        order.addAll(children.keySet());
+        return new ArrayList<>(order);
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
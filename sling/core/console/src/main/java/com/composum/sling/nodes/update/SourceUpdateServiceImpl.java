@@ -1,26 +1,26 @@
 package com.composum.sling.nodes.update;
 
-import com.composum.sling.core.ResourceHandle;
-import com.composum.sling.core.util.ResourceUtil;
-import org.apache.commons.collections.IteratorUtils;
-import org.apache.commons.lang3.ObjectUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.tuple.Pair;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Service;
 import org.apache.jackrabbit.JcrConstants;
-import org.apache.jackrabbit.vault.fs.api.ProgressTrackerListener;
-import org.apache.jackrabbit.vault.fs.io.Importer;
-import org.apache.jackrabbit.vault.fs.io.MemoryArchive;
 import org.apache.sling.api.resource.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.jcr.Binary;
 import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
-import javax.jcr.nodetype.NodeDefinition;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.nodetype.NodeType;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
@@ -64,215 +64,300 @@ public class SourceUpdateServiceImpl implements SourceUpdateService {
             "rep:AccessControllable", "rep:RepoAccessControllable", "rep:Impersonatable", "rep:VersionablePaths", "rep:VersionReference", "rep:RetentionManageable", "mix:indexable"
     ));
 
+    /** the number of changes after which the changes of an update are saved */
+    public static final int SAVE_THRESHOLD = 1000;
+
+    protected int saveThreshold = SAVE_THRESHOLD;
+
     /**
      * {@inheritDoc}
      * <p>
-     * Make subtree equivalent to a ZIP in vault format. General strategy: we update the attributes of all nodes according to the XML documents,
-     * creating nonexistent nodes along the way, and make node which nodes were present, and which were changed.
-     * In a second pass, we recurse through the JCR tree again, delete nodes that were not present and update the lastModified
-     * properties of nodes, below which there were changes.
+     * Make subtree equivalent to a ZIP in vault format. General strategy: the entries of the archive are streamed
+     * into an in-memory model of the nodes ({@link SourceArchive}, the binaries are streamed into the repository).
+     * Then we recurse through the JCR tree and the model and apply the differences only: the changed properties,
+     * the removed, added and reordered children, and the lastModified properties of nodes, below which there were
+     * changes. The changes are saved in batches of {@link #SAVE_THRESHOLD} changes.
      */
     @Override
     public void updateFromZip(@Nonnull ResourceResolver resolver, @Nonnull InputStream rawZipInputStream, @Nonnull String nodePath)
             throws IOException, RepositoryException {
-        Session session = resolver.adaptTo(Session.class);
-        Resource tmpdir = makeTempdir(resolver);
-        final String tmpPath = tmpdir.getPath();
-
-        Importer importer;
-        ImportErrorListener errorListener = new ImportErrorListener();
-        try {
-            importer = new Importer();
-            // TODO(hps,11.02.20) Use ZipStreamArchive once that's public (in later vault versions)
-            MemoryArchive archive = new MemoryArchive(false);
-            archive.run(rawZipInputStream);
-            importer.getOptions().setStrict(true);
-            importer.getOptions().setListener(errorListener);
-            importer.run(archive, tmpdir.adaptTo(Node.class));
-        } catch (IOException | RepositoryException e) {
-            throw e;
-        } catch (Exception e) {
-            throw new IOException(e);
-        } finally {
-            rawZipInputStream.close();
+        Session session = Objects.requireNonNull(resolver.adaptTo(Session.class));
+        if (StringUtils.countMatches(nodePath, "/") < 3) {
+            throw new IllegalArgumentException("Suspicious / short root path: " + nodePath);
         }
-        if (importer.hasErrors()) {
-            StringBuilder buf = new StringBuilder("Errors during import: ");
-            errorListener.errors.forEach(e ->
-                    buf.append(e.getLeft()).append(" : ").append(String.valueOf(e.getRight())).append("\n"));
-            throw new RepositoryException(buf.toString());
+        Resource resource = resolver.getResource(nodePath);
+        if (resource == null) {
+            throw new IllegalArgumentException("Node does not exist, so we cannot update it: " + nodePath);
         }
+        Node node = Objects.requireNonNull(resource.adaptTo(Node.class));
 
+        SourceArchive archive = new SourceArchive(session, nodePath);
         try {
-            Resource topnode = tmpdir.getChild(nodePath.replaceFirst("^/+", ""));
-            if (topnode == null) {
-                throw new IllegalArgumentException("Archive does not contain given root path " + nodePath);
-            }
-            if (StringUtils.countMatches(nodePath, "/") < 3) {
-                throw new IllegalArgumentException("Suspicious / short root path: " + nodePath);
+            try {
+                archive.read(rawZipInputStream);
+            } finally {
+                rawZipInputStream.close();
             }
-            Resource resource = resolver.getResource(nodePath);
-            if (resource == null) {
-                throw new IllegalArgumentException("Node does not exist, so we cannot update it: " + nodePath);
+            SourceNode topnode = archive.getNode(nodePath);
+            if (topnode == null || !topnode.isDefined()) {
+                throw new IllegalArgumentException("Archive does not contain given root path " + nodePath);
             }
-            equalize(topnode, resource, session);
-
-            LOG.info("Have changes: {}", session.hasPendingChanges());
+            Update update = new Update(session);
+            equalize(topnode, node, update);
+            LOG.info("Have changes: {} ({} saved before)", update.changes - update.saved, update.saved);
             session.save();
         } finally {
             session.refresh(false); // discard - if it went OK it's already saved.
-            if (resolver.getResource(tmpPath) != null) {
-                session.removeItem(tmpdir.getPath());
-            }
-            session.save();
+            archive.dispose();
         }
     }
 
-    protected Resource makeTempdir(ResourceResolver resolver) throws RepositoryException {
-        String path = "/tmp/composum/nodes/SourceUpdateService/" + UUID.randomUUID().toString();
-        return ResourceUtil.getOrCreateResource(resolver, path, TYPE_SLING_FOLDER);
-    }
+    /** The state of an update: the change counter for the intermediate saves. */
+    protected class Update {
+
+        public final Session session;
+        public final ValueFactory valueFactory;
+        public final Calendar now = Calendar.getInstance();
+        /** the nodes with a lastModified property which is set already */
+        public final Set<String> touched = new HashSet<>();
+
+        public int changes;
+        public int saved;
+        /** the depth of the new subtree in progress; no save until a new subtree is complete */
+        public int creating;
+
+        public Update(Session session) throws RepositoryException {
+            this.session = session;
+            this.valueFactory = session.getValueFactory();
+        }
 
-    private void equalize(@Nonnull Resource templateresource, @Nonnull Resource resource, Session session)
-            throws PersistenceException, RepositoryException {
-        boolean thisNodeChanged = false;
-        ValueMap templatevalues = ResourceUtil.getValueMap(templateresource);
-        ModifiableValueMap newvalues = resource.adaptTo(ModifiableValueMap.class);
-        if (newvalues == null) {
-            throw new IllegalArgumentException("Node not modifiable: " + resource.getPath());
+        public void changed() {
+            changes++;
         }
 
+        /** saves the changes at a node boundary if the threshold is reached */
+        public void checkSave() throws RepositoryException {
+            if (saveThreshold > 0 && changes - saved >= saveThreshold && creating == 0) {
+                session.save();
+                saved = changes;
+            }
+        }
+    }
+
+    protected void equalize(@Nonnull SourceNode source, @Nonnull Node node, @Nonnull Update update)
+            throws RepositoryException, IOException {
+        int changes = update.changes;
         try {
-            // first copy type information since this changes attributes
-            newvalues.put(PROP_PRIMARY_TYPE, templatevalues.get(PROP_PRIMARY_TYPE));
-            List<String> newMixins = new ArrayList<>(Arrays.asList(templatevalues.get(PROP_MIXINTYPES, new String[0])));
-            for (String mixin : newvalues.get(PROP_MIXINTYPES, new String[0])) {
-                if (noRemoveMixins.contains(mixin) && !newMixins.contains(mixin)) {
-                    newMixins.add(mixin);
+            // first copy type information since this changes the property definitions
+            String primaryType = source.getPrimaryType();
+            if (primaryType != null && !primaryType.equals(node.getPrimaryNodeType().getName())) {
+                node.setPrimaryType(primaryType);
+                update.changed();
+            }
+            Set<String> newMixins = source.getMixinTypes();
+            for (NodeType mixin : node.getMixinNodeTypes()) {
+                String mixinName = mixin.getName();
+                if (!newMixins.remove(mixinName) && !source.merge && !noRemoveMixins.contains(mixinName)) {
+                    node.removeMixin(mixinName);
+                    update.changed();
                 }
             }
-            if (!newMixins.isEmpty() || newvalues.containsKey(PROP_MIXINTYPES)) {
-                newvalues.put(PROP_MIXINTYPES, newMixins.toArray(new String[newMixins.size()]));
+            for (String mixin : newMixins) {
+                node.addMixin(mixin);
+                update.changed();
             }
 
-            Node node = resource.adaptTo(Node.class);
-            NodeDefinition definition = node.getDefinition();
-            if (definition.allowsSameNameSiblings()) {
-                checkForSamenameSiblings(templateresource, resource);
+            if (node.getDefinition().allowsSameNameSiblings()) {
+                checkForSamenameSiblings(node);
             }
 
-            for (Map.Entry<String, Object> entry : templatevalues.entrySet()) {
-                if (!ignoredMetadataAttributes.contains(entry.getKey()) &&
-                        ObjectUtils.notEqual(entry.getValue(), newvalues.get(entry.getKey()))) {
-                    thisNodeChanged = true;
-                    newvalues.put(entry.getKey(), entry.getValue());
+            for (SourceNode.SourceProperty property : source.getProperties()) {
+                if (!ignoredMetadataAttributes.contains(property.name) && !PROP_PRIMARY_TYPE.equals(property.name)) {
+                    equalize(property, node, update);
                 }
             }
-
-            for (String key : new HashSet<>(newvalues.keySet())) {
-                if (!ignoredMetadataAttributes.contains(key) && !templatevalues.containsKey(key)) {
-                    thisNodeChanged = true;
-                    newvalues.remove(key);
+            if (!source.merge) {
+                List<String> obsolete = new ArrayList<>();
+                for (PropertyIterator iterator = node.getProperties(); iterator.hasNext(); ) {
+                    Property property = iterator.nextProperty();
+                    String name = property.getName();
+                    if (!ignoredMetadataAttributes.contains(name) && !PROP_PRIMARY_TYPE.equals(name)
+                            && !source.hasProperty(name) && !property.getDefinition().isProtected()) {
+                        obsolete.add(name);
+                    }
+                }
+                for (String name : obsolete) {
+                    node.getProperty(name).remove();
+                    update.changed();
                 }
             }
 
-            for (Resource child : resource.getChildren()) {
-                Resource templateChild = templateresource.getChild(child.getName());
-                if (templateChild == null) {
-                    if (!noRemoveNodeNames.contains(child.getName())) {
-                        thisNodeChanged = true;
-                        try {
-                            resource.getResourceResolver().delete(child);
-                        } catch (PersistenceException | RuntimeException e) {
-                            LOG.error("Can't delete {}", child.getPath(), e);
-                            throw e;
-                        }
-                    }
-                } else {
-                    equalize(templateChild, child, session);
+            List<Node> obsoleteChildren = new ArrayList<>();
+            for (NodeIterator iterator = node.getNodes(); iterator.hasNext(); ) {
+                Node child = iterator.nextNode();
+                if (source.getChild(child.getName()) == null && !noRemoveNodeNames.contains(child.getName())) {
+                    obsoleteChildren.add(child);
+                }
+            }
+            for (Node child : obsoleteChildren) {
+                try {
+                    child.remove();
+                    update.changed();
+                } catch (RepositoryException | RuntimeException e) {
+                    LOG.error("Can't delete {}", child.getPath(), e);
+                    throw e;
                 }
             }
 
-            // save reference order here, since we might move some nodes
-            List<Resource> templatechildren = IteratorUtils.toList(templateresource.listChildren());
-
-            for (Resource templateChild : templateresource.getChildren()) {
-                if (null == resource.getChild(templateChild.getName())) {
-                    session.move(templateChild.getPath(), resource.getPath() + "/" + templateChild.getName());
-                    thisNodeChanged = true;
+            for (SourceNode sourceChild : source.getChildren()) {
+                if (!sourceChild.isDefined()) {
+                    continue; // a stub which declares the order only - the content is not part of the archive
+                }
+                String name = sourceChild.getName();
+                if (node.hasNode(name)) {
+                    equalize(sourceChild, node.getNode(name), update);
+                } else {
+                    String childType = sourceChild.getPrimaryType();
+                    Node child = childType != null ? node.addNode(name, childType) : node.addNode(name);
+                    update.changed();
+                    update.creating++;
+                    try {
+                        equalize(sourceChild, child, update);
+                    } finally {
+                        update.creating--;
+                    }
                 }
             }
 
             if (node.getPrimaryNodeType().hasOrderableChildNodes()) {
-                ensureSameOrdering(templatechildren, resource);
+                ensureSameOrdering(source, node, update);
             }
 
-            if (thisNodeChanged) {
-                Resource modifcandidate = resource;
-                while (modifcandidate != null && !ResourceUtil.isNodeType(modifcandidate, TYPE_LAST_MODIFIED)) {
-                    modifcandidate = modifcandidate.getParent();
-                }
-                if (modifcandidate != null) {
-                    ResourceHandle.use(modifcandidate).setProperty(PROP_LAST_MODIFIED, Calendar.getInstance());
-                }
+            if (update.changes > changes) {
+                touchLastModified(node, update);
             }
-        } catch (PersistenceException | RepositoryException | RuntimeException e) {
-            LOG.error("Error at {} : {}", resource.getPath(), e.toString());
+            update.checkSave();
+        } catch (RepositoryException | RuntimeException e) {
+            LOG.error("Error at {} : {}", node.getPath(), e.toString());
             throw e;
         }
     }
 
-    private void ensureSameOrdering(List<Resource> templatechildren, Resource resource) throws RepositoryException {
-        Node node = Objects.requireNonNull(resource.adaptTo(Node.class));
-        List<Resource> resourcechildren = IteratorUtils.toList(resource.listChildren());
-        if (templatechildren.size() != resourcechildren.size()) {
-            throw new IllegalStateException("Bug: template and resource of " + resource.getPath() +
-                    " should have same size now but have " + templatechildren.size() + " and " + resourcechildren.size());
+    /**
+     * Sets the property if its value differs from the value of the source.
+     */
+    protected void equalize(@Nonnull SourceNode.SourceProperty source, @Nonnull Node node, @Nonnull Update update)
+            throws RepositoryException, IOException {
+        Property property = node.hasProperty(source.name) ? node.getProperty(source.name) : null;
+        if (property != null && source.initial) {
+            return;
         }
-        if (resourcechildren.size() < 2) {
+        if (source.type == PropertyType.BINARY) {
+            if (source.binary == null || source.multi) {
+                return; // declared only - the value is not part of the archive
+            }
+            if (property != null && property.getType() == PropertyType.BINARY && !property.isMultiple()
+                    && sameContent(property.getBinary(), source.binary)) {
+                return;
+            }
+            if (property != null && property.isMultiple()) {
+                property.remove();
+            }
+            node.setProperty(source.name, update.valueFactory.createValue(source.binary));
+            update.changed();
             return;
         }
-        Map<String, Resource> nameToNode = new HashMap<>();
-        for (Resource child : resourcechildren) {
-            nameToNode.put(child.getName(), child);
+        Value[] values = new Value[source.values.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = update.valueFactory.createValue(source.values[i], source.type);
         }
-        for (int i = 0; i < resourcechildren.size(); ++i) {
-            if (!StringUtils.equals(resourcechildren.get(i).getName(), templatechildren.get(i).getName())) {
-                node.orderBefore(templatechildren.get(i).getName(), resourcechildren.get(i).getName());
-                resourcechildren = IteratorUtils.toList(resource.listChildren());
-            }
+        if (property != null && property.getType() == source.type && property.isMultiple() == source.multi
+                && sameValues(source.multi ? property.getValues() : new Value[]{property.getValue()}, values)) {
+            return;
+        }
+        if (property != null && property.isMultiple() != source.multi) {
+            property.remove();
+        }
+        if (source.multi) {
+            node.setProperty(source.name, values, source.type);
+        } else if (values.length > 0) {
+            node.setProperty(source.name, values[0]);
         }
+        update.changed();
     }
 
-    private void checkForSamenameSiblings(Resource templateresource, @Nonnull Resource resource) throws IllegalArgumentException {
-        Set<String> nodenames = new HashSet<>();
-        for (Resource child : templateresource.getChildren()) {
-            if (nodenames.contains(child.getName())) {
-                throw new IllegalArgumentException("Equally named children not supported yet: existing resource " + templateresource.getPath() + " has two " + child.getName());
-            }
-            nodenames.add(child.getName());
+    protected boolean sameValues(Value[] existing, Value[] values) throws RepositoryException {
+        if (existing.length != values.length) {
+            return false;
         }
-        nodenames.clear();
-        for (Resource child : resource.getChildren()) {
-            if (nodenames.contains(child.getName())) {
-                throw new IllegalArgumentException("Equally named children not supported yet: imported resource " + resource.getPath() + " has two " + child.getName());
+        for (int i = 0; i < values.length; i++) {
+            if (!existing[i].getString().equals(values[i].getString())) {
+                return false;
             }
-            nodenames.add(child.getName());
         }
+        return true;
     }
 
-    protected static class ImportErrorListener implements ProgressTrackerListener {
+    protected boolean sameContent(Binary existing, Binary binary) throws RepositoryException, IOException {
+        if (existing.getSize() != binary.getSize()) {
+            return false;
+        }
+        try (InputStream existingStream = existing.getStream(); InputStream stream = binary.getStream()) {
+            return IOUtils.contentEquals(existingStream, stream);
+        }
+    }
 
-        public final List<Pair<String, Exception>> errors = new ArrayList<>();
+    /**
+     * Sets the lastModified property of the node or of its next parent with a lastModified property.
+     */
+    protected void touchLastModified(@Nonnull Node node, @Nonnull Update update) throws RepositoryException {
+        Node candidate = node;
+        while (candidate != null && !candidate.isNodeType(TYPE_LAST_MODIFIED)) {
+            candidate = candidate.getDepth() > 0 ? candidate.getParent() : null;
+        }
+        if (candidate != null && update.touched.add(candidate.getPath())) {
+            candidate.setProperty(PROP_LAST_MODIFIED, update.now);
+        }
+    }
 
-        @Override
-        public void onMessage(Mode mode, String action, String path) {
-            // ignore
+    /**
+     * Orders the children as in the source - the children of the source which are present only.
+     */
+    protected void ensureSameOrdering(@Nonnull SourceNode source, @Nonnull Node node, @Nonnull Update update)
+            throws RepositoryException {
+        List<String> order = new ArrayList<>();
+        for (String name : source.getChildOrder()) {
+            if (node.hasNode(name)) {
+                order.add(name);
+            }
+        }
+        if (order.size() < 2) {
+            return;
         }
+        List<String> current = new ArrayList<>();
+        for (NodeIterator iterator = node.getNodes(); iterator.hasNext(); ) {
+            String name = iterator.nextNode().getName();
+            if (order.contains(name)) {
+                current.add(name);
+            }
+        }
+        if (!current.equals(order)) {
+            node.orderBefore(order.get(order.size() - 1), null);
+            for (int i = order.size() - 2; i >= 0; i--) {
+                node.orderBefore(order.get(i), order.get(i + 1));
+            }
+            update.changed();
+        }
+    }
 
-        @Override
-        public void onError(Mode mode, String path, Exception e) {
-            errors.add(Pair.of(path, e));
+    private void checkForSamenameSiblings(@Nonnull Node node) throws RepositoryException {
+        Set<String> nodenames = new HashSet<>();
+        for (NodeIterator iterator = node.getNodes(); iterator.hasNext(); ) {
+            String name = iterator.nextNode().getName();
+            if (!nodenames.add(name)) {
+                throw new IllegalArgumentException("Equally named children not supported yet: existing resource " + node.getPath() + " has two " + name);
+            }
         }
     }
+
 }
@@ -47,35 +47,60 @@
                 this.hidePopover();
                 this.$resultTable.html('<tbody><tr><td class="pulse"><i class="fa fa-spinner fa-pulse"></i></td></tr></tbody>');
                 var query = this.$queryInput.val();
+                this.loadResultPage(query, undefined, _.bind(function (content) {
+                    this.memorizeQuery(query);
+                    this.$resultTable.html(content);
+                    this.initResultRows(this.$resultTable);
+                }, this));
+                return false;
+            },
+
+            /**
+             * loads the next page of the result (using the cursor of the summary row) and appends its rows
+             */
+            loadNextPage: function (event) {
+                event.preventDefault();
+                var $summary = $(event.currentTarget).closest('tr');
+                var cursor = $summary.attr('data-cursor');
+                $summary.find('td').html('<i class="fa fa-spinner fa-pulse"></i>');
+                this.loadResultPage(this.$queryInput.val(), cursor, _.bind(function (content) {
+                    var $page = $('<table>' + content + '</table>');
+                    this.initResultRows($page);
+                    $summary.replaceWith($page.find('tbody').children());
+                }, this));
+                return false;
+            },
+
+            loadResultPage: function (query, cursor, onSuccess) {
                 core.ajaxGet('/bin/cpm/nodes/node.query.html', {
                     data: {
                         query: this.prepareQuery(query),
-                        filter: this.isFiltered() ? browser.tree.filter : ''
+                        filter: this.isFiltered() ? browser.tree.filter : '',
+                        cursor: cursor
                     }
-                }, _.bind(function (content) {
-                    this.memorizeQuery(query);
-                    this.$resultTable.html(content);
-                    var queryWidget = this;
-                    this.$resultTable.find('td.icon').each(function () {
-                        var $td = $(this);
-                        var typeHint = $td.attr('data-type');
-                        var rule = core.components.treeTypes[typeHint];
-                        if (!rule) {
-                            rule = core.components.treeTypes['default'];
-                        }
-                        $td.find('span').addClass(rule.icon)
-                    });
-                    var empty = true;
-                    this.$resultTable.find('td.path').each(function () {
-                        empty = false;
-                        var $td = $(this);
-                        $td.find('a').on('click', _.bind(queryWidget.pathSelected, queryWidget));
-                    });
-                }, this), _.bind(function (result) {
+                }, onSuccess, _.bind(function (result) {
                     var message = core.resultMessage(result, 'error on execute query');
                     this.$resultTable.html('<tbody><tr><td class="error danger">' + message + '</td></tr></tbody>');
                 }, this));
-                return false;
+            },
+
+            initResultRows: function ($rows) {
+                var queryWidget = this;
+                $rows.find('td.icon').each(function () {
+                    var $td = $(this);
+                    var typeHint = $td.attr('data-type');
+                    var rule = core.components.treeTypes[typeHint];
+                    if (!rule) {
+                        rule = core.components.treeTypes['default'];
+                    }
+                    $td.find('span').addClass(rule.icon)
+                });
+                $rows.find('td.path').each(function () {
+                    var $td = $(this);
+                    $td.find('a').on('click', _.bind(queryWidget.pathSelected, queryWidget));
+                });
+                $rows.find('tr.summary[data-cursor] td').css('cursor', 'pointer')
+                    .on('click', _.bind(this.loadNextPage, this));
             },
 
             prepareQuery: function (query) {
@@ -4,12 +4,15 @@ import com.composum.sling.core.ResourceHandle;
 import com.composum.sling.core.concurrent.JobFacade;
 import com.composum.sling.core.concurrent.JobMonitor;
 import com.composum.sling.core.concurrent.JobUtil;
+import com.composum.sling.core.event.RepositoryObservation;
+import com.composum.sling.core.pckgmgr.util.PackageIndex;
 import com.composum.sling.core.pckgmgr.util.PackageProgressTracker;
 import com.composum.sling.core.pckgmgr.util.PackageUtil;
 import com.composum.sling.core.pckgmgr.util.PackageUtil.PackageItem;
 import com.composum.sling.core.servlet.AbstractServiceServlet;
 import com.composum.sling.core.servlet.ServletOperation;
 import com.composum.sling.core.servlet.ServletOperationSet;
+import com.composum.sling.core.util.BinaryDelivery;
 import com.composum.sling.core.util.RequestUtil;
 import com.composum.sling.core.util.ResponseUtil;
 import com.composum.sling.core.util.XSS;
@@ -17,9 +20,9 @@ import com.composum.sling.nodes.NodesConfiguration;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.sling.SlingServlet;
 import org.apache.jackrabbit.vault.fs.api.FilterSet;
@@ -35,13 +38,15 @@ import org.apache.jackrabbit.vault.packaging.JcrPackageDefinition;
 import org.apache.jackrabbit.vault.packaging.JcrPackageManager;
 import org.apache.jackrabbit.vault.packaging.PackageException;
 import org.apache.jackrabbit.vault.packaging.Packaging;
+import org.apache.jackrabbit.vault.util.JcrConstants;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
 import org.apache.sling.api.request.RequestParameter;
 import org.apache.sling.api.request.RequestParameterMap;
+import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
-import org.apache.sling.api.servlets.HttpConstants;
+import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.apache.sling.event.jobs.Job;
 import org.apache.sling.event.jobs.JobManager;
@@ -50,6 +55,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.jcr.Binary;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
 import javax.jcr.Property;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
@@ -59,13 +66,13 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -86,6 +93,9 @@ public class PackageServlet extends AbstractServiceServlet {
 
     public static final String PARAM_GROUP = "group";
     public static final String PARAM_FORCE = "force";
+
+    /** the package root if the package manager doesn't provide it */
+    public static final String DEFAULT_PACKAGE_ROOT = "/etc/packages";
     private static final String PACKAGE_JOB_TIMEOUT = "package.job.timeout";
 
     @org.apache.felix.scr.annotations.Property(
@@ -110,6 +120,15 @@ public class PackageServlet extends AbstractServiceServlet {
     @Reference
     private Packaging packaging;
 
+    @Reference
+    private ResourceResolverFactory resolverFactory;
+
+    /** the observed index of the packages; null if observation is not available */
+    protected volatile PackageIndex packageIndex;
+
+    /** the observation session of the {@link #packageIndex} */
+    protected final RepositoryObservation observation = new RepositoryObservation();
+
     //
     // Servlet operations
     //
@@ -140,6 +159,109 @@ public class PackageServlet extends AbstractServiceServlet {
     protected void activate(ComponentContext context) {
         Dictionary<String, Object> properties = context.getProperties();
         jobIdleTimeout = PropertiesUtil.toLong(properties.get(PACKAGE_JOB_TIMEOUT), 60L * 1000L);
+        startObservation();
+    }
+
+    @Deactivate
+    protected void deactivate(ComponentContext context) {
+        stopObservation();
+    }
+
+    /**
+     * Registers the {@link #packageIndex} for the change events below the package root. If that fails the tree
+     * and list operations retrieve the packages from the package manager on each request.
+     */
+    protected synchronized void startObservation() {
+        if (observation.open(resolverFactory)) {
+            try {
+                ResourceResolver resolver = createAdministrativeResolver();
+                try {
+                    Session session = resolver.adaptTo(Session.class);
+                    Node root = packaging.getPackageManager(session).getPackageRoot(true);
+                    PackageIndex index = new PackageIndex(new PackageIndex.Loader() {
+                        @Override
+                        public Collection<PackageIndex.Summary> load(String path) {
+                            return loadPackages(path);
+                        }
+                    }, root != null ? root.getPath() : DEFAULT_PACKAGE_ROOT);
+                    if (observation.addListener(index, PackageIndex.EVENT_TYPES, index.getRootPath())) {
+                        packageIndex = index;
+                    }
+                } finally {
+                    resolver.close();
+                }
+            } catch (RepositoryException | LoginException ex) {
+                LOG.error("package index not available: " + ex.getMessage(), ex);
+                observation.close();
+            }
+        }
+    }
+
+    protected synchronized void stopObservation() {
+        packageIndex = null;
+        observation.close();
+    }
+
+    protected ResourceResolver createAdministrativeResolver() throws LoginException {
+        return RepositoryObservation.createAdministrativeResolver(resolverFactory);
+    }
+
+    /**
+     * Retrieves the package at the path or all packages below the path for the {@link #packageIndex}.
+     */
+    protected Collection<PackageIndex.Summary> loadPackages(String path) {
+        List<PackageIndex.Summary> result = new ArrayList<>();
+        try {
+            ResourceResolver resolver = createAdministrativeResolver();
+            try {
+                Session session = resolver.adaptTo(Session.class);
+                if (session != null && session.nodeExists(path)) {
+                    loadPackages(packaging.getPackageManager(session), session.getNode(path), result);
+                }
+            } finally {
+                resolver.close();
+            }
+        } catch (RepositoryException | LoginException ex) {
+            LOG.error("can't load packages of '" + path + "': " + ex.getMessage(), ex);
+            PackageIndex index = packageIndex;
+            if (index != null) {
+                index.invalidate(path); // try it again on the next access
+            }
+        }
+        return result;
+    }
+
+    protected void loadPackages(JcrPackageManager manager, Node node, List<PackageIndex.Summary> result)
+            throws RepositoryException {
+        if (node.isNodeType(JcrConstants.NT_FILE)) {
+            JcrPackage jcrPackage = manager.open(node, false);
+            if (jcrPackage != null) {
+                try {
+                    result.add(new PackageIndex.Summary(jcrPackage));
+                } finally {
+                    jcrPackage.close();
+                }
+            }
+        } else if (!".snapshot".equals(node.getName())) {
+            for (NodeIterator children = node.getNodes(); children.hasNext(); ) {
+                loadPackages(manager, children.nextNode(), result);
+            }
+        }
+    }
+
+    /**
+     * Marks the package as changed in the {@link #packageIndex} to show the changes of the current request
+     * without waiting for the change event.
+     */
+    protected void invalidateIndex(JcrPackage jcrPackage) {
+        PackageIndex index = packageIndex;
+        if (index != null && jcrPackage != null) {
+            try {
+                index.invalidate(jcrPackage.getNode().getPath());
+            } catch (RepositoryException ex) {
+                LOG.error(ex.getMessage(), ex);
+            }
+        }
     }
 
 
@@ -236,6 +358,19 @@ public class PackageServlet extends AbstractServiceServlet {
         public void doIt(SlingHttpServletRequest request, SlingHttpServletResponse response,
                          ResourceHandle resource)
                 throws RepositoryException, IOException {
+            PackageIndex index = packageIndex;
+            if (index != null) {
+                Session session = request.getResourceResolver().adaptTo(Session.class);
+                JsonWriter writer = ResponseUtil.getJsonWriter(response);
+                writer.beginArray();
+                for (PackageIndex.Summary summary : index.getPackages()) {
+                    if (index.isVisible(session, summary)) {
+                        new PackageUtil.IndexedPackageItem(summary).toJson(writer);
+                    }
+                }
+                writer.endArray();
+                return;
+            }
             JcrPackageManager manager = PackageUtil.getPackageManager(packaging, request);
             List<JcrPackage> jcrPackages = manager.listPackages();
             JsonWriter writer = ResponseUtil.getJsonWriter(response);
@@ -254,11 +389,17 @@ public class PackageServlet extends AbstractServiceServlet {
                          ResourceHandle resource)
                 throws RepositoryException, IOException {
 
-            JcrPackageManager manager = PackageUtil.getPackageManager(packaging, request);
-            PackageUtil.TreeNode treeNode = PackageUtil.getTreeNode(manager, request);
+            PackageIndex index = packageIndex;
+            PackageUtil.TreeNode treeNode = index != null
+                    ? PackageUtil.getTreeNode(index, request)
+                    : PackageUtil.getTreeNode(PackageUtil.getPackageManager(packaging, request), request);
 
             JsonWriter writer = ResponseUtil.getJsonWriter(response);
-            treeNode.sort();
+            if (index != null) {
+                treeNode.merge(); // the index is ordered already
+            } else {
+                treeNode.sort();
+            }
             treeNode.toJson(writer);
         }
     }
@@ -333,6 +474,7 @@ public class PackageServlet extends AbstractServiceServlet {
 
             JcrPackageManager manager = PackageUtil.getPackageManager(packaging, request);
             JcrPackage jcrPackage = manager.create(group, name, version);
+            invalidateIndex(jcrPackage);
 
             JsonWriter writer = ResponseUtil.getJsonWriter(response);
             jsonAnswer(writer, "create", "successful", manager, jcrPackage);
@@ -385,7 +527,8 @@ public class PackageServlet extends AbstractServiceServlet {
                             (!PackageUtil.isGroup(pckgDef, group) ||
                                     !PackageUtil.isName(pckgDef, name) ||
                                     !PackageUtil.isVersion(pckgDef, version))) {
-                        manager.rename(jcrPackage, group, name, version);
+                        invalidateIndex(jcrPackage);
+                        jcrPackage = manager.rename(jcrPackage, group, name, version);
                     }
                     Map<String, Object> parameters = getParameters(request);
                     parameters.put("includeVersions", parameters.containsKey("includeVersions"));
@@ -402,6 +545,8 @@ public class PackageServlet extends AbstractServiceServlet {
                         }
                     }
 
+                    invalidateIndex(jcrPackage);
+
                     JsonWriter writer = ResponseUtil.getJsonWriter(response);
                     jsonAnswer(writer, "update", "successful", manager, jcrPackage);
 
@@ -451,6 +596,7 @@ public class PackageServlet extends AbstractServiceServlet {
 
             if (jcrPackage != null) {
 
+                invalidateIndex(jcrPackage);
                 manager.remove(jcrPackage);
 
                 JsonWriter writer = ResponseUtil.getJsonWriter(response);
@@ -459,6 +605,11 @@ public class PackageServlet extends AbstractServiceServlet {
         }
     }
 
+    /**
+     * Sends the package binary by the {@link BinaryDelivery} with its size and validators (ETag, Last-Modified);
+     * conditional requests are answered with 304 and byte ranges with 206 - a download can be resumed with 'Range'
+     * and 'If-Range' without transferring the whole package again.
+     */
     protected class DownloadOperation implements ServletOperation {
 
         @Override
@@ -473,23 +624,17 @@ public class PackageServlet extends AbstractServiceServlet {
 
                 Property data;
                 Binary binary;
-                InputStream stream;
                 if ((data = jcrPackage.getData()) != null &&
-                        (binary = data.getBinary()) != null &&
-                        (stream = binary.getStream()) != null) {
-
-                    PackageUtil.PackageItem item = new PackageUtil.PackageItem(jcrPackage);
-
-                    response.setHeader("Content-Disposition", "inline; filename=" + item.getFilename());
-                    Calendar lastModified = item.getLastModified();
-                    if (lastModified != null) {
-                        response.setDateHeader(HttpConstants.HEADER_LAST_MODIFIED, lastModified.getTimeInMillis());
+                        (binary = data.getBinary()) != null) {
+                    try {
+                        PackageUtil.PackageItem item = new PackageUtil.PackageItem(jcrPackage);
+                        response.setHeader("Content-Disposition", "inline; filename=" + item.getFilename());
+                        response.setContentType(ZIP_CONTENT_TYPE);
+                        BinaryDelivery.deliver(request, response, binary, item.getLastModified());
+                    } finally {
+                        binary.dispose();
                     }
 
-                    response.setContentType(ZIP_CONTENT_TYPE);
-                    OutputStream output = response.getOutputStream();
-                    IOUtils.copy(stream, output);
-
                 } else {
                     response.sendError(HttpServletResponse.SC_BAD_REQUEST,
                             PackageUtil.getPath(request) + " is not a package or has no content");
@@ -518,6 +663,7 @@ public class PackageServlet extends AbstractServiceServlet {
 
                 JcrPackageManager manager = PackageUtil.getPackageManager(packaging, request);
                 JcrPackage jcrPackage = manager.upload(input, force);
+                invalidateIndex(jcrPackage);
 
                 JsonWriter writer = ResponseUtil.getJsonWriter(response);
                 jsonAnswer(writer, "upload", "successful", manager, jcrPackage);
@@ -705,8 +851,9 @@ public class PackageServlet extends AbstractServiceServlet {
 
             @Override
             void doCommand(SlingHttpServletRequest request, SlingHttpServletResponse response, RequestParameterMap parameters) throws RepositoryException, IOException {
-                JcrPackageManager manager = PackageUtil.getPackageManager(packaging, request);
-                final List<JcrPackage> jcrPackages = manager.listPackages();
+                PackageIndex index = packageIndex;
+                final List<JcrPackage> jcrPackages = index == null
+                        ? PackageUtil.getPackageManager(packaging, request).listPackages() : null;
                 response.setStatus(HttpServletResponse.SC_OK);
                 try (Writer writer = response.getWriter()) {
                     writer.append("<repo>");
@@ -714,8 +861,17 @@ public class PackageServlet extends AbstractServiceServlet {
                     writer.append("<response>");
                     writer.append("<data>");
                     writer.append("<packages>");
-                    for (JcrPackage jcrPackage : jcrPackages) {
-                        writer.append(PackageUtil.packageToXMLResponse(jcrPackage));
+                    if (index != null) {
+                        Session session = request.getResourceResolver().adaptTo(Session.class);
+                        for (PackageIndex.Summary summary : index.getPackages()) {
+                            if (index.isVisible(session, summary)) {
+                                writer.append(PackageUtil.packageToXMLResponse(summary));
+                            }
+                        }
+                    } else {
+                        for (JcrPackage jcrPackage : jcrPackages) {
+                            writer.append(PackageUtil.packageToXMLResponse(jcrPackage));
+                        }
                     }
                     writer.append("</packages>");
                     writer.append("</data>");
@@ -733,17 +889,19 @@ public class PackageServlet extends AbstractServiceServlet {
                 String name = getName(parameters);
                 String group = getGroup(parameters);
                 JcrPackageManager manager = PackageUtil.getPackageManager(packaging, request);
-                final List<JcrPackage> jcrPackages = manager.listPackages();
+                final List<JcrPackage> jcrPackages = getPackages(request, manager, group, name);
                 boolean found = false;
                 for (JcrPackage jcrPackage : jcrPackages) {
                     String packageName = jcrPackage.getDefinition().get(JcrPackageDefinition.PN_NAME);
                     String packageGroup = jcrPackage.getDefinition().get(JcrPackageDefinition.PN_GROUP);
                     if (!StringUtils.isBlank(packageName) && packageName.equals(name)) {
                         if (!StringUtils.isBlank(group) && group.equals(packageGroup)) {
+                            invalidateIndex(jcrPackage);
                             manager.remove(jcrPackage);
                             found = true;
                             break;
                         } else if (StringUtils.isBlank(group) && StringUtils.isBlank(packageGroup)) {
+                            invalidateIndex(jcrPackage);
                             manager.remove(jcrPackage);
                             found = true;
                             break;
@@ -763,6 +921,27 @@ public class PackageServlet extends AbstractServiceServlet {
                 }
             }
 
+            /**
+             * @return the candidates with the name - from the package index if available, all packages otherwise
+             */
+            List<JcrPackage> getPackages(SlingHttpServletRequest request, JcrPackageManager manager,
+                                         String group, String name) throws RepositoryException {
+                PackageIndex index = packageIndex;
+                if (index == null) {
+                    return manager.listPackages();
+                }
+                List<JcrPackage> result = new ArrayList<>();
+                Session session = request.getResourceResolver().adaptTo(Session.class);
+                for (PackageIndex.Summary summary : index.getPackages(group)) {
+                    if (StringUtils.equals(name, summary.getName()) && index.isVisible(session, summary)) {
+                        JcrPackage jcrPackage = manager.open(session.getNode(summary.getNodePath()), false);
+                        if (jcrPackage != null) {
+                            result.add(jcrPackage);
+                        }
+                    }
+                }
+                return result;
+            }
         }
 
         abstract class BuildUninstCommand extends ServiceCommand {
@@ -885,6 +1064,7 @@ public class PackageServlet extends AbstractServiceServlet {
 
                     JcrPackageManager manager = PackageUtil.getPackageManager(packaging, request);
                     JcrPackage jcrPackage = manager.upload(input, force);
+                    invalidateIndex(jcrPackage);
 
                     installPackage(request, response, manager, jcrPackage);
 
@@ -0,0 +1,405 @@
+package com.composum.sling.core.pckgmgr.util;
+
+import com.composum.sling.core.util.LruMap;
+import com.composum.sling.core.util.PrincipalKey;
+import com.google.gson.stream.JsonWriter;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jackrabbit.vault.packaging.JcrPackage;
+import org.apache.jackrabbit.vault.packaging.JcrPackageDefinition;
+import org.apache.jackrabbit.vault.util.JcrConstants;
+import org.slf4j.Logger;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * The summaries of all packages below the package root (group, name, version and the relevant definition
+ * properties) for the package tree and the package lists. The index is loaded once and kept current
+ * by repository change events: each change below the package root marks the package (or the group folder) as changed
+ * and only the changed packages are reloaded on the next access. The summaries are loaded with the privileges of
+ * the {@link Loader}; the visibility for a user session must be checked by {@link #isVisible(Session, Summary)}
+ * which caches the visibility of each package for the principals of the session until the packages are changed.
+ */
+public class PackageIndex implements EventListener {
+
+    private static final Logger LOG = getLogger(PackageIndex.class);
+
+    public static final int EVENT_TYPES = Event.NODE_ADDED |
+            Event.NODE_REMOVED |
+            Event.NODE_MOVED |
+            Event.PROPERTY_ADDED |
+            Event.PROPERTY_CHANGED |
+            Event.PROPERTY_REMOVED;
+
+    /** the number of principal sets (users with their groups) with a cached visibility of the packages */
+    public static final int MAX_VISIBILITIES = 100;
+
+    /** the time after which a visibility is checked again (for access control changes outside of the root) */
+    public static final long VISIBILITY_TIMEOUT = 60000L;
+
+    /** Retrieves the packages for the index. */
+    public interface Loader {
+
+        /** @return the summaries of the package at the path or of all packages below the path; not null */
+        Collection<Summary> load(String path);
+    }
+
+    /** The indexed properties of a package. */
+    public static class Summary {
+
+        protected final String nodePath;
+        protected final String group;
+        protected final String name;
+        protected final String version;
+        protected final String description;
+        protected final String groupPath;
+        protected final String filename;
+        protected final long size;
+        protected final Calendar created;
+        protected final String createdBy;
+        protected final Calendar lastModified;
+        protected final String lastModifiedBy;
+        protected final Calendar lastUnpacked;
+        protected final String lastUnpackedBy;
+        protected final boolean includeVersions;
+
+        public Summary(JcrPackage jcrPackage) throws RepositoryException {
+            JcrPackageDefinition definition = jcrPackage.getDefinition();
+            nodePath = jcrPackage.getNode().getPath();
+            group = definition.get(JcrPackageDefinition.PN_GROUP);
+            name = definition.get(JcrPackageDefinition.PN_NAME);
+            version = definition.get(JcrPackageDefinition.PN_VERSION);
+            description = definition.get(JcrPackageDefinition.PN_DESCRIPTION);
+            groupPath = PackageUtil.getGroupPath(definition);
+            filename = PackageUtil.getFilename(jcrPackage);
+            size = jcrPackage.getSize();
+            created = definition.getCreated();
+            createdBy = definition.getCreatedBy();
+            lastModified = definition.getLastModified();
+            lastModifiedBy = definition.getLastModifiedBy();
+            lastUnpacked = definition.getLastUnpacked();
+            lastUnpackedBy = definition.getLastUnpackedBy();
+            includeVersions = definition.getBoolean("includeVersions");
+        }
+
+        public String getNodePath() {
+            return nodePath;
+        }
+
+        public String getGroup() {
+            return group;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        /** @return the path of the package in the package tree (group path and file name) */
+        public String getPath() {
+            return groupPath + filename;
+        }
+
+        public String getGroupPath() {
+            return groupPath;
+        }
+
+        public String getFilename() {
+            return filename;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public Calendar getCreated() {
+            return created;
+        }
+
+        public String getCreatedBy() {
+            return createdBy;
+        }
+
+        public Calendar getLastModified() {
+            return lastModified;
+        }
+
+        public String getLastModifiedBy() {
+            return lastModifiedBy;
+        }
+
+        public Calendar getLastUnpacked() {
+            return lastUnpacked;
+        }
+
+        public String getLastUnpackedBy() {
+            return lastUnpackedBy;
+        }
+
+        public boolean isIncludeVersions() {
+            return includeVersions;
+        }
+
+        /** writes the definition like the definition of a {@link PackageUtil.PackageItem} */
+        public void toJson(JsonWriter writer) throws IOException {
+            PackageUtil.toJson(writer, group, name, version, description, lastModified, lastUnpacked,
+                    includeVersions);
+        }
+    }
+
+    /**
+     * the order of the package lists and of the package tree: group (segment by segment) and name ignoring the
+     * case and the version; the children of a tree node are in the order of their names in this order
+     */
+    public static final Comparator<Summary> ORDER = new Comparator<Summary>() {
+        @Override
+        public int compare(Summary o1, Summary o2) {
+            // the delimiter is ordered before all other characters to compare the group path segment by segment
+            int result = StringUtils.compareIgnoreCase(o1.groupPath.replace('/', '\u0000'),
+                    o2.groupPath.replace('/', '\u0000'));
+            if (result == 0) {
+                result = StringUtils.compareIgnoreCase(o1.name, o2.name);
+                if (result == 0) {
+                    result = StringUtils.compare(o1.version, o2.version);
+                    if (result == 0) {
+                        result = o1.nodePath.compareTo(o2.nodePath);
+                    }
+                }
+            }
+            return result;
+        }
+    };
+
+    protected final Loader loader;
+    protected final String rootPath;
+
+    /** package node path -> summary; sorted to find the packages of a changed group folder */
+    protected final ConcurrentSkipListMap<String, Summary> packages = new ConcurrentSkipListMap<>();
+
+    /** the paths of the changed packages or folders which must be reloaded */
+    protected final Set<String> changed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    protected volatile boolean loaded;
+
+    /** the sorted summaries; rebuilt after changes */
+    protected volatile List<Summary> sorted;
+
+    /** incremented on each change; the visibilities of an older version are dropped */
+    protected final AtomicLong version = new AtomicLong();
+
+    /** principal key -> visibility of the packages; synchronized on the map */
+    protected final Map<String, Visibility> visibilities = new LruMap<>(MAX_VISIBILITIES);
+
+    /** The visibility of the packages for a set of principals. */
+    protected static class Visibility {
+
+        protected final long version;
+        protected final long created;
+
+        /** package node path -> readable */
+        protected final Map<String, Boolean> packages = new ConcurrentHashMap<>();
+
+        public Visibility(long version) {
+            this.version = version;
+            this.created = System.currentTimeMillis();
+        }
+
+        public boolean isValid(long currentVersion) {
+            return version == currentVersion && System.currentTimeMillis() - created < VISIBILITY_TIMEOUT;
+        }
+    }
+
+    /**
+     * @param loader   retrieves the packages on the initial load and for each change
+     * @param rootPath the path of the package root which is observed
+     */
+    public PackageIndex(Loader loader, String rootPath) {
+        this.loader = loader;
+        this.rootPath = rootPath;
+    }
+
+    public String getRootPath() {
+        return rootPath;
+    }
+
+    /**
+     * @return all packages, sorted by group, name and version
+     */
+    public List<Summary> getPackages() {
+        List<Summary> result = sorted;
+        if (result == null || !loaded || !changed.isEmpty()) {
+            result = refresh();
+        }
+        return result;
+    }
+
+    /**
+     * @return the packages of the group (not of its subgroups)
+     */
+    public List<Summary> getPackages(String group) {
+        String groupPath = StringUtils.isNotBlank(group) ? ("/" + group + "/") : "/";
+        List<Summary> result = new ArrayList<>();
+        for (Summary summary : getPackages()) {
+            if (groupPath.equals(summary.groupPath)) {
+                result.add(summary);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return 'true' if the package is readable for the session; the decision is cached for the principals of the
+     * session, so a package list checks the repository only for the packages not checked before
+     */
+    public boolean isVisible(Session session, Summary summary) {
+        String key = PrincipalKey.getKey(session);
+        if (key == null) {
+            return isReadable(session, summary);
+        }
+        long current = version.get();
+        Visibility visibility;
+        synchronized (visibilities) {
+            visibility = visibilities.get(key);
+            if (visibility == null || !visibility.isValid(current)) {
+                visibility = new Visibility(current);
+                visibilities.put(key, visibility);
+            }
+        }
+        Boolean visible = visibility.packages.get(summary.nodePath);
+        if (visible == null) {
+            // a decision of an outdated version is stored in the dropped visibility only
+            visible = isReadable(session, summary);
+            visibility.packages.put(summary.nodePath, visible);
+        }
+        return visible;
+    }
+
+    /**
+     * @return 'true' if the package node is readable for the session (checked in the repository)
+     */
+    public static boolean isReadable(Session session, Summary summary) {
+        try {
+            return session.nodeExists(summary.nodePath);
+        } catch (RepositoryException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Marks a package (or a group folder) as changed - e.g. after a change of the package by the current request
+     * to make it visible without waiting for the change event.
+     */
+    public void invalidate(String path) {
+        if (StringUtils.isNotBlank(path) && (path.equals(rootPath) || path.startsWith(rootPath + "/"))) {
+            changed.add(path);
+            version.incrementAndGet();
+        }
+    }
+
+    public void clear() {
+        loaded = false;
+        version.incrementAndGet();
+    }
+
+    protected synchronized List<Summary> refresh() {
+        if (!loaded) {
+            long begin = System.currentTimeMillis();
+            changed.clear(); // changes during the load are reloaded on the next access
+            packages.clear();
+            for (Summary summary : loader.load(rootPath)) {
+                packages.put(summary.nodePath, summary);
+            }
+            loaded = true;
+            sorted = null;
+            LOG.info("package index loaded: {} packages in {} ms", packages.size(),
+                    System.currentTimeMillis() - begin);
+        } else if (!changed.isEmpty()) {
+            for (Iterator<String> iterator = changed.iterator(); iterator.hasNext(); ) {
+                String path = iterator.next();
+                iterator.remove();
+                packages.remove(path);
+                packages.subMap(path + "/", path + "0").clear();
+                for (Summary summary : loader.load(path)) {
+                    packages.put(summary.nodePath, summary);
+                }
+                LOG.debug("package index updated: {}", path);
+            }
+            sorted = null;
+        }
+        List<Summary> result = sorted;
+        if (result == null) {
+            List<Summary> summaries = new ArrayList<>(packages.values());
+            Collections.sort(summaries, ORDER);
+            sorted = result = Collections.unmodifiableList(summaries);
+        }
+        return result;
+    }
+
+    @Override
+    public void onEvent(EventIterator events) {
+        while (events.hasNext()) {
+            Event event = events.nextEvent();
+            try {
+                invalidate(getChangedPath(event.getPath(), event.getType()));
+                if (event.getType() == Event.NODE_MOVED) {
+                    Map<?, ?> info = event.getInfo();
+                    Object source = info != null ? info.get("srcAbsPath") : null;
+                    if (source != null) {
+                        invalidate(getChangedPath(source.toString(), event.getType()));
+                    } else {
+                        clear();
+                    }
+                }
+            } catch (RepositoryException ex) {
+                LOG.error(ex.getMessage(), ex);
+                clear();
+            }
+        }
+    }
+
+    /**
+     * @return the path of the package node for a change of the package content; the path of the node itself for
+     * a node change and the path of the changed node for a property change otherwise
+     */
+    protected String getChangedPath(String path, int eventType) {
+        String contentSegment = "/" + JcrConstants.JCR_CONTENT;
+        int content = path.indexOf(contentSegment + "/");
+        if (content < 0 && path.endsWith(contentSegment)) {
+            content = path.length() - contentSegment.length();
+        }
+        if (content > 0) {
+            return path.substring(0, content);
+        }
+        if ((eventType & (Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED)) != 0) {
+            return StringUtils.substringBeforeLast(path, "/");
+        }
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return "PackageIndex{" + rootPath + ": " + packages.size() + " packages"
+                + (loaded ? "" : ", not loaded") + ", " + changed.size() + " changes}";
+    }
+}
@@ -42,9 +42,11 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import static com.composum.sling.core.pckgmgr.util.PackageUtil.TreeType.group;
@@ -444,6 +446,24 @@ public class PackageUtil {
         return treeNode;
     }
 
+    /**
+     * Builds the tree node from the package index; only the packages readable by the request session are used.
+     */
+    public static TreeNode getTreeNode(PackageIndex index, SlingHttpServletRequest request) {
+
+        String path = PackageUtil.getPath(request);
+        Session session = request.getResourceResolver().adaptTo(Session.class);
+
+        PackageUtil.TreeNode treeNode = new PackageUtil.TreeNode(path);
+        for (PackageIndex.Summary summary : index.getPackages()) {
+            if (treeNode.addPackage(summary.getGroupPath(), summary.getFilename(), summary, index, session)) {
+                break;
+            }
+        }
+
+        return treeNode;
+    }
+
     public interface TreeItem {
 
         String getName();
@@ -567,11 +587,77 @@ public class PackageUtil {
 
     }
 
+    /** a package of the {@link PackageIndex} in the tree, rendered like a {@link PackageItem} */
+    public static class IndexedPackageItem implements TreeItem {
+
+        private final PackageIndex.Summary summary;
+
+        public IndexedPackageItem(PackageIndex.Summary summary) {
+            this.summary = summary;
+        }
+
+        @Override
+        public String getName() {
+            return summary.getName();
+        }
+
+        @Override
+        public String getPath() {
+            return summary.getPath();
+        }
+
+        public PackageIndex.Summary getSummary() {
+            return summary;
+        }
+
+        @Override
+        public void toJson(JsonWriter writer) throws IOException {
+            String name = summary.getFilename();
+            String path = getPath();
+            Map<String, Object> treeState = new LinkedHashMap<>();
+            treeState.put("loaded", Boolean.TRUE);
+            writer.beginObject();
+            writer.name("definition");
+            summary.toJson(writer);
+            Map<String, Object> additionalAttributes = new LinkedHashMap<>();
+            additionalAttributes.put("id", path);
+            additionalAttributes.put("path", path);
+            additionalAttributes.put("name", name);
+            additionalAttributes.put("text", name);
+            additionalAttributes.put("type", "package");
+            additionalAttributes.put("state", treeState);
+            additionalAttributes.put("file", name);
+            JsonUtil.jsonMapEntries(writer, additionalAttributes);
+            writer.endObject();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof IndexedPackageItem &&
+                    summary.getNodePath().equals(((IndexedPackageItem) other).summary.getNodePath());
+        }
+
+        @Override
+        public int hashCode() {
+            return summary.getNodePath().hashCode();
+        }
+    }
+
+    /** the order of the children of a tree node */
+    public static final Comparator<TreeItem> ITEM_ORDER = new Comparator<TreeItem>() {
+
+        @Override
+        public int compare(TreeItem o1, TreeItem o2) {
+            return o1.getName().compareToIgnoreCase(o2.getName());
+        }
+    };
+
     /** the tree node implementation for the requested path (folder or package) */
     public static class TreeNode extends ArrayList<TreeItem> {
 
         private final String path;
         private boolean isLeaf;
+        private final Set<String> folders = new HashSet<>();
 
         public TreeNode(String path) {
             this.path = path;
@@ -588,25 +674,7 @@ public class PackageUtil {
             String groupUri = path.endsWith("/") ? path : path + "/";
             String groupPath = PackageUtil.getGroupPath(jcrPackage);
             if (groupPath.startsWith(groupUri)) {
-                TreeItem item;
-                if (groupPath.equals(groupUri)) {
-                    // this node is the packages parent - use the package as node child
-                    item = new PackageItem(jcrPackage);
-                } else {
-                    // this node is a group parent - insert a folder for the subgroup
-                    String name = groupPath.substring(path.length());
-                    if (name.startsWith("/")) {
-                        name = name.substring(1);
-                    }
-                    int nextDelimiter = name.indexOf("/");
-                    if (nextDelimiter > 0) {
-                        name = name.substring(0, nextDelimiter);
-                    }
-                    item = new FolderItem(groupUri + name, name);
-                }
-                if (!contains(item)) {
-                    add(item);
-                }
+                addChild(groupUri, groupPath, groupPath.equals(groupUri) ? new PackageItem(jcrPackage) : null);
                 return false;
             } else {
                 PackageItem item = new PackageItem(jcrPackage);
@@ -621,18 +689,93 @@ public class PackageUtil {
             }
         }
 
+        /**
+         * adds an indexed package or the appropriate folder to the nodes children if it is a child of this node
+         * and readable for the session
+         *
+         * @return true, if this package is the nodes target and a leaf - iteration can be stopped
+         */
+        public boolean addPackage(String groupPath, String filename, PackageIndex.Summary summary,
+                                  PackageIndex index, Session session) {
+            String groupUri = path.endsWith("/") ? path : path + "/";
+            if (groupPath.startsWith(groupUri)) {
+                boolean isParent = groupPath.equals(groupUri);
+                // a folder already added is not checked again for each of its packages
+                if ((!isParent && folders.contains(getFolderName(groupPath)))
+                        || !index.isVisible(session, summary)) {
+                    return false;
+                }
+                addChild(groupUri, groupPath, isParent ? new IndexedPackageItem(summary) : null);
+                return false;
+            } else if (path.equals(groupPath + filename) && index.isVisible(session, summary)) {
+                isLeaf = true;
+                add(new IndexedPackageItem(summary));
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @param packageItem the package if this node is the packages parent; null if this node is a group parent
+         */
+        protected void addChild(String groupUri, String groupPath, TreeItem packageItem) {
+            if (packageItem != null) {
+                // this node is the packages parent - use the package as node child
+                if (packageItem instanceof IndexedPackageItem || !contains(packageItem)) {
+                    add(packageItem);
+                }
+            } else {
+                // this node is a group parent - insert a folder for the subgroup
+                String name = getFolderName(groupPath);
+                if (folders.add(name)) {
+                    add(new FolderItem(groupUri + name, name));
+                }
+            }
+        }
+
+        /**
+         * @return the name of the folder of this node which contains the group
+         */
+        protected String getFolderName(String groupPath) {
+            String name = groupPath.substring(path.length());
+            if (name.startsWith("/")) {
+                name = name.substring(1);
+            }
+            int nextDelimiter = name.indexOf("/");
+            if (nextDelimiter > 0) {
+                name = name.substring(0, nextDelimiter);
+            }
+            return name;
+        }
+
         public boolean isLeaf() {
             return isLeaf;
         }
 
         public void sort() {
-            Collections.sort(this, new Comparator<TreeItem>() {
+            Collections.sort(this, ITEM_ORDER);
+        }
 
-                @Override
-                public int compare(TreeItem o1, TreeItem o2) {
-                    return o1.getName().compareToIgnoreCase(o2.getName());
+        /**
+         * Brings the children built from the {@link PackageIndex} into the order of {@link #sort()} without sorting:
+         * the packages and the folders are added in the {@link PackageIndex#ORDER} each, so both are merged.
+         */
+        public void merge() {
+            List<TreeItem> packages = new ArrayList<>();
+            List<TreeItem> folders = new ArrayList<>();
+            for (TreeItem item : this) {
+                (item instanceof FolderItem ? folders : packages).add(item);
+            }
+            clear();
+            int p = 0, f = 0;
+            while (p < packages.size() || f < folders.size()) {
+                if (f >= folders.size() || (p < packages.size()
+                        && ITEM_ORDER.compare(packages.get(p), folders.get(f)) <= 0)) {
+                    add(packages.get(p++));
+                } else {
+                    add(folders.get(f++));
                 }
-            });
+            }
         }
 
         public void toJson(JsonWriter writer) throws IOException, RepositoryException {
@@ -675,15 +818,20 @@ public class PackageUtil {
 
     public static void toJson(JsonWriter writer, JcrPackageDefinition definition)
             throws IOException {
+        toJson(writer, definition.get(JcrPackageDefinition.PN_GROUP), definition.get(JcrPackageDefinition.PN_NAME),
+                definition.get(JcrPackageDefinition.PN_VERSION), definition.get(JcrPackageDefinition.PN_DESCRIPTION),
+                definition.getCalendar(JcrPackageDefinition.PN_LASTMODIFIED),
+                definition.getCalendar(JcrPackageDefinition.PN_LAST_UNPACKED),
+                definition.getBoolean("includeVersions"));
+    }
+
+    public static void toJson(JsonWriter writer, String group, String name, String version, String description,
+                              Calendar lastModified, Calendar lastUnpacked, boolean includeVersions)
+            throws IOException {
         SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
-        String version = definition.get(JcrPackageDefinition.PN_VERSION);
-        String description = definition.get(JcrPackageDefinition.PN_DESCRIPTION);
-        Calendar lastModified = definition.getCalendar(JcrPackageDefinition.PN_LASTMODIFIED);
-        Calendar lastUnpacked = definition.getCalendar(JcrPackageDefinition.PN_LAST_UNPACKED);
-        boolean includeVersions = definition.getBoolean("includeVersions");
         writer.beginObject();
-        writer.name(JcrPackageDefinition.PN_GROUP).value(definition.get(JcrPackageDefinition.PN_GROUP));
-        writer.name(JcrPackageDefinition.PN_NAME).value(definition.get(JcrPackageDefinition.PN_NAME));
+        writer.name(JcrPackageDefinition.PN_GROUP).value(group);
+        writer.name(JcrPackageDefinition.PN_NAME).value(name);
         if (version != null) {
             writer.name(JcrPackageDefinition.PN_VERSION).value(version);
         }
@@ -700,19 +848,26 @@ public class PackageUtil {
         writer.endObject();
     }
 
+    public static String packageToXMLResponse(PackageIndex.Summary summary) {
+        return packageToXMLResponse(summary.getGroup(), summary.getName(), summary.getVersion(),
+                summary.getFilename(), summary.getSize(), summary.getCreatedBy(), summary.getCreated(),
+                summary.getLastModified(), summary.getLastModifiedBy(),
+                summary.getLastUnpacked(), summary.getLastUnpackedBy());
+    }
+
     public static String packageToXMLResponse(JcrPackage jcrPackage) throws RepositoryException {
         final JcrPackageDefinition definition = jcrPackage.getDefinition();
-        final String group = definition.get(JcrPackageDefinition.PN_GROUP);
-        final String name = definition.get(JcrPackageDefinition.PN_NAME);
-        final String version = definition.get(JcrPackageDefinition.PN_VERSION);
-        final String filename = getFilename(jcrPackage);
-        final long size = jcrPackage.getSize();
-        final String createdBy = definition.getCreatedBy();
-        final Calendar created = definition.getCreated();
-        final Calendar lastModified = definition.getLastModified();
-        final String lastModifiedBy = definition.getLastModifiedBy();
-        final Calendar lastUnpacked = definition.getLastUnpacked();
-        final String lastUnpackedBy = definition.getLastUnpackedBy();
+        return packageToXMLResponse(definition.get(JcrPackageDefinition.PN_GROUP),
+                definition.get(JcrPackageDefinition.PN_NAME), definition.get(JcrPackageDefinition.PN_VERSION),
+                getFilename(jcrPackage), jcrPackage.getSize(), definition.getCreatedBy(), definition.getCreated(),
+                definition.getLastModified(), definition.getLastModifiedBy(),
+                definition.getLastUnpacked(), definition.getLastUnpackedBy());
+    }
+
+    protected static String packageToXMLResponse(String group, String name, String version, String filename,
+                                                 long size, String createdBy, Calendar created,
+                                                 Calendar lastModified, String lastModifiedBy,
+                                                 Calendar lastUnpacked, String lastUnpackedBy) {
         final SimpleDateFormat dateFormat = new SimpleDateFormat();
         String response =
                 "<package>" +
@@ -0,0 +1,89 @@
+package com.composum.sling.core.service.impl;
+
+import com.composum.sling.test.util.EventTestUtils;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/** Tests for the decision cache of the {@link CorePermissionsService}. */
+public class CorePermissionsServiceTest {
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    @Rule
+    public final ErrorCollector ec = new ErrorCollector();
+
+    protected CorePermissionsService service;
+    protected Session session;
+
+    @Before
+    public void setup() throws Exception {
+        context.create().resource("/content/test/page");
+        context.resourceResolver().commit();
+        session = context.resourceResolver().adaptTo(Session.class);
+        service = context.registerInjectActivateService(new CorePermissionsService());
+    }
+
+    protected void event(int type, String path) throws Exception {
+        event(type, path, null);
+    }
+
+    protected void event(int type, String path, String source) throws Exception {
+        service.onEvent(EventTestUtils.events(type, path, source));
+    }
+
+    @Test
+    public void privilegeDecisions() throws Exception {
+        ec.checkThat(service.hasAllPrivileges(session, "/content/test/page", "jcr:read", "jcr:write"), is(true));
+        ec.checkThat(service.hasOneOfPrivileges(session, "/content/test/page", "jcr:all", "jcr:read"), is("jcr:all"));
+        ec.checkThat(service.hasOneOfPrivileges(session, "/content/test", "jcr:write"), is("jcr:write"));
+        ec.checkThat(service.privileges.size(), is(3));
+        ec.checkThat(service.hasAllPrivileges(session, "/content/test/page", "jcr:read", "jcr:write"), is(true));
+        ec.checkThat(service.privileges.size(), is(3));
+
+        event(Event.NODE_REMOVED, "/content/test/page");
+        ec.checkThat(service.privileges.size(), is(1));
+        event(Event.PROPERTY_CHANGED, "/content/rep:policy/allow/rep:privileges");
+        ec.checkThat(service.privileges.isEmpty(), is(true));
+    }
+
+    @Test
+    public void movedNodes() throws Exception {
+        ec.checkThat(service.hasAllPrivileges(session, "/content/test/page", "jcr:read"), is(true));
+        ec.checkThat(service.hasAllPrivileges(session, "/content/test", "jcr:read"), is(true));
+        ec.checkThat(service.hasAllPrivileges(session, "/content", "jcr:read"), is(true));
+        ec.checkThat(service.privileges.size(), is(3));
+        event(Event.NODE_MOVED, "/content/moved", "/content/test");
+        ec.checkThat(service.privileges.size(), is(1));
+        event(Event.PROPERTY_ADDED, "/home/users/test/rep:principalPolicy/entry/rep:privileges");
+        ec.checkThat(service.privileges.isEmpty(), is(true));
+    }
+
+    @Test
+    public void membershipDecisions() throws Exception {
+        // the 'admin' is included in each check
+        ec.checkThat(service.isMemberOfOne(session, "not-a-group"), is(""));
+        ec.checkThat(service.isMemberOfAll(session, "not-a-group"), is(true));
+        ec.checkThat(service.memberships.size(), is(2));
+        ec.checkThat(service.isMemberOfOne(session, "not-a-group"), is(""));
+
+        event(Event.PROPERTY_CHANGED, "/home/groups/test/rep:members");
+        ec.checkThat(service.memberships.isEmpty(), is(true));
+    }
+
+    @Test
+    public void invalidPrivilege() {
+        ec.checkThat(service.hasOneOfPrivileges(session, "/content/test", "not:aPrivilege"), nullValue());
+        ec.checkThat(service.privileges.isEmpty(), is(true));
+    }
+}
@@ -0,0 +1,109 @@
+package com.composum.sling.core.util;
+
+import com.composum.sling.core.mapping.MappingRules;
+import com.google.gson.stream.JsonReader;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import javax.jcr.Node;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+
+/**
+ * Tests for the intermediate saves and the resumption of the {@link JsonImporter}.
+ */
+public class JsonImporterTest {
+
+    protected static final String JSON = "{\"jcr:primaryType\":\"nt:unstructured\",\"title\":\"root\","
+            + "\"a\":{\"jcr:primaryType\":\"nt:unstructured\",\"x\":\"1\"},"
+            + "\"b\":{\"jcr:primaryType\":\"nt:unstructured\",\"y\":\"2\","
+            + "\"c\":{\"jcr:primaryType\":\"nt:unstructured\",\"z\":\"3\"}}}";
+
+    /** the properties of the root after its children */
+    protected static final String TRAILING_JSON = "{\"jcr:primaryType\":\"nt:unstructured\","
+            + "\"a\":{\"jcr:primaryType\":\"nt:unstructured\",\"x\":\"1\"},"
+            + "\"b\":{\"jcr:primaryType\":\"nt:unstructured\",\"y\":\"2\"},"
+            + "\"title\":\"root\"}";
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    @Rule
+    public final ErrorCollector ec = new ErrorCollector();
+
+    protected ResourceResolver resolver;
+
+    @Before
+    public void setup() {
+        resolver = context.resourceResolver();
+        context.build().resource("/content", ResourceUtil.PROP_PRIMARY_TYPE, ResourceUtil.TYPE_UNSTRUCTURED).commit();
+    }
+
+    protected JsonImporter importJson(String path, int saveThreshold, String checkpoint, final List<String> saved)
+            throws Exception {
+        return importJson(JSON, path, saveThreshold, checkpoint, saved);
+    }
+
+    protected JsonImporter importJson(String json, String path, int saveThreshold, String checkpoint,
+                                      final List<String> saved)
+            throws Exception {
+        JsonImporter importer = new JsonImporter(resolver, MappingRules.getDefaultMappingRules(),
+                saveThreshold, checkpoint, new JsonImporter.Progress() {
+            @Override
+            public void saved(JsonImporter progress) {
+                saved.add(progress.getCheckpoint());
+            }
+        });
+        importer.importJson(new JsonReader(new StringReader(json)), path);
+        resolver.commit();
+        return importer;
+    }
+
+    @Test
+    public void intermediateSaves() throws Exception {
+        List<String> saved = new ArrayList<>();
+        JsonImporter importer = importJson("/content/imported", 2, null, saved);
+        ec.checkThat(importer.getNodeCount(), is(4L));
+        ec.checkThat(saved.isEmpty(), is(false));
+        ec.checkThat(importer.getCheckpoint(), notNullValue());
+        ec.checkThat(resolver.getResource("/content/imported/b/c"), notNullValue());
+        ec.checkThat(resolver.getResource("/content/imported/b").getValueMap().get("y", String.class), is("2"));
+    }
+
+    @Test
+    public void resumeAfterCheckpoint() throws Exception {
+        importJson("/content/resumed", 0, null, new ArrayList<String>());
+        resolver.getResource("/content/resumed/a").adaptTo(Node.class).setProperty("x", "changed");
+        resolver.getResource("/content/resumed/b/c").adaptTo(Node.class).setProperty("z", "changed");
+        resolver.commit();
+
+        importJson("/content/resumed", 0, "/content/resumed/a", new ArrayList<String>());
+        // the node up to the checkpoint is not imported again, the nodes after the checkpoint are
+        ec.checkThat(resolver.getResource("/content/resumed/a").getValueMap().get("x", String.class), is("changed"));
+        ec.checkThat(resolver.getResource("/content/resumed/b/c").getValueMap().get("z", String.class), is("3"));
+    }
+
+    @Test
+    public void resumeWithPropertiesAfterChildren() throws Exception {
+        importJson(TRAILING_JSON, "/content/trailing", 0, null, new ArrayList<String>());
+        resolver.getResource("/content/trailing").adaptTo(Node.class).setProperty("title", "changed");
+        resolver.getResource("/content/trailing/a").adaptTo(Node.class).setProperty("x", "changed");
+        resolver.commit();
+
+        importJson(TRAILING_JSON, "/content/trailing", 0, "/content/trailing/a", new ArrayList<String>());
+        // the properties of the ancestor after the checkpoint were not stored before and are imported
+        ec.checkThat(resolver.getResource("/content/trailing").getValueMap().get("title", String.class),
+                is("root"));
+        ec.checkThat(resolver.getResource("/content/trailing/a").getValueMap().get("x", String.class),
+                is("changed"));
+    }
+}
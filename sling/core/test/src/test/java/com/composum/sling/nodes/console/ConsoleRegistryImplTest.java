@@ -0,0 +1,91 @@
+package com.composum.sling.nodes.console;
+
+import com.composum.sling.test.util.EventTestUtils;
+import org.apache.sling.commons.classloader.DynamicClassLoaderManager;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import javax.jcr.observation.Event;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/** Tests for the discovery and the invalidation of the {@link ConsoleRegistryImpl}. */
+public class ConsoleRegistryImplTest {
+
+    protected static final String PAGE_TYPE = Consoles.CONSOLE_PAGE_RESOURCE_TYPE;
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    @Rule
+    public final ErrorCollector ec = new ErrorCollector();
+
+    protected ConsoleRegistryImpl registry;
+
+    @Before
+    public void setup() throws Exception {
+        DynamicClassLoaderManager classLoaderManager = mock(DynamicClassLoaderManager.class);
+        when(classLoaderManager.getDynamicClassLoader()).thenReturn(getClass().getClassLoader());
+        context.registerService(DynamicClassLoaderManager.class, classLoaderManager);
+        context.create().resource("/libs/composum/nodes/console/content", "sling:resourceType", PAGE_TYPE);
+        context.create().resource("/apps/test/console/content", "sling:resourceType", PAGE_TYPE);
+        context.create().resource("/apps/test/other/content", "sling:resourceType", "test/other");
+        context.resourceResolver().commit();
+        registry = context.registerInjectActivateService(new ConsoleRegistryImpl());
+    }
+
+    protected void event(int type, String path) throws Exception {
+        registry.onEvent(EventTestUtils.events(type, path));
+    }
+
+    @Test
+    public void discoverResources() {
+        List<String> paths = registry.getResourcePaths(PAGE_TYPE);
+        ec.checkThat(paths, is(Arrays.asList("/apps/test/console/content", "/libs/composum/nodes/console/content")));
+        ec.checkThat(registry.getResourcePaths(PAGE_TYPE), sameInstance(paths));
+        ec.checkThat(registry.getResourcePaths("test/other"), is(Collections.singletonList("/apps/test/other/content")));
+        ec.checkThat(registry.getResourcePaths("test/unknown"), is(Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void invalidateOnResourceTypeChange() throws Exception {
+        registry.getResourcePaths(PAGE_TYPE);
+        event(Event.PROPERTY_CHANGED, "/apps/test/console/content/jcr:title");
+        ec.checkThat(registry.resources.isEmpty(), is(false));
+
+        context.create().resource("/apps/test/added/content", "sling:resourceType", PAGE_TYPE);
+        context.resourceResolver().commit();
+        event(Event.PROPERTY_ADDED, "/apps/test/added/content/sling:resourceType");
+        ec.checkThat(registry.resources.isEmpty(), is(true));
+        ec.checkThat(registry.getResourcePaths(PAGE_TYPE), containsInAnyOrder("/apps/test/added/content",
+                "/apps/test/console/content", "/libs/composum/nodes/console/content"));
+    }
+
+    @Test
+    public void invalidateOnRemoval() throws Exception {
+        registry.getResourcePaths(PAGE_TYPE);
+        event(Event.NODE_REMOVED, "/apps/unrelated");
+        ec.checkThat(registry.resources.isEmpty(), is(false));
+        event(Event.NODE_REMOVED, "/apps/test");
+        ec.checkThat(registry.resources.isEmpty(), is(true));
+    }
+
+    @Test
+    public void classAvailability() {
+        ec.checkThat(registry.isClassAvailable(ConsoleRegistry.class.getName()), is(true));
+        ec.checkThat(registry.isClassAvailable("com.composum.sling.nodes.console.NotAvailable"), is(false));
+        ec.checkThat(registry.classes.size(), is(2));
+        ec.checkThat(registry.classes.get("com.composum.sling.nodes.console.NotAvailable"), is(false));
+    }
+}
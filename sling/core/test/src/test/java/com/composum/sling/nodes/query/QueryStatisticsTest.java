@@ -0,0 +1,69 @@
+package com.composum.sling.nodes.query;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class QueryStatisticsTest {
+
+    protected static QueryStatistics.Execution execution(String query, long totalMillis) {
+        long total = TimeUnit.MILLISECONDS.toNanos(totalMillis);
+        return new QueryStatistics.Execution(query, "xpath", "default", total / 2, total / 2, total, 10, 5, null);
+    }
+
+    @Test
+    public void testSlowestQueries() {
+        QueryStatistics statistics = new QueryStatistics(10);
+        statistics.record(execution("/jcr:root/content//*", 20));
+        statistics.record(execution("/jcr:root/apps//*", 300));
+        statistics.record(execution("/jcr:root/content//*", 100));
+        List<QueryStatistics.Entry> slowest = statistics.getSlowest(5);
+        assertEquals(2, slowest.size());
+        assertEquals("/jcr:root/apps//*", slowest.get(0).getQuery());
+        assertEquals(300L, slowest.get(0).getMaxTime());
+        assertEquals(2L, slowest.get(1).getCount());
+        assertEquals(60L, slowest.get(1).getAverageTime());
+        assertEquals(100L, slowest.get(1).getMaxTime());
+        assertEquals(1, statistics.getSlowest(1).size());
+    }
+
+    @Test
+    public void testBoundedSize() {
+        QueryStatistics statistics = new QueryStatistics(3);
+        for (int i = 0; i < 10; i++) {
+            statistics.record(execution("/jcr:root/q" + i, i));
+        }
+        assertEquals(3, statistics.getSlowest(100).size());
+    }
+
+    @Test
+    public void testSlowQueryPlan() {
+        QueryStatistics statistics = new QueryStatistics(10);
+        QueryStatistics.Execution fast = execution("/jcr:root/slow", 10);
+        assertFalse(statistics.needsPlan(fast));
+        QueryStatistics.Execution slow = execution("/jcr:root/slow", QueryStatistics.SLOW_QUERY_TIME);
+        assertTrue(statistics.needsPlan(slow));
+        slow.setPlan("[nt:base] as [a] /* traverse \"/slow\" */");
+        statistics.record(slow);
+        assertFalse(statistics.needsPlan(execution("/jcr:root/slow", QueryStatistics.SLOW_QUERY_TIME)));
+        assertEquals(slow.getPlan(), statistics.getSlowest(1).get(0).getPlan());
+    }
+
+    @Test
+    public void testTemplatePattern() {
+        Pattern pattern = QueryStatistics.getTemplatePattern(
+                "/jcr:root${root_path}//*[jcr:contains(.,'${text}')] order by @path");
+        assertTrue(pattern.matcher("/jcr:root/content//*[jcr:contains(.,'x y')] order by @path").matches());
+        assertFalse(pattern.matcher("/jcr:root/content//*[jcr:contains(.,'x')]").matches());
+        assertTrue(QueryStatistics.getTemplatePattern("SELECT * FROM [nt:file]")
+                .matcher("SELECT * FROM [nt:file]").matches());
+        assertNull(QueryStatistics.getTemplatePattern(" "));
+    }
+}
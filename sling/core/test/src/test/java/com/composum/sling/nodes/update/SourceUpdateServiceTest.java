@@ -0,0 +1,147 @@
+package com.composum.sling.nodes.update;
+
+import com.composum.sling.core.BeanContext;
+import com.composum.sling.core.filter.ResourceFilter;
+import com.composum.sling.nodes.NodesConfiguration;
+import com.composum.sling.nodes.servlet.SourceModel;
+import com.composum.sling.test.util.JcrTestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+import org.mockito.Mockito;
+
+import javax.annotation.Nonnull;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+
+/** Tests for the diff based update of {@link SourceUpdateServiceImpl}. */
+public class SourceUpdateServiceTest {
+
+    protected static final String PATH = "/content/composum/nodes/console/test/sourcemodel";
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    @Rule
+    public final ErrorCollector ec = new ErrorCollector();
+
+    protected ResourceResolver resolver;
+    protected Session session;
+    protected byte[] archive;
+
+    protected SourceUpdateServiceImpl.Update lastUpdate;
+
+    protected final SourceUpdateServiceImpl service = new SourceUpdateServiceImpl() {
+        @Override
+        protected void equalize(@Nonnull SourceNode source, @Nonnull Node node, @Nonnull Update update)
+                throws RepositoryException, IOException {
+            super.equalize(source, node, update);
+            lastUpdate = update;
+        }
+    };
+
+    @Before
+    public void setup() throws Exception {
+        JcrTestUtils.importCnd("/nodes/testingNodetypes.cnd", context.resourceResolver());
+        JcrTestUtils.importTestPackage("/jcr_root/content/composum/nodes/console/test/sourcemodel",
+                context.resourceResolver());
+        resolver = context.resourceResolver();
+        session = resolver.adaptTo(Session.class);
+        Resource resource = resolver.getResource(PATH);
+        NodesConfiguration config = mock(NodesConfiguration.class);
+        Mockito.doReturn(ResourceFilter.ALL).when(config).getSourceNodesFilter();
+        BeanContext.Service beanContext = new BeanContext.Service(context.request(), context.response(), resource,
+                resolver);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SourceModel(config, beanContext, resource).writePackage(out, "thegroup", "thename", "1.0");
+        archive = out.toByteArray();
+    }
+
+    protected void update() throws Exception {
+        service.updateFromZip(resolver, new ByteArrayInputStream(archive), PATH);
+    }
+
+    protected List<String> childNames(Node node) throws RepositoryException {
+        List<String> names = new ArrayList<>();
+        for (NodeIterator iterator = node.getNodes(); iterator.hasNext(); ) {
+            names.add(iterator.nextNode().getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void unchangedContent() throws Exception {
+        update();
+        ec.checkThat(lastUpdate.changes, is(0));
+        ec.checkThat(session.hasPendingChanges(), is(false));
+    }
+
+    @Test
+    public void restoreChangedContent() throws Exception {
+        Node root = session.getNode(PATH);
+        Node propertytest = root.getNode("subfolder/jcr:content/propertytest");
+        propertytest.setProperty("string", "changed");
+        propertytest.setProperty("added", "added");
+        propertytest.getProperty("longmulti").remove();
+        root.getNode("subfolder/jcr:content/quotingcheck").remove();
+        root.getNode("subfolder/jcr:content").addNode("added", "nt:unstructured");
+        root.getNode("assetsfolder/plain.jpg/jcr:content").setProperty("jcr:data",
+                session.getValueFactory().createBinary(new ByteArrayInputStream("changed".getBytes())));
+        root.orderBefore("subfolder", "i18n");
+        session.save();
+
+        update();
+        ec.checkThat(lastUpdate.changes > 0, is(true));
+
+        ec.checkThat(propertytest.getProperty("string").getString(), is("a string"));
+        ec.checkThat(propertytest.hasProperty("added"), is(false));
+        ec.checkThat(propertytest.getProperty("longmulti").getValues().length, is(2));
+        ec.checkThat(propertytest.getProperty("longmulti").getValues()[1].getLong(), is(-151L));
+        ec.checkThat(root.hasNode("subfolder/jcr:content/quotingcheck"), is(true));
+        ec.checkThat(root.getNode("subfolder/jcr:content/quotingcheck").getProperty("bracestart").getString(),
+                is("{not} a type marker"));
+        ec.checkThat(root.hasNode("subfolder/jcr:content/added"), is(false));
+        ec.checkThat(IOUtils.toByteArray(root.getNode("assetsfolder/plain.jpg/jcr:content")
+                .getProperty("jcr:data").getBinary().getStream()).length, is(76910));
+        ec.checkThat(childNames(root), is(Arrays.asList("i18n", "assetsfolder", "ntunstructuredwithjcrcontent", "subfolder")));
+
+        // a second update has nothing to do
+        update();
+        ec.checkThat(lastUpdate.changes, is(0));
+    }
+
+    @Test
+    public void intermediateSaves() throws Exception {
+        Node root = session.getNode(PATH);
+        root.getNode("i18n/de/cancel").setProperty("sling:message", "changed");
+        root.getNode("i18n/de/configuration").setProperty("sling:message", "changed");
+        root.getNode("subfolder/jcr:content/propertytest").setProperty("string", "changed");
+        root.getNode("subfolder/jcr:content/quotingcheck").setProperty("commastart", "changed");
+        session.save();
+        service.saveThreshold = 2;
+
+        update();
+        ec.checkThat(lastUpdate.changes, is(4));
+        ec.checkThat(lastUpdate.saved > 0, is(true));
+        ec.checkThat(root.getNode("i18n/de/cancel").getProperty("sling:message").getString(), is("Abbrechen"));
+        ec.checkThat(root.getNode("i18n/de/configuration").getProperty("sling:message").getString(), is("Konfiguration"));
+        ec.checkThat(root.getNode("subfolder/jcr:content/quotingcheck").getProperty("commastart").getString(), is(",hello"));
+    }
+}
@@ -0,0 +1,44 @@
+package com.composum.sling.test.util;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import java.util.Collections;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Mocked JCR observation events for the tests of event listeners.
+ */
+public class EventTestUtils {
+
+    /**
+     * @return an iterator with one event of the type for the path
+     */
+    @Nonnull
+    public static EventIterator events(int type, @Nonnull String path) throws RepositoryException {
+        return events(type, path, null);
+    }
+
+    /**
+     * @param source the source path of a moved node ('srcAbsPath' of the event info); null: no event info
+     * @return an iterator with one event of the type for the path
+     */
+    @Nonnull
+    public static EventIterator events(int type, @Nonnull String path, @Nullable String source)
+            throws RepositoryException {
+        Event event = mock(Event.class);
+        when(event.getType()).thenReturn(type);
+        when(event.getPath()).thenReturn(path);
+        if (source != null) {
+            when(event.getInfo()).thenReturn(Collections.singletonMap("srcAbsPath", source));
+        }
+        EventIterator events = mock(EventIterator.class);
+        when(events.hasNext()).thenReturn(true, false);
+        when(events.nextEvent()).thenReturn(event);
+        return events;
+    }
+}
@@ -0,0 +1,256 @@
+package com.composum.sling.core.usermanagement.core;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * The tree of the authorizable folders and the authorizables below the authorizables root for the tree of the user
+ * manager. Each level of the tree (the children of a folder) is loaded on its first request and kept until a change
+ * event below the level invalidates it. The levels are loaded with the privileges of the {@link Loader}; the
+ * visibility for a user session must be checked by {@link #isVisible(Session, Entry)}.
+ */
+public class AuthorizableIndex implements EventListener {
+
+    private static final Logger LOG = getLogger(AuthorizableIndex.class);
+
+    public static final String DEFAULT_ROOT_PATH = "/home";
+
+    public static final int EVENT_TYPES = Event.NODE_ADDED |
+            Event.NODE_REMOVED |
+            Event.NODE_MOVED |
+            Event.PROPERTY_ADDED |
+            Event.PROPERTY_CHANGED |
+            Event.PROPERTY_REMOVED;
+
+    public enum Type {folder, user, group}
+
+    /** Retrieves the levels of the index. */
+    public interface Loader {
+
+        /** @return the folders and authorizables which are children of the folder; null if the path is no folder */
+        List<Entry> load(String path);
+    }
+
+    /** A folder or an authorizable of the tree. */
+    public static class Entry {
+
+        protected final String path;
+        protected final String name;
+        protected final String id;
+        protected final Type type;
+        protected final boolean disabled;
+        protected final boolean systemUser;
+
+        public Entry(String path) {
+            this(path, null, Type.folder, false, false);
+        }
+
+        public Entry(String path, String id, Type type, boolean disabled, boolean systemUser) {
+            this.path = path;
+            this.name = StringUtils.substringAfterLast(path, "/");
+            this.id = id;
+            this.type = type;
+            this.disabled = disabled;
+            this.systemUser = systemUser;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /** @return the ID of the authorizable; null for a folder */
+        public String getId() {
+            return id;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public boolean isFolder() {
+            return type == Type.folder;
+        }
+
+        public boolean isDisabled() {
+            return disabled;
+        }
+
+        public boolean isSystemUser() {
+            return systemUser;
+        }
+    }
+
+    /** the order of a level: the folders first, each part sorted by name */
+    public static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry o1, Entry o2) {
+            if (o1.isFolder() != o2.isFolder()) {
+                return o1.isFolder() ? -1 : 1;
+            }
+            int result = StringUtils.compare(o1.id != null ? o1.id : o1.name, o2.id != null ? o2.id : o2.name);
+            return result != 0 ? result : o1.path.compareTo(o2.path);
+        }
+    };
+
+    protected final Loader loader;
+    protected final String rootPath;
+
+    /** folder path -> sorted children; sorted to drop the levels below a changed folder */
+    protected final ConcurrentSkipListMap<String, List<Entry>> levels = new ConcurrentSkipListMap<>();
+
+    /** incremented on each invalidation; a level loaded during an invalidation is not kept */
+    protected final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param loader   retrieves the children of a folder on the first request of the level
+     * @param rootPath the path of the authorizables root which is observed
+     */
+    public AuthorizableIndex(Loader loader, String rootPath) {
+        this.loader = loader;
+        this.rootPath = rootPath;
+    }
+
+    public String getRootPath() {
+        return rootPath;
+    }
+
+    /**
+     * @return 'true' if the path is the authorizables root or a path below the root
+     */
+    public boolean isIndexed(String path) {
+        return path.equals(rootPath) || path.startsWith(rootPath + "/");
+    }
+
+    /**
+     * @return the children of the folder; the next folder on the way to the authorizables root for an ancestor
+     * of the root; null if the path is neither indexed nor an ancestor of the root or if the path is no folder
+     */
+    public List<Entry> getChildren(String path) {
+        path = normalize(path);
+        if (!isIndexed(path)) {
+            String prefix = "/".equals(path) ? "/" : path + "/";
+            if (rootPath.startsWith(prefix)) {
+                String segment = StringUtils.substringBefore(rootPath.substring(prefix.length()), "/");
+                return Collections.singletonList(new Entry(prefix + segment));
+            }
+            return null;
+        }
+        List<Entry> children = levels.get(path);
+        if (children == null) {
+            long loadGeneration = generation.get();
+            List<Entry> loaded = loader.load(path);
+            if (loaded != null) {
+                List<Entry> sorted = new ArrayList<>(loaded);
+                Collections.sort(sorted, ORDER);
+                children = Collections.unmodifiableList(sorted);
+                if (generation.get() == loadGeneration) {
+                    levels.put(path, children);
+                }
+                LOG.debug("authorizable index level loaded: {} ({} children)", path, children.size());
+            }
+        }
+        return children;
+    }
+
+    /**
+     * @return the folder or authorizable of the path (found in the level of its parent); null if not available
+     */
+    public Entry getEntry(String path) {
+        path = normalize(path);
+        if (!path.equals(rootPath) && isIndexed(path)) {
+            List<Entry> siblings = getChildren(StringUtils.substringBeforeLast(path, "/"));
+            if (siblings != null) {
+                for (Entry entry : siblings) {
+                    if (entry.path.equals(path)) {
+                        return entry;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 'true' if the entry is readable for the session
+     */
+    public static boolean isVisible(Session session, Entry entry) {
+        try {
+            return session.nodeExists(entry.path);
+        } catch (RepositoryException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Drops the level containing the node and the levels of the node and its descendants - e.g. after a change
+     * by the current request to make it visible without waiting for the change event.
+     */
+    public void invalidate(String path) {
+        if (StringUtils.isNotBlank(path)) {
+            path = normalize(path);
+            generation.incrementAndGet();
+            levels.remove(StringUtils.substringBeforeLast(path, "/"));
+            levels.remove(path);
+            levels.subMap(path + "/", path + "0").clear();
+        }
+    }
+
+    public void clear() {
+        generation.incrementAndGet();
+        levels.clear();
+    }
+
+    @Override
+    public void onEvent(EventIterator events) {
+        while (events.hasNext()) {
+            Event event = events.nextEvent();
+            try {
+                String path = event.getPath();
+                if ((event.getType() & (Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED)) != 0) {
+                    path = StringUtils.substringBeforeLast(path, "/");
+                }
+                invalidate(path);
+                if (event.getType() == Event.NODE_MOVED) {
+                    Map<?, ?> info = event.getInfo();
+                    Object source = info != null ? info.get("srcAbsPath") : null;
+                    if (source != null) {
+                        invalidate(source.toString());
+                    } else {
+                        clear();
+                    }
+                }
+            } catch (RepositoryException ex) {
+                LOG.error(ex.getMessage(), ex);
+                clear();
+            }
+        }
+    }
+
+    protected static String normalize(String path) {
+        return path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    @Override
+    public String toString() {
+        return "AuthorizableIndex{" + rootPath + ": " + levels.size() + " levels}";
+    }
+}
@@ -0,0 +1,290 @@
+package com.composum.sling.core.usermanagement.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The declared group memberships of all authorizables as adjacency sets of integer indexes (one index per
+ * authorizable) in both directions and the transitive memberships computed from them once per authorizable until
+ * the next change of a group. A 'dynamic' group (the 'everyone' group) has all authorizables as members without
+ * storing them; its members are not available from the graph.
+ */
+public class MembershipGraph {
+
+    protected static final int[] NONE = new int[0];
+
+    /** The ID and the path of an authorizable of the graph. */
+    public static class Ref {
+
+        protected final String id;
+        protected final String path;
+
+        public Ref(String id, String path) {
+            this.id = id;
+            this.path = path;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public String toString() {
+            return id + "(" + path + ")";
+        }
+    }
+
+    /** index -> authorizable; indexes are never reused */
+    protected final List<Ref> refs = new ArrayList<>();
+    protected final Map<String, Integer> byId = new HashMap<>();
+    protected final Map<String, Integer> byPath = new HashMap<>();
+
+    /** group index -> sorted indexes of the declared members */
+    protected final Map<Integer, int[]> declaredMembers = new HashMap<>();
+    /** authorizable index -> sorted indexes of the groups with the authorizable as declared member */
+    protected final Map<Integer, int[]> declaredMemberOf = new HashMap<>();
+    protected int[] dynamicGroups = NONE;
+
+    /** the transitive memberships computed on demand; dropped on each change */
+    protected final Map<Integer, int[]> memberOf = new HashMap<>();
+    protected final Map<Integer, int[]> members = new HashMap<>();
+
+    /**
+     * Replaces the declared members of the group.
+     *
+     * @param dynamic 'true' if all authorizables are members of the group implicitly; the members are ignored
+     */
+    public synchronized void setGroup(Ref group, Collection<Ref> groupMembers, boolean dynamic) {
+        int groupIndex = index(group);
+        removeMembers(groupIndex);
+        if (dynamic) {
+            dynamicGroups = add(dynamicGroups, groupIndex);
+        } else {
+            dynamicGroups = remove(dynamicGroups, groupIndex);
+            int[] indexes = new int[groupMembers.size()];
+            int count = 0;
+            for (Ref member : groupMembers) {
+                indexes[count++] = index(member);
+            }
+            indexes = distinct(indexes, count);
+            declaredMembers.put(groupIndex, indexes);
+            for (int member : indexes) {
+                declaredMemberOf.put(member, add(declaredMemberOf.get(member), groupIndex));
+            }
+        }
+        changed();
+    }
+
+    /**
+     * Removes the authorizable (e.g. after its deletion) with all its memberships and its members if it's a group.
+     */
+    public synchronized void remove(String path) {
+        Integer index = byPath.remove(path);
+        if (index != null) {
+            removeMembers(index);
+            dynamicGroups = remove(dynamicGroups, index);
+            int[] groups = declaredMemberOf.remove(index);
+            if (groups != null) {
+                for (int group : groups) {
+                    declaredMembers.put(group, remove(declaredMembers.get(group), index));
+                }
+            }
+            byId.remove(refs.get(index).id);
+            changed();
+        }
+    }
+
+    public synchronized boolean contains(String path) {
+        return byPath.containsKey(path);
+    }
+
+    /**
+     * @return the groups of the authorizable; the dynamic groups for an authorizable not known by the graph
+     */
+    public synchronized List<Ref> getMemberOf(String id, boolean declared) {
+        Integer index = byId.get(id);
+        if (index == null) {
+            return toRefs(dynamicGroups);
+        }
+        if (declared) {
+            int[] groups = declaredMemberOf.get(index);
+            return toRefs(merge(groups != null ? remove(groups, index) : NONE, remove(dynamicGroups, index)));
+        }
+        int[] result = memberOf.get(index);
+        if (result == null) {
+            BitSet found = new BitSet();
+            collect(declaredMemberOf, index, found);
+            for (int group : dynamicGroups) {
+                found.set(group);
+                collect(declaredMemberOf, group, found);
+            }
+            found.clear(index);
+            result = found.stream().toArray();
+            memberOf.put(index, result);
+        }
+        return toRefs(result);
+    }
+
+    /**
+     * @return the members of the group; null if the group or one of its member groups is a dynamic group
+     */
+    public synchronized List<Ref> getMembers(String id, boolean declared) {
+        Integer index = byId.get(id);
+        if (index == null) {
+            return Collections.emptyList();
+        }
+        if (isDynamic(index)) {
+            return null;
+        }
+        if (declared) {
+            int[] result = declaredMembers.get(index);
+            return toRefs(result != null ? result : NONE);
+        }
+        int[] result = members.get(index);
+        if (result == null) {
+            BitSet found = new BitSet();
+            collect(declaredMembers, index, found);
+            for (int member = found.nextSetBit(0); member >= 0; member = found.nextSetBit(member + 1)) {
+                if (isDynamic(member)) {
+                    return null;
+                }
+            }
+            found.clear(index);
+            result = found.stream().toArray();
+            members.put(index, result);
+        }
+        return toRefs(result);
+    }
+
+    public synchronized void clear() {
+        refs.clear();
+        byId.clear();
+        byPath.clear();
+        declaredMembers.clear();
+        declaredMemberOf.clear();
+        dynamicGroups = NONE;
+        changed();
+    }
+
+    public synchronized int size() {
+        return byId.size();
+    }
+
+    protected boolean isDynamic(int index) {
+        return Arrays.binarySearch(dynamicGroups, index) >= 0;
+    }
+
+    protected int index(Ref ref) {
+        Integer index = byId.get(ref.id);
+        if (index == null) {
+            index = refs.size();
+            refs.add(ref);
+            byId.put(ref.id, index);
+        } else if (!ref.path.equals(refs.get(index).path)) {
+            byPath.remove(refs.get(index).path);
+            refs.set(index, ref);
+        }
+        byPath.put(ref.path, index);
+        return index;
+    }
+
+    protected void removeMembers(int groupIndex) {
+        int[] previous = declaredMembers.remove(groupIndex);
+        if (previous != null) {
+            for (int member : previous) {
+                int[] groups = remove(declaredMemberOf.get(member), groupIndex);
+                if (groups.length > 0) {
+                    declaredMemberOf.put(member, groups);
+                } else {
+                    declaredMemberOf.remove(member);
+                }
+            }
+        }
+    }
+
+    protected void changed() {
+        memberOf.clear();
+        members.clear();
+    }
+
+    protected List<Ref> toRefs(int[] indexes) {
+        List<Ref> result = new ArrayList<>(indexes.length);
+        for (int index : indexes) {
+            result.add(refs.get(index));
+        }
+        return result;
+    }
+
+    /** adds all authorizables reachable from the index along the edges (not the index itself if not in a cycle) */
+    protected static void collect(Map<Integer, int[]> edges, int index, BitSet found) {
+        int[] next = edges.get(index);
+        if (next != null) {
+            for (int target : next) {
+                if (!found.get(target)) {
+                    found.set(target);
+                    collect(edges, target, found);
+                }
+            }
+        }
+    }
+
+    protected static int[] distinct(int[] values, int count) {
+        int[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        int size = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[size++] = sorted[i];
+            }
+        }
+        return size < sorted.length ? Arrays.copyOf(sorted, size) : sorted;
+    }
+
+    protected static int[] add(int[] values, int value) {
+        if (values == null) {
+            return new int[]{value};
+        }
+        int pos = Arrays.binarySearch(values, value);
+        if (pos >= 0) {
+            return values;
+        }
+        pos = -pos - 1;
+        int[] result = new int[values.length + 1];
+        System.arraycopy(values, 0, result, 0, pos);
+        result[pos] = value;
+        System.arraycopy(values, pos, result, pos + 1, values.length - pos);
+        return result;
+    }
+
+    protected static int[] remove(int[] values, int value) {
+        if (values == null) {
+            return NONE;
+        }
+        int pos = Arrays.binarySearch(values, value);
+        if (pos < 0) {
+            return values;
+        }
+        int[] result = new int[values.length - 1];
+        System.arraycopy(values, 0, result, 0, pos);
+        System.arraycopy(values, pos + 1, result, pos, values.length - pos - 1);
+        return result;
+    }
+
+    protected static int[] merge(int[] values, int[] others) {
+        int[] result = values;
+        for (int value : others) {
+            result = add(result, value);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,33 @@
+package com.composum.sling.core.usermanagement.core;
+
+import javax.jcr.Session;
+
+/**
+ * the group memberships of the authorizables from a cached membership graph
+ */
+public interface MembershipService {
+
+    /**
+     * Retrieves the groups of an authorizable which are readable for the session.
+     *
+     * @param declared 'true' for the declared memberships only, 'false' for the transitive memberships
+     * @return the IDs of the groups; null if the memberships are not available from the cache
+     */
+    String[] getMemberOf(Session session, String id, boolean declared);
+
+    /**
+     * Retrieves the members of a group which are readable for the session.
+     *
+     * @param declared 'true' for the declared members only, 'false' for the members of the member groups also
+     * @return the IDs of the members; null if the members are not available from the cache (dynamic groups)
+     */
+    String[] getMembers(Session session, String groupId, boolean declared);
+
+    /**
+     * Marks an authorizable as changed - e.g. after a membership change by the current request to make it
+     * visible without waiting for the change event.
+     *
+     * @param path the path of the changed group or of the removed authorizable
+     */
+    void invalidate(String path);
+}
@@ -0,0 +1,313 @@
+package com.composum.sling.core.usermanagement.core;
+
+import com.composum.sling.core.event.RepositoryObservation;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.api.security.user.Query;
+import org.apache.jackrabbit.api.security.user.QueryBuilder;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The membership service based on a {@link MembershipGraph} of all groups which is loaded in the background on
+ * activation and kept current by the membership change events below the authorizables root: only the changed
+ * groups are reloaded on the next request. Until the graph is loaded the memberships are not available from the
+ * service (the requests use the repository).
+ */
+@Component(immediate = true)
+@Service
+public class MembershipServiceImpl implements MembershipService, EventListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MembershipServiceImpl.class);
+
+    public static final String PROP_MEMBERS = "rep:members";
+    public static final String NODE_MEMBERS_LIST = "rep:membersList";
+
+    public static final String EVERYONE = "everyone";
+
+    public static final int EVENT_TYPES = Event.NODE_ADDED |
+            Event.NODE_REMOVED |
+            Event.NODE_MOVED |
+            Event.PROPERTY_ADDED |
+            Event.PROPERTY_CHANGED |
+            Event.PROPERTY_REMOVED;
+
+    @Reference
+    private ResourceResolverFactory resolverFactory;
+
+    protected final MembershipGraph graph = new MembershipGraph();
+
+    /** the paths of the changed groups and the removed authorizables which must be reloaded */
+    protected final Set<String> changed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    protected volatile boolean loaded;
+
+    /** 'true' while a (re)load of the whole graph is scheduled or running */
+    protected final AtomicBoolean loading = new AtomicBoolean();
+
+    /** session -> authorizable path -> readable; each authorizable is checked once per session */
+    protected final Map<Session, Map<String, Boolean>> visibility = new WeakHashMap<>();
+
+    /** the observation session of the graph */
+    protected final RepositoryObservation observation = new RepositoryObservation();
+
+    /** loads the whole graph in the background */
+    protected volatile ExecutorService loader;
+
+    @Activate
+    protected synchronized void activate() {
+        loader = Executors.newSingleThreadExecutor();
+        if (observation.open(resolverFactory)
+                && observation.addListener(this, EVENT_TYPES, AuthorizableIndex.DEFAULT_ROOT_PATH)) {
+            scheduleLoad();
+        }
+    }
+
+    /**
+     * Cancels a running load before the lock of the loading is acquired, so that the deactivation doesn't wait
+     * for the load of the whole graph.
+     */
+    @Deactivate
+    protected void deactivate() {
+        ExecutorService executor = loader;
+        loader = null;
+        observation.close();
+        if (executor != null) {
+            executor.shutdownNow(); // interrupts a running load
+        }
+        synchronized (this) {
+            loaded = false;
+            graph.clear();
+        }
+    }
+
+    protected ResourceResolver createAdministrativeResolver() throws LoginException {
+        return RepositoryObservation.createAdministrativeResolver(resolverFactory);
+    }
+
+    @Override
+    public String[] getMemberOf(Session session, String id, boolean declared) {
+        return refresh() ? getIDs(session, graph.getMemberOf(id, declared)) : null;
+    }
+
+    @Override
+    public String[] getMembers(Session session, String groupId, boolean declared) {
+        return refresh() ? getIDs(session, graph.getMembers(groupId, declared)) : null;
+    }
+
+    @Override
+    public void invalidate(String path) {
+        if (StringUtils.isNotBlank(path)) {
+            changed.add(path);
+        }
+    }
+
+    /**
+     * @return the IDs of the authorizables which are readable for the session; null if no authorizables are given
+     */
+    protected String[] getIDs(Session session, List<MembershipGraph.Ref> refs) {
+        if (refs == null) {
+            return null;
+        }
+        Map<String, Boolean> readable;
+        synchronized (visibility) {
+            readable = visibility.get(session);
+            if (readable == null) {
+                visibility.put(session, readable = new HashMap<>());
+            }
+        }
+        List<String> result = new ArrayList<>(refs.size());
+        synchronized (readable) {
+            for (MembershipGraph.Ref ref : refs) {
+                Boolean visible = readable.get(ref.getPath());
+                if (visible == null) {
+                    visible = isReadable(session, ref.getPath());
+                    readable.put(ref.getPath(), visible);
+                }
+                if (visible) {
+                    result.add(ref.getId());
+                }
+            }
+        }
+        return result.toArray(new String[0]);
+    }
+
+    protected static boolean isReadable(Session session, String path) {
+        try {
+            return session.nodeExists(path);
+        } catch (RepositoryException ex) {
+            return false; // not readable
+        }
+    }
+
+    /**
+     * Reloads the changed groups; a lock is acquired only if there are changes.
+     *
+     * @return 'true' if the graph is available; 'false' while the graph is not (yet) loaded
+     */
+    protected boolean refresh() {
+        if (!loaded) {
+            scheduleLoad();
+            return false;
+        }
+        if (!changed.isEmpty()) {
+            update();
+        }
+        return loaded;
+    }
+
+    /**
+     * Schedules the load of the whole graph if not already scheduled.
+     */
+    protected void scheduleLoad() {
+        ExecutorService executor = loader;
+        if (executor != null && observation.isOpen() && loading.compareAndSet(false, true)) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            load();
+                        } finally {
+                            loading.set(false);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                loading.set(false); // deactivated
+            }
+        }
+    }
+
+    protected synchronized void load() {
+        try {
+            ResourceResolver resolver = createAdministrativeResolver();
+            try {
+                UserManager userManager = ((JackrabbitSession) resolver.adaptTo(Session.class)).getUserManager();
+                long begin = System.currentTimeMillis();
+                changed.clear(); // changes during the load are reloaded on the next request
+                graph.clear();
+                Iterator<Authorizable> groups = userManager.findAuthorizables(new Query() {
+                    @Override
+                    public <T> void build(final QueryBuilder<T> builder) {
+                        builder.setCondition(builder.nameMatches("%"));
+                        builder.setSelector(Group.class);
+                    }
+                });
+                while (groups.hasNext()) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        LOG.info("membership graph loading cancelled");
+                        graph.clear();
+                        return;
+                    }
+                    loadGroup((Group) groups.next());
+                }
+                loaded = true;
+                LOG.info("membership graph loaded: {} authorizables in {} ms", graph.size(),
+                        System.currentTimeMillis() - begin);
+            } finally {
+                resolver.close();
+            }
+        } catch (RepositoryException | LoginException | RuntimeException ex) {
+            LOG.error("can't load the membership graph: " + ex.getMessage(), ex);
+            loaded = false;
+        }
+    }
+
+    protected synchronized void update() {
+        if (!loaded || changed.isEmpty()) {
+            return;
+        }
+        try {
+            ResourceResolver resolver = createAdministrativeResolver();
+            try {
+                UserManager userManager = ((JackrabbitSession) resolver.adaptTo(Session.class)).getUserManager();
+                for (Iterator<String> iterator = changed.iterator(); iterator.hasNext(); ) {
+                    String path = iterator.next();
+                    iterator.remove();
+                    Authorizable authorizable = userManager.getAuthorizableByPath(path);
+                    if (authorizable == null) {
+                        graph.remove(path);
+                    } else if (authorizable.isGroup()) {
+                        loadGroup((Group) authorizable);
+                    }
+                    LOG.debug("membership graph updated: {}", path);
+                }
+            } finally {
+                resolver.close();
+            }
+        } catch (RepositoryException | LoginException | RuntimeException ex) {
+            LOG.error("can't update the membership graph: " + ex.getMessage(), ex);
+            loaded = false;
+        }
+    }
+
+    protected void loadGroup(Group group) throws RepositoryException {
+        MembershipGraph.Ref ref = new MembershipGraph.Ref(group.getID(), group.getPath());
+        if (EVERYONE.equals(group.getPrincipal().getName())) {
+            graph.setGroup(ref, Collections.<MembershipGraph.Ref>emptyList(), true);
+        } else {
+            List<MembershipGraph.Ref> members = new ArrayList<>();
+            for (Iterator<Authorizable> iterator = group.getDeclaredMembers(); iterator.hasNext(); ) {
+                Authorizable member = iterator.next();
+                members.add(new MembershipGraph.Ref(member.getID(), member.getPath()));
+            }
+            graph.setGroup(ref, members, false);
+        }
+    }
+
+    @Override
+    public void onEvent(EventIterator events) {
+        while (events.hasNext()) {
+            Event event = events.nextEvent();
+            try {
+                String path = event.getPath();
+                int type = event.getType();
+                if (type == Event.NODE_MOVED) {
+                    loaded = false;
+                } else if (path.contains("/" + NODE_MEMBERS_LIST)) {
+                    invalidate(StringUtils.substringBefore(path, "/" + NODE_MEMBERS_LIST));
+                } else if ((type & (Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED)) != 0) {
+                    if (path.endsWith("/" + PROP_MEMBERS)) {
+                        invalidate(StringUtils.substringBeforeLast(path, "/"));
+                    }
+                } else if (type == Event.NODE_REMOVED && graph.contains(path)) {
+                    invalidate(path);
+                }
+            } catch (RepositoryException ex) {
+                LOG.error(ex.getMessage(), ex);
+                loaded = false;
+            }
+        }
+    }
+}
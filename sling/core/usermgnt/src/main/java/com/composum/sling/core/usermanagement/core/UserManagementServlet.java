@@ -1,5 +1,6 @@
 package com.composum.sling.core.usermanagement.core;
 
+import com.composum.sling.core.event.RepositoryObservation;
 import com.composum.sling.core.util.XSS;
 import com.composum.sling.nodes.NodesConfiguration;
 import com.composum.sling.core.ResourceHandle;
@@ -7,11 +8,14 @@ import com.composum.sling.core.mapping.MappingRules;
 import com.composum.sling.core.servlet.AbstractServiceServlet;
 import com.composum.sling.core.servlet.ServletOperation;
 import com.composum.sling.core.servlet.ServletOperationSet;
+import com.composum.sling.core.util.RequestUtil;
 import com.composum.sling.core.util.ResponseUtil;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.stream.JsonWriter;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.sling.SlingServlet;
 import org.apache.jackrabbit.api.JackrabbitSession;
@@ -23,10 +27,14 @@ import org.apache.jackrabbit.api.security.user.User;
 import org.apache.jackrabbit.api.security.user.UserManager;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.Value;
@@ -58,6 +66,12 @@ public class UserManagementServlet extends AbstractServiceServlet {
 
     private static final Logger LOG = LoggerFactory.getLogger(UserManagementServlet.class);
 
+    public static final String NT_AUTHORIZABLE = "rep:Authorizable";
+    public static final String NT_AUTHORIZABLE_FOLDER = "rep:AuthorizableFolder";
+
+    /** the request attribute with the paths of the authorizables changed by the request */
+    public static final String CHANGED_PATHS = UserManagementServlet.class.getName() + "#changed";
+
     public enum Extension {json, html}
 
     public enum Operation {users, user, groups, tree, group, authorizable, disable, enable, password, groupsofauthorizable, removefromgroup, addtogroup, query, systemuser, authorizables, properties}
@@ -67,27 +81,165 @@ public class UserManagementServlet extends AbstractServiceServlet {
     @Reference
     private NodesConfiguration coreConfig;
 
+    @Reference
+    private ResourceResolverFactory resolverFactory;
+
+    @Reference
+    private MembershipService membershipService;
+
+    /** the observed index of the authorizable tree; null if observation is not available */
+    protected volatile AuthorizableIndex authorizableIndex;
+
+    /** the observation session of the {@link #authorizableIndex} */
+    protected final RepositoryObservation observation = new RepositoryObservation();
+
     @Override
     protected boolean isEnabled() {
         return coreConfig.isEnabled(this);
     }
 
+    @Activate
+    protected void activate() {
+        startObservation();
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        stopObservation();
+    }
+
+    /**
+     * Registers the {@link #authorizableIndex} for the change events below the authorizables root. If that fails
+     * the tree operation searches the authorizables on each request.
+     */
+    protected synchronized void startObservation() {
+        if (observation.open(resolverFactory)) {
+            AuthorizableIndex index = new AuthorizableIndex(new AuthorizableIndex.Loader() {
+                @Override
+                public List<AuthorizableIndex.Entry> load(String path) {
+                    return loadLevel(path);
+                }
+            }, AuthorizableIndex.DEFAULT_ROOT_PATH);
+            if (observation.addListener(index, AuthorizableIndex.EVENT_TYPES, index.getRootPath())) {
+                authorizableIndex = index;
+            }
+        }
+    }
+
+    protected synchronized void stopObservation() {
+        authorizableIndex = null;
+        observation.close();
+    }
+
+    protected ResourceResolver createAdministrativeResolver() throws LoginException {
+        return RepositoryObservation.createAdministrativeResolver(resolverFactory);
+    }
+
+    /**
+     * Retrieves the authorizable folders and the authorizables of one level for the {@link #authorizableIndex}.
+     *
+     * @return the children of the folder; null if the path is no folder
+     */
+    protected List<AuthorizableIndex.Entry> loadLevel(String path) {
+        try {
+            ResourceResolver resolver = createAdministrativeResolver();
+            try {
+                JackrabbitSession session = (JackrabbitSession) resolver.adaptTo(Session.class);
+                if (session != null && session.nodeExists(path)) {
+                    Node folder = session.getNode(path);
+                    if (!folder.isNodeType(NT_AUTHORIZABLE)) {
+                        UserManager userManager = session.getUserManager();
+                        List<AuthorizableIndex.Entry> result = new ArrayList<>();
+                        for (NodeIterator children = folder.getNodes(); children.hasNext(); ) {
+                            Node child = children.nextNode();
+                            if (child.isNodeType(NT_AUTHORIZABLE)) {
+                                Authorizable authorizable = userManager.getAuthorizableByPath(child.getPath());
+                                if (authorizable != null) {
+                                    result.add(new AuthorizableIndex.Entry(child.getPath(), authorizable.getID(),
+                                            authorizable.isGroup() ? AuthorizableIndex.Type.group : AuthorizableIndex.Type.user,
+                                            !authorizable.isGroup() && ((User) authorizable).isDisabled(),
+                                            isSystemUser(authorizable)));
+                                }
+                            } else if (child.isNodeType(NT_AUTHORIZABLE_FOLDER)) {
+                                result.add(new AuthorizableIndex.Entry(child.getPath()));
+                            }
+                        }
+                        return result;
+                    }
+                }
+            } finally {
+                resolver.close();
+            }
+        } catch (RepositoryException | LoginException ex) {
+            LOG.error("can't load authorizables of '" + path + "': " + ex.getMessage(), ex);
+        }
+        return null;
+    }
+
+    /**
+     * Records an authorizable changed by the current request; the index is updated for the recorded changes at
+     * the end of the request to show the changes without waiting for the change event.
+     */
+    @SuppressWarnings("unchecked")
+    protected static void changed(SlingHttpServletRequest request, String path) {
+        List<String> paths = (List<String>) request.getAttribute(CHANGED_PATHS);
+        if (paths == null) {
+            paths = new ArrayList<>();
+            request.setAttribute(CHANGED_PATHS, paths);
+        }
+        paths.add(path);
+    }
+
+    /**
+     * Drops the levels of the {@link #authorizableIndex} changed by the request; the levels are reloaded on demand.
+     */
+    @SuppressWarnings("unchecked")
+    protected void invalidateIndex(SlingHttpServletRequest request) {
+        AuthorizableIndex index = authorizableIndex;
+        List<String> paths = (List<String>) request.getAttribute(CHANGED_PATHS);
+        if (index != null && paths != null) {
+            for (String path : paths) {
+                index.invalidate(path);
+            }
+        }
+    }
+
+    @Override
+    protected void doPost(SlingHttpServletRequest request, SlingHttpServletResponse response)
+            throws ServletException, IOException {
+        try {
+            super.doPost(request, response);
+        } finally {
+            invalidateIndex(request);
+        }
+    }
+
+    @Override
+    protected void doDelete(SlingHttpServletRequest request, SlingHttpServletResponse response)
+            throws ServletException, IOException {
+        try {
+            super.doDelete(request, response);
+        } finally {
+            invalidateIndex(request);
+        }
+    }
+
     @Override
     public void init() throws ServletException {
         super.init();
 
         // GET
-        operations.setOperation(ServletOperationSet.Method.GET, Extension.json, Operation.authorizables, new GetAllAuthorizables());
-        operations.setOperation(ServletOperationSet.Method.GET, Extension.json, Operation.users, new GetUsers());
+        operations.setOperation(ServletOperationSet.Method.GET, Extension.json, Operation.authorizables, new GetAllAuthorizables(membershipService));
+        operations.setOperation(ServletOperationSet.Method.GET, Extension.json, Operation.users, new GetUsers(membershipService));
         // curl -u admin:admin http://localhost:9090/bin/cpm/usermanagement.user.json/eeee
-        operations.setOperation(ServletOperationSet.Method.GET, Extension.json, Operation.user, new GetUser());
-        operations.setOperation(ServletOperationSet.Method.GET, Extension.json, Operation.groups, new GetGroups());
+        operations.setOperation(ServletOperationSet.Method.GET, Extension.json, Operation.user, new GetUser(membershipService));
+        operations.setOperation(ServletOperationSet.Method.GET, Extension.json, Operation.groups, new GetGroups(membershipService));
         // curl -u admin:admin http://localhost:9090/bin/cpm/usermanagement.group.json/mygroup
-        operations.setOperation(ServletOperationSet.Method.GET, Extension.json, Operation.group, new GetGroup());
-        operations.setOperation(ServletOperationSet.Method.GET, Extension.json, Operation.tree, new GetTree());
+        operations.setOperation(ServletOperationSet.Method.GET, Extension.json, Operation.group, new GetGroup(membershipService));
+        operations.setOperation(ServletOperationSet.Method.GET, Extension.json, Operation.tree, new IndexedTree());
         operations.setOperation(ServletOperationSet.Method.GET, Extension.json, Operation.properties, new GetProperties());
         // curl -u admin:admin http://localhost:9090/bin/cpm/usermanagement.groupsofauthorizable.json/eeee
-        operations.setOperation(ServletOperationSet.Method.GET, Extension.json, Operation.groupsofauthorizable, new GetGroupsOfAuthorizable());
+        operations.setOperation(ServletOperationSet.Method.GET, Extension.json, Operation.groupsofauthorizable, new GetGroupsOfAuthorizable(membershipService));
         operations.setOperation(ServletOperationSet.Method.GET, Extension.json, Operation.query, new QueryAuthorizables());
 
         // POST
@@ -98,11 +250,11 @@ public class UserManagementServlet extends AbstractServiceServlet {
         operations.setOperation(ServletOperationSet.Method.POST, Extension.json, Operation.enable, new EnableUser());
         operations.setOperation(ServletOperationSet.Method.POST, Extension.json, Operation.password, new ChangePassword());
 
-        operations.setOperation(ServletOperationSet.Method.PUT, Extension.json, Operation.removefromgroup, new RemoveFromGroup());
-        operations.setOperation(ServletOperationSet.Method.POST, Extension.json, Operation.addtogroup, new AddToGroup());
+        operations.setOperation(ServletOperationSet.Method.PUT, Extension.json, Operation.removefromgroup, new RemoveFromGroup(membershipService));
+        operations.setOperation(ServletOperationSet.Method.POST, Extension.json, Operation.addtogroup, new AddToGroup(membershipService));
 
         // DELETE
-        operations.setOperation(ServletOperationSet.Method.DELETE, Extension.json, Operation.authorizable, new DeleteAuthorizable());
+        operations.setOperation(ServletOperationSet.Method.DELETE, Extension.json, Operation.authorizable, new DeleteAuthorizable(membershipService));
     }
 
     @Override
@@ -129,6 +281,28 @@ public class UserManagementServlet extends AbstractServiceServlet {
             }
             return strings.toArray(new String[0]);
         }
+
+        /**
+         * @return the IDs of the groups of the authorizable from the membership service if available
+         */
+        protected static String[] getMemberOf(MembershipService membership, Session session,
+                                              Authorizable authorizable, boolean declared)
+                throws RepositoryException {
+            String[] ids = membership != null && session != null
+                    ? membership.getMemberOf(session, authorizable.getID(), declared) : null;
+            return ids != null ? ids : getIDs(declared ? authorizable.declaredMemberOf() : authorizable.memberOf());
+        }
+
+        /**
+         * @return the IDs of the members of the group from the membership service if available
+         */
+        protected static String[] getMembers(MembershipService membership, Session session,
+                                             Group group, boolean declared)
+                throws RepositoryException {
+            String[] ids = membership != null && session != null
+                    ? membership.getMembers(session, group.getID(), declared) : null;
+            return ids != null ? ids : getIDs(declared ? group.getDeclaredMembers() : group.getMembers());
+        }
     }
 
     static class UserEntry extends AuthorizableEntry {
@@ -138,9 +312,12 @@ public class UserManagementServlet extends AbstractServiceServlet {
         Map<String, Object> properties = new HashMap<>();
 
         static UserEntry fromUser(User user) throws RepositoryException {
+            return fromUser(user, null, null);
+        }
+
+        static UserEntry fromUser(User user, MembershipService membership, Session session)
+                throws RepositoryException {
             UserEntry userEntry = new UserEntry();
-            Iterator<Group> groupIterator = user.memberOf();
-            Iterator<Group> declaredMemberOf = user.declaredMemberOf();
             Iterator<String> propertyNames = user.getPropertyNames();
             userEntry.id = user.getID();
             userEntry.path = user.getPath();
@@ -148,8 +325,8 @@ public class UserManagementServlet extends AbstractServiceServlet {
             userEntry.disabled = user.isDisabled();
             userEntry.disabledReason = user.getDisabledReason();
             userEntry.principalName = user.getPrincipal().getName();
-            userEntry.memberOf = getIDs(groupIterator);
-            userEntry.declaredMemberOf = getIDs(declaredMemberOf);
+            userEntry.memberOf = getMemberOf(membership, session, user, false);
+            userEntry.declaredMemberOf = getMemberOf(membership, session, user, true);
             userEntry.isGroup = false;
             userEntry.systemUser = isSystemUser(user);
             while (propertyNames.hasNext()) {
@@ -183,18 +360,19 @@ public class UserManagementServlet extends AbstractServiceServlet {
 
     static class GroupEntry extends AuthorizableEntry {
         static GroupEntry fromGroup(Group group) throws RepositoryException {
+            return fromGroup(group, null, null);
+        }
+
+        static GroupEntry fromGroup(Group group, MembershipService membership, Session session)
+                throws RepositoryException {
             GroupEntry groupEntry = new GroupEntry();
-            Iterator<Group> groupIterator = group.memberOf();
-            Iterator<Group> declaredMemberOf = group.declaredMemberOf();
-            Iterator<Authorizable> members = group.getMembers();
-            Iterator<Authorizable> declaredMembers = group.getDeclaredMembers();
             groupEntry.id = group.getID();
             groupEntry.path = group.getPath();
             groupEntry.principalName = group.getPrincipal().getName();
-            groupEntry.memberOf = getIDs(groupIterator);
-            groupEntry.declaredMemberOf = getIDs(declaredMemberOf);
-            groupEntry.members = getIDs(members);
-            groupEntry.declaredMembers = getIDs(declaredMembers);
+            groupEntry.memberOf = getMemberOf(membership, session, group, false);
+            groupEntry.declaredMemberOf = getMemberOf(membership, session, group, true);
+            groupEntry.members = getMembers(membership, session, group, false);
+            groupEntry.declaredMembers = getMembers(membership, session, group, true);
             groupEntry.isGroup = true;
             return groupEntry;
         }
@@ -204,8 +382,15 @@ public class UserManagementServlet extends AbstractServiceServlet {
 
         private final Class<A> authorizableClass;
 
+        protected final MembershipService membership;
+
         public GetAuthorizables(Class<A> authorizableClass) {
+            this(authorizableClass, null);
+        }
+
+        public GetAuthorizables(Class<A> authorizableClass, MembershipService membership) {
             this.authorizableClass = authorizableClass;
+            this.membership = membership;
         }
 
         @Override
@@ -214,34 +399,39 @@ public class UserManagementServlet extends AbstractServiceServlet {
             final ResourceResolver resolver = request.getResourceResolver();
             final JackrabbitSession session = (JackrabbitSession) resolver.adaptTo(Session.class);
             final UserManager userManager = session.getUserManager();
+            final int offset = Math.max(RequestUtil.getParameter(request, PARAM_OFFSET, 0), 0);
+            final int limit = RequestUtil.getParameter(request, PARAM_LIMIT, 0);
             final Query q = new Query() {
                 @Override
                 public <T> void build(final QueryBuilder<T> builder) {
                     builder.setCondition(builder.nameMatches("%"));
                     builder.setSortOrder("@name", QueryBuilder.Direction.ASCENDING);
                     builder.setSelector(authorizableClass);
+                    if (offset > 0 || limit > 0) {
+                        builder.setLimit(offset, limit > 0 ? limit : -1);
+                    }
                 }
             };
             final Iterator<Authorizable> principals = userManager.findAuthorizables(q);
 
-            List<E> entries = new ArrayList<>();
-
-            while (principals.hasNext()) {
-                E entry = processPrincipal(authorizableClass.cast(principals.next()));
-                entries.add(entry);
+            // each entry is written as soon as it is built - the list is never held in memory as a whole
+            final Gson gson = new GsonBuilder().create();
+            final Class<?> entryClass = getEntryClass();
+            try (final JsonWriter jsonWriter = ResponseUtil.getJsonWriter(response)) {
+                jsonWriter.beginArray();
+                while (principals.hasNext()) {
+                    E entry = processPrincipal(session, authorizableClass.cast(principals.next()));
+                    gson.toJson(entry, entryClass, jsonWriter);
+                }
+                jsonWriter.endArray();
+                jsonWriter.flush();
             }
-
-            String s = new GsonBuilder().create().toJson(entries);
-            response.setContentType(ResponseUtil.JSON_CONTENT_TYPE);
-            response.setCharacterEncoding(MappingRules.CHARSET.name());
-            PrintWriter writer = response.getWriter();
-            writer.write(s);
-            writer.flush();
-            writer.close();
-
         }
 
-        protected abstract E processPrincipal(A authorizable) throws RepositoryException;
+        /** @return the type of the entries for the JSON serialization */
+        protected abstract Class<E> getEntryClass();
+
+        protected abstract E processPrincipal(Session session, A authorizable) throws RepositoryException;
 
         protected String[] getIDs(Iterator<Group> groupIterator) throws RepositoryException {
             List<String> strings = new ArrayList<>();
@@ -251,6 +441,11 @@ public class UserManagementServlet extends AbstractServiceServlet {
             }
             return strings.toArray(new String[0]);
         }
+
+        protected String[] getMemberOf(Session session, Authorizable authorizable, boolean declared)
+                throws RepositoryException {
+            return AuthorizableEntry.getMemberOf(membership, session, authorizable, declared);
+        }
     }
 
     public static class QueryAuthorizables implements ServletOperation {
@@ -301,6 +496,16 @@ public class UserManagementServlet extends AbstractServiceServlet {
 
     public static class GetGroupsOfAuthorizable implements ServletOperation {
 
+        protected final MembershipService membership;
+
+        public GetGroupsOfAuthorizable() {
+            this(null);
+        }
+
+        public GetGroupsOfAuthorizable(MembershipService membership) {
+            this.membership = membership;
+        }
+
         @Override
         @SuppressWarnings("Duplicates")
         public void doIt(SlingHttpServletRequest request, SlingHttpServletResponse response, ResourceHandle resource)
@@ -310,13 +515,12 @@ public class UserManagementServlet extends AbstractServiceServlet {
             final String path = AbstractServiceServlet.getPath(request);
             final UserManager userManager = session.getUserManager();
             final Authorizable authorizable = userManager.getAuthorizable(path.startsWith("/") ? path.substring(1) : path);
-            Iterator<Group> groupIterator = authorizable.declaredMemberOf();
+            String[] groupIds = AuthorizableEntry.getMemberOf(membership, session, authorizable, true);
             try (final JsonWriter jsonWriter = ResponseUtil.getJsonWriter(response)) {
                 jsonWriter.beginArray();
-                while (groupIterator.hasNext()) {
-                    Group group = groupIterator.next();
+                for (String groupId : groupIds) {
                     jsonWriter
-                            .value(group.getID());
+                            .value(groupId);
                 }
                 jsonWriter.endArray();
                 jsonWriter.flush();
@@ -327,6 +531,16 @@ public class UserManagementServlet extends AbstractServiceServlet {
 
     public static class AddToGroup implements ServletOperation {
 
+        protected final MembershipService membership;
+
+        public AddToGroup() {
+            this(null);
+        }
+
+        public AddToGroup(MembershipService membership) {
+            this.membership = membership;
+        }
+
         @Override
         public void doIt(SlingHttpServletRequest request, SlingHttpServletResponse response, ResourceHandle resource)
                 throws RepositoryException {
@@ -339,11 +553,24 @@ public class UserManagementServlet extends AbstractServiceServlet {
             final Group group = (Group) userManager.getAuthorizable(groupName);
             boolean b = group.addMember(authorizable);
             session.save();
+            if (membership != null) {
+                membership.invalidate(group.getPath());
+            }
         }
     }
 
     public static class RemoveFromGroup implements ServletOperation {
 
+        protected final MembershipService membership;
+
+        public RemoveFromGroup() {
+            this(null);
+        }
+
+        public RemoveFromGroup(MembershipService membership) {
+            this.membership = membership;
+        }
+
         @Override
         public void doIt(SlingHttpServletRequest request, SlingHttpServletResponse response, ResourceHandle resource)
                 throws RepositoryException, IOException {
@@ -361,6 +588,9 @@ public class UserManagementServlet extends AbstractServiceServlet {
             final Group group = (Group) userManager.getAuthorizable(groupName);
             group.removeMember(authorizable);
             session.save();
+            if (membership != null) {
+                membership.invalidate(group.getPath());
+            }
         }
     }
 
@@ -413,54 +643,128 @@ public class UserManagementServlet extends AbstractServiceServlet {
                 if (authorizableByRequestPath == null) {
                     String name = originalRequestPath.equals("/")
                             ? "/" : originalRequestPath.substring(originalRequestPath.lastIndexOf('/') + 1);
-                    jsonWriter.beginObject()
-                            .name("id").value(originalRequestPath)
-                            .name("text").value(name)
-                            .name("name").value(name)
-                            .name("path").value(originalRequestPath)
+                    beginFolder(jsonWriter, originalRequestPath, name, null)
                             .name("children")
                             .beginArray();
                 } else {
-                    //noinspection Duplicates
-                    jsonWriter.beginObject()
-                            .name("id").value(authorizableByRequestPath.getPath())
-                            .name("text").value(authorizableByRequestPath.getID())
-                            .name("name").value(authorizableByRequestPath.getID())
-                            .name("path").value(authorizableByRequestPath.getPath())
-                            .name("type").value(authorizableByRequestPath.isGroup() ? "group" : "user")
-                            .name("disabled").value(!authorizableByRequestPath.isGroup() && ((User) authorizableByRequestPath).isDisabled())
-                            .name("systemUser").value(isSystemUser(authorizableByRequestPath))
-                            .name("state").beginObject().name("loaded").value(true).endObject()
+                    beginAuthorizable(jsonWriter, authorizableByRequestPath)
                             .name("children")
                             .beginArray();
                 }
                 for (String path : paths) {
-                    jsonWriter.beginObject()
-                            .name("id").value(requestPath + path)
-                            .name("text").value(path)
-                            .name("name").value(path)
-                            .name("path").value(requestPath + path)
-                            .name("state").beginObject().name("loaded").value(false).endObject()
-                            .endObject();
+                    beginFolder(jsonWriter, requestPath + path, path, false).endObject();
                 }
                 for (Authorizable authorizable : auths) {
-                    //noinspection Duplicates
-                    jsonWriter.beginObject()
-                            .name("id").value(authorizable.getPath())
-                            .name("text").value(authorizable.getID())
-                            .name("name").value(authorizable.getID())
-                            .name("path").value(authorizable.getPath())
-                            .name("type").value(authorizable.isGroup() ? "group" : "user")
-                            .name("disabled").value(!authorizable.isGroup() && ((User) authorizable).isDisabled())
-                            .name("systemUser").value(isSystemUser(authorizable))
-                            .name("state").beginObject().name("loaded").value(true).endObject()
-                            .endObject();
+                    beginAuthorizable(jsonWriter, authorizable).endObject();
                 }
 
                 jsonWriter.endArray().endObject();
                 jsonWriter.flush();
             }
         }
+
+        /**
+         * Writes the properties of a folder node; the object must be ended by the caller.
+         *
+         * @param loaded the 'loaded' state of the node; no state is written if 'null'
+         */
+        protected static JsonWriter beginFolder(JsonWriter jsonWriter, String path, String name, Boolean loaded)
+                throws IOException {
+            jsonWriter.beginObject()
+                    .name("id").value(path)
+                    .name("text").value(name)
+                    .name("name").value(name)
+                    .name("path").value(path);
+            if (loaded != null) {
+                jsonWriter.name("state").beginObject().name("loaded").value(loaded).endObject();
+            }
+            return jsonWriter;
+        }
+
+        /**
+         * Writes the properties of an authorizable node; the object must be ended by the caller.
+         */
+        protected static JsonWriter beginAuthorizable(JsonWriter jsonWriter, String path, String id, String type,
+                                                      boolean disabled, boolean systemUser)
+                throws IOException {
+            return jsonWriter.beginObject()
+                    .name("id").value(path)
+                    .name("text").value(id)
+                    .name("name").value(id)
+                    .name("path").value(path)
+                    .name("type").value(type)
+                    .name("disabled").value(disabled)
+                    .name("systemUser").value(systemUser)
+                    .name("state").beginObject().name("loaded").value(true).endObject();
+        }
+
+        protected static JsonWriter beginAuthorizable(JsonWriter jsonWriter, Authorizable authorizable)
+                throws IOException, RepositoryException {
+            return beginAuthorizable(jsonWriter, authorizable.getPath(), authorizable.getID(),
+                    authorizable.isGroup() ? "group" : "user",
+                    !authorizable.isGroup() && ((User) authorizable).isDisabled(),
+                    isSystemUser(authorizable));
+        }
+    }
+
+    /**
+     * The tree operation using the {@link #authorizableIndex} - only the requested level is retrieved; falls back
+     * to the search of all authorizables if the index is not available or the path is not indexed.
+     */
+    public class IndexedTree extends GetTree {
+
+        @Override
+        public void doIt(SlingHttpServletRequest request, SlingHttpServletResponse response, ResourceHandle resource)
+                throws RepositoryException, IOException {
+            final AuthorizableIndex index = authorizableIndex;
+            final String requestPath = AbstractServiceServlet.getPath(request);
+            final List<AuthorizableIndex.Entry> children = index != null && StringUtils.isNotBlank(requestPath)
+                    ? index.getChildren(requestPath) : null;
+            final AuthorizableIndex.Entry authorizable = index != null && children == null
+                    ? index.getEntry(requestPath) : null;
+            if (children == null && (authorizable == null || authorizable.isFolder())) {
+                super.doIt(request, response, resource);
+                return;
+            }
+            final Session session = request.getResourceResolver().adaptTo(Session.class);
+            if (authorizable != null && !AuthorizableIndex.isVisible(session, authorizable)) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            try (final JsonWriter jsonWriter = ResponseUtil.getJsonWriter(response)) {
+                if (authorizable != null) {
+                    writeEntry(jsonWriter, authorizable, false);
+                } else {
+                    String path = AuthorizableIndex.normalize(requestPath);
+                    String name = path.equals("/") ? "/" : path.substring(path.lastIndexOf('/') + 1);
+                    beginFolder(jsonWriter, path, name, null)
+                            .name("children")
+                            .beginArray();
+                    for (AuthorizableIndex.Entry child : children) {
+                        if (AuthorizableIndex.isVisible(session, child)) {
+                            writeEntry(jsonWriter, child, true);
+                        }
+                    }
+                    jsonWriter.endArray().endObject();
+                }
+                jsonWriter.flush();
+            }
+        }
+
+        protected void writeEntry(JsonWriter jsonWriter, AuthorizableIndex.Entry entry, boolean close)
+                throws IOException {
+            if (entry.isFolder()) {
+                beginFolder(jsonWriter, entry.getPath(), entry.getName(), false);
+            } else {
+                beginAuthorizable(jsonWriter, entry.getPath(), entry.getId(), entry.getType().name(),
+                        entry.isDisabled(), entry.isSystemUser());
+            }
+            if (close) {
+                jsonWriter.endObject();
+            } else {
+                jsonWriter.name("children").beginArray().endArray().endObject();
+            }
+        }
     }
 
     public static class GetProperties implements ServletOperation {
@@ -549,6 +853,7 @@ public class UserManagementServlet extends AbstractServiceServlet {
             User user = (User) authorizable;
             user.disable(reason);
             session.save();
+            changed(request, user.getPath());
             ResponseUtil.writeEmptyArray(response);
         }
 
@@ -568,12 +873,23 @@ public class UserManagementServlet extends AbstractServiceServlet {
             User user = (User) authorizable;
             user.disable(null);
             session.save();
+            changed(request, user.getPath());
             ResponseUtil.writeEmptyArray(response);
         }
     }
 
     public static class GetUser implements ServletOperation {
 
+        protected final MembershipService membership;
+
+        public GetUser() {
+            this(null);
+        }
+
+        public GetUser(MembershipService membership) {
+            this.membership = membership;
+        }
+
         @Override
         @SuppressWarnings("Duplicates")
         public void doIt(SlingHttpServletRequest request, SlingHttpServletResponse response, ResourceHandle resource)
@@ -590,7 +906,7 @@ public class UserManagementServlet extends AbstractServiceServlet {
                     ResponseUtil.writeEmptyArray(response);
                 } else {
                     User user = (User) authorizable;
-                    UserEntry userEntry = UserEntry.fromUser(user);
+                    UserEntry userEntry = UserEntry.fromUser(user, membership, session);
                     String s = new GsonBuilder().create().toJson(userEntry);
                     response.setContentType(ResponseUtil.JSON_CONTENT_TYPE);
                     response.setCharacterEncoding(MappingRules.CHARSET.name());
@@ -619,6 +935,7 @@ public class UserManagementServlet extends AbstractServiceServlet {
                 Method method = userManager.getClass().getMethod("createSystemUser", String.class, String.class);
                 Object newUser = method.invoke(userManager, username, StringUtils.isEmpty(intermediatePath) ? null : intermediatePath);
                 session.save();
+                changed(request, ((User) newUser).getPath());
                 UserEntry userEntry = UserEntry.fromUser((User) newUser);
                 String s = new GsonBuilder().create().toJson(userEntry);
                 response.setContentType(ResponseUtil.JSON_CONTENT_TYPE);
@@ -667,6 +984,7 @@ public class UserManagementServlet extends AbstractServiceServlet {
                     }, intermediatePath);
                 }
                 session.save();
+                changed(request, newUser.getPath());
                 UserEntry userEntry = UserEntry.fromUser(newUser);
                 String s = new GsonBuilder().create().toJson(userEntry);
                 response.setContentType(ResponseUtil.JSON_CONTENT_TYPE);
@@ -686,6 +1004,16 @@ public class UserManagementServlet extends AbstractServiceServlet {
 
     public static class DeleteAuthorizable implements ServletOperation {
 
+        protected final MembershipService membership;
+
+        public DeleteAuthorizable() {
+            this(null);
+        }
+
+        public DeleteAuthorizable(MembershipService membership) {
+            this.membership = membership;
+        }
+
         @Override
         public void doIt(SlingHttpServletRequest request, SlingHttpServletResponse response, ResourceHandle resource)
                 throws RepositoryException, IOException {
@@ -703,13 +1031,23 @@ public class UserManagementServlet extends AbstractServiceServlet {
                         authorizable = userManager.getAuthorizableByPath(path);
                     }
                     if (authorizable != null) {
+                        List<String> changed = new ArrayList<>();
                         Iterator<Group> groupIterator = authorizable.declaredMemberOf();
                         while (groupIterator.hasNext()) {
                             Group group = groupIterator.next();
                             group.removeMember(authorizable);
+                            changed.add(group.getPath());
                         }
+                        String authorizablePath = authorizable.getPath();
+                        changed.add(authorizablePath);
                         authorizable.remove();
                         session.save();
+                        changed(request, authorizablePath);
+                        if (membership != null) {
+                            for (String changedPath : changed) {
+                                membership.invalidate(changedPath);
+                            }
+                        }
                         ResponseUtil.writeEmptyArray(response);
                     } else {
                         response.sendError(HttpServletResponse.SC_NOT_FOUND, authorizableName + " not found.");
@@ -744,6 +1082,7 @@ public class UserManagementServlet extends AbstractServiceServlet {
                 }, intermediatePath);
             }
             session.save();
+            changed(request, newGroup.getPath());
             GroupEntry groupEntry = GroupEntry.fromGroup(newGroup);
             String s = new GsonBuilder().create().toJson(groupEntry);
             response.setContentType(ResponseUtil.JSON_CONTENT_TYPE);
@@ -758,6 +1097,16 @@ public class UserManagementServlet extends AbstractServiceServlet {
 
     public static class GetGroup implements ServletOperation {
 
+        protected final MembershipService membership;
+
+        public GetGroup() {
+            this(null);
+        }
+
+        public GetGroup(MembershipService membership) {
+            this.membership = membership;
+        }
+
         @Override
         @SuppressWarnings("Duplicates")
         public void doIt(SlingHttpServletRequest request, SlingHttpServletResponse response, ResourceHandle resource)
@@ -774,7 +1123,7 @@ public class UserManagementServlet extends AbstractServiceServlet {
                     ResponseUtil.writeEmptyArray(response);
                 } else {
                     Group group = (Group) authorizable;
-                    GroupEntry groupEntry = GroupEntry.fromGroup(group);
+                    GroupEntry groupEntry = GroupEntry.fromGroup(group, membership, session);
                     String s = new GsonBuilder().create().toJson(groupEntry);
                     response.setContentType(ResponseUtil.JSON_CONTENT_TYPE);
                     response.setCharacterEncoding(MappingRules.CHARSET.name());
@@ -791,57 +1140,81 @@ public class UserManagementServlet extends AbstractServiceServlet {
 
     public static class GetAllAuthorizables extends GetAuthorizables<Authorizable, AuthorizableEntry> {
         public GetAllAuthorizables() {
-            super(Authorizable.class);
+            this(null);
+        }
+
+        public GetAllAuthorizables(MembershipService membership) {
+            super(Authorizable.class, membership);
         }
 
         @Override
         @SuppressWarnings("Duplicates")
-        protected AuthorizableEntry processPrincipal(Authorizable authorizable) throws RepositoryException {
+        protected AuthorizableEntry processPrincipal(Session session, Authorizable authorizable)
+                throws RepositoryException {
             AuthorizableEntry authorizableEntry = new AuthorizableEntry();
             Principal principal = authorizable.getPrincipal();
-            Iterator<Group> groupIterator = authorizable.memberOf();
-            Iterator<Group> declaredMemberOf = authorizable.declaredMemberOf();
             authorizableEntry.id = authorizable.getID();
             authorizableEntry.path = authorizable.getPath();
             authorizableEntry.principalName = principal.getName();
-            authorizableEntry.memberOf = getIDs(groupIterator);
-            authorizableEntry.declaredMemberOf = getIDs(declaredMemberOf);
+            authorizableEntry.memberOf = getMemberOf(session, authorizable, false);
+            authorizableEntry.declaredMemberOf = getMemberOf(session, authorizable, true);
             authorizableEntry.isGroup = authorizable.isGroup();
             return authorizableEntry;
         }
+
+        @Override
+        protected Class<AuthorizableEntry> getEntryClass() {
+            return AuthorizableEntry.class;
+        }
     }
 
     public static class GetUsers extends GetAuthorizables<User, UserEntry> {
         public GetUsers() {
-            super(User.class);
+            this(null);
+        }
+
+        public GetUsers(MembershipService membership) {
+            super(User.class, membership);
+        }
+
+        @Override
+        protected UserEntry processPrincipal(Session session, User user) throws RepositoryException {
+            return UserEntry.fromUser(user, membership, session);
         }
 
         @Override
-        protected UserEntry processPrincipal(User user) throws RepositoryException {
-            return UserEntry.fromUser(user);
+        protected Class<UserEntry> getEntryClass() {
+            return UserEntry.class;
         }
     }
 
     public static class GetGroups extends GetAuthorizables<Group, GroupEntry> {
 
         public GetGroups() {
-            super(Group.class);
+            this(null);
+        }
+
+        public GetGroups(MembershipService membership) {
+            super(Group.class, membership);
         }
 
         @Override
-        protected GroupEntry processPrincipal(Group group) throws RepositoryException {
+        protected GroupEntry processPrincipal(Session session, Group group) throws RepositoryException {
             GroupEntry groupEntry = new GroupEntry();
             Principal principal = group.getPrincipal();
-            Iterator<Group> groupIterator = group.memberOf();
-            Iterator<Group> declaredMemberOf = group.declaredMemberOf();
             Iterator<String> propertyNames = group.getPropertyNames();
             groupEntry.id = group.getID();
             groupEntry.path = group.getPath();
             groupEntry.principalName = principal.getName();
-            groupEntry.memberOf = getIDs(groupIterator);
-            groupEntry.declaredMemberOf = getIDs(declaredMemberOf);
+            groupEntry.memberOf = getMemberOf(session, group, false);
+            groupEntry.declaredMemberOf = getMemberOf(session, group, true);
             groupEntry.isGroup = true;
             return groupEntry;
         }
+
+        @Override
+        protected Class<GroupEntry> getEntryClass() {
+            return GroupEntry.class;
+        }
     }
 }
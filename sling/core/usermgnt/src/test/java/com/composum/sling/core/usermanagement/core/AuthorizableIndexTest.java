@@ -0,0 +1,162 @@
+package com.composum.sling.core.usermanagement.core;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the level loading, the level listing and the invalidation of the {@link AuthorizableIndex}.
+ */
+public class AuthorizableIndexTest {
+
+    @Rule
+    public final ErrorCollector ec = new ErrorCollector();
+
+    /** folder path -> children; the content of the 'repository' */
+    protected final Map<String, List<AuthorizableIndex.Entry>> content = new HashMap<>();
+
+    /** the paths of the levels loaded by the index */
+    protected final List<String> loads = new ArrayList<>();
+
+    protected AuthorizableIndex index;
+
+    @Before
+    public void setup() {
+        content.put("/home", Arrays.asList(folder("/home/users"), folder("/home/groups")));
+        content.put("/home/users", Arrays.asList(
+                user("/home/users/z", "zoe"), folder("/home/users/system"), user("/home/users/a", "alice")));
+        content.put("/home/users/system", Collections.singletonList(user("/home/users/system/s", "service")));
+        content.put("/home/groups", Collections.singletonList(group("/home/groups/e", "editors")));
+        index = new AuthorizableIndex(new AuthorizableIndex.Loader() {
+            @Override
+            public List<AuthorizableIndex.Entry> load(String path) {
+                loads.add(path);
+                return content.get(path);
+            }
+        }, AuthorizableIndex.DEFAULT_ROOT_PATH);
+    }
+
+    @Test
+    public void levelListing() {
+        ec.checkThat(paths(index.getChildren("/home")), is(list("/home/groups", "/home/users")));
+        ec.checkThat(paths(index.getChildren("/home/users/")),
+                is(list("/home/users/system", "/home/users/a", "/home/users/z")));
+        ec.checkThat(index.getChildren("/home/users/a"), nullValue());
+        ec.checkThat(index.getEntry("/home/users/a").getId(), is("alice"));
+        ec.checkThat(index.getEntry("/home/users/system").isFolder(), is(true));
+        ec.checkThat(index.getEntry("/home/users/x"), nullValue());
+        ec.checkThat(index.getEntry("/home"), nullValue());
+    }
+
+    @Test
+    public void ancestorsOfTheRoot() {
+        ec.checkThat(paths(index.getChildren("/")), is(list("/home")));
+        ec.checkThat(index.getChildren("/content"), nullValue());
+        ec.checkThat(index.isIndexed("/home/users"), is(true));
+        ec.checkThat(index.isIndexed("/homepage"), is(false));
+        ec.checkThat(loads, is(list()));
+    }
+
+    @Test
+    public void levelsLoadedOnce() {
+        index.getChildren("/home/users");
+        index.getChildren("/home/users");
+        index.getEntry("/home/users/a");
+        ec.checkThat(loads, is(list("/home/users")));
+    }
+
+    @Test
+    public void invalidation() {
+        index.getChildren("/home");
+        index.getChildren("/home/users");
+        index.getChildren("/home/users/system");
+        index.getChildren("/home/groups");
+        loads.clear();
+        index.invalidate("/home/users");
+        index.getChildren("/home");
+        index.getChildren("/home/users");
+        index.getChildren("/home/users/system");
+        index.getChildren("/home/groups");
+        ec.checkThat(loads, is(list("/home", "/home/users", "/home/users/system")));
+        loads.clear();
+        index.clear();
+        index.getChildren("/home/groups");
+        ec.checkThat(loads, is(list("/home/groups")));
+    }
+
+    @Test
+    public void changeEvents() throws RepositoryException {
+        index.getChildren("/home/users");
+        index.getChildren("/home/groups");
+        loads.clear();
+        index.onEvent(events(event(Event.PROPERTY_CHANGED, "/home/users/a/rep:disabled", null)));
+        index.getChildren("/home/users");
+        index.getChildren("/home/groups");
+        ec.checkThat(loads, is(list("/home/users")));
+        loads.clear();
+        index.onEvent(events(event(Event.NODE_MOVED, "/home/groups/e", "/home/users/e")));
+        index.getChildren("/home/users");
+        index.getChildren("/home/groups");
+        ec.checkThat(loads, is(list("/home/users", "/home/groups")));
+    }
+
+    protected static AuthorizableIndex.Entry folder(String path) {
+        return new AuthorizableIndex.Entry(path);
+    }
+
+    protected static AuthorizableIndex.Entry user(String path, String id) {
+        return new AuthorizableIndex.Entry(path, id, AuthorizableIndex.Type.user, false, false);
+    }
+
+    protected static AuthorizableIndex.Entry group(String path, String id) {
+        return new AuthorizableIndex.Entry(path, id, AuthorizableIndex.Type.group, false, false);
+    }
+
+    protected static List<String> list(String... values) {
+        return Arrays.asList(values);
+    }
+
+    protected static List<String> paths(List<AuthorizableIndex.Entry> entries) {
+        List<String> result = new ArrayList<>();
+        for (AuthorizableIndex.Entry entry : entries) {
+            result.add(entry.getPath());
+        }
+        return result;
+    }
+
+    protected static Event event(int type, String path, String source) throws RepositoryException {
+        Event event = mock(Event.class);
+        when(event.getType()).thenReturn(type);
+        when(event.getPath()).thenReturn(path);
+        if (source != null) {
+            when(event.getInfo()).thenReturn(Collections.singletonMap("srcAbsPath", source));
+        }
+        return event;
+    }
+
+    protected static EventIterator events(Event... events) {
+        EventIterator iterator = mock(EventIterator.class);
+        Boolean[] more = new Boolean[events.length];
+        Arrays.fill(more, Boolean.TRUE);
+        more[more.length - 1] = Boolean.FALSE;
+        when(iterator.hasNext()).thenReturn(true, more);
+        when(iterator.nextEvent()).thenReturn(events[0], Arrays.copyOfRange(events, 1, events.length));
+        return iterator;
+    }
+}
@@ -0,0 +1,132 @@
+package com.composum.sling.core.usermanagement.core;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+
+/**
+ * Tests for the declared and transitive memberships of the {@link MembershipGraph}.
+ */
+public class MembershipGraphTest {
+
+    @Rule
+    public final ErrorCollector ec = new ErrorCollector();
+
+    protected MembershipGraph graph;
+
+    @Before
+    public void setup() {
+        graph = new MembershipGraph();
+    }
+
+    @Test
+    public void nestedGroups() {
+        graph.setGroup(ref("editors"), refs("alice", "authors"), false);
+        graph.setGroup(ref("authors"), refs("bob"), false);
+        ec.checkThat(ids(graph.getMemberOf("bob", true)), is(list("authors")));
+        ec.checkThat(ids(graph.getMemberOf("bob", false)), is(list("authors", "editors")));
+        ec.checkThat(ids(graph.getMemberOf("alice", false)), is(list("editors")));
+        ec.checkThat(ids(graph.getMembers("editors", true)), is(list("alice", "authors")));
+        ec.checkThat(ids(graph.getMembers("editors", false)), is(list("alice", "authors", "bob")));
+        ec.checkThat(ids(graph.getMembers("unknown", false)), is(list()));
+        ec.checkThat(graph.size(), is(4));
+    }
+
+    @Test
+    public void changedGroup() {
+        graph.setGroup(ref("editors"), refs("authors"), false);
+        graph.setGroup(ref("authors"), refs("bob"), false);
+        ec.checkThat(ids(graph.getMemberOf("bob", false)), is(list("authors", "editors")));
+        graph.setGroup(ref("authors"), refs("alice"), false);
+        ec.checkThat(ids(graph.getMemberOf("bob", false)), is(list()));
+        ec.checkThat(ids(graph.getMemberOf("alice", false)), is(list("authors", "editors")));
+        ec.checkThat(ids(graph.getMembers("editors", false)), is(list("alice", "authors")));
+    }
+
+    @Test
+    public void cycles() {
+        graph.setGroup(ref("a"), refs("b", "alice"), false);
+        graph.setGroup(ref("b"), refs("c"), false);
+        graph.setGroup(ref("c"), refs("a"), false);
+        ec.checkThat(ids(graph.getMemberOf("a", false)), is(list("b", "c")));
+        ec.checkThat(ids(graph.getMemberOf("alice", false)), is(list("a", "b", "c")));
+        ec.checkThat(ids(graph.getMembers("a", false)), is(list("alice", "b", "c")));
+        ec.checkThat(ids(graph.getMembers("c", true)), is(list("a")));
+    }
+
+    @Test
+    public void removal() {
+        graph.setGroup(ref("editors"), refs("alice", "authors"), false);
+        graph.setGroup(ref("authors"), refs("bob"), false);
+        ec.checkThat(graph.contains(path("authors")), is(true));
+        graph.remove(path("authors"));
+        ec.checkThat(graph.contains(path("authors")), is(false));
+        ec.checkThat(ids(graph.getMemberOf("bob", false)), is(list()));
+        ec.checkThat(ids(graph.getMembers("editors", false)), is(list("alice")));
+        ec.checkThat(ids(graph.getMembers("authors", false)), is(list()));
+        graph.remove(path("unknown"));
+        ec.checkThat(graph.size(), is(3));
+    }
+
+    @Test
+    public void everyone() {
+        graph.setGroup(ref("everyone"), Collections.<MembershipGraph.Ref>emptyList(), true);
+        graph.setGroup(ref("editors"), refs("alice"), false);
+        graph.setGroup(ref("readers"), refs("everyone"), false);
+        ec.checkThat(ids(graph.getMemberOf("alice", true)), is(list("editors", "everyone")));
+        ec.checkThat(ids(graph.getMemberOf("alice", false)), is(list("editors", "everyone", "readers")));
+        ec.checkThat(ids(graph.getMemberOf("unknown", false)), is(list("everyone")));
+        ec.checkThat(ids(graph.getMemberOf("everyone", false)), is(list("readers")));
+        ec.checkThat(graph.getMembers("everyone", false), nullValue());
+        ec.checkThat(graph.getMembers("readers", false), nullValue());
+        ec.checkThat(ids(graph.getMembers("readers", true)), is(list("everyone")));
+        ec.checkThat(ids(graph.getMembers("editors", false)), is(list("alice")));
+    }
+
+    @Test
+    public void clear() {
+        graph.setGroup(ref("editors"), refs("alice"), false);
+        graph.clear();
+        ec.checkThat(graph.size(), is(0));
+        ec.checkThat(ids(graph.getMemberOf("alice", false)), is(list()));
+    }
+
+    protected static String path(String id) {
+        return "/home/groups/" + id;
+    }
+
+    protected static MembershipGraph.Ref ref(String id) {
+        return new MembershipGraph.Ref(id, path(id));
+    }
+
+    protected static List<MembershipGraph.Ref> refs(String... ids) {
+        List<MembershipGraph.Ref> result = new ArrayList<>();
+        for (String id : ids) {
+            result.add(ref(id));
+        }
+        return result;
+    }
+
+    protected static List<String> list(String... ids) {
+        return Arrays.asList(ids);
+    }
+
+    /** @return the sorted IDs of the authorizables */
+    protected static List<String> ids(List<MembershipGraph.Ref> refs) {
+        List<String> result = new ArrayList<>();
+        for (MembershipGraph.Ref ref : refs) {
+            result.add(ref.getId());
+        }
+        Collections.sort(result);
+        return result;
+    }
+}